@@ -0,0 +1,162 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.signer;
+
+import java.security.MessageDigest;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures signing a page of course links, with the signer and with the usual
+ * hand-written portal code (string concatenation and a new digest per link) for
+ * comparison.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SsoSignerBenchmark {
+
+    private static final String SECRET = "benchmark-shared-secret";
+    private static final String[] MAC_PARAMETERS = { "courseId", "forward" };
+
+    @Param({ "SECURE", "INSECURE" })
+    public MacAlgorithm algorithm;
+
+    @Param({ "50", "1000" })
+    public int linksPerPage;
+
+    private SsoSigner signer;
+    private LinkParameters[] links;
+    private String[] courseIds;
+    private String timestamp;
+    private char[] macs;
+
+    @Setup
+    public void setUp() throws Exception {
+        signer = new SsoSigner(SECRET, new MacScheme("timestamp", "userId", MAC_PARAMETERS), algorithm);
+        timestamp = Long.toString(System.currentTimeMillis());
+        courseIds = new String[linksPerPage];
+        links = new LinkParameters[linksPerPage];
+        for(int i = 0; i < linksPerPage; i++) {
+            courseIds[i] = "COURSE-2024-FALL-" + i;
+            links[i] = new LinkParameters().put("timestamp", timestamp).put("userId", "benchmark.user")
+                    .put("courseId", courseIds[i]).put("forward", "/webapps/blackboard/execute/launcher");
+        }
+        macs = new char[linksPerPage * SsoSigner.MAC_LENGTH];
+
+        if(!signer.sign(links[0]).equals(naiveMac(courseIds[0]))) {
+            throw new IllegalStateException("Signer and hand-written MAC disagree");
+        }
+    }
+
+    /**
+     * A page of links prepared up front, signed in one batch.
+     */
+    @Benchmark
+    public char[] signAll() {
+        signer.signAll(links, macs);
+        return macs;
+    }
+
+    /**
+     * A page of links signed one at a time, reusing one set of parameters.
+     */
+    @Benchmark
+    public char[] signReusingParameters() {
+        final LinkParameters link = links[0];
+        int offset = 0;
+        for(int i = 0; i < linksPerPage; i++) {
+            link.put("courseId", courseIds[i]);
+            offset = signer.sign(link, macs, offset);
+        }
+        return macs;
+    }
+
+    /**
+     * A page of links signed the way portals usually do it.
+     */
+    @Benchmark
+    public String naive() throws Exception {
+        String mac = null;
+        for(int i = 0; i < linksPerPage; i++) {
+            mac = naiveMac(courseIds[i]);
+        }
+        return mac;
+    }
+
+    private String naiveMac(final String courseId) throws Exception {
+        final TreeMap<String, String> parameters = new TreeMap<String, String>();
+        parameters.put("timestamp", timestamp);
+        parameters.put("userId", "benchmark.user");
+        parameters.put("courseId", courseId);
+        parameters.put("forward", "/webapps/blackboard/execute/launcher");
+
+        String data = "";
+        if(MacAlgorithm.SECURE == algorithm) {
+            for(String value : parameters.values()) {
+                data += value;
+            }
+        } else {
+            int sum = 0;
+            final String values = timestamp + "benchmark.user" + courseId + "/webapps/blackboard/execute/launcher";
+            for(int i = 0; i < values.length(); i++) {
+                sum += values.charAt(i);
+            }
+            data += sum;
+        }
+
+        final byte[] hash = MessageDigest.getInstance("MD5").digest((data + SECRET).getBytes("UTF-8"));
+        final StringBuilder hex = new StringBuilder();
+        for(byte b : hash) {
+            hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        }
+        return hex.toString();
+    }
+
+}
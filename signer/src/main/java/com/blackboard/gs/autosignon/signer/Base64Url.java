@@ -0,0 +1,121 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.signer;
+
+/**
+ * URL-safe base64 without padding (RFC 4648, section 5), to and from reused
+ * buffers.
+ *
+ */
+final class Base64Url {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+    static {
+        java.util.Arrays.fill(VALUES, (byte) -1);
+        for(int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private Base64Url() {
+    }
+
+    /**
+     * Returns the number of characters that <code>length</code> bytes encode to.
+     */
+    static int encodedLength(final int length) {
+        return (length * 4 + 2) / 3;
+    }
+
+    /**
+     * Returns the number of bytes that <code>length</code> characters decode to.
+     */
+    static int decodedLength(final int length) {
+        return length * 3 / 4;
+    }
+
+    static void encode(final byte[] source, final int length, final StringBuilder target) {
+        int i = 0;
+        for(; i + 3 <= length; i += 3) {
+            final int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | (source[i + 2] & 0xff);
+            target.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3f])
+                    .append(ALPHABET[(bits >>> 6) & 0x3f]).append(ALPHABET[bits & 0x3f]);
+        }
+        if(length - i == 1) {
+            final int bits = (source[i] & 0xff) << 16;
+            target.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3f]);
+        } else if(length - i == 2) {
+            final int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8;
+            target.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3f]).append(ALPHABET[(bits >>> 6) & 0x3f]);
+        }
+    }
+
+    /**
+     * Decodes into the target, which must hold {@link #decodedLength(int)} bytes.
+     *
+     * @return the number of bytes decoded, or -1 if the source isn't valid
+     */
+    static int decode(final CharSequence source, final byte[] target) {
+        final int length = source.length();
+        if(length % 4 == 1) {
+            return -1;
+        }
+        int bits = 0;
+        int count = 0;
+        int position = 0;
+        for(int i = 0; i < length; i++) {
+            final char c = source.charAt(i);
+            final int value = c < 128 ? VALUES[c] : -1;
+            if(value < 0) {
+                return -1;
+            }
+            bits = bits << 6 | value;
+            if(++count == 4) {
+                target[position++] = (byte) (bits >>> 16);
+                target[position++] = (byte) (bits >>> 8);
+                target[position++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if(count == 2) {
+            target[position++] = (byte) (bits >>> 4);
+        } else if(count == 3) {
+            target[position++] = (byte) (bits >>> 10);
+            target[position++] = (byte) (bits >>> 2);
+        }
+        return position;
+    }
+
+}
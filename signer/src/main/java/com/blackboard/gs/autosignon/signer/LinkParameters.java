@@ -0,0 +1,131 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.signer;
+
+/**
+ * A small, reusable set of link parameters, for signing many links without
+ * allocating a map per link: {@link #clear()} it and put the next link's values.
+ *
+ * Lookups are linear, which is faster than hashing for the handful of parameters
+ * an SSO link has. Not thread safe.
+ *
+ */
+public final class LinkParameters implements SignedParameters {
+
+    private String[] names;
+    private String[] values;
+    private int size;
+
+    public LinkParameters() {
+        this(8);
+    }
+
+    /**
+     * @param capacity
+     *         number of parameters expected per link
+     */
+    public LinkParameters(final int capacity) {
+        names = new String[Math.max(capacity, 1)];
+        values = new String[names.length];
+        size = 0;
+    }
+
+    /**
+     * Sets a parameter, replacing its previous value.
+     *
+     * @param name
+     * @param value
+     * @return this
+     */
+    public LinkParameters put(final String name, final String value) {
+        for(int i = 0; i < size; i++) {
+            if(names[i].equals(name)) {
+                values[i] = value;
+                return this;
+            }
+        }
+        if(size == names.length) {
+            final String[] newNames = new String[size * 2];
+            final String[] newValues = new String[size * 2];
+            System.arraycopy(names, 0, newNames, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            names = newNames;
+            values = newValues;
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+        return this;
+    }
+
+    public String get(final String name) {
+        for(int i = 0; i < size; i++) {
+            if(names[i].equals(name)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of parameters.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getName(final int index) {
+        return names[index];
+    }
+
+    public String getValue(final int index) {
+        return values[index];
+    }
+
+    /**
+     * Removes all parameters, keeping the space for reuse.
+     *
+     * @return this
+     */
+    public LinkParameters clear() {
+        for(int i = 0; i < size; i++) {
+            names[i] = null;
+            values[i] = null;
+        }
+        size = 0;
+        return this;
+    }
+
+}
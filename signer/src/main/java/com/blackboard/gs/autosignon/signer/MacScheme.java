@@ -0,0 +1,121 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.signer;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * This class defines which request parameters of an SSO link are signed: the
+ * timestamp, the user id and the configured optional MAC parameters. It is
+ * immutable, create one per configuration and share it between signers.
+ *
+ */
+public final class MacScheme {
+
+    private final String timestampParameter;
+    private final String userIdParameter;
+    private final String[] macParameters;
+
+    // the signed parameters ordered by name, without duplicates (secure MAC)
+    private final String[] sortedParameters;
+
+    /**
+     * @param timestampParameter
+     *         name of the timestamp request parameter
+     * @param userIdParameter
+     *         name of the user id request parameter
+     * @param macParameters
+     *         names of the optional request parameters that are signed too
+     */
+    public MacScheme(final String timestampParameter, final String userIdParameter, final String[] macParameters) {
+        if(null == timestampParameter || null == userIdParameter || null == macParameters) {
+            throw new IllegalArgumentException("Timestamp, user id and MAC parameter names are required");
+        }
+        this.timestampParameter = timestampParameter;
+        this.userIdParameter = userIdParameter;
+        this.macParameters = macParameters.clone();
+
+        final TreeSet<String> sorted = new TreeSet<String>();
+        sorted.add(timestampParameter);
+        sorted.add(userIdParameter);
+        sorted.addAll(Arrays.asList(macParameters));
+        this.sortedParameters = sorted.toArray(new String[sorted.size()]);
+    }
+
+    public String getTimestampParameter() {
+        return timestampParameter;
+    }
+
+    public String getUserIdParameter() {
+        return userIdParameter;
+    }
+
+    public String[] getMacParameters() {
+        return macParameters.clone();
+    }
+
+    /**
+     * Returns <code>true</code> if this scheme signs the same parameters, in the
+     * same order, as one created with these arguments.
+     *
+     * @param timestampParameter
+     * @param userIdParameter
+     * @param macParameters
+     * @return
+     */
+    public boolean matches(final String timestampParameter, final String userIdParameter, final String[] macParameters) {
+        return this.timestampParameter.equals(timestampParameter)
+                && this.userIdParameter.equals(userIdParameter)
+                && Arrays.equals(this.macParameters, macParameters);
+    }
+
+    /**
+     * Returns <code>true</code> if the parameter is one of the signed ones.
+     *
+     * @param name
+     * @return
+     */
+    public boolean isSigned(final String name) {
+        return Arrays.binarySearch(sortedParameters, name) >= 0;
+    }
+
+    String[] sortedParameters() {
+        return sortedParameters;
+    }
+
+    String[] macParameters() {
+        return macParameters;
+    }
+
+}
@@ -0,0 +1,361 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.signer;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * This class computes and verifies the MAC of AutoSignon SSO links. It is the one
+ * implementation of the MAC canonicalization: the building block validates
+ * incoming requests with it, and portals can use it to sign the links they render.
+ *
+ * A signer reuses its digest and buffers, so signing a link allocates nothing
+ * beyond the optional result string. That also means a signer is not thread safe;
+ * use one per thread (e.g. per page render), they are cheap to create.
+ *
+ * <pre>
+ * final SsoSigner signer = new SsoSigner(secret, new MacScheme("timestamp", "userId", new String[] { "courseId" }), MacAlgorithm.SECURE);
+ * final LinkParameters link = new LinkParameters();
+ * for(...) {
+ *     link.clear().put("timestamp", timestamp).put("userId", userId).put("courseId", courseId);
+ *     url.append("&amp;auth=");
+ *     signer.appendMac(link, url);
+ * }
+ * </pre>
+ *
+ */
+public final class SsoSigner {
+
+    /**
+     * Length of a MAC: an MD5 digest as lower case hex.
+     */
+    public static final int MAC_LENGTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int DIGEST_LENGTH = 16;
+    private static final int SCRATCH_SIZE = 512;
+
+    private final MacScheme scheme;
+    private final MacAlgorithm algorithm;
+    private final String sharedSecret;
+
+    private final MessageDigest digest;
+    private final byte[] scratch;
+    private final byte[] hash;
+    private final char[] mac;
+    private int position;
+    // a high surrogate waiting for the next character, or 0
+    private char highSurrogate;
+
+    /**
+     * @param sharedSecret
+     *         secret shared with the building block
+     * @param scheme
+     *         the parameters to sign
+     * @param algorithm
+     */
+    public SsoSigner(final String sharedSecret, final MacScheme scheme, final MacAlgorithm algorithm) {
+        if(null == scheme || null == algorithm) {
+            throw new IllegalArgumentException("Scheme and algorithm are required");
+        }
+        // a missing secret has always been signed as the string "null"
+        this.sharedSecret = String.valueOf(sharedSecret);
+        this.scheme = scheme;
+        this.algorithm = algorithm;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+        scratch = new byte[SCRATCH_SIZE];
+        hash = new byte[DIGEST_LENGTH];
+        mac = new char[MAC_LENGTH];
+        position = 0;
+    }
+
+    public MacScheme getScheme() {
+        return scheme;
+    }
+
+    public MacAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns <code>true</code> if this signer uses the given secret.
+     *
+     * @param sharedSecret
+     * @return
+     */
+    public boolean hasSecret(final String sharedSecret) {
+        return this.sharedSecret.equals(String.valueOf(sharedSecret));
+    }
+
+    /**
+     * Writes the MAC of a link, {@link #MAC_LENGTH} characters, into the target.
+     *
+     * @param parameters
+     * @param target
+     * @param offset
+     * @return the offset after the MAC
+     */
+    public int sign(final SignedParameters parameters, final char[] target, final int offset) {
+        computeHash(parameters);
+        for(int i = 0; i < DIGEST_LENGTH; i++) {
+            target[offset + 2 * i] = HEX[(hash[i] >> 4) & 0x0f];
+            target[offset + 2 * i + 1] = HEX[hash[i] & 0x0f];
+        }
+        return offset + MAC_LENGTH;
+    }
+
+    /**
+     * Returns the MAC of a link.
+     *
+     * @param parameters
+     * @return
+     */
+    public String sign(final SignedParameters parameters) {
+        sign(parameters, mac, 0);
+        return new String(mac);
+    }
+
+    /**
+     * Appends the MAC of a link, e.g. to the link being built.
+     *
+     * @param parameters
+     * @param target
+     * @return the target
+     */
+    public StringBuilder appendMac(final SignedParameters parameters, final StringBuilder target) {
+        sign(parameters, mac, 0);
+        return target.append(mac);
+    }
+
+    /**
+     * Signs a batch of links, writing the MAC of link <code>i</code> at
+     * <code>i * MAC_LENGTH</code> in the target.
+     *
+     * @param links
+     * @param target
+     *         at least <code>links.length * MAC_LENGTH</code> characters
+     */
+    public void signAll(final SignedParameters[] links, final char[] target) {
+        if(target.length < links.length * MAC_LENGTH) {
+            throw new IllegalArgumentException("Target too small for " + links.length + " MACs");
+        }
+        int offset = 0;
+        for(SignedParameters link : links) {
+            offset = sign(link, target, offset);
+        }
+    }
+
+    /**
+     * Signs a batch of links.
+     *
+     * @param links
+     * @return the MACs, in the order of the links
+     */
+    public String[] signAll(final SignedParameters[] links) {
+        final String[] macs = new String[links.length];
+        for(int i = 0; i < links.length; i++) {
+            macs[i] = sign(links[i]);
+        }
+        return macs;
+    }
+
+    /**
+     * Returns <code>true</code> if the MAC is the one of the link. Hex case is
+     * ignored.
+     *
+     * @param parameters
+     * @param requestMac
+     *         the MAC sent with the link, may be <code>null</code>
+     * @return
+     */
+    public boolean verify(final SignedParameters parameters, final String requestMac) {
+        if(null == requestMac || MAC_LENGTH != requestMac.length()) {
+            return false;
+        }
+        sign(parameters, mac, 0);
+        // look at every character, so the time taken doesn't tell how much matched
+        int difference = 0;
+        for(int i = 0; i < MAC_LENGTH; i++) {
+            difference |= mac[i] ^ Character.toLowerCase(requestMac.charAt(i));
+        }
+        return 0 == difference;
+    }
+
+    /**
+     * Returns the string the MAC of a link is calculated over, without the shared
+     * secret. For finding out why a portal and the building block disagree.
+     *
+     * @param parameters
+     * @return
+     */
+    public String canonicalInput(final SignedParameters parameters) {
+        final StringBuilder buffer = new StringBuilder(64);
+        if(MacAlgorithm.SECURE == algorithm) {
+            for(String name : scheme.sortedParameters()) {
+                final String value = parameters.get(name);
+                if(null != value) {
+                    buffer.append(value);
+                }
+            }
+        } else {
+            buffer.append(asciiSum(parameters));
+        }
+        return buffer.toString();
+    }
+
+    private void computeHash(final SignedParameters parameters) {
+        position = 0;
+        highSurrogate = 0;
+        if(MacAlgorithm.SECURE == algorithm) {
+            for(String name : scheme.sortedParameters()) {
+                final String value = parameters.get(name);
+                if(null != value) {
+                    update(value);
+                }
+            }
+        } else {
+            updateDecimal(asciiSum(parameters));
+        }
+        update(sharedSecret);
+        finish();
+    }
+
+    private int asciiSum(final SignedParameters parameters) {
+        // the required parameters count as "null" when missing, the optional ones not at all
+        int sum = sum(String.valueOf(parameters.get(scheme.getTimestampParameter())));
+        sum += sum(String.valueOf(parameters.get(scheme.getUserIdParameter())));
+        for(String name : scheme.macParameters()) {
+            final String value = parameters.get(name);
+            if(null != value) {
+                sum += sum(value);
+            }
+        }
+        return sum;
+    }
+
+    private static int sum(final String value) {
+        int sum = 0;
+        for(int i = 0; i < value.length(); i++) {
+            sum += value.charAt(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Feeds a string to the digest as UTF-8. The bytes are the same as those of
+     * <code>String.getBytes("UTF-8")</code> on everything fed so far, concatenated:
+     * a surrogate pair can span two strings, unpaired surrogates become <code>?</code>.
+     */
+    private void update(final String value) {
+        final int length = value.length();
+        for(int i = 0; i < length; i++) {
+            if(position > SCRATCH_SIZE - 4) {
+                flushBytes();
+            }
+            final char c = value.charAt(i);
+            if(0 != highSurrogate) {
+                if(Character.isLowSurrogate(c)) {
+                    final int codePoint = Character.toCodePoint(highSurrogate, c);
+                    highSurrogate = 0;
+                    scratch[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    scratch[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    scratch[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    scratch[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                    continue;
+                }
+                highSurrogate = 0;
+                scratch[position++] = '?';
+            }
+            if(c < 0x80) {
+                scratch[position++] = (byte) c;
+            } else if(c < 0x800) {
+                scratch[position++] = (byte) (0xc0 | (c >> 6));
+                scratch[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if(Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if(Character.isLowSurrogate(c)) {
+                scratch[position++] = '?';
+            } else {
+                scratch[position++] = (byte) (0xe0 | (c >> 12));
+                scratch[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                scratch[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void updateDecimal(final int value) {
+        if(position > SCRATCH_SIZE - 11) {
+            flushBytes();
+        }
+        long remaining = value;
+        if(remaining < 0) {
+            scratch[position++] = '-';
+            remaining = -remaining;
+        }
+        final int start = position;
+        do {
+            scratch[position++] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while(0 != remaining);
+        for(int i = start, j = position - 1; i < j; i++, j--) {
+            final byte digit = scratch[i];
+            scratch[i] = scratch[j];
+            scratch[j] = digit;
+        }
+    }
+
+    private void finish() {
+        if(0 != highSurrogate) {
+            highSurrogate = 0;
+            scratch[position++] = '?';
+        }
+        flushBytes();
+        try {
+            digest.digest(hash, 0, DIGEST_LENGTH);
+        } catch(DigestException e) {
+            throw new IllegalStateException("Failed to calculate MAC", e);
+        }
+    }
+
+    private void flushBytes() {
+        digest.update(scratch, 0, position);
+        position = 0;
+    }
+
+}
@@ -0,0 +1,100 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.signer;
+
+/**
+ * The fields of a verified SSO token (see {@link SsoTokenCodec}): the timestamp,
+ * the user id and the other signed request parameters, in the order the portal
+ * wrote them.
+ *
+ */
+public final class SsoToken {
+
+    private final long timestamp;
+    private final String userId;
+    private final String[] names;
+    private final String[] values;
+
+    SsoToken(final long timestamp, final String userId, final String[] names, final String[] values) {
+        this.timestamp = timestamp;
+        this.userId = userId;
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * Returns the timestamp, in milliseconds since the epoch.
+     *
+     * @return
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Returns the value of a signed parameter.
+     *
+     * @param name
+     * @return the value, or <code>null</code> if the token doesn't have the parameter
+     */
+    public String get(final String name) {
+        for(int i = 0; i < names.length; i++) {
+            if(names[i].equals(name)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of signed parameters, besides the timestamp and user id.
+     *
+     * @return
+     */
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(final int index) {
+        return names[index];
+    }
+
+    public String getValue(final int index) {
+        return values[index];
+    }
+
+}
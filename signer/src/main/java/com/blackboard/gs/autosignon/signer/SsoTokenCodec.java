@@ -0,0 +1,270 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.signer;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class writes and reads SSO tokens: all signed fields of an SSO link in one
+ * URL-safe request parameter, instead of one parameter each plus a MAC. A token is
+ * read in a single pass, there is nothing to sort or look up.
+ *
+ * The token is the URL-safe base64 (without padding) of these bytes, numbers
+ * big-endian, strings UTF-8:
+ *
+ * <pre>
+ *  size  field
+ *     1  format version (1)
+ *     8  timestamp (ms since epoch)
+ *     2  user id length, then the user id
+ *        then per additional signed parameter:
+ *     1    name length, then the name
+ *     2    value length, then the value
+ *    16  HMAC-SHA256 of all bytes above, keyed with the shared secret, truncated
+ * </pre>
+ *
+ * A codec reuses its buffers and MAC, so it is not thread safe; use one per thread.
+ *
+ */
+public final class SsoTokenCodec {
+
+    public static final int VERSION = 1;
+
+    /**
+     * Longest token accepted, in characters.
+     */
+    public static final int MAX_TOKEN_LENGTH = 4096;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String HMAC = "HmacSHA256";
+    private static final int TAG_LENGTH = 16;
+    private static final int MIN_LENGTH = 1 + 8 + 2 + TAG_LENGTH;
+    private static final int MAX_NAME_LENGTH = 0xff;
+    private static final int MAX_VALUE_LENGTH = 0xffff;
+    private static final String[] NO_STRINGS = new String[0];
+
+    private final String sharedSecret;
+    private final Mac mac;
+    private final byte[] tag;
+    private byte[] buffer;
+
+    /**
+     * @param sharedSecret
+     *         secret shared with the building block, not empty
+     */
+    public SsoTokenCodec(final String sharedSecret) {
+        if(null == sharedSecret || 0 == sharedSecret.length()) {
+            throw new IllegalArgumentException("A shared secret is required");
+        }
+        this.sharedSecret = sharedSecret;
+        try {
+            mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(sharedSecret.getBytes(UTF_8), HMAC));
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC + " is not available", e);
+        }
+        tag = new byte[mac.getMacLength()];
+        buffer = new byte[512];
+    }
+
+    /**
+     * Returns <code>true</code> if this codec uses the given secret.
+     *
+     * @param sharedSecret
+     * @return
+     */
+    public boolean hasSecret(final String sharedSecret) {
+        return this.sharedSecret.equals(sharedSecret);
+    }
+
+    /**
+     * Returns a token for a sign-on.
+     *
+     * @param timestamp
+     *         ms since epoch
+     * @param userId
+     * @param parameters
+     *         the additional parameters to sign, may be <code>null</code>
+     * @return
+     */
+    public String encode(final long timestamp, final String userId, final LinkParameters parameters) {
+        return appendToken(timestamp, userId, parameters, new StringBuilder(128)).toString();
+    }
+
+    /**
+     * Appends a token for a sign-on, e.g. to the link being built.
+     *
+     * @param timestamp
+     *         ms since epoch
+     * @param userId
+     * @param parameters
+     *         the additional parameters to sign, may be <code>null</code>
+     * @param target
+     * @return the target
+     */
+    public StringBuilder appendToken(final long timestamp, final String userId, final LinkParameters parameters, final StringBuilder target) {
+        if(null == userId) {
+            throw new IllegalArgumentException("A user id is required");
+        }
+        int position = 0;
+        ensureCapacity(position + 9);
+        buffer[position++] = VERSION;
+        for(int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (timestamp >>> shift);
+        }
+        position = putString(position, userId, 2, MAX_VALUE_LENGTH);
+        final int size = null == parameters ? 0 : parameters.size();
+        for(int i = 0; i < size; i++) {
+            if(null != parameters.getValue(i)) {
+                position = putString(position, parameters.getName(i), 1, MAX_NAME_LENGTH);
+                position = putString(position, parameters.getValue(i), 2, MAX_VALUE_LENGTH);
+            }
+        }
+
+        ensureCapacity(position + TAG_LENGTH);
+        computeTag(position);
+        System.arraycopy(tag, 0, buffer, position, TAG_LENGTH);
+        position += TAG_LENGTH;
+
+        Base64Url.encode(buffer, position, target);
+        return target;
+    }
+
+    /**
+     * Reads and verifies a token.
+     *
+     * @param token
+     * @return the token's fields, or <code>null</code> if it is malformed or its MAC is wrong
+     */
+    public SsoToken decode(final String token) {
+        if(null == token || token.length() > MAX_TOKEN_LENGTH) {
+            return null;
+        }
+        ensureCapacity(Base64Url.decodedLength(token.length()) + 1);
+        final int length = Base64Url.decode(token, buffer);
+        if(length < MIN_LENGTH || VERSION != buffer[0]) {
+            return null;
+        }
+
+        final int end = length - TAG_LENGTH;
+        computeTag(end);
+        int difference = 0;
+        for(int i = 0; i < TAG_LENGTH; i++) {
+            difference |= tag[i] ^ buffer[end + i];
+        }
+        if(0 != difference) {
+            return null;
+        }
+
+        int position = 1;
+        long timestamp = 0;
+        for(int i = 0; i < 8; i++) {
+            timestamp = timestamp << 8 | (buffer[position++] & 0xff);
+        }
+        final int userIdLength = getLength(position, 2);
+        position += 2;
+        if(position + userIdLength > end) {
+            return null;
+        }
+        final String userId = new String(buffer, position, userIdLength, UTF_8);
+        position += userIdLength;
+
+        // count the parameters first, so the arrays are allocated once
+        int count = 0;
+        for(int scan = position; scan < end; count++) {
+            if(scan + 1 > end) {
+                return null;
+            }
+            scan += 1 + getLength(scan, 1);
+            if(scan + 2 > end) {
+                return null;
+            }
+            scan += 2 + getLength(scan, 2);
+            if(scan > end) {
+                return null;
+            }
+        }
+
+        final String[] names = 0 == count ? NO_STRINGS : new String[count];
+        final String[] values = 0 == count ? NO_STRINGS : new String[count];
+        for(int i = 0; i < count; i++) {
+            final int nameLength = getLength(position, 1);
+            names[i] = new String(buffer, position + 1, nameLength, UTF_8);
+            position += 1 + nameLength;
+            final int valueLength = getLength(position, 2);
+            values[i] = new String(buffer, position + 2, valueLength, UTF_8);
+            position += 2 + valueLength;
+        }
+        return new SsoToken(timestamp, userId, names, values);
+    }
+
+    private void computeTag(final int length) {
+        mac.update(buffer, 0, length);
+        try {
+            mac.doFinal(tag, 0);
+        } catch(ShortBufferException e) {
+            throw new IllegalStateException("Failed to calculate token MAC", e);
+        }
+    }
+
+    private int getLength(final int position, final int size) {
+        return 1 == size ? buffer[position] & 0xff : (buffer[position] & 0xff) << 8 | (buffer[position + 1] & 0xff);
+    }
+
+    private int putString(int position, final String value, final int lengthSize, final int maxLength) {
+        ensureCapacity(position + lengthSize + value.length() * 3);
+        final int length = Utf8.encode(value, buffer, position + lengthSize);
+        if(length > maxLength) {
+            throw new IllegalArgumentException("Too long for a token: " + value);
+        }
+        if(2 == lengthSize) {
+            buffer[position++] = (byte) (length >>> 8);
+        }
+        buffer[position++] = (byte) length;
+        return position + length;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if(buffer.length < capacity) {
+            final byte[] larger = new byte[Math.max(capacity, buffer.length * 2)];
+            System.arraycopy(buffer, 0, larger, 0, buffer.length);
+            buffer = larger;
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.signer;
+
+/**
+ * UTF-8 encoding into a reused buffer, producing the same bytes as
+ * <code>String.getBytes("UTF-8")</code> (unpaired surrogates become <code>?</code>).
+ *
+ */
+final class Utf8 {
+
+    private Utf8() {
+    }
+
+    /**
+     * Encodes a string into the target, which must have room for three bytes per
+     * character.
+     *
+     * @return the number of bytes written
+     */
+    static int encode(final String value, final byte[] target, final int offset) {
+        int position = offset;
+        final int length = value.length();
+        for(int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if(c < 0x80) {
+                target[position++] = (byte) c;
+            } else if(c < 0x800) {
+                target[position++] = (byte) (0xc0 | (c >> 6));
+                target[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if(Character.isSurrogate(c)) {
+                if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    target[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    target[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    target[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    target[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else {
+                    target[position++] = '?';
+                }
+            } else {
+                target[position++] = (byte) (0xe0 | (c >> 12));
+                target[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                target[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return position - offset;
+    }
+
+}
@@ -0,0 +1,86 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package blackboard.platform.plugin;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Stand-in for the Blackboard class of the same name, so benchmarks can run
+ * without a Blackboard installation. Every JVM gets its own, empty plugin
+ * directory under <code>java.io.tmpdir</code>.
+ *
+ */
+public class PlugInManagerFactory {
+
+    private static PlugInManager instance = null;
+    public static synchronized PlugInManager getInstance() {
+        if(null == instance) {
+            instance = new TempDirPlugInManager(createTempDir());
+        }
+        return instance;
+    }
+
+    private static File createTempDir() {
+        try {
+            final File dir = File.createTempFile("bbgs-plugin-", "");
+            if(!dir.delete() || !dir.mkdir()) {
+                throw new IOException("Failed to create plugin directory: " + dir);
+            }
+            return dir;
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hands out a single plugin directory, whatever plugin is asked for.
+     */
+    private static class TempDirPlugInManager implements PlugInManager {
+
+        private final File dir;
+
+        private TempDirPlugInManager(final File dir) {
+            this.dir = dir;
+        }
+
+        public PlugIn getPlugIn(final String vendorId, final String handle) {
+            return new PlugIn(vendorId, handle);
+        }
+
+        public File getPlugInDir(final PlugIn plugIn) {
+            return dir;
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blackboard.gs.autosignon.metrics.Outcome;
+
+/**
+ * Measures the course access decision made for every course forward, for each
+ * of its outcomes, and with the current time looked up as the action does.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CourseAccessPolicyBenchmark {
+
+    private long now;
+    private Calendar lastMonth;
+    private Calendar nextMonth;
+
+    @Setup
+    public void setUp() {
+        now = System.currentTimeMillis();
+        lastMonth = Calendar.getInstance();
+        lastMonth.add(Calendar.MONTH, -1);
+        nextMonth = Calendar.getInstance();
+        nextMonth.add(Calendar.MONTH, 1);
+    }
+
+    @Benchmark
+    public Outcome continuousAvailable() {
+        return CourseAccessPolicy.checkAvailability(true, false, true, null, null, now);
+    }
+
+    @Benchmark
+    public Outcome dateRangeCurrent() {
+        return CourseAccessPolicy.checkAvailability(false, true, true, lastMonth, nextMonth, now);
+    }
+
+    @Benchmark
+    public Outcome dateRangeNotStarted() {
+        return CourseAccessPolicy.checkAvailability(false, true, true, nextMonth, null, now);
+    }
+
+    @Benchmark
+    public Outcome dateRangeOver() {
+        return CourseAccessPolicy.checkAvailability(false, true, true, null, lastMonth, now);
+    }
+
+    @Benchmark
+    public Outcome dateRangeCurrentWithClock() {
+        return CourseAccessPolicy.checkAvailability(false, true, true, lastMonth, nextMonth, System.currentTimeMillis());
+    }
+
+}
@@ -0,0 +1,104 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures checking forward URLs against allowlists of a growing size, with the
+ * compiled trie and, for comparison, a plain scan over the prefixes.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ForwardAllowlistBenchmark {
+
+    @Param({ "10", "500" })
+    public int entries;
+
+    @Param({ "https://portal-7.example.edu/courses/2024/fall?tab=1", "/webapps/plugin-3/execute/launch?course_id=_123_1", "https://evil.example.com/phish" })
+    public String url;
+
+    private ForwardAllowlist allowlist;
+    private String[] prefixes;
+
+    @Setup
+    public void setUp() {
+        prefixes = new String[entries];
+        final StringBuilder setting = new StringBuilder();
+        for(int i = 0; i < entries; i++) {
+            // half other servers, half paths on this one
+            prefixes[i] = 0 == i % 2 ? "https://portal-" + i / 2 + ".example.edu/" : "/webapps/plugin-" + i / 2 + "/";
+            setting.append(prefixes[i]).append('\n');
+        }
+        allowlist = ForwardAllowlist.compile(setting.toString());
+        if(allowlist.size() != entries) {
+            throw new IllegalStateException("Allowlist has " + allowlist.size() + " entries, expected " + entries);
+        }
+    }
+
+    @Benchmark
+    public boolean trie() {
+        return allowlist.isAllowed(url);
+    }
+
+    /**
+     * The naive alternative, without any normalization (so it is not even correct).
+     */
+    @Benchmark
+    public boolean linearScan() {
+        for(String prefix : prefixes) {
+            if(url.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,215 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.signer.LinkParameters;
+import com.blackboard.gs.autosignon.signer.SsoTokenCodec;
+import com.blackboard.gs.settings.Setting;
+import com.blackboard.gs.settings.SettingsManager;
+
+/**
+ * Measures validating the MAC of a well-formed SSO request, for either algorithm
+ * or the token format, and a growing number of additional MAC parameters.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SecurityServiceBenchmark {
+
+    private static final String SECRET = "benchmark-shared-secret";
+    private static final String TOKEN = "Token";
+
+    @Param({ AutoSignonConfig.SECURE_MAC, AutoSignonConfig.INSECURE_MAC, TOKEN })
+    public String algorithm;
+
+    @Param({ "0", "4", "16" })
+    public int parameterCount;
+
+    private SecurityService securityService;
+    private Map<String, Object> attributes;
+    private HttpServletRequest request;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        final StringBuilder macParameters = new StringBuilder();
+        for(int i = 0; i < parameterCount; i++) {
+            if(i > 0) {
+                macParameters.append('\n');
+            }
+            macParameters.append("param").append(i);
+        }
+
+        final Map<Setting, String> settings = new EnumMap<Setting, String>(Setting.class);
+        settings.put(Setting.MAC_ALGORITHM, TOKEN.equals(algorithm) ? AutoSignonConfig.SECURE_MAC : algorithm);
+        settings.put(Setting.SSO_FORMAT, TOKEN.equals(algorithm) ? AutoSignonConfig.FORMAT_TOKEN : AutoSignonConfig.FORMAT_PARAMETERS);
+        settings.put(Setting.MAC_PARAMETERS, macParameters.toString());
+        settings.put(Setting.SHARED_SECRET, SECRET);
+        // never let the timestamp expire during a run
+        settings.put(Setting.TIMESTAMP_RANGE, Long.toString(TimeUnit.DAYS.toMillis(1)));
+        SettingsManager.getInstance().setSettings(settings);
+
+        final Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put(AutoSignonConfig.getTimestampRequestParameter(), Long.toString(System.currentTimeMillis()));
+        parameters.put(AutoSignonConfig.getUserIdRequestParameter(), "benchmark.user");
+        for(int i = 0; i < parameterCount; i++) {
+            parameters.put("param" + i, "value-" + i);
+        }
+        if(TOKEN.equals(algorithm)) {
+            parameters.put(AutoSignonConfig.getTokenRequestParameter(), token(parameters));
+        } else {
+            parameters.put(AutoSignonConfig.getMacRequestParameter(), expectedMac(parameters));
+        }
+
+        securityService = SecurityService.getInstance();
+        attributes = new HashMap<String, Object>();
+        request = createRequest(parameters, attributes);
+        if(!securityService.validateMacInRequest(request)) {
+            throw new IllegalStateException("Benchmark request does not carry a valid MAC");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        SettingsManager.getInstance().shutdown();
+    }
+
+    @Benchmark
+    public boolean validateMacInRequest() {
+        // a new request each time, with no parameters (or profile) selected yet
+        attributes.clear();
+        return securityService.validateMacInRequest(request);
+    }
+
+    /**
+     * Calculates the MAC the way a trusted system would, independently of SecurityService.
+     */
+    private String expectedMac(final Map<String, String> parameters) throws Exception {
+        final String timestamp = parameters.get(AutoSignonConfig.getTimestampRequestParameter());
+        final String userId = parameters.get(AutoSignonConfig.getUserIdRequestParameter());
+
+        final StringBuilder data = new StringBuilder();
+        if(AutoSignonConfig.SECURE_MAC.equals(algorithm)) {
+            final TreeMap<String, String> sorted = new TreeMap<String, String>(parameters);
+            for(String value : sorted.values()) {
+                data.append(value);
+            }
+        } else {
+            int sum = 0;
+            final StringBuilder values = new StringBuilder(timestamp).append(userId);
+            for(int i = 0; i < parameterCount; i++) {
+                values.append(parameters.get("param" + i));
+            }
+            for(int i = 0; i < values.length(); i++) {
+                sum += values.charAt(i);
+            }
+            data.append(sum);
+        }
+        data.append(SECRET);
+
+        final byte[] hash = MessageDigest.getInstance("MD5").digest(data.toString().getBytes("UTF-8"));
+        return new String(Hex.encodeHex(hash));
+    }
+
+    /**
+     * Moves the signed parameters into a token, the way a portal would.
+     */
+    private String token(final Map<String, String> parameters) {
+        final long timestamp = Long.parseLong(parameters.remove(AutoSignonConfig.getTimestampRequestParameter()));
+        final String userId = parameters.remove(AutoSignonConfig.getUserIdRequestParameter());
+        final LinkParameters signed = new LinkParameters();
+        for(int i = 0; i < parameterCount; i++) {
+            signed.put("param" + i, parameters.remove("param" + i));
+        }
+        return new SsoTokenCodec(SECRET).encode(timestamp, userId, signed);
+    }
+
+    /**
+     * Creates a request that only answers what SecurityService asks of it.
+     */
+    private static HttpServletRequest createRequest(final Map<String, String> parameters, final Map<String, Object> attributes) {
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        if("getParameter".equals(name)) {
+                            return parameters.get(args[0]);
+                        } else if("getAttribute".equals(name)) {
+                            return attributes.get(args[0]);
+                        } else if("setAttribute".equals(name)) {
+                            attributes.put((String) args[0], args[1]);
+                            return null;
+                        } else if("getServletPath".equals(name)) {
+                            return "/autoSignon.do";
+                        } else if("getRemoteAddr".equals(name)) {
+                            return "127.0.0.1";
+                        } else if("getHeader".equals(name)) {
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+}
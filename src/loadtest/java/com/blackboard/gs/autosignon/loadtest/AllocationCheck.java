@@ -0,0 +1,459 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.struts.action.ActionForward;
+import org.apache.struts.action.ActionMapping;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.audit.AuditLog;
+import com.blackboard.gs.autosignon.metrics.SsoMetrics;
+import com.blackboard.gs.autosignon.service.BlackboardServicesFactory;
+import com.blackboard.gs.autosignon.service.SecurityService;
+import com.blackboard.gs.autosignon.service.SsoParameters;
+import com.blackboard.gs.autosignon.signer.LinkParameters;
+import com.blackboard.gs.autosignon.signer.SsoTokenCodec;
+import com.blackboard.gs.autosignon.struts.actions.AutoSignonAction;
+import com.blackboard.gs.settings.Setting;
+import com.blackboard.gs.settings.Scheduler;
+import com.blackboard.gs.settings.SettingsManager;
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * Allocation regression check for the SSO request path: measures the bytes the
+ * current thread allocates per operation (through the HotSpot
+ * <code>ThreadMXBean</code> allocation counter) and fails if any operation allocates
+ * more than its recorded budget. The Blackboard services are the
+ * {@link FakeBlackboard} stand-ins without latency, so their own allocations are
+ * part of the numbers; creating the mock request and response is not.
+ *
+ * Budgets are read from <code>allocation-budgets.properties</code> next to this
+ * class. Run with <code>record=&lt;file&gt;</code> to write the measured values, plus
+ * some headroom, as new budgets instead of checking them. Exits with 1 if a budget
+ * is exceeded, 2 if allocation can't be measured on this JVM.
+ *
+ * Run it with <code>-XX:-DoEscapeAnalysis -XX:-OptimizeStringConcat</code> (the
+ * <code>allocationCheck</code> Gradle task does), otherwise what the JIT optimizes
+ * away, and so the numbers, can differ from one run to the next.
+ *
+ */
+public final class AllocationCheck {
+
+    private static final String BUDGETS = "allocation-budgets.properties";
+    private static final String SECRET = "allocation-check-shared-secret";
+
+    private static final int WARMUP_OPERATIONS = 50000;
+    private static final int MEASURED_OPERATIONS = 10000;
+    private static final int ROUNDS = 5;
+    // headroom added to measured values when recording budgets
+    private static final double RECORD_HEADROOM = 1.05;
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final long threadId;
+
+    private AllocationCheck(final com.sun.management.ThreadMXBean threads) {
+        this.threads = threads;
+        this.threadId = Thread.currentThread().getId();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        File recordFile = null;
+        for(String arg : args) {
+            if(arg.startsWith("record=")) {
+                recordFile = new File(arg.substring(7));
+            } else {
+                System.err.println("Usage: AllocationCheck [record=<budget file>]");
+                System.exit(1);
+            }
+        }
+
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            System.err.println("Thread allocation counters are not supported by this JVM");
+            System.exit(2);
+        }
+        ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+
+        if(null == System.getProperty(SettingsManager.CONFIG_DIR_PROPERTY)) {
+            final File dir = File.createTempFile("bbgs-alloc-", "");
+            if(!dir.delete() || !dir.mkdir()) {
+                throw new IOException("Failed to create temporary directory: " + dir);
+            }
+            System.setProperty(SettingsManager.CONFIG_DIR_PROPERTY, new File(dir, "config").getPath());
+        }
+
+        int status = 1;
+        try {
+            final AllocationCheck check = new AllocationCheck((com.sun.management.ThreadMXBean) threads);
+            final Map<String, Long> measured = check.measureAll(createOperations());
+            if(null != recordFile) {
+                record(measured, recordFile);
+                status = 0;
+            } else {
+                status = verify(measured, loadBudgets()) ? 0 : 1;
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+        } finally {
+            AuditLog.getInstance().shutdown();
+            SettingsManager.getInstance().shutdown();
+            Scheduler.getInstance().shutdown();
+            SsoMetrics.getInstance().shutdown();
+        }
+        System.exit(status);
+    }
+
+    /**
+     * Measures every operation, returning bytes allocated per operation by name.
+     */
+    private Map<String, Long> measureAll(final List<Operation> operations) throws Exception {
+        final Map<String, Long> measured = new TreeMap<String, Long>();
+        for(Operation operation : operations) {
+            operation.setUp();
+            for(int i = 0; i < WARMUP_OPERATIONS; i++) {
+                operation.run();
+            }
+            long best = Long.MAX_VALUE;
+            for(int round = 0; round < ROUNDS; round++) {
+                final long before = threads.getThreadAllocatedBytes(threadId);
+                for(int i = 0; i < MEASURED_OPERATIONS; i++) {
+                    operation.run();
+                }
+                final long after = threads.getThreadAllocatedBytes(threadId);
+                best = Math.min(best, (after - before) / MEASURED_OPERATIONS);
+            }
+            measured.put(operation.name, Long.valueOf(best));
+        }
+        return measured;
+    }
+
+    private static boolean verify(final Map<String, Long> measured, final Properties budgets) {
+        boolean passed = true;
+        System.out.println(String.format("%-36s %12s %12s", "operation", "bytes/op", "budget"));
+        for(Map.Entry<String, Long> entry : measured.entrySet()) {
+            final String budget = budgets.getProperty(entry.getKey());
+            final String status;
+            if(null == budget) {
+                status = "NO BUDGET";
+                passed = false;
+            } else if(entry.getValue().longValue() > Long.parseLong(budget.trim())) {
+                status = "OVER BUDGET";
+                passed = false;
+            } else {
+                status = "ok";
+            }
+            System.out.println(String.format("%-36s %12d %12s  %s", entry.getKey(), entry.getValue(), null == budget ? "-" : budget.trim(), status));
+        }
+        if(!passed) {
+            System.out.println("Allocation check FAILED. If the increase is intended, record new budgets (see README).");
+        }
+        return passed;
+    }
+
+    private static Properties loadBudgets() throws IOException {
+        final Properties budgets = new Properties();
+        final InputStream in = AllocationCheck.class.getResourceAsStream(BUDGETS);
+        if(null == in) {
+            throw new IOException("Missing " + BUDGETS);
+        }
+        try {
+            budgets.load(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return budgets;
+    }
+
+    private static void record(final Map<String, Long> measured, final File file) throws IOException {
+        // written by hand rather than with Properties.store, so the file stays sorted
+        // and without a time stamp (and with the project's line endings), and changes
+        // to it are easy to review
+        final StringBuilder budgets = new StringBuilder("# Allocation budgets (bytes per operation), checked by AllocationCheck\r\n");
+        for(Map.Entry<String, Long> entry : measured.entrySet()) {
+            final long budget = (long) Math.ceil(entry.getValue().longValue() * RECORD_HEADROOM / 16) * 16;
+            budgets.append(entry.getKey()).append('=').append(budget).append("\r\n");
+            System.out.println(String.format("%-36s %12d -> %d", entry.getKey(), entry.getValue(), budget));
+        }
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(budgets.toString().getBytes("ISO-8859-1"));
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        System.out.println("Budgets recorded in " + file);
+    }
+
+    /**
+     * A measured operation. Set up once, then run many times.
+     */
+    private abstract static class Operation {
+
+        private final String name;
+
+        Operation(final String name) {
+            this.name = name;
+        }
+
+        void setUp() throws Exception {
+        }
+
+        abstract void run() throws Exception;
+    }
+
+    private static List<Operation> createOperations() {
+        final FakeBlackboard blackboard = new FakeBlackboard(new LoadTestOptions(new String[] {
+                "latency.userLoader=0", "latency.userPersister=0", "latency.courseLoader=0",
+                "latency.courseCourseLoader=0", "latency.courseMembershipLoader=0", "latency.sessionManager=0",
+                "latency.sessionAssociator=0", "latency.trackingEventManager=0" }));
+        BlackboardServicesFactory.setInstance(blackboard);
+
+        final Map<Setting, String> settings = new EnumMap<Setting, String>(Setting.class);
+        settings.put(Setting.SSO_ENABLED, AutoSignonConfig.SSO_ENABLED);
+        settings.put(Setting.SHARED_SECRET, SECRET);
+        settings.put(Setting.MAC_PARAMETERS, "");
+        settings.put(Setting.MAC_ALGORITHM, AutoSignonConfig.SECURE_MAC);
+        // the check can run for a while, don't let its timestamps expire
+        settings.put(Setting.TIMESTAMP_RANGE, "86400000");
+        SettingsManager.getInstance().setSettings(settings);
+
+        final AutoSignonAction action = new AutoSignonAction();
+        final ActionMapping mapping = new ActionMapping();
+        mapping.addForwardConfig(new ActionForward("accessDenied", "/access_denied.jsp", false));
+
+        final List<Operation> operations = new ArrayList<Operation>();
+        operations.add(new ActionOperation("action.autoSignon", action, mapping, blackboard, false, null));
+        operations.add(new ActionOperation("action.autoSignon.course", action, mapping, blackboard, false, "course1"));
+        operations.add(new ActionOperation("action.courseForward", action, mapping, blackboard, true, "course1"));
+        // an unknown course, answered from the cache of lookups that found nothing
+        operations.add(new ActionOperation("action.autoSignon.invalidCourse", action, mapping, blackboard, false, "nosuchcourse"));
+        operations.add(new MacOperation("securityService.secureMac", AutoSignonConfig.SECURE_MAC));
+        operations.add(new MacOperation("securityService.insecureMac", AutoSignonConfig.INSECURE_MAC));
+        operations.add(new MacOperation("securityService.token", null));
+        operations.add(new Operation("autoSignonConfig.lookups") {
+            void run() {
+                AutoSignonConfig.isSsoEnabled();
+                AutoSignonConfig.isAuditEnabled();
+                AutoSignonConfig.getSharedSecret();
+                AutoSignonConfig.getTimestampRange();
+                AutoSignonConfig.getSlowRequestThreshold();
+                AutoSignonConfig.allowSecureMac();
+                AutoSignonConfig.allowInsecureMac();
+                AutoSignonConfig.getMacParameters();
+                AutoSignonConfig.getMacRequestParameter();
+                AutoSignonConfig.getUserIdRequestParameter();
+                AutoSignonConfig.getTimestampRequestParameter();
+                AutoSignonConfig.getForwardRequestParameter();
+                AutoSignonConfig.getCourseIdRequestParameter();
+            }
+        });
+        operations.add(new Operation("settingType.render") {
+            void run() {
+                final SettingsManager settingsManager = SettingsManager.getInstance();
+                for(Setting setting : Setting.values()) {
+                    setting.getType().renderInput(setting, settingsManager.getSetting(setting));
+                }
+            }
+        });
+        // an error that keeps occurring, only counted after the first few
+        final ThrottledLogger logger = ThrottledLogger.getLogger(AllocationCheck.class);
+        final Exception failure = new IllegalStateException("Database unavailable");
+        operations.add(new Operation("throttledLogger.suppressed") {
+            void run() {
+                logger.error("Allocation check failure", "user1", failure);
+            }
+        });
+        return operations;
+    }
+
+    /**
+     * A sign-on or course forward through the action, which must succeed.
+     */
+    private static class ActionOperation extends Operation {
+
+        private final AutoSignonAction action;
+        private final ActionMapping mapping;
+        private final FakeBlackboard blackboard;
+        private final boolean courseForward;
+        private final String courseId;
+        private HttpServletRequest request;
+        private HttpServletResponse response;
+        private MockHttp.Result result;
+
+        ActionOperation(final String name, final AutoSignonAction action, final ActionMapping mapping,
+                final FakeBlackboard blackboard, final boolean courseForward, final String courseId) {
+            super(name);
+            this.action = action;
+            this.mapping = mapping;
+            this.blackboard = blackboard;
+            this.courseForward = courseForward;
+            this.courseId = courseId;
+        }
+
+        void setUp() throws Exception {
+            final Map<String, String> parameters = new HashMap<String, String>();
+            if(!courseForward) {
+                parameters.put(AutoSignonConfig.getTimestampRequestParameter(), Long.toString(System.currentTimeMillis()));
+                parameters.put(AutoSignonConfig.getUserIdRequestParameter(), "user1");
+                parameters.put(AutoSignonConfig.getMacRequestParameter(), secureMac(parameters));
+            }
+            if(null != courseId) {
+                parameters.put(AutoSignonConfig.getCourseIdRequestParameter(), courseId);
+            }
+            request = MockHttp.request(courseForward ? "/courseForward.do" : "/autoSignon.do", parameters, "10.0.0.1");
+            if(courseForward) {
+                request.setAttribute(FakeBlackboard.SIGNED_ON_USER, blackboard.userId(1));
+            }
+            result = new MockHttp.Result();
+            response = MockHttp.response(result);
+
+            run();
+            if(null == result.redirect) {
+                throw new IllegalStateException(super.name + " was denied, nothing to measure");
+            }
+        }
+
+        void run() throws Exception {
+            // as for a new request
+            request.removeAttribute(SsoParameters.ATTRIBUTE);
+            if(courseForward) {
+                action.courseForward(mapping, null, request, response);
+            } else {
+                action.autoSignon(mapping, null, request, response);
+            }
+        }
+    }
+
+    /**
+     * MAC validation of a sign-on with four additional MAC parameters, with one
+     * algorithm, or as a token if the algorithm is <code>null</code>.
+     */
+    private static class MacOperation extends Operation {
+
+        private final String algorithm;
+        private HttpServletRequest request;
+
+        MacOperation(final String name, final String algorithm) {
+            super(name);
+            this.algorithm = algorithm;
+        }
+
+        void setUp() throws Exception {
+            final Map<Setting, String> settings = new EnumMap<Setting, String>(Setting.class);
+            settings.put(Setting.MAC_ALGORITHM, null == algorithm ? AutoSignonConfig.SECURE_MAC : algorithm);
+            settings.put(Setting.SSO_FORMAT, null == algorithm ? AutoSignonConfig.FORMAT_TOKEN : AutoSignonConfig.FORMAT_PARAMETERS);
+            settings.put(Setting.MAC_PARAMETERS, "courseId\nforward\nfirstName\nlastName");
+            SettingsManager.getInstance().setSettings(settings);
+
+            final Map<String, String> parameters = new HashMap<String, String>();
+            parameters.put(AutoSignonConfig.getTimestampRequestParameter(), Long.toString(System.currentTimeMillis()));
+            parameters.put(AutoSignonConfig.getUserIdRequestParameter(), "user1");
+            parameters.put("courseId", "course1");
+            parameters.put("forward", "/webapps/portal/frameset.jsp");
+            parameters.put("firstName", "First");
+            parameters.put("lastName", "Last");
+            if(null == algorithm) {
+                final LinkParameters signed = new LinkParameters();
+                for(String name : AutoSignonConfig.getMacParameters()) {
+                    signed.put(name, parameters.remove(name));
+                }
+                final long timestamp = Long.parseLong(parameters.remove(AutoSignonConfig.getTimestampRequestParameter()));
+                final String userId = parameters.remove(AutoSignonConfig.getUserIdRequestParameter());
+                parameters.put(AutoSignonConfig.getTokenRequestParameter(), new SsoTokenCodec(SECRET).encode(timestamp, userId, signed));
+            } else if(AutoSignonConfig.SECURE_MAC.equals(algorithm)) {
+                parameters.put(AutoSignonConfig.getMacRequestParameter(), secureMac(parameters));
+            } else {
+                parameters.put(AutoSignonConfig.getMacRequestParameter(), insecureMac(parameters));
+            }
+            request = MockHttp.request("/autoSignon.do", parameters, "10.0.0.1");
+
+            if(!SecurityService.getInstance().validateMacInRequest(request)) {
+                throw new IllegalStateException(super.name + " request was rejected, nothing to measure");
+            }
+        }
+
+        void run() {
+            request.removeAttribute(SsoParameters.ATTRIBUTE);
+            SecurityService.getInstance().validateMacInRequest(request);
+        }
+    }
+
+    private static String secureMac(final Map<String, String> parameters) throws Exception {
+        final StringBuilder data = new StringBuilder();
+        for(String value : new TreeMap<String, String>(parameters).values()) {
+            data.append(value);
+        }
+        return md5(data.append(SECRET).toString());
+    }
+
+    private static String insecureMac(final Map<String, String> parameters) throws Exception {
+        final StringBuilder values = new StringBuilder();
+        values.append(parameters.get(AutoSignonConfig.getTimestampRequestParameter()));
+        values.append(parameters.get(AutoSignonConfig.getUserIdRequestParameter()));
+        for(String parameter : AutoSignonConfig.getMacParameters()) {
+            if(null != parameters.get(parameter)) {
+                values.append(parameters.get(parameter));
+            }
+        }
+        int sum = 0;
+        for(int i = 0; i < values.length(); i++) {
+            sum += values.charAt(i);
+        }
+        return md5(sum + SECRET);
+    }
+
+    private static String md5(final String data) throws Exception {
+        return new String(Hex.encodeHex(MessageDigest.getInstance("MD5").digest(data.getBytes("UTF-8"))));
+    }
+
+}
@@ -0,0 +1,285 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.struts.Globals;
+import org.apache.struts.action.ActionForward;
+import org.apache.struts.action.ActionMapping;
+import org.apache.struts.action.ActionServlet;
+import org.apache.struts.action.RequestProcessor;
+import org.apache.struts.config.ModuleConfigImpl;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.audit.AuditLog;
+import com.blackboard.gs.autosignon.metrics.SsoMetrics;
+import com.blackboard.gs.autosignon.service.BlackboardServicesFactory;
+import com.blackboard.gs.autosignon.service.SsoParameters;
+import com.blackboard.gs.autosignon.servlet.DirectDispatchFilter;
+import com.blackboard.gs.autosignon.struts.actions.AutoSignonAction;
+import com.blackboard.gs.settings.Setting;
+import com.blackboard.gs.settings.Scheduler;
+import com.blackboard.gs.settings.SettingsManager;
+
+/**
+ * Compares the cost of getting an SSO request to the {@link AutoSignonAction}
+ * through the Struts request processor (and its reflective dispatch) with the
+ * {@link DirectDispatchFilter}. Both run the same sign-on and course forward
+ * against the {@link FakeBlackboard} stand-ins without latency, so the difference
+ * is the dispatch: time and bytes allocated per request, best of several rounds.
+ *
+ */
+public final class DispatchBenchmark {
+
+    private static final String SECRET = "dispatch-benchmark-shared-secret";
+
+    private static final int WARMUP_REQUESTS = 100000;
+    private static final int MEASURED_REQUESTS = 20000;
+    private static final int ROUNDS = 5;
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final long threadId;
+
+    private DispatchBenchmark(final com.sun.management.ThreadMXBean threads) {
+        this.threads = threads;
+        this.threadId = Thread.currentThread().getId();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            System.err.println("Thread allocation counters are not supported by this JVM");
+            System.exit(2);
+        }
+        ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+
+        if(null == System.getProperty(SettingsManager.CONFIG_DIR_PROPERTY)) {
+            final File dir = File.createTempFile("bbgs-dispatch-", "");
+            if(!dir.delete() || !dir.mkdir()) {
+                throw new IOException("Failed to create temporary directory: " + dir);
+            }
+            System.setProperty(SettingsManager.CONFIG_DIR_PROPERTY, new File(dir, "config").getPath());
+        }
+
+        int status = 1;
+        try {
+            new DispatchBenchmark((com.sun.management.ThreadMXBean) threads).run();
+            status = 0;
+        } catch(Exception e) {
+            e.printStackTrace();
+        } finally {
+            AuditLog.getInstance().shutdown();
+            SettingsManager.getInstance().shutdown();
+            Scheduler.getInstance().shutdown();
+            SsoMetrics.getInstance().shutdown();
+        }
+        System.exit(status);
+    }
+
+    private void run() throws Exception {
+        final FakeBlackboard blackboard = new FakeBlackboard(new LoadTestOptions(new String[] {
+                "latency.userLoader=0", "latency.userPersister=0", "latency.courseLoader=0",
+                "latency.courseCourseLoader=0", "latency.courseMembershipLoader=0", "latency.sessionManager=0",
+                "latency.sessionAssociator=0", "latency.trackingEventManager=0" }));
+        BlackboardServicesFactory.setInstance(blackboard);
+
+        final Map<Setting, String> settings = new EnumMap<Setting, String>(Setting.class);
+        settings.put(Setting.SSO_ENABLED, AutoSignonConfig.SSO_ENABLED);
+        settings.put(Setting.SHARED_SECRET, SECRET);
+        settings.put(Setting.MAC_PARAMETERS, "");
+        settings.put(Setting.MAC_ALGORITHM, AutoSignonConfig.SECURE_MAC);
+        settings.put(Setting.DIRECT_DISPATCH, AutoSignonConfig.DIRECT_DISPATCH_ENABLED);
+        // the benchmark can run for a while, don't let its timestamps expire
+        settings.put(Setting.TIMESTAMP_RANGE, "86400000");
+        SettingsManager.getInstance().setSettings(settings);
+
+        // the SSO mappings of struts-config.xml
+        final ModuleConfigImpl module = new ModuleConfigImpl("");
+        module.addActionConfig(mapping("/autoSignon", "autoSignon"));
+        module.addActionConfig(mapping("/courseForward", "courseForward"));
+        module.addActionConfig(mapping("/courseForwards", "courseForwards"));
+        module.addForwardConfig(new ActionForward("accessDenied", "/access_denied.jsp", false));
+        module.freeze();
+
+        final RequestProcessor processor = new RequestProcessor();
+        processor.init(new ActionServlet(), module);
+        final DirectDispatchFilter filter = new DirectDispatchFilter();
+        filter.init(filterConfig(module));
+        final FilterChain struts = new FilterChain() {
+            public void doFilter(final ServletRequest request, final ServletResponse response) {
+                throw new IllegalStateException("Request not dispatched directly: " + request);
+            }
+        };
+
+        System.out.println(String.format("%-16s %14s %14s %14s %14s", "request", "struts ns", "direct ns", "struts bytes", "direct bytes"));
+        for(int i = 0; i < 2; i++) {
+            final boolean courseForward = 1 == i;
+            final HttpServletRequest request = request(blackboard, courseForward);
+            final MockHttp.Result result = new MockHttp.Result();
+            final HttpServletResponse response = MockHttp.response(result);
+
+            final Dispatch viaStruts = new Dispatch() {
+                void dispatch() throws Exception {
+                    processor.process(request, response);
+                }
+            };
+            final Dispatch direct = new Dispatch() {
+                void dispatch() throws Exception {
+                    filter.doFilter(request, response, struts);
+                }
+            };
+            final long[] strutsCost = measure(viaStruts, request, result);
+            final long[] directCost = measure(direct, request, result);
+            System.out.println(String.format("%-16s %14d %14d %14d %14d", courseForward ? "courseForward" : "autoSignon",
+                    strutsCost[0], directCost[0], strutsCost[1], directCost[1]));
+        }
+    }
+
+    /**
+     * Runs a dispatch many times, returning the best time (ns) and bytes allocated per request.
+     */
+    private long[] measure(final Dispatch dispatch, final HttpServletRequest request, final MockHttp.Result result) throws Exception {
+        for(int i = 0; i < WARMUP_REQUESTS; i++) {
+            dispatch.run(request);
+        }
+        if(null == result.redirect) {
+            throw new IllegalStateException("Request was denied, nothing to measure");
+        }
+        long bestNanos = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        for(int round = 0; round < ROUNDS; round++) {
+            final long beforeBytes = threads.getThreadAllocatedBytes(threadId);
+            final long start = System.nanoTime();
+            for(int i = 0; i < MEASURED_REQUESTS; i++) {
+                dispatch.run(request);
+            }
+            final long nanos = System.nanoTime() - start;
+            final long bytes = threads.getThreadAllocatedBytes(threadId) - beforeBytes;
+            bestNanos = Math.min(bestNanos, nanos / MEASURED_REQUESTS);
+            bestBytes = Math.min(bestBytes, bytes / MEASURED_REQUESTS);
+        }
+        return new long[] { bestNanos, bestBytes };
+    }
+
+    /**
+     * One way of dispatching a request.
+     */
+    private abstract static class Dispatch {
+
+        void run(final HttpServletRequest request) throws Exception {
+            // as for a new request
+            request.removeAttribute(SsoParameters.ATTRIBUTE);
+            dispatch();
+        }
+
+        abstract void dispatch() throws Exception;
+    }
+
+    private static ActionMapping mapping(final String path, final String method) {
+        final ActionMapping mapping = new ActionMapping();
+        mapping.setPath(path);
+        mapping.setType(AutoSignonAction.class.getName());
+        mapping.setParameter(method);
+        return mapping;
+    }
+
+    /**
+     * A filter config whose servlet context only holds the Struts module.
+     */
+    private static FilterConfig filterConfig(final ModuleConfigImpl module) {
+        final ServletContext context = (ServletContext) Proxy.newProxyInstance(DispatchBenchmark.class.getClassLoader(),
+                new Class<?>[] { ServletContext.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if("getAttribute".equals(method.getName()) && Globals.MODULE_KEY.equals(args[0])) {
+                            return module;
+                        }
+                        throw new UnsupportedOperationException("ServletContext." + method.getName());
+                    }
+                });
+        return (FilterConfig) Proxy.newProxyInstance(DispatchBenchmark.class.getClassLoader(),
+                new Class<?>[] { FilterConfig.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if("getServletContext".equals(method.getName())) {
+                            return context;
+                        }
+                        throw new UnsupportedOperationException("FilterConfig." + method.getName());
+                    }
+                });
+    }
+
+    private static HttpServletRequest request(final FakeBlackboard blackboard, final boolean courseForward) throws Exception {
+        final Map<String, String> parameters = new HashMap<String, String>();
+        if(!courseForward) {
+            parameters.put(AutoSignonConfig.getTimestampRequestParameter(), Long.toString(System.currentTimeMillis()));
+            parameters.put(AutoSignonConfig.getUserIdRequestParameter(), "user1");
+            parameters.put(AutoSignonConfig.getMacRequestParameter(), secureMac(parameters));
+        }
+        parameters.put(AutoSignonConfig.getCourseIdRequestParameter(), "course1");
+        final HttpServletRequest request = MockHttp.request(courseForward ? "/courseForward.do" : "/autoSignon.do", parameters, "10.0.0.1");
+        if(courseForward) {
+            request.setAttribute(FakeBlackboard.SIGNED_ON_USER, blackboard.userId(1));
+        }
+        return request;
+    }
+
+    private static String secureMac(final Map<String, String> parameters) throws Exception {
+        final StringBuilder data = new StringBuilder();
+        for(String value : new TreeMap<String, String>(parameters).values()) {
+            data.append(value);
+        }
+        data.append(SECRET);
+        return new String(Hex.encodeHex(MessageDigest.getInstance("MD5").digest(data.toString().getBytes("UTF-8"))));
+    }
+
+}
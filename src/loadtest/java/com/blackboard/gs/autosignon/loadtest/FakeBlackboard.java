@@ -0,0 +1,402 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.loadtest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import blackboard.data.course.Course;
+import blackboard.data.course.CourseCourse;
+import blackboard.data.course.CourseMembership;
+import blackboard.data.user.User;
+import blackboard.persist.Id;
+import blackboard.persist.KeyNotFoundException;
+import blackboard.persist.course.CourseCourseDbLoader;
+import blackboard.persist.course.CourseDbLoader;
+import blackboard.persist.course.CourseMembershipDbLoader;
+import blackboard.persist.user.UserDbLoader;
+import blackboard.persist.user.UserDbPersister;
+import blackboard.platform.context.Context;
+import blackboard.platform.context.ContextManager;
+import blackboard.platform.session.BbSession;
+import blackboard.platform.session.BbSessionManagerService;
+import blackboard.platform.tracking.TrackingEventManager;
+
+import com.blackboard.gs.autosignon.service.BlackboardServices;
+import com.blackboard.gs.autosignon.service.SessionAssociator;
+import com.blackboard.gs.autosignon.service.UserScanner;
+
+/**
+ * In-process stand-ins for the Blackboard services, backed by a generated set of
+ * users and courses. Every call that would hit the database waits for a connection
+ * from a bounded pool and then for its configured {@link Latency}, so a surge queues
+ * up the way it would against a real database.
+ *
+ * Users are <code>user0</code> to <code>user&lt;n-1&gt;</code> (batch uids), named
+ * <code>name0</code> to <code>name&lt;n-1&gt;</code>; courses
+ * <code>course0</code> to <code>course&lt;n-1&gt;</code>; every user is a student in
+ * every course, every tenth course is cross-listed (a child of the course before it).
+ *
+ */
+final class FakeBlackboard implements BlackboardServices {
+
+    // request attributes standing in for the session cookie
+    static final String SIGNED_ON_USER = FakeBlackboard.class.getName() + ".user";
+    private static final String SESSION = FakeBlackboard.class.getName() + ".session";
+
+    private static final Pattern ID = Pattern.compile("_(\\d+)_1");
+
+    private final int users;
+    private final int courses;
+    private final Semaphore connections;
+    private final AtomicLong sessionIds;
+    private final ThreadLocal<Context> context;
+
+    private final UserDbLoader userLoader;
+    private final UserDbPersister userPersister;
+    private final CourseDbLoader courseLoader;
+    private final CourseCourseDbLoader courseCourseLoader;
+    private final CourseMembershipDbLoader courseMembershipLoader;
+    private final ContextManager contextManager;
+    private final BbSessionManagerService sessionManager;
+    private final TrackingEventManager trackingEventManager;
+    private final SessionAssociator sessionAssociator;
+    private final UserScanner userScanner;
+
+    FakeBlackboard(final LoadTestOptions options) {
+        users = options.getUsers();
+        courses = options.getCourses();
+        connections = new Semaphore(options.getDbPool(), true);
+        sessionIds = new AtomicLong();
+        context = new ThreadLocal<Context>();
+
+        userLoader = fake(UserDbLoader.class, options.getLatency("userLoader"), new Handler() {
+            public Object call(final String method, final Object[] args) throws Exception {
+                if("loadByBatchUid".equals(method)) {
+                    return user(index((String) args[0], "user", users));
+                } else if("loadByUserName".equals(method)) {
+                    return user(index((String) args[0], "name", users));
+                } else if("loadById".equals(method)) {
+                    return user(index((Id) args[0], users));
+                }
+                return null;
+            }
+        });
+        userPersister = fake(UserDbPersister.class, options.getLatency("userPersister"), new Handler() {
+            public Object call(final String method, final Object[] args) {
+                return null;
+            }
+        });
+        courseLoader = fake(CourseDbLoader.class, options.getLatency("courseLoader"), new Handler() {
+            public Object call(final String method, final Object[] args) throws Exception {
+                if("loadByBatchUid".equals(method)) {
+                    return course(index((String) args[0], "course", courses));
+                } else if("loadByCourseId".equals(method)) {
+                    return course(index(String.valueOf(args[0]), courses));
+                } else if("loadById".equals(method)) {
+                    return course(index((Id) args[0], courses));
+                } else if("loadByUserId".equals(method)) {
+                    index((Id) args[0], users);
+                    final List<Course> list = new ArrayList<Course>(courses);
+                    for(int i = 0; i < courses; i++) {
+                        list.add(course(i));
+                    }
+                    return list;
+                }
+                return null;
+            }
+        });
+        courseCourseLoader = fake(CourseCourseDbLoader.class, options.getLatency("courseCourseLoader"), new Handler() {
+            public Object call(final String method, final Object[] args) throws Exception {
+                final int child = index((Id) args[0], courses);
+                if(!isChild(child)) {
+                    throw new KeyNotFoundException("Not a child course: " + args[0]);
+                }
+                final CourseCourse courseCourse = new CourseCourse();
+                courseCourse.setParentCourseId(id(Course.DATA_TYPE, child - 1));
+                return courseCourse;
+            }
+        });
+        courseMembershipLoader = fake(CourseMembershipDbLoader.class, options.getLatency("courseMembershipLoader"), new Handler() {
+            public Object call(final String method, final Object[] args) throws Exception {
+                if("loadByUserId".equals(method)) {
+                    index((Id) args[0], users);
+                    final List<CourseMembership> list = new ArrayList<CourseMembership>(courses);
+                    for(int i = 0; i < courses; i++) {
+                        list.add(membership(id(Course.DATA_TYPE, i), (Id) args[0]));
+                    }
+                    return list;
+                }
+                return membership((Id) args[0], (Id) args[1]);
+            }
+        });
+        sessionManager = fake(BbSessionManagerService.class, options.getLatency("sessionManager"), new Handler() {
+            public Object call(final String method, final Object[] args) {
+                final HttpServletRequest request = (HttpServletRequest) args[0];
+                BbSession session = (BbSession) request.getAttribute(SESSION);
+                if(null == session) {
+                    session = session("session" + sessionIds.incrementAndGet());
+                    request.setAttribute(SESSION, session);
+                }
+                return session;
+            }
+        });
+        trackingEventManager = fake(TrackingEventManager.class, options.getLatency("trackingEventManager"), new Handler() {
+            public Object call(final String method, final Object[] args) {
+                return null;
+            }
+        });
+        final Latency associateLatency = options.getLatency("sessionAssociator");
+        sessionAssociator = new SessionAssociator() {
+            public void associateSessionWithUser(final HttpServletRequest request, final String userName) throws Exception {
+                final int index = index(userName, "name", users);
+                withConnection(associateLatency);
+                request.setAttribute(SIGNED_ON_USER, id(User.DATA_TYPE, index));
+            }
+        };
+        // every user, a round trip per thousand
+        final Latency scanLatency = options.getLatency("userLoader");
+        userScanner = new UserScanner() {
+            public int scan(final long modifiedSince, final Visitor visitor) throws Exception {
+                for(int i = 0; i < users; i++) {
+                    if(0 == i % 1000) {
+                        withConnection(scanLatency);
+                    }
+                    visitor.visit(i + 1, "user" + i, "name" + i, true);
+                }
+                return users;
+            }
+        };
+        // in memory only, no latency
+        contextManager = fake(ContextManager.class, null, new Handler() {
+            public Object call(final String method, final Object[] args) {
+                if("setContext".equals(method)) {
+                    final HttpServletRequest request = (HttpServletRequest) args[0];
+                    context.set(context((Id) request.getAttribute(SIGNED_ON_USER), (BbSession) request.getAttribute(SESSION)));
+                    return context.get();
+                } else if("getContext".equals(method)) {
+                    return null != context.get() ? context.get() : context(null, null);
+                } else if("purgeContext".equals(method)) {
+                    context.remove();
+                }
+                return null;
+            }
+        });
+    }
+
+    public UserDbLoader getUserLoader() {
+        return userLoader;
+    }
+
+    public UserDbPersister getUserPersister() {
+        return userPersister;
+    }
+
+    public CourseDbLoader getCourseLoader() {
+        return courseLoader;
+    }
+
+    public CourseCourseDbLoader getCourseCourseLoader() {
+        return courseCourseLoader;
+    }
+
+    public CourseMembershipDbLoader getCourseMembershipLoader() {
+        return courseMembershipLoader;
+    }
+
+    public ContextManager getContextManager() {
+        return contextManager;
+    }
+
+    public BbSessionManagerService getSessionManager() {
+        return sessionManager;
+    }
+
+    public TrackingEventManager getTrackingEventManager() {
+        return trackingEventManager;
+    }
+
+    public SessionAssociator getSessionAssociator() {
+        return sessionAssociator;
+    }
+
+    public UserScanner getUserScanner() {
+        return userScanner;
+    }
+
+    /**
+     * Returns the id of a generated user, to sign requests on as that user.
+     */
+    Id userId(final int index) {
+        return id(User.DATA_TYPE, index);
+    }
+
+    private User user(final int index) {
+        final User user = new User();
+        user.setId(id(User.DATA_TYPE, index));
+        user.setBatchUid("user" + index);
+        user.setUserName("name" + index);
+        user.setIsAvailable(true);
+        return user;
+    }
+
+    private Course course(final int index) {
+        final Course course = new Course();
+        course.setId(id(Course.DATA_TYPE, index));
+        course.setBatchUid("course" + index);
+        course.setCourseId("course" + index);
+        course.setIsChild(isChild(index));
+        course.setIsAvailable(true);
+        course.setDurationType(Course.Duration.CONTINUOUS);
+        return course;
+    }
+
+    private CourseMembership membership(final Id courseId, final Id userId) {
+        final CourseMembership membership = new CourseMembership();
+        membership.setCourseId(courseId);
+        membership.setUserId(userId);
+        membership.setRole(CourseMembership.Role.STUDENT);
+        return membership;
+    }
+
+    private boolean isChild(final int index) {
+        return index > 0 && 0 == index % 10;
+    }
+
+    private BbSession session(final String sessionId) {
+        return fake(BbSession.class, null, new Handler() {
+            public Object call(final String method, final Object[] args) {
+                return "getBbSessionId".equals(method) ? sessionId : null;
+            }
+        });
+    }
+
+    private Context context(final Id userId, final BbSession session) {
+        return fake(Context.class, null, new Handler() {
+            public Object call(final String method, final Object[] args) {
+                if("getUserId".equals(method)) {
+                    return userId;
+                } else if("getSession".equals(method)) {
+                    return session;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Id id(final blackboard.persist.DataType dataType, final int index) {
+        try {
+            return Id.generateId(dataType, "_" + (index + 1) + "_1");
+        } catch(Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int index(final Id id, final int count) throws KeyNotFoundException {
+        return index(null == id ? null : id.toExternalString(), count);
+    }
+
+    private static int index(final String id, final int count) throws KeyNotFoundException {
+        final Matcher matcher = null == id ? null : ID.matcher(id);
+        if(null != matcher && matcher.find()) {
+            final int index = Integer.parseInt(matcher.group(1)) - 1;
+            if(index >= 0 && index < count) {
+                return index;
+            }
+        }
+        throw new KeyNotFoundException("Unknown id: " + id);
+    }
+
+    private static int index(final String name, final String prefix, final int count) throws KeyNotFoundException {
+        if(null != name && name.startsWith(prefix)) {
+            try {
+                final int index = Integer.parseInt(name.substring(prefix.length()));
+                if(index >= 0 && index < count) {
+                    return index;
+                }
+            } catch(NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new KeyNotFoundException("Unknown: " + name);
+    }
+
+    private void withConnection(final Latency latency) throws InterruptedException {
+        connections.acquire();
+        try {
+            latency.pause();
+        } finally {
+            connections.release();
+        }
+    }
+
+    /**
+     * Implements a fake service method by method name.
+     */
+    private interface Handler {
+        Object call(String method, Object[] args) throws Exception;
+    }
+
+    /**
+     * Creates a fake of a Blackboard interface. Calls go through the connection pool
+     * and the latency first, unless the latency is <code>null</code>.
+     */
+    private <T> T fake(final Class<T> type, final Latency latency, final Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                if(Object.class == method.getDeclaringClass()) {
+                    if("equals".equals(method.getName())) {
+                        return Boolean.valueOf(proxy == args[0]);
+                    } else if("hashCode".equals(method.getName())) {
+                        return Integer.valueOf(System.identityHashCode(proxy));
+                    }
+                    return "Fake" + type.getSimpleName();
+                }
+                if(null != latency) {
+                    withConnection(latency);
+                }
+                return handler.call(method.getName(), args);
+            }
+        }));
+    }
+
+}
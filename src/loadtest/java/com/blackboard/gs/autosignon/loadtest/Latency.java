@@ -0,0 +1,76 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulated latency of a Blackboard service call: half of the mean is fixed, the
+ * other half exponentially distributed, which gives the long tail real database
+ * calls have.
+ *
+ */
+final class Latency {
+
+    private final long fixedNanos;
+    private final double variableNanos;
+
+    /**
+     * @param meanMillis
+     *         mean latency in milliseconds, 0 for none
+     */
+    Latency(final double meanMillis) {
+        final double meanNanos = meanMillis * TimeUnit.MILLISECONDS.toNanos(1);
+        fixedNanos = (long) (meanNanos / 2);
+        variableNanos = meanNanos / 2;
+    }
+
+    /**
+     * Blocks the calling thread for a random time drawn from this latency.
+     */
+    void pause() {
+        if(0 == fixedNanos && 0 == variableNanos) {
+            return;
+        }
+        final double random = ThreadLocalRandom.current().nextDouble();
+        long remaining = fixedNanos + (long) (-Math.log(1.0 - random) * variableNanos);
+        final long end = System.nanoTime() + remaining;
+        while(remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = end - System.nanoTime();
+        }
+    }
+
+}
@@ -0,0 +1,333 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.struts.action.ActionForward;
+import org.apache.struts.action.ActionMapping;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.audit.AuditLog;
+import com.blackboard.gs.autosignon.metrics.LatencyHistogram;
+import com.blackboard.gs.autosignon.metrics.SsoMetrics;
+import com.blackboard.gs.autosignon.service.BlackboardServicesFactory;
+import com.blackboard.gs.autosignon.service.UserIndex;
+import com.blackboard.gs.autosignon.struts.actions.AutoSignonAction;
+import com.blackboard.gs.settings.Setting;
+import com.blackboard.gs.settings.Scheduler;
+import com.blackboard.gs.settings.SettingsManager;
+
+/**
+ * Load test harness: drives {@link AutoSignonAction#autoSignon} and
+ * {@link AutoSignonAction#courseForward} from many threads against the
+ * {@link FakeBlackboard} stand-ins, then reports throughput and latency percentiles
+ * per kind of request, followed by the building block's own stage and outcome
+ * metrics. See {@link LoadTestOptions#USAGE} for the arguments, and run it with
+ * <code>./gradlew loadTest -PloadTestArgs="scenario=TERM_START threads=128"</code>.
+ *
+ * Settings and audit files go to a temporary directory, unless the
+ * <code>bbgs.autosignon.configDir</code> system property says otherwise.
+ *
+ */
+public final class LoadTest {
+
+    private static final String SECRET = "load-test-shared-secret";
+    private static final String PROFILE_PREFIX = "portal";
+
+    /**
+     * The kinds of requests sent.
+     */
+    private enum Operation {
+        AUTO_SIGNON ("autoSignon"),
+        AUTO_SIGNON_COURSE ("autoSignon+courseId"),
+        COURSE_FORWARD ("courseForward");
+
+        private final String label;
+
+        Operation(final String label) {
+            this.label = label;
+        }
+    }
+
+    private final LoadTestOptions options;
+    private final FakeBlackboard blackboard;
+    private final AutoSignonAction action;
+    private final ActionMapping mapping;
+    private final Map<Operation, Stats> stats;
+    // null for the default profile
+    private final String[] profiles;
+
+    private LoadTest(final LoadTestOptions options) {
+        this.options = options;
+        blackboard = new FakeBlackboard(options);
+        BlackboardServicesFactory.setInstance(blackboard);
+
+        final Map<Setting, String> settings = new EnumMap<Setting, String>(Setting.class);
+        settings.put(Setting.SSO_ENABLED, AutoSignonConfig.SSO_ENABLED);
+        settings.put(Setting.MAC_ALGORITHM, AutoSignonConfig.SECURE_MAC);
+        settings.put(Setting.MAC_PARAMETERS, "");
+        settings.put(Setting.SHARED_SECRET, SECRET);
+        settings.put(Setting.CONCURRENCY_LIMIT, options.isLimit() ? AutoSignonConfig.CONCURRENCY_LIMIT_ENABLED : AutoSignonConfig.CONCURRENCY_LIMIT_DISABLED);
+        settings.put(Setting.COURSE_FORWARD_DEADLINE, Integer.toString(options.getDeadline()));
+        settings.put(Setting.USER_INDEX, options.isUserIndex() ? AutoSignonConfig.USER_INDEX_ENABLED : AutoSignonConfig.USER_INDEX_DISABLED);
+        SettingsManager.getInstance().setSettings(settings);
+
+        profiles = new String[options.getProfiles() + 1];
+        for(int i = 1; i < profiles.length; i++) {
+            profiles[i] = PROFILE_PREFIX + i;
+            final Map<Setting, String> profileSettings = new EnumMap<Setting, String>(Setting.class);
+            profileSettings.put(Setting.SHARED_SECRET, secret(profiles[i]));
+            profileSettings.put(Setting.PARAM_USERID, "uid");
+            SettingsManager.getInstance().setProfileSettings(profiles[i], profileSettings);
+        }
+
+        action = new AutoSignonAction();
+        mapping = new ActionMapping();
+        mapping.addForwardConfig(new ActionForward("accessDenied", "/access_denied.jsp", false));
+
+        stats = new EnumMap<Operation, Stats>(Operation.class);
+        for(Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final LoadTestOptions options;
+        try {
+            options = new LoadTestOptions(args);
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadTestOptions.USAGE);
+            System.exit(1);
+            return;
+        }
+
+        if(null == System.getProperty(SettingsManager.CONFIG_DIR_PROPERTY)) {
+            System.setProperty(SettingsManager.CONFIG_DIR_PROPERTY, new File(createTempDir(), "config").getPath());
+        }
+
+        final LoadTest loadTest = new LoadTest(options);
+        System.out.println("AutoSignon load test: " + options);
+        if(options.isUserIndex()) {
+            final UserIndex userIndex = UserIndex.getInstance();
+            userIndex.refresh();
+            System.out.println("User index: " + userIndex.getSize() + " entries, " + userIndex.getFootprint() / 1024 + " KB, "
+                    + (userIndex.getRestoreMillis() > 0 || 0 == userIndex.getBuildMillis()
+                            ? "restored in " + userIndex.getRestoreMillis() : "built in " + userIndex.getBuildMillis()) + " ms");
+        }
+
+        if(options.getWarmup() > 0) {
+            loadTest.run(options.getWarmup());
+            loadTest.reset();
+        }
+        final long elapsed = loadTest.run(options.getDuration());
+        loadTest.report(System.out, elapsed);
+
+        AuditLog.getInstance().shutdown();
+        if(options.isUserIndex()) {
+            UserIndex.getInstance().shutdown();
+        }
+        SettingsManager.getInstance().shutdown();
+        Scheduler.getInstance().shutdown();
+        SsoMetrics.getInstance().shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * Sends requests from all client threads for the given time.
+     *
+     * @return the time taken, in nanoseconds
+     */
+    private long run(final int seconds) throws InterruptedException {
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        final Thread[] clients = new Thread[options.getThreads()];
+        for(int i = 0; i < clients.length; i++) {
+            clients[i] = new Thread("load-test-client-" + i) {
+                public void run() {
+                    while(System.nanoTime() < end) {
+                        sendRequest();
+                    }
+                }
+            };
+            clients[i].start();
+        }
+        for(Thread client : clients) {
+            client.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Sends a single request, picked according to the scenario.
+     */
+    private void sendRequest() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final Scenario scenario = options.getScenario();
+        final int user = random.nextInt(options.getUsers());
+        final String profile = profiles[random.nextInt(profiles.length)];
+        // profiles are selected by path or by parameter, half of the time each
+        final boolean byPath = null != profile && random.nextBoolean();
+
+        final Map<String, String> parameters = new HashMap<String, String>();
+        final Operation operation;
+        if(scenario.nextIsCourseForward(random)) {
+            operation = Operation.COURSE_FORWARD;
+            parameters.put(AutoSignonConfig.getCourseIdRequestParameter(profile), "course" + scenario.nextCourse(random, options.getCourses()));
+        } else {
+            parameters.put(AutoSignonConfig.getTimestampRequestParameter(profile), Long.toString(System.currentTimeMillis()));
+            parameters.put(AutoSignonConfig.getUserIdRequestParameter(profile), (options.isUserNames() ? "name" : "user") + user);
+            parameters.put(AutoSignonConfig.getMacRequestParameter(profile), mac(parameters, secret(profile)));
+            if(scenario.nextHasCourse(random)) {
+                operation = Operation.AUTO_SIGNON_COURSE;
+                parameters.put(AutoSignonConfig.getCourseIdRequestParameter(profile), "course" + scenario.nextCourse(random, options.getCourses()));
+            } else {
+                operation = Operation.AUTO_SIGNON;
+            }
+        }
+        if(null != profile && !byPath) {
+            parameters.put(AutoSignonConfig.getProfileRequestParameter(), profile);
+        }
+
+        final String servletPath = (byPath ? "/" + profile : "") + (Operation.COURSE_FORWARD == operation ? "/courseForward.do" : "/autoSignon.do");
+        final HttpServletRequest request = MockHttp.request(servletPath, parameters, "10.0." + (user >> 8 & 0xff) + "." + (user & 0xff));
+        final MockHttp.Result result = new MockHttp.Result();
+        final Stats operationStats = stats.get(operation);
+
+        final long start = System.nanoTime();
+        try {
+            if(Operation.COURSE_FORWARD == operation) {
+                // already signed on
+                request.setAttribute(FakeBlackboard.SIGNED_ON_USER, blackboard.userId(user));
+                action.courseForward(mapping, null, request, MockHttp.response(result));
+            } else {
+                action.autoSignon(mapping, null, request, MockHttp.response(result));
+            }
+            operationStats.latency.record(System.nanoTime() - start);
+            if(null != result.redirect) {
+                operationStats.redirected.incrementAndGet();
+            } else if(HttpServletResponse.SC_SERVICE_UNAVAILABLE == result.status) {
+                operationStats.shed.incrementAndGet();
+            } else {
+                operationStats.denied.incrementAndGet();
+            }
+        } catch(Exception e) {
+            operationStats.latency.record(System.nanoTime() - start);
+            operationStats.errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Calculates the secure MAC of a sign-on request, as the trusted system would.
+     */
+    private static String mac(final Map<String, String> parameters, final String secret) {
+        final StringBuilder data = new StringBuilder();
+        for(String value : new TreeMap<String, String>(parameters).values()) {
+            data.append(value);
+        }
+        data.append(secret);
+        try {
+            return new String(Hex.encodeHex(MessageDigest.getInstance("MD5").digest(data.toString().getBytes("UTF-8"))));
+        } catch(Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String secret(final String profile) {
+        return null == profile ? SECRET : SECRET + "-" + profile;
+    }
+
+    private void reset() {
+        for(Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+        SsoMetrics.getInstance().reset();
+    }
+
+    private void report(final PrintStream out, final long elapsedNanos) {
+        final double seconds = elapsedNanos / 1e9;
+        out.println();
+        out.println(String.format("%-20s %9s %9s %9s %9s %9s %10s %9s %9s %9s %9s",
+                "request", "count", "redirect", "denied", "shed", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        long total = 0;
+        for(Operation operation : Operation.values()) {
+            final Stats operationStats = stats.get(operation);
+            final LatencyHistogram latency = operationStats.latency;
+            total += latency.getCount();
+            out.println(String.format("%-20s %9d %9d %9d %9d %9d %10.1f %9.2f %9.2f %9.2f %9.2f",
+                    operation.label, latency.getCount(), operationStats.redirected.get(), operationStats.denied.get(),
+                    operationStats.shed.get(), operationStats.errors.get(), latency.getCount() / seconds,
+                    latency.getPercentile(0.50) / 1000.0, latency.getPercentile(0.95) / 1000.0,
+                    latency.getPercentile(0.99) / 1000.0, latency.getMax() / 1000.0));
+        }
+        out.println(String.format("%-20s %9d %50.1f", "total", total, total / seconds));
+        out.println();
+        out.println("Stage and outcome metrics:");
+        out.print(SsoMetrics.getInstance().toText());
+    }
+
+    private static File createTempDir() throws IOException {
+        final File dir = File.createTempFile("bbgs-loadtest-", "");
+        if(!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Failed to create temporary directory: " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Results of one kind of request.
+     */
+    private static final class Stats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong redirected = new AtomicLong();
+        private final AtomicLong denied = new AtomicLong();
+        private final AtomicLong shed = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+    }
+
+}
@@ -0,0 +1,204 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Options of a load test run, given as <code>name=value</code> arguments.
+ *
+ */
+final class LoadTestOptions {
+
+    static final String USAGE =
+        "Usage: LoadTest [name=value]...\n"
+        + "  scenario=TERM_START    request mix: TERM_START, STEADY or SIGNON_ONLY\n"
+        + "  threads=64             concurrent clients\n"
+        + "  warmup=10              seconds of load before measuring\n"
+        + "  duration=30            seconds of load measured\n"
+        + "  users=20000            generated users\n"
+        + "  courses=2000           generated courses\n"
+        + "  dbPool=32              simulated database connections\n"
+        + "  limit=false            adaptive concurrency limiting (Concurrency Limiting setting)\n"
+        + "  deadline=0             course forward deadline in ms, 0 for none (Course Forward Deadline setting)\n"
+        + "  userIndex=false        look users up in the user index (User Index setting)\n"
+        + "  userNames=false        sign on by user name rather than batch uid\n"
+        + "  profiles=0             integration profiles besides the default, each with its own\n"
+        + "                         secret and user id parameter, selected by path or parameter\n"
+        + "  latency.<service>=ms   mean latency of a Blackboard service, one of\n"
+        + "                         userLoader, userPersister, courseLoader, courseCourseLoader,\n"
+        + "                         courseMembershipLoader, sessionManager, sessionAssociator,\n"
+        + "                         trackingEventManager\n";
+
+    private static final Map<String, Double> DEFAULT_LATENCIES = new HashMap<String, Double>();
+    static {
+        DEFAULT_LATENCIES.put("userLoader", Double.valueOf(3));
+        DEFAULT_LATENCIES.put("userPersister", Double.valueOf(5));
+        DEFAULT_LATENCIES.put("courseLoader", Double.valueOf(2));
+        DEFAULT_LATENCIES.put("courseCourseLoader", Double.valueOf(2));
+        DEFAULT_LATENCIES.put("courseMembershipLoader", Double.valueOf(2));
+        DEFAULT_LATENCIES.put("sessionManager", Double.valueOf(4));
+        DEFAULT_LATENCIES.put("sessionAssociator", Double.valueOf(6));
+        DEFAULT_LATENCIES.put("trackingEventManager", Double.valueOf(3));
+    }
+
+    private Scenario scenario = Scenario.TERM_START;
+    private int threads = 64;
+    private int warmup = 10;
+    private int duration = 30;
+    private int users = 20000;
+    private int courses = 2000;
+    private int dbPool = 32;
+    private boolean limit = false;
+    private int deadline = 0;
+    private boolean userIndex = false;
+    private boolean userNames = false;
+    private int profiles = 0;
+    private final Map<String, Double> latencies = new HashMap<String, Double>(DEFAULT_LATENCIES);
+
+    /**
+     * @param args
+     * @throws IllegalArgumentException
+     *         if an argument is unknown or invalid
+     */
+    LoadTestOptions(final String[] args) {
+        for(String arg : args) {
+            final int separator = arg.indexOf('=');
+            if(separator < 1) {
+                throw new IllegalArgumentException("Not a name=value argument: " + arg);
+            }
+            final String name = arg.substring(0, separator);
+            final String value = arg.substring(separator + 1);
+            try {
+                if("scenario".equals(name)) {
+                    scenario = Scenario.valueOf(value);
+                } else if("threads".equals(name)) {
+                    threads = positive(name, value);
+                } else if("warmup".equals(name)) {
+                    warmup = Integer.parseInt(value);
+                } else if("duration".equals(name)) {
+                    duration = positive(name, value);
+                } else if("users".equals(name)) {
+                    users = positive(name, value);
+                } else if("courses".equals(name)) {
+                    courses = positive(name, value);
+                } else if("dbPool".equals(name)) {
+                    dbPool = positive(name, value);
+                } else if("limit".equals(name)) {
+                    limit = Boolean.parseBoolean(value);
+                } else if("deadline".equals(name)) {
+                    deadline = Integer.parseInt(value);
+                } else if("userIndex".equals(name)) {
+                    userIndex = Boolean.parseBoolean(value);
+                } else if("userNames".equals(name)) {
+                    userNames = Boolean.parseBoolean(value);
+                } else if("profiles".equals(name)) {
+                    profiles = Integer.parseInt(value);
+                } else if(name.startsWith("latency.") && DEFAULT_LATENCIES.containsKey(name.substring(8))) {
+                    latencies.put(name.substring(8), Double.valueOf(value));
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + name);
+                }
+            } catch(NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+            }
+        }
+    }
+
+    private static int positive(final String name, final String value) {
+        final int number = Integer.parseInt(value);
+        if(number < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1: " + value);
+        }
+        return number;
+    }
+
+    Scenario getScenario() {
+        return scenario;
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    int getWarmup() {
+        return warmup;
+    }
+
+    int getDuration() {
+        return duration;
+    }
+
+    int getUsers() {
+        return users;
+    }
+
+    int getCourses() {
+        return courses;
+    }
+
+    int getDbPool() {
+        return dbPool;
+    }
+
+    boolean isLimit() {
+        return limit;
+    }
+
+    int getDeadline() {
+        return deadline;
+    }
+
+    boolean isUserIndex() {
+        return userIndex;
+    }
+
+    boolean isUserNames() {
+        return userNames;
+    }
+
+    int getProfiles() {
+        return profiles;
+    }
+
+    Latency getLatency(final String service) {
+        return new Latency(latencies.get(service).doubleValue());
+    }
+
+    public String toString() {
+        return "scenario=" + scenario + " threads=" + threads + " warmup=" + warmup + "s duration=" + duration
+                + "s users=" + users + " courses=" + courses + " dbPool=" + dbPool + " limit=" + limit + " deadline=" + deadline + "ms userIndex=" + userIndex + " userNames=" + userNames + " profiles=" + profiles + " latencies(ms)=" + latencies;
+    }
+
+}
@@ -0,0 +1,252 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Minimal in-memory requests and responses, supporting only what the building
+ * block's actions and services use. Anything else fails loudly, so a new
+ * dependency on the servlet API shows up here rather than as a wrong result.
+ *
+ */
+final class MockHttp {
+
+    private MockHttp() {
+    }
+
+    /**
+     * Creates a GET request with the given parameters.
+     *
+     * @param servletPath
+     *         e.g. <code>/autoSignon.do</code>
+     * @param parameters
+     * @param remoteAddress
+     * @return
+     */
+    static HttpServletRequest request(final String servletPath, final Map<String, String> parameters, final String remoteAddress) {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        final HttpSession[] session = new HttpSession[1];
+        final String queryString = queryString(parameters);
+        return (HttpServletRequest) Proxy.newProxyInstance(MockHttp.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        if("getParameter".equals(name)) {
+                            return parameters.get(args[0]);
+                        } else if("getAttribute".equals(name)) {
+                            return attributes.get(args[0]);
+                        } else if("setAttribute".equals(name)) {
+                            attributes.put((String) args[0], args[1]);
+                            return null;
+                        } else if("removeAttribute".equals(name)) {
+                            attributes.remove(args[0]);
+                            return null;
+                        } else if("getSession".equals(name)) {
+                            if(null == session[0] && (null == args || ((Boolean) args[0]).booleanValue())) {
+                                session[0] = session();
+                            }
+                            return session[0];
+                        } else if("getServletPath".equals(name)) {
+                            return servletPath;
+                        } else if("getPathInfo".equals(name)) {
+                            return null;
+                        } else if("getQueryString".equals(name)) {
+                            return queryString;
+                        } else if("getMethod".equals(name)) {
+                            return "GET";
+                        } else if("getLocale".equals(name)) {
+                            return Locale.US;
+                        } else if("getRemoteAddr".equals(name)) {
+                            return remoteAddress;
+                        } else if("getHeader".equals(name)) {
+                            return null;
+                        } else if("toString".equals(name)) {
+                            return "MockRequest" + parameters;
+                        }
+                        throw new UnsupportedOperationException("HttpServletRequest." + name);
+                    }
+                });
+    }
+
+    /**
+     * Encodes parameters as a query string, as a browser would.
+     *
+     * @param parameters
+     * @return
+     */
+    static String queryString(final Map<String, String> parameters) {
+        final StringBuilder query = new StringBuilder();
+        try {
+            for(Map.Entry<String, String> parameter : parameters.entrySet()) {
+                if(query.length() > 0) {
+                    query.append('&');
+                }
+                query.append(URLEncoder.encode(parameter.getKey(), "UTF-8")).append('=').append(URLEncoder.encode(parameter.getValue(), "UTF-8"));
+            }
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return query.toString();
+    }
+
+    /**
+     * Creates a session, holding attributes only.
+     *
+     * @return
+     */
+    static HttpSession session() {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        return (HttpSession) Proxy.newProxyInstance(MockHttp.class.getClassLoader(),
+                new Class<?>[] { HttpSession.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        synchronized(attributes) {
+                            if("getAttribute".equals(name)) {
+                                return attributes.get(args[0]);
+                            } else if("setAttribute".equals(name)) {
+                                attributes.put((String) args[0], args[1]);
+                                return null;
+                            } else if("removeAttribute".equals(name)) {
+                                attributes.remove(args[0]);
+                                return null;
+                            }
+                        }
+                        if("toString".equals(name)) {
+                            return "MockSession";
+                        }
+                        throw new UnsupportedOperationException("HttpSession." + name);
+                    }
+                });
+    }
+
+    /**
+     * Creates the context of a servlet 2.4 web application deployed to a directory.
+     *
+     * @param webroot
+     *         the directory, with the <code>WEB-INF</code> the listeners read
+     * @return
+     */
+    static ServletContext servletContext(final File webroot) {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        return (ServletContext) Proxy.newProxyInstance(MockHttp.class.getClassLoader(),
+                new Class<?>[] { ServletContext.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        synchronized(attributes) {
+                            if("getAttribute".equals(name)) {
+                                return attributes.get(args[0]);
+                            } else if("setAttribute".equals(name)) {
+                                attributes.put((String) args[0], args[1]);
+                                return null;
+                            } else if("removeAttribute".equals(name)) {
+                                attributes.remove(args[0]);
+                                return null;
+                            }
+                        }
+                        if("getRealPath".equals(name)) {
+                            return new File(webroot, (String) args[0]).getPath();
+                        } else if("getMajorVersion".equals(name)) {
+                            return Integer.valueOf(2);
+                        } else if("getMinorVersion".equals(name)) {
+                            return Integer.valueOf(4);
+                        } else if("getContextPath".equals(name)) {
+                            return "";
+                        } else if("getInitParameter".equals(name)) {
+                            return null;
+                        } else if("log".equals(name)) {
+                            return null;
+                        } else if("toString".equals(name)) {
+                            return "MockServletContext";
+                        }
+                        throw new UnsupportedOperationException("ServletContext." + name);
+                    }
+                });
+    }
+
+    /**
+     * Creates a response that remembers where it was redirected to, and its status.
+     *
+     * @param result
+     *         receives the redirect and status
+     * @return
+     */
+    static HttpServletResponse response(final Result result) {
+        return (HttpServletResponse) Proxy.newProxyInstance(MockHttp.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        if("sendRedirect".equals(name)) {
+                            result.redirect = (String) args[0];
+                            return null;
+                        } else if("setStatus".equals(name) || "sendError".equals(name)) {
+                            result.status = ((Integer) args[0]).intValue();
+                            return null;
+                        } else if("getWriter".equals(name)) {
+                            return new PrintWriter(new StringWriter());
+                        } else if(name.startsWith("set") || name.startsWith("add")) {
+                            return null;
+                        } else if("isCommitted".equals(name)) {
+                            return Boolean.valueOf(null != result.redirect);
+                        } else if("toString".equals(name)) {
+                            return "MockResponse";
+                        }
+                        throw new UnsupportedOperationException("HttpServletResponse." + name);
+                    }
+                });
+    }
+
+    /**
+     * What a response ended up with.
+     */
+    static final class Result {
+        String redirect;
+        int status = HttpServletResponse.SC_OK;
+    }
+
+}
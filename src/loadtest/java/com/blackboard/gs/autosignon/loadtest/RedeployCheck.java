@@ -0,0 +1,284 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.struts.action.ActionForward;
+import org.apache.struts.action.ActionMapping;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.service.BlackboardServicesFactory;
+import com.blackboard.gs.autosignon.servlet.AutoSignonListener;
+import com.blackboard.gs.autosignon.struts.actions.AutoSignonAction;
+import com.blackboard.gs.settings.Setting;
+import com.blackboard.gs.settings.SettingsManager;
+import com.blackboard.gs.settings.servlet.InitSettingsListener;
+
+/**
+ * Redeploy check: deploys the building block into a class loader of its own the way
+ * a container does (runs its listeners, serves some sign-ons and course forwards on
+ * a thread that outlives it, then destroys it), several times over, and fails if
+ * any of those class loaders can't be garbage collected afterwards or any of the
+ * building block's threads are still alive. Either means every redeploy on a
+ * long-running Blackboard JVM leaks the building block's classes and whatever they
+ * refer to.
+ *
+ * Everything on the class path is loaded again by each deployment's class loader,
+ * like the building block's <code>WEB-INF/lib</code>; only the JDK is shared. Exits
+ * with 1 if a class loader or thread is left behind.
+ *
+ */
+public final class RedeployCheck {
+
+    private static final int DEPLOYMENTS = 5;
+    private static final int REQUESTS = 200;
+    // how long (ms) to keep collecting garbage before calling a class loader leaked
+    private static final long COLLECT_TIMEOUT = 10000L;
+    private static final String THREAD_PREFIX = "AutoSignon ";
+    private static final String SECRET = "redeploy-check-shared-secret";
+
+    private RedeployCheck() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if(null == System.getProperty(SettingsManager.CONFIG_DIR_PROPERTY)) {
+            System.setProperty(SettingsManager.CONFIG_DIR_PROPERTY, new File(createTempDir(), "config").getPath());
+        }
+        final File webroot = createWebroot();
+        final URL[] classPath = classPath();
+
+        final List<WeakReference<ClassLoader>> loaders = new ArrayList<WeakReference<ClassLoader>>();
+        for(int i = 0; i < DEPLOYMENTS; i++) {
+            loaders.add(deployAndDestroy(classPath, webroot));
+        }
+
+        boolean passed = true;
+        for(Thread thread : Thread.getAllStackTraces().keySet()) {
+            if(thread.isAlive() && thread.getName().startsWith(THREAD_PREFIX)) {
+                System.out.println("Thread still running: " + thread.getName());
+                passed = false;
+            }
+        }
+
+        final long deadline = System.currentTimeMillis() + COLLECT_TIMEOUT;
+        int leaked = collect(loaders);
+        while(leaked > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+            leaked = collect(loaders);
+        }
+        for(int i = 0; i < loaders.size(); i++) {
+            System.out.println(String.format("deployment %d  class loader %s", i + 1, null == loaders.get(i).get() ? "collected" : "LEAKED"));
+        }
+        if(leaked > 0) {
+            System.out.println("Redeploy check FAILED, " + leaked + " of " + DEPLOYMENTS + " class loaders can't be collected."
+                    + " Take a heap dump (jmap -dump:live) and look at the paths to the AutoSignon classes.");
+            passed = false;
+        } else if(passed) {
+            System.out.println("Redeploy check passed, " + DEPLOYMENTS + " deployments left no class loader or thread behind.");
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Deploys and destroys the building block once, on this thread.
+     *
+     * @return the deployment's class loader, weakly
+     */
+    private static WeakReference<ClassLoader> deployAndDestroy(final URL[] classPath, final File webroot) throws Exception {
+        final URLClassLoader loader = new URLClassLoader(classPath, ClassLoader.getSystemClassLoader().getParent());
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            final Runnable deployment = (Runnable) loader.loadClass(Deployment.class.getName())
+                    .getConstructor(File.class).newInstance(webroot);
+            deployment.run();
+        } finally {
+            thread.setContextClassLoader(previous);
+            loader.close();
+        }
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+    /**
+     * Collects garbage, returning the number of class loaders still reachable.
+     */
+    private static int collect(final List<WeakReference<ClassLoader>> loaders) {
+        System.gc();
+        int reachable = 0;
+        for(WeakReference<ClassLoader> loader : loaders) {
+            if(null != loader.get()) {
+                reachable++;
+            }
+        }
+        return reachable;
+    }
+
+    private static URL[] classPath() throws IOException {
+        final List<URL> urls = new ArrayList<URL>();
+        for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if(entry.length() > 0) {
+                urls.add(new File(entry).toURI().toURL());
+            }
+        }
+        return urls.toArray(new URL[urls.size()]);
+    }
+
+    /**
+     * Creates a web root with the <code>WEB-INF/config/log4j.properties</code> the
+     * settings listener needs, logging warnings to the console.
+     */
+    private static File createWebroot() throws IOException {
+        final File config = new File(createTempDir(), "WEB-INF/config");
+        if(!config.mkdirs()) {
+            throw new IOException("Failed to create directory: " + config);
+        }
+        final OutputStream out = new FileOutputStream(new File(config, "log4j.properties"));
+        try {
+            out.write(("log4j.rootLogger=WARN, console\r\n"
+                    + "log4j.appender.console=org.apache.log4j.ConsoleAppender\r\n"
+                    + "log4j.appender.console.layout=org.apache.log4j.PatternLayout\r\n"
+                    + "log4j.appender.console.layout.ConversionPattern=%-5p | %c{1} | %m%n\r\n").getBytes("ISO-8859-1"));
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        return config.getParentFile().getParentFile();
+    }
+
+    private static File createTempDir() throws IOException {
+        final File dir = File.createTempFile("bbgs-redeploy-", "");
+        if(!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Failed to create temporary directory: " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * One deployment, loaded and run by the deployment's own class loader.
+     */
+    public static final class Deployment implements Runnable {
+
+        private final File webroot;
+
+        public Deployment(final File webroot) {
+            this.webroot = webroot;
+        }
+
+        public void run() {
+            final FakeBlackboard blackboard = new FakeBlackboard(new LoadTestOptions(new String[] {
+                    "latency.userLoader=0", "latency.userPersister=0", "latency.courseLoader=0",
+                    "latency.courseCourseLoader=0", "latency.courseMembershipLoader=0", "latency.sessionManager=0",
+                    "latency.sessionAssociator=0", "latency.trackingEventManager=0" }));
+            BlackboardServicesFactory.setInstance(blackboard);
+
+            final ServletContextEvent event = new ServletContextEvent(MockHttp.servletContext(webroot));
+            final InitSettingsListener settingsListener = new InitSettingsListener();
+            final AutoSignonListener autoSignonListener = new AutoSignonListener();
+            settingsListener.contextInitialized(event);
+            autoSignonListener.contextInitialized(event);
+            try {
+                final Map<Setting, String> settings = new EnumMap<Setting, String>(Setting.class);
+                settings.put(Setting.SSO_ENABLED, AutoSignonConfig.SSO_ENABLED);
+                settings.put(Setting.SHARED_SECRET, SECRET);
+                settings.put(Setting.MAC_PARAMETERS, "");
+                settings.put(Setting.MAC_ALGORITHM, AutoSignonConfig.SECURE_MAC);
+                SettingsManager.getInstance().setSettings(settings);
+
+                serve(blackboard);
+            } catch(Exception e) {
+                throw new IllegalStateException("Failed to serve requests", e);
+            } finally {
+                // in the order a container destroys them
+                autoSignonListener.contextDestroyed(event);
+                settingsListener.contextDestroyed(event);
+            }
+        }
+
+        private void serve(final FakeBlackboard blackboard) throws Exception {
+            final AutoSignonAction action = new AutoSignonAction();
+            final ActionMapping mapping = new ActionMapping();
+            mapping.addForwardConfig(new ActionForward("accessDenied", "/access_denied.jsp", false));
+
+            for(int i = 0; i < REQUESTS; i++) {
+                final int user = 1 + i % 10;
+                final Map<String, String> parameters = new HashMap<String, String>();
+                parameters.put(AutoSignonConfig.getTimestampRequestParameter(), Long.toString(System.currentTimeMillis()));
+                parameters.put(AutoSignonConfig.getUserIdRequestParameter(), "user" + user);
+                parameters.put(AutoSignonConfig.getMacRequestParameter(), mac(parameters));
+                final MockHttp.Result signOn = new MockHttp.Result();
+                action.autoSignon(mapping, null, MockHttp.request("/autoSignon.do", parameters, "10.0.0.1"), MockHttp.response(signOn));
+                // as Blackboard's request filter does at the end of every request
+                blackboard.getContextManager().purgeContext();
+                if(null == signOn.redirect) {
+                    throw new IllegalStateException("Sign-on was denied: " + parameters);
+                }
+
+                final Map<String, String> forward = new HashMap<String, String>();
+                forward.put(AutoSignonConfig.getCourseIdRequestParameter(), "course1");
+                final HttpServletRequest request = MockHttp.request("/courseForward.do", forward, "10.0.0.1");
+                request.setAttribute(FakeBlackboard.SIGNED_ON_USER, blackboard.userId(user));
+                action.courseForward(mapping, null, request, MockHttp.response(new MockHttp.Result()));
+                blackboard.getContextManager().purgeContext();
+            }
+        }
+
+        private static String mac(final Map<String, String> parameters) throws Exception {
+            final StringBuilder data = new StringBuilder();
+            for(String value : new TreeMap<String, String>(parameters).values()) {
+                data.append(value);
+            }
+            data.append(SECRET);
+            return new String(Hex.encodeHex(MessageDigest.getInstance("MD5").digest(data.toString().getBytes("UTF-8"))));
+        }
+    }
+
+}
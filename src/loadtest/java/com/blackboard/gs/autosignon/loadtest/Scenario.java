@@ -0,0 +1,93 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The mix of requests the load test sends.
+ *
+ */
+enum Scenario {
+
+    // first day of term: nearly everyone signs on straight into a course, and most
+    // of them into a handful of large first-year courses
+    TERM_START (0.9, 0.1, 5, 0.8),
+
+    // an ordinary day: half of the sign-ons go to a course, spread evenly,
+    // and some users move between courses
+    STEADY (0.5, 0.2, 0, 0.0),
+
+    // sign-ons without any course forwarding
+    SIGNON_ONLY (0.0, 0.0, 0, 0.0);
+
+    // share of sign-ons that are forwarded to a course
+    private final double courseShare;
+    // share of all requests that are course forwards of signed on users
+    private final double forwardShare;
+    // number of hot courses, and the share of course requests going to them
+    private final int hotCourses;
+    private final double hotShare;
+
+    Scenario(final double courseShare, final double forwardShare, final int hotCourses, final double hotShare) {
+        this.courseShare = courseShare;
+        this.forwardShare = forwardShare;
+        this.hotCourses = hotCourses;
+        this.hotShare = hotShare;
+    }
+
+    /**
+     * Returns whether the next request is a course forward (rather than a sign-on).
+     */
+    boolean nextIsCourseForward(final ThreadLocalRandom random) {
+        return random.nextDouble() < forwardShare;
+    }
+
+    /**
+     * Returns whether the next sign-on is forwarded to a course.
+     */
+    boolean nextHasCourse(final ThreadLocalRandom random) {
+        return random.nextDouble() < courseShare;
+    }
+
+    /**
+     * Returns the index of the course for the next course request.
+     */
+    int nextCourse(final ThreadLocalRandom random, final int courses) {
+        if(hotCourses > 0 && random.nextDouble() < hotShare) {
+            return random.nextInt(Math.min(hotCourses, courses));
+        }
+        return random.nextInt(courses);
+    }
+
+}
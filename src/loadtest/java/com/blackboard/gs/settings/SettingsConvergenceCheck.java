@@ -0,0 +1,234 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Settings convergence check: two Settings Managers sharing a config directory, as
+ * two Blackboard app nodes share the plugin's, and fails unless
+ * <ul>
+ * <li>a change stored on one node is in effect on the other within a few polls;</li>
+ * <li>changes stored on both nodes at the same time are all kept, on both;</li>
+ * <li>a node that hasn't seen the latest version yet doesn't put old values back when
+ * it stores a change of its own (a rotated secret must stay rotated).</li>
+ * </ul>
+ *
+ * It lives in the settings package for the Settings Manager constructor that takes a
+ * config directory. Exits with 1 if the nodes don't converge.
+ *
+ */
+public final class SettingsConvergenceCheck {
+
+    // how often (ms) each node polls the version file, as in production
+    private static final long POLL_INTERVAL = 1000L;
+    // how long (ms) the nodes get to agree
+    private static final long CONVERGE_TIMEOUT = 5 * POLL_INTERVAL;
+    private static final int PROPAGATION_ROUNDS = 5;
+    private static final int CONCURRENT_ROUNDS = 20;
+
+    private SettingsConvergenceCheck() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final File configDir = createTempDir();
+        final SettingsManager first = new SettingsManager(configDir, POLL_INTERVAL);
+        final SettingsManager second = new SettingsManager(configDir, POLL_INTERVAL);
+
+        boolean passed = true;
+        try {
+            passed &= checkPropagation(first, second);
+            passed &= checkConcurrentStores(first, second);
+            passed &= checkStaleNode(first, second);
+        } finally {
+            first.shutdown();
+            second.shutdown();
+            Scheduler.getInstance().shutdown();
+        }
+
+        if (passed) {
+            System.out.println("Settings convergence check passed.");
+        } else {
+            System.out.println("Settings convergence check FAILED.");
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * A change stored on one node, until it is in effect on the other.
+     */
+    private static boolean checkPropagation(final SettingsManager from, final SettingsManager to) throws InterruptedException {
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < PROPAGATION_ROUNDS; i++) {
+            final String secret = "propagated-secret-" + i;
+            final long start = System.currentTimeMillis();
+            from.setSettings(Collections.singletonMap(Setting.SHARED_SECRET, secret));
+            if (!awaitSetting(to, null, Setting.SHARED_SECRET, secret)) {
+                System.out.println("propagation      FAILED, change not picked up within " + CONVERGE_TIMEOUT + " ms");
+                return false;
+            }
+            final long millis = System.currentTimeMillis() - start;
+            total += millis;
+            max = Math.max(max, millis);
+        }
+        System.out.println(String.format("propagation      ok, %d changes, mean %d ms, max %d ms (poll interval %d ms)",
+                PROPAGATION_ROUNDS, total / PROPAGATION_ROUNDS, max, POLL_INTERVAL));
+        return true;
+    }
+
+    /**
+     * Both nodes store a change of their own at the same time; neither may be lost.
+     * Every other round one of them creates an integration profile instead.
+     */
+    private static boolean checkConcurrentStores(final SettingsManager first, final SettingsManager second) throws Exception {
+        for (int i = 0; i < CONCURRENT_ROUNDS; i++) {
+            final String range = Integer.toString(60000 + i);
+            final String threshold = Integer.toString(2000 + i);
+            final String profile = 0 == i % 2 ? null : "profile" + i;
+            final Map<Setting, String> firstChange = new EnumMap<Setting, String>(Setting.class);
+            firstChange.put(Setting.TIMESTAMP_RANGE, range);
+            final Map<Setting, String> secondChange = new EnumMap<Setting, String>(Setting.class);
+            secondChange.put(Setting.SLOW_REQUEST_THRESHOLD, threshold);
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final Thread firstStore = new Thread(new Runnable() {
+                public void run() {
+                    await(start);
+                    if (null == profile) {
+                        first.setSettings(firstChange);
+                    } else {
+                        first.setProfileSettings(profile, firstChange);
+                    }
+                }
+            });
+            final Thread secondStore = new Thread(new Runnable() {
+                public void run() {
+                    await(start);
+                    second.setSettings(secondChange);
+                }
+            });
+            firstStore.start();
+            secondStore.start();
+            start.countDown();
+            firstStore.join();
+            secondStore.join();
+
+            for (SettingsManager node : new SettingsManager[] { first, second }) {
+                if (!awaitSetting(node, profile, Setting.TIMESTAMP_RANGE, range)
+                        || !awaitSetting(node, null, Setting.SLOW_REQUEST_THRESHOLD, threshold)) {
+                    System.out.println("concurrent store FAILED in round " + (i + 1) + ", a change was lost");
+                    return false;
+                }
+            }
+            if (!awaitVersion(first, second)) {
+                System.out.println("concurrent store FAILED in round " + (i + 1) + ", the nodes disagree on the version: "
+                        + first.getVersion() + " and " + second.getVersion());
+                return false;
+            }
+        }
+        System.out.println(String.format("concurrent store ok, %d rounds, no change lost", CONCURRENT_ROUNDS));
+        return true;
+    }
+
+    /**
+     * One node stops polling, the other rotates the secret, then the stale node stores
+     * a change of everything it has (as the settings form does).
+     */
+    private static boolean checkStaleNode(final SettingsManager current, final SettingsManager stale) throws InterruptedException {
+        stale.shutdown();
+        current.setSettings(Collections.singletonMap(Setting.SHARED_SECRET, "rotated-secret"));
+
+        final Map<Setting, String> form = new EnumMap<Setting, String>(Setting.class);
+        for (Setting setting : Setting.values()) {
+            form.put(setting, stale.getSetting(setting));
+        }
+        form.put(Setting.TIMESTAMP_RANGE, "123000");
+        stale.setSettings(form);
+
+        if (!"rotated-secret".equals(stale.getSetting(Setting.SHARED_SECRET))
+                || !awaitSetting(current, null, Setting.SHARED_SECRET, "rotated-secret")
+                || !awaitSetting(current, null, Setting.TIMESTAMP_RANGE, "123000")) {
+            System.out.println("stale node       FAILED, secret " + current.getSetting(Setting.SHARED_SECRET) + " and "
+                    + stale.getSetting(Setting.SHARED_SECRET) + ", timestamp range " + current.getSetting(Setting.TIMESTAMP_RANGE));
+            return false;
+        }
+        System.out.println("stale node       ok, the rotated secret was kept");
+        return true;
+    }
+
+    private static boolean awaitSetting(final SettingsManager node, final String profile, final Setting setting, final String value)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + CONVERGE_TIMEOUT;
+        while (!value.equals(node.getSetting(profile, setting))) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10L);
+        }
+        return true;
+    }
+
+    private static boolean awaitVersion(final SettingsManager first, final SettingsManager second) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + CONVERGE_TIMEOUT;
+        while (first.getVersion() != second.getVersion()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10L);
+        }
+        return true;
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static File createTempDir() throws IOException {
+        final File dir = File.createTempFile("bbgs-settings-", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Failed to create temporary directory: " + dir);
+        }
+        return dir;
+    }
+
+}
@@ -32,6 +32,8 @@
 
 package com.blackboard.gs.autosignon;
 
+import com.blackboard.gs.autosignon.service.ForwardAllowlist;
+import com.blackboard.gs.autosignon.service.IntegrationProfiles;
 import com.blackboard.gs.settings.Setting;
 import com.blackboard.gs.settings.SettingsManager;
 
@@ -58,6 +60,40 @@ public abstract class AutoSignonConfig {
     public static final String INSECURE_MAC             = "Insecure";
     public static final String ANY_MAC                  = "Any";
 
+    public static final String FORMAT_PARAMETERS        = "Parameters";
+    public static final String FORMAT_TOKEN             = "Token";
+    public static final String FORMAT_ANY               = "Parameters or Token";
+
+    public static final String AUDIT_ENABLED            = "Enabled";
+    public static final String AUDIT_DISABLED           = "Disabled";
+
+    public static final String SLOW_REQUEST_THRESHOLD_DEF = "2000";
+
+    public static final String COURSE_PREFETCH_ENABLED  = "Enabled";
+    public static final String COURSE_PREFETCH_DISABLED = "Disabled";
+
+    public static final String ASYNC_PROCESSING_ENABLED = "Enabled";
+    public static final String ASYNC_PROCESSING_DISABLED = "Disabled";
+
+    public static final String DIRECT_DISPATCH_ENABLED  = "Enabled";
+    public static final String DIRECT_DISPATCH_DISABLED = "Disabled";
+
+    public static final String CONCURRENCY_LIMIT_ENABLED  = "Enabled";
+    public static final String CONCURRENCY_LIMIT_DISABLED = "Disabled";
+
+    public static final String CONCURRENCY_LATENCY_TARGET_DEF = "500";
+
+    public static final String COURSE_FORWARD_DEADLINE_DEF = "0";
+
+    public static final String COURSE_FALLBACK_HOME     = "Home";
+    public static final String COURSE_FALLBACK_COURSE   = "Course";
+
+    public static final String USER_INDEX_ENABLED       = "Enabled";
+    public static final String USER_INDEX_DISABLED      = "Disabled";
+
+    // the integration profiles compiled from the current settings, recompiled when they change
+    private static volatile IntegrationProfiles profiles = null;
+
 
     /**
      * Returns whether or not AutoSignon is enabled.
@@ -68,13 +104,87 @@ public abstract class AutoSignonConfig {
         return SSO_ENABLED.equals(SettingsManager.getInstance().getSetting(Setting.SSO_ENABLED));
     }
 
+    /**
+     * Returns whether or not requests are recorded in the audit trail.
+     *
+     * @return <code>true</code> if the audit trail is enabled, <code>false</code> otherwise
+     */
+    public static boolean isAuditEnabled() {
+        return AUDIT_ENABLED.equals(SettingsManager.getInstance().getSetting(Setting.AUDIT_ENABLED));
+    }
+
+    /**
+     * Returns whether or not the courses of a user are prefetched at sign-on.
+     *
+     * @return <code>true</code> if course prefetch is enabled, <code>false</code> otherwise
+     */
+    public static boolean isCoursePrefetchEnabled() {
+        return COURSE_PREFETCH_ENABLED.equals(SettingsManager.getInstance().getSetting(Setting.COURSE_PREFETCH));
+    }
+
+    /**
+     * Returns whether or not requests are processed asynchronously (on servlet 3.0 containers).
+     *
+     * @return <code>true</code> if asynchronous processing is enabled, <code>false</code> otherwise
+     */
+    public static boolean isAsyncProcessingEnabled() {
+        return ASYNC_PROCESSING_ENABLED.equals(SettingsManager.getInstance().getSetting(Setting.ASYNC_PROCESSING));
+    }
+
+    /**
+     * Returns whether or not SSO requests bypass the Struts request processor.
+     *
+     * @return <code>true</code> if direct dispatch is enabled, <code>false</code> otherwise
+     */
+    public static boolean isDirectDispatchEnabled() {
+        return DIRECT_DISPATCH_ENABLED.equals(SettingsManager.getInstance().getSetting(Setting.DIRECT_DISPATCH));
+    }
+
+    /**
+     * Returns whether or not the database-bound part of requests is concurrency limited.
+     *
+     * @return <code>true</code> if concurrency limiting is enabled, <code>false</code> otherwise
+     */
+    public static boolean isConcurrencyLimitEnabled() {
+        return CONCURRENCY_LIMIT_ENABLED.equals(SettingsManager.getInstance().getSetting(Setting.CONCURRENCY_LIMIT));
+    }
+
+    /**
+     * Returns whether or not sign-ons look their user up in the user index.
+     *
+     * @return <code>true</code> if the user index is enabled, <code>false</code> otherwise
+     */
+    public static boolean isUserIndexEnabled() {
+        return USER_INDEX_ENABLED.equals(SettingsManager.getInstance().getSetting(Setting.USER_INDEX));
+    }
+
+    /**
+     * Returns whether or not a course forward that missed the deadline goes to the course (unchecked) rather than home.
+     *
+     * @return <code>true</code> if the fallback is the course, <code>false</code> otherwise
+     */
+    public static boolean isCourseFallbackToCourse() {
+        return COURSE_FALLBACK_COURSE.equals(SettingsManager.getInstance().getSetting(Setting.COURSE_FORWARD_FALLBACK));
+    }
+
     /**
      * Returns the shared-secret used for MAC calculation.
      *
      * @return the shared secret for MAC calculation
      */
     public static String getSharedSecret() {
-        return SettingsManager.getInstance().getSetting(Setting.SHARED_SECRET);
+        return getSharedSecret(null);
+    }
+
+    /**
+     * Returns the shared-secret used for MAC calculation by an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return the shared secret for MAC calculation
+     */
+    public static String getSharedSecret(final String profile) {
+        return SettingsManager.getInstance().getSetting(profile, Setting.SHARED_SECRET);
     }
 
     /**
@@ -83,20 +193,91 @@ public abstract class AutoSignonConfig {
      * @return allowable difference (in milliseconds) between request timestamp and local timestamp
      */
     public static long getTimestampRange() {
+        return getTimestampRange(null);
+    }
+
+    /**
+     * Returns the allowable difference (in milliseconds) between request timestamp and local timestamp for an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return allowable difference (in milliseconds) between request timestamp and local timestamp
+     */
+    public static long getTimestampRange(final String profile) {
         try {
-            return Long.parseLong(SettingsManager.getInstance().getSetting(Setting.TIMESTAMP_RANGE));
+            return Long.parseLong(SettingsManager.getInstance().getSetting(profile, Setting.TIMESTAMP_RANGE));
         } catch(Exception e) {
             return Long.parseLong(TIMESTAMP_RANGE_DEF);
         }
     }
 
+    /**
+     * Returns the time (in milliseconds) above which a request is reported as slow.
+     *
+     * @return time (in milliseconds) above which a request is reported as slow
+     */
+    public static long getSlowRequestThreshold() {
+        try {
+            return Long.parseLong(SettingsManager.getInstance().getSetting(Setting.SLOW_REQUEST_THRESHOLD));
+        } catch(Exception e) {
+            return Long.parseLong(SLOW_REQUEST_THRESHOLD_DEF);
+        }
+    }
+
+    /**
+     * Returns the token monitoring systems read the plain text metrics with.
+     *
+     * @return the metrics token, empty if the plain text metrics are not available
+     */
+    public static String getMetricsToken() {
+        final String token = SettingsManager.getInstance().getSetting(Setting.METRICS_TOKEN);
+        return null == token ? "" : token.trim();
+    }
+
+    /**
+     * Returns the database time (in milliseconds) per request above which the concurrency limit is lowered.
+     *
+     * @return database time (in milliseconds) per request above which the concurrency limit is lowered
+     */
+    public static long getConcurrencyLatencyTarget() {
+        try {
+            return Long.parseLong(SettingsManager.getInstance().getSetting(Setting.CONCURRENCY_LATENCY_TARGET));
+        } catch(Exception e) {
+            return Long.parseLong(CONCURRENCY_LATENCY_TARGET_DEF);
+        }
+    }
+
+    /**
+     * Returns the time (in milliseconds) a request may take before its course forward falls back, 0 for no deadline.
+     *
+     * @return time (in milliseconds) a request may take before its course forward falls back
+     */
+    public static long getCourseForwardDeadline() {
+        try {
+            return Long.parseLong(SettingsManager.getInstance().getSetting(Setting.COURSE_FORWARD_DEADLINE));
+        } catch(Exception e) {
+            return Long.parseLong(COURSE_FORWARD_DEADLINE_DEF);
+        }
+    }
+
     /**
      * Returns whether or not the Secure MAC algorithm is allowed.
      *
      * @return <code>true</code> if Secure MAC algorithm is allowed, <code>false</code> otherwise
      */
     public static boolean allowSecureMac() {
-        final String macAlgorithm = SettingsManager.getInstance().getSetting(Setting.MAC_ALGORITHM);
+        return allowSecureMac(null);
+    }
+
+    /**
+     * Returns whether or not the Secure MAC algorithm is allowed for an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return <code>true</code> if Secure MAC algorithm is allowed, <code>false</code> otherwise
+     */
+    public static boolean allowSecureMac(final String profile) {
+        final String macAlgorithm = SettingsManager.getInstance().getSetting(profile, Setting.MAC_ALGORITHM);
         return SECURE_MAC.equals(macAlgorithm);
     }
 
@@ -106,7 +287,18 @@ public abstract class AutoSignonConfig {
      * @return <code>true</code> if Insecure MAC algorithm is allowed, <code>false</code> otherwise
      */
     public static boolean allowInsecureMac() {
-        final String macAlgorithm = SettingsManager.getInstance().getSetting(Setting.MAC_ALGORITHM);
+        return allowInsecureMac(null);
+    }
+
+    /**
+     * Returns whether or not the Insecure MAC algorithm is allowed for an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return <code>true</code> if Insecure MAC algorithm is allowed, <code>false</code> otherwise
+     */
+    public static boolean allowInsecureMac(final String profile) {
+        final String macAlgorithm = SettingsManager.getInstance().getSetting(profile, Setting.MAC_ALGORITHM);
         return INSECURE_MAC.equals(macAlgorithm) || ANY_MAC.equals(macAlgorithm);
     }
 
@@ -116,20 +308,152 @@ public abstract class AutoSignonConfig {
      * @return set of optional parameters to use in MAC calculation
      */
     public static String[] getMacParameters() {
+        return getMacParameters(null);
+    }
+
+    /**
+     * Returns array of optional parameters to use in MAC calculation by an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return set of optional parameters to use in MAC calculation
+     */
+    public static String[] getMacParameters(final String profile) {
         try {
-            return SettingsManager.getInstance().getSetting(Setting.MAC_PARAMETERS).split("\n");
+            return SettingsManager.getInstance().getSetting(profile, Setting.MAC_PARAMETERS).split("\n");
         } catch(Exception e) {
             return new String[0];
         }
     }
 
+    /**
+     * Returns whether or not SSO requests may carry their signed fields as separate
+     * request parameters with a MAC.
+     *
+     * @return <code>true</code> if the parameter format is accepted, <code>false</code> otherwise
+     */
+    public static boolean acceptsParameterFormat() {
+        return acceptsParameterFormat(null);
+    }
+
+    /**
+     * Returns whether or not SSO requests of an integration profile may carry their
+     * signed fields as separate request parameters with a MAC.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return <code>true</code> if the parameter format is accepted, <code>false</code> otherwise
+     */
+    public static boolean acceptsParameterFormat(final String profile) {
+        final String format = SettingsManager.getInstance().getSetting(profile, Setting.SSO_FORMAT);
+        return !FORMAT_TOKEN.equals(format);
+    }
+
+    /**
+     * Returns whether or not SSO requests may carry their signed fields as a single token.
+     *
+     * @return <code>true</code> if the token format is accepted, <code>false</code> otherwise
+     */
+    public static boolean acceptsTokenFormat() {
+        return acceptsTokenFormat(null);
+    }
+
+    /**
+     * Returns whether or not SSO requests of an integration profile may carry their
+     * signed fields as a single token.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return <code>true</code> if the token format is accepted, <code>false</code> otherwise
+     */
+    public static boolean acceptsTokenFormat(final String profile) {
+        final String format = SettingsManager.getInstance().getSetting(profile, Setting.SSO_FORMAT);
+        return FORMAT_TOKEN.equals(format) || FORMAT_ANY.equals(format);
+    }
+
+    /**
+     * Returns the name of the request parameter that the SSO token can be found on.
+     *
+     * @return request parameter that the SSO token can be found on
+     */
+    public static String getTokenRequestParameter() {
+        return getTokenRequestParameter(null);
+    }
+
+    /**
+     * Returns the name of the request parameter that the SSO token can be found on for an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return request parameter that the SSO token can be found on
+     */
+    public static String getTokenRequestParameter(final String profile) {
+        return SettingsManager.getInstance().getSetting(profile, Setting.PARAM_TOKEN);
+    }
+
+    /**
+     * Returns the URLs that a sign-on may forward to.
+     *
+     * @return the compiled forward allowlist
+     */
+    public static ForwardAllowlist getForwardAllowlist() {
+        return getProfiles().getDefault().getForwardAllowlist();
+    }
+
+    /**
+     * Returns the URLs that a sign-on of an integration profile may forward to, one prefix per line.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return the forward allowlist setting
+     */
+    public static String getForwardAllowlist(final String profile) {
+        return SettingsManager.getInstance().getSetting(profile, Setting.FORWARD_ALLOWLIST);
+    }
+
+    /**
+     * Returns the integration profiles, compiled from the current settings.
+     *
+     * @return
+     */
+    public static IntegrationProfiles getProfiles() {
+        final SettingsManager settingsManager = SettingsManager.getInstance();
+        final long revision = settingsManager.getRevision();
+        IntegrationProfiles compiled = profiles;
+        if(null == compiled || compiled.getRevision() != revision) {
+            compiled = IntegrationProfiles.compile(revision, settingsManager.getProfileNames(), getProfileRequestParameter());
+            profiles = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns the name of the request parameter that the integration profile name can be found on.
+     *
+     * @return request parameter that the integration profile name can be found on
+     */
+    public static String getProfileRequestParameter() {
+        return SettingsManager.getInstance().getSetting(Setting.PARAM_PROFILE);
+    }
+
     /**
      * Returns the name of the request parameter that the remote MAC can be found on.
      *
      * @return request parameter that remote MAC can be found on
      */
     public static String getMacRequestParameter() {
-        return SettingsManager.getInstance().getSetting(Setting.PARAM_MAC);
+        return getMacRequestParameter(null);
+    }
+
+    /**
+     * Returns the name of the request parameter that the remote MAC can be found on for an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return request parameter that remote MAC can be found on
+     */
+    public static String getMacRequestParameter(final String profile) {
+        return SettingsManager.getInstance().getSetting(profile, Setting.PARAM_MAC);
     }
 
     /**
@@ -138,7 +462,18 @@ public abstract class AutoSignonConfig {
      * @return request parameter that user <code>batch uid</code> can be found on
      */
     public static String getUserIdRequestParameter() {
-        return SettingsManager.getInstance().getSetting(Setting.PARAM_USERID);
+        return getUserIdRequestParameter(null);
+    }
+
+    /**
+     * Returns the name of the request parameter that the user <code>batch uid</code> can be found on for an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return request parameter that user <code>batch uid</code> can be found on
+     */
+    public static String getUserIdRequestParameter(final String profile) {
+        return SettingsManager.getInstance().getSetting(profile, Setting.PARAM_USERID);
     }
 
     /**
@@ -147,7 +482,18 @@ public abstract class AutoSignonConfig {
      * @return request parameter that timestamp can be found on
      */
     public static String getTimestampRequestParameter() {
-        return SettingsManager.getInstance().getSetting(Setting.PARAM_TIMESTAMP);
+        return getTimestampRequestParameter(null);
+    }
+
+    /**
+     * Returns the name of the request parameter that the timestamp can be found on for an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return request parameter that timestamp can be found on
+     */
+    public static String getTimestampRequestParameter(final String profile) {
+        return SettingsManager.getInstance().getSetting(profile, Setting.PARAM_TIMESTAMP);
     }
 
     /**
@@ -156,7 +502,18 @@ public abstract class AutoSignonConfig {
      * @return request parameter that forwarding url can be found on
      */
     public static String getForwardRequestParameter() {
-        return SettingsManager.getInstance().getSetting(Setting.PARAM_FORWARD);
+        return getForwardRequestParameter(null);
+    }
+
+    /**
+     * Returns the name of the request parameter that the forwarding url can be found on for an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return request parameter that forwarding url can be found on
+     */
+    public static String getForwardRequestParameter(final String profile) {
+        return SettingsManager.getInstance().getSetting(profile, Setting.PARAM_FORWARD);
     }
 
     /**
@@ -165,7 +522,18 @@ public abstract class AutoSignonConfig {
      * @return request parameter that course <code>batch uid</code> can be found on
      */
     public static String getCourseIdRequestParameter() {
-        return SettingsManager.getInstance().getSetting(Setting.PARAM_COURSEID);
+        return getCourseIdRequestParameter(null);
+    }
+
+    /**
+     * Returns the name of the request parameter that the course <code>batch uid</code> can be found on for an integration profile.
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for the default profile
+     * @return request parameter that course <code>batch uid</code> can be found on
+     */
+    public static String getCourseIdRequestParameter(final String profile) {
+        return SettingsManager.getInstance().getSetting(profile, Setting.PARAM_COURSEID);
     }
 
 }
\ No newline at end of file
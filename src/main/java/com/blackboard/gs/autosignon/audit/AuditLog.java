@@ -0,0 +1,284 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.metrics.RequestTrace;
+import com.blackboard.gs.settings.SettingsManager;
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * This class keeps an append-only audit trail of every SSO and course forward request.
+ *
+ * Request threads only encode a fixed-size {@link AuditRecord} into a lock-free ring
+ * buffer; a background thread drains the buffer in batches and appends them to the
+ * current audit file through a file channel. Files are rotated daily and by size, and
+ * removed after a retention period. They are kept in the <code>audit</code> directory
+ * next to the plugin's config directory, one set of files per node. Use
+ * {@link AuditLogReader} to decode them.
+ *
+ * If the writer can't keep up, records are dropped (and counted) rather than making
+ * requests wait.
+ *
+ */
+public final class AuditLog {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(AuditLog.class);
+
+    public static final String FILE_PREFIX      = "audit-";
+    public static final String FILE_SUFFIX      = ".bin";
+
+    private static final String DIRECTORY       = "audit";
+    private static final int BUFFER_RECORDS     = 8192;
+    private static final int BATCH_RECORDS      = 256;
+    private static final long MAX_FILE_SIZE     = 64L * 1024 * 1024;
+    private static final long RETENTION         = 30L * 24 * 60 * 60 * 1000;   // 30 days
+    private static final long IDLE_WAIT         = 50L;
+    private static final long SHUTDOWN_TIMEOUT  = 5000L;
+
+    private final AuditRingBuffer buffer;
+    private final AuditWriterThread writerThread;
+
+    private static AuditLog instance = null;
+    public static synchronized AuditLog getInstance() {
+        if(null == instance) {
+            instance = new AuditLog();
+        }
+        return instance;
+    }
+    private AuditLog() {
+        buffer = new AuditRingBuffer(BUFFER_RECORDS);
+        writerThread = new AuditWriterThread();
+        writerThread.start();
+    }
+
+    /**
+     * Queues a finished request for the audit trail, if auditing is enabled.
+     * Never blocks.
+     *
+     * @param trace
+     */
+    public void append(final RequestTrace trace) {
+        if(AutoSignonConfig.isAuditEnabled()) {
+            buffer.offer(trace);
+        }
+    }
+
+    /**
+     * Returns the number of records waiting to be written.
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return buffer.size();
+    }
+
+    /**
+     * Returns the number of records that can wait to be written before new ones are dropped.
+     *
+     * @return
+     */
+    public int getQueueCapacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns the number of records dropped because the writer fell behind.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return buffer.dropped();
+    }
+
+    /**
+     * Stops the audit writer, once it has written everything queued so far, and
+     * forgets the instance.
+     */
+    public static synchronized void destroy() {
+        if(null != instance) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Stops the writer thread once it has written everything queued so far, and
+     * waits (a little) for it to finish. The thread isn't interrupted, that would
+     * close the audit file in the middle of a write.
+     */
+    public void shutdown() {
+        writerThread.shutdown();
+        try {
+            writerThread.join(SHUTDOWN_TIMEOUT);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(writerThread.isAlive()) {
+            LOG.warn("Audit writer still running after " + SHUTDOWN_TIMEOUT + " ms, records still queued may be lost");
+        }
+    }
+
+    /**
+     * Internal writer thread, the single consumer of the ring buffer.
+     */
+    private class AuditWriterThread extends Thread {
+
+        private volatile boolean running;
+        private final ByteBuffer batch;
+        private final SimpleDateFormat fileDate;
+        private FileChannel channel;
+        private String channelDay;
+        private long channelSize;
+
+        private AuditWriterThread() {
+            super("AutoSignon audit writer");
+            setDaemon(true);
+            // set here rather than in run(), so a shutdown before the thread starts isn't lost
+            running = true;
+            batch = ByteBuffer.allocateDirect(BATCH_RECORDS * AuditRecord.SIZE);
+            fileDate = new SimpleDateFormat("yyyyMMdd-HHmmss");
+        }
+
+        public void run() {
+            while(true) {
+                batch.clear();
+                if(0 == buffer.drainTo(batch)) {
+                    if(!running) {
+                        break;
+                    }
+                    try {
+                        Thread.sleep(IDLE_WAIT);
+                    } catch(InterruptedException e) {
+                        running = false;
+                    }
+                    continue;
+                }
+
+                batch.flip();
+                try {
+                    write(batch);
+                } catch(Exception e) {
+                    LOG.error("Failed to write audit records, they are lost", e);
+                    closeChannel();
+                }
+            }
+            closeChannel();
+        }
+
+        private void shutdown() {
+            running = false;
+        }
+
+        private void write(final ByteBuffer records) throws IOException {
+            final long now = System.currentTimeMillis();
+            final String day = fileDate.format(new Date(now)).substring(0, 8);
+            if(null == channel || !day.equals(channelDay) || channelSize + records.remaining() > MAX_FILE_SIZE) {
+                rotate(now, day);
+            }
+            while(records.hasRemaining()) {
+                channelSize += channel.write(records);
+            }
+        }
+
+        private void rotate(final long now, final String day) throws IOException {
+            closeChannel();
+
+            final File directory = new File(SettingsManager.getInstance().getConfigDirectory().getParentFile(), DIRECTORY);
+            FileUtils.forceMkdir(directory);
+            removeExpired(directory, now);
+
+            final File file = new File(directory, FILE_PREFIX + hostName() + "-" + fileDate.format(new Date(now)) + FILE_SUFFIX);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            channelDay = day;
+            channelSize = channel.size();
+
+            if(0 == channelSize) {
+                final ByteBuffer header = ByteBuffer.allocate(AuditRecord.HEADER_SIZE);
+                AuditRecord.writeHeader(header);
+                header.flip();
+                while(header.hasRemaining()) {
+                    channelSize += channel.write(header);
+                }
+            }
+        }
+
+        private void removeExpired(final File directory, final long now) {
+            final File[] files = directory.listFiles();
+            if(null == files) {
+                return;
+            }
+            for(File file : files) {
+                final String name = file.getName();
+                if(name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX) && file.lastModified() < now - RETENTION) {
+                    if(!file.delete()) {
+                        LOG.warn("Failed to remove expired audit file", file, null);
+                    }
+                }
+            }
+        }
+
+        private void closeChannel() {
+            if(null == channel) {
+                return;
+            }
+            try {
+                channel.force(false);
+                channel.close();
+            } catch(IOException e) {
+                LOG.warn("Failed to close audit file", e);
+            }
+            channel = null;
+        }
+
+        private String hostName() {
+            try {
+                return InetAddress.getLocalHost().getHostName().replaceAll("[^A-Za-z0-9.-]", "_");
+            } catch(IOException e) {
+                return "localhost";
+            }
+        }
+    }
+
+}
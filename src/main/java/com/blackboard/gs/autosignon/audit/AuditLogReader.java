@@ -0,0 +1,104 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+
+/**
+ * Command line utility that decodes audit files (see {@link AuditLog}) to CSV on
+ * standard out. Usage:
+ *
+ * <pre>
+ * java -cp bbgs-autosignon.jar com.blackboard.gs.autosignon.audit.AuditLogReader audit-*.bin
+ * </pre>
+ *
+ */
+public final class AuditLogReader {
+
+    private AuditLogReader() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if(0 == args.length) {
+            System.err.println("Usage: AuditLogReader <audit file>...");
+            System.exit(1);
+        }
+
+        final PrintStream out = System.out;
+        out.println(AuditRecord.csvHeader());
+        for(String name : args) {
+            decode(new File(name), out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Decodes all complete records of an audit file as CSV lines.
+     *
+     * @param file
+     * @param out
+     * @throws IOException
+     */
+    public static void decode(final File file, final PrintStream out) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if(buffer.remaining() < AuditRecord.HEADER_SIZE
+                    || buffer.getInt() != AuditRecord.MAGIC
+                    || buffer.getInt() != AuditRecord.VERSION
+                    || buffer.getInt() != AuditRecord.SIZE) {
+                System.err.println("Not an audit file (or an unsupported version): " + file);
+                return;
+            }
+
+            final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+            final StringBuilder line = new StringBuilder(256);
+            while(buffer.remaining() >= AuditRecord.SIZE) {
+                line.setLength(0);
+                AuditRecord.toCsv(buffer, timeFormat, line);
+                out.println(line);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.audit;
+
+import java.nio.ByteBuffer;
+import java.text.DateFormat;
+import java.util.Date;
+
+import com.blackboard.gs.autosignon.metrics.Outcome;
+import com.blackboard.gs.autosignon.metrics.RequestTrace;
+import com.blackboard.gs.autosignon.metrics.Stage;
+
+/**
+ * This class defines the fixed-size binary layout of an audit record, and
+ * encodes and decodes records in that layout. All numbers are big-endian.
+ *
+ * <pre>
+ *  offset  size  field
+ *       0     8  request start time (ms since epoch)
+ *       8     4  outcomes (bit set of Outcome ordinals)
+ *      12     4  total time (us)
+ *      16    32  time per Stage (us), 8 x 4 bytes in Stage order
+ *      48    46  source ip (1 byte length, 45 bytes ASCII)
+ *      94    64  user id (1 byte length, 63 bytes ASCII)
+ *     158    64  course id (1 byte length, 63 bytes ASCII)
+ *     222     2  reserved
+ * </pre>
+ *
+ * Non-ASCII characters are stored as <code>?</code>, longer values are truncated.
+ *
+ */
+public final class AuditRecord {
+
+    public static final int SIZE            = 224;
+
+    // file header: magic, format version, record size
+    public static final int MAGIC           = 0x42424153;    // "BBAS"
+    public static final int VERSION         = 1;
+    public static final int HEADER_SIZE     = 12;
+
+    private static final int MAX_STAGES     = 8;
+    private static final int OFFSET_STAGES  = 16;
+    private static final int OFFSET_IP      = OFFSET_STAGES + MAX_STAGES * 4;
+    private static final int IP_SIZE        = 46;
+    private static final int OFFSET_USER    = OFFSET_IP + IP_SIZE;
+    private static final int USER_SIZE      = 64;
+    private static final int OFFSET_COURSE  = OFFSET_USER + USER_SIZE;
+    private static final int COURSE_SIZE    = 64;
+
+    private static final Stage[] STAGES     = Stage.values();
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private AuditRecord() {
+    }
+
+    /**
+     * Encodes a finished trace into the given array, without allocating.
+     *
+     * @param trace
+     * @param target
+     * @param offset
+     *         where the record starts in the target
+     */
+    public static void encode(final RequestTrace trace, final byte[] target, final int offset) {
+        putLong(target, offset, trace.getStartTime());
+        putInt(target, offset + 8, trace.getOutcomes());
+        putInt(target, offset + 12, toMicros(trace.getTotalNanos()));
+        for(int i = 0; i < MAX_STAGES; i++) {
+            putInt(target, offset + OFFSET_STAGES + i * 4, i < STAGES.length ? toMicros(trace.getStageNanos(STAGES[i])) : 0);
+        }
+        putString(target, offset + OFFSET_IP, IP_SIZE, trace.getRemoteAddress());
+        putString(target, offset + OFFSET_USER, USER_SIZE, trace.getUserId());
+        putString(target, offset + OFFSET_COURSE, COURSE_SIZE, trace.getCourseId());
+        target[offset + SIZE - 2] = 0;
+        target[offset + SIZE - 1] = 0;
+    }
+
+    /**
+     * Writes the file header.
+     *
+     * @param buffer
+     */
+    public static void writeHeader(final ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(SIZE);
+    }
+
+    /**
+     * Returns the column names of {@link #toCsv(ByteBuffer, DateFormat, StringBuilder)}.
+     *
+     * @return
+     */
+    public static String csvHeader() {
+        final StringBuilder buffer = new StringBuilder("time,outcomes,total_us");
+        for(Stage stage : STAGES) {
+            buffer.append(',').append(stage.getMetricName()).append("_us");
+        }
+        return buffer.append(",ip,user_id,course_id").toString();
+    }
+
+    /**
+     * Decodes the record at the buffer's position as a CSV line (without line
+     * separator), and advances the position past the record.
+     *
+     * @param buffer
+     * @param timeFormat
+     *         format for the request start time
+     * @param line
+     */
+    public static void toCsv(final ByteBuffer buffer, final DateFormat timeFormat, final StringBuilder line) {
+        final int start = buffer.position();
+
+        line.append(timeFormat.format(new Date(buffer.getLong(start))));
+        line.append(',');
+        final int outcomes = buffer.getInt(start + 8);
+        boolean first = true;
+        for(Outcome outcome : OUTCOMES) {
+            if(0 != (outcomes & (1 << outcome.ordinal()))) {
+                if(!first) {
+                    line.append('|');
+                }
+                line.append(outcome.getMetricName());
+                first = false;
+            }
+        }
+        line.append(',').append(buffer.getInt(start + 12) & 0xffffffffL);
+        for(int i = 0; i < STAGES.length && i < MAX_STAGES; i++) {
+            line.append(',').append(buffer.getInt(start + OFFSET_STAGES + i * 4) & 0xffffffffL);
+        }
+        line.append(',');
+        appendString(buffer, start + OFFSET_IP, line);
+        line.append(',');
+        appendString(buffer, start + OFFSET_USER, line);
+        line.append(',');
+        appendString(buffer, start + OFFSET_COURSE, line);
+
+        buffer.position(start + SIZE);
+    }
+
+    private static int toMicros(final long nanos) {
+        return (int) Math.min(Math.max(nanos / 1000L, 0L), 0xffffffffL);
+    }
+
+    private static void putLong(final byte[] target, final int offset, final long value) {
+        putInt(target, offset, (int) (value >>> 32));
+        putInt(target, offset + 4, (int) value);
+    }
+
+    private static void putInt(final byte[] target, final int offset, final int value) {
+        target[offset]     = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static void putString(final byte[] target, final int offset, final int size, final String value) {
+        final int length = null == value ? 0 : Math.min(value.length(), size - 1);
+        target[offset] = (byte) length;
+        for(int i = 0; i < size - 1; i++) {
+            if(i < length) {
+                final char c = value.charAt(i);
+                target[offset + 1 + i] = (byte) (c < 0x80 ? c : '?');
+            } else {
+                target[offset + 1 + i] = 0;
+            }
+        }
+    }
+
+    private static void appendString(final ByteBuffer buffer, final int offset, final StringBuilder line) {
+        final int length = buffer.get(offset) & 0xff;
+        for(int i = 0; i < length; i++) {
+            final char c = (char) buffer.get(offset + 1 + i);
+            // keep the CSV well-formed, ids never legitimately contain these
+            line.append(c == ',' || c == '"' || c < 0x20 ? '_' : c);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.audit;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.blackboard.gs.autosignon.metrics.RequestTrace;
+
+/**
+ * A bounded, lock-free, multi-producer/single-consumer ring buffer of fixed-size
+ * {@link AuditRecord}s. Records are encoded straight into a preallocated array,
+ * so offering a record neither allocates nor blocks; when the buffer is full the
+ * record is dropped (and counted) rather than slowing the request down.
+ *
+ * Each slot carries a sequence number that tells producers and the consumer
+ * whose turn it is (see Vyukov's bounded queue).
+ *
+ */
+final class AuditRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final byte[] records;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail;
+    private final AtomicLong dropped;
+
+    // only touched by the consumer
+    private long head;
+
+    /**
+     * @param capacity
+     *         number of records, rounded up to a power of two
+     */
+    AuditRingBuffer(final int capacity) {
+        int size = 1;
+        while(size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        mask = size - 1;
+        records = new byte[size * AuditRecord.SIZE];
+        sequences = new AtomicLongArray(size);
+        for(int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        tail = new AtomicLong();
+        dropped = new AtomicLong();
+        head = 0;
+    }
+
+    /**
+     * Encodes the trace into the next free slot.
+     *
+     * @param trace
+     * @return <code>false</code> if the buffer was full and the record was dropped
+     */
+    boolean offer(final RequestTrace trace) {
+        long position;
+        while(true) {
+            position = tail.get();
+            final long sequence = sequences.get((int) position & mask);
+            if(sequence == position) {
+                if(tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if(sequence < position) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            // else another producer claimed it, try the next one
+        }
+
+        final int slot = (int) position & mask;
+        AuditRecord.encode(trace, records, slot * AuditRecord.SIZE);
+        sequences.lazySet(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * Moves as many published records as fit into the target buffer. Must only
+     * be called by the single consumer.
+     *
+     * @param target
+     * @return number of records moved
+     */
+    int drainTo(final ByteBuffer target) {
+        int drained = 0;
+        while(target.remaining() >= AuditRecord.SIZE) {
+            final int slot = (int) head & mask;
+            if(sequences.get(slot) != head + 1) {
+                break;
+            }
+            target.put(records, slot * AuditRecord.SIZE, AuditRecord.SIZE);
+            sequences.lazySet(slot, head + capacity);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Returns the number of records waiting to be drained (approximately).
+     *
+     * @return
+     */
+    int size() {
+        return (int) Math.max(0, Math.min(capacity, tail.get() - head));
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+}
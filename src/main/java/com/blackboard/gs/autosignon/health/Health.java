@@ -0,0 +1,98 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.health;
+
+/**
+ * The result of a single {@link HealthIndicator} check: a status, and a short
+ * human readable detail (e.g. <code>version=12 age_ms=850</code>).
+ *
+ */
+public final class Health {
+
+    /**
+     * Health statuses, from best to worst.
+     */
+    public enum Status {
+        // working normally
+        UP,
+        // working, but getting close to a limit
+        DEGRADED,
+        // not able to serve requests, take the node out of rotation
+        DOWN
+    }
+
+    // share of a queue or cache in use above which it is reported as degraded
+    private static final double SATURATION_DEGRADED = 0.8;
+
+    private final Status status;
+    private final String detail;
+
+    private Health(final Status status, final String detail) {
+        this.status = status;
+        this.detail = detail;
+    }
+
+    public static Health up(final String detail) {
+        return new Health(Status.UP, detail);
+    }
+
+    public static Health degraded(final String detail) {
+        return new Health(Status.DEGRADED, detail);
+    }
+
+    public static Health down(final String detail) {
+        return new Health(Status.DOWN, detail);
+    }
+
+    /**
+     * Returns the health of a bounded queue or cache: degraded once it is more
+     * than 80% full.
+     *
+     * @param used
+     * @param capacity
+     * @return
+     */
+    public static Health saturation(final long used, final long capacity) {
+        final String detail = "used=" + used + " capacity=" + capacity;
+        return capacity > 0 && used >= capacity * SATURATION_DEGRADED ? degraded(detail) : up(detail);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+}
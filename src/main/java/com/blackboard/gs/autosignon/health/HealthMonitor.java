@@ -0,0 +1,311 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.health;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.blackboard.gs.autosignon.audit.AuditLog;
+import com.blackboard.gs.autosignon.service.BlackboardServices;
+import com.blackboard.gs.autosignon.service.BlackboardServicesFactory;
+import com.blackboard.gs.autosignon.service.SessionService;
+import com.blackboard.gs.settings.Scheduler;
+import com.blackboard.gs.settings.SettingsManager;
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * This class works out whether this node is ready to serve SSO requests, for load
+ * balancer probes (see <code>health.do</code>).
+ *
+ * The registered {@link HealthIndicator}s are checked by a scheduled task once a
+ * second and the resulting report is cached, ready to be written out as is, so a
+ * probe never does more than copy a few bytes. The node is reported as down if any
+ * indicator is down, or if the report itself has not been refreshed for a while.
+ *
+ * Other parts of the building block (caches, executors) can register their own
+ * indicators.
+ *
+ */
+public final class HealthMonitor {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(HealthMonitor.class);
+
+    private static final long CHECK_INTERVAL    = 1000L;
+    // a report older than this means the monitor itself is stuck
+    private static final long REPORT_MAX_AGE    = 10000L;
+    // settings not synced for this long means the sync task is stuck
+    private static final long SETTINGS_MAX_AGE  = 60000L;
+
+    private final List<HealthIndicator> indicators;
+    private final Scheduler.Task checkTask;
+    private volatile Report report;
+
+    private static HealthMonitor instance = null;
+    public static synchronized HealthMonitor getInstance() {
+        if(null == instance) {
+            instance = new HealthMonitor();
+        }
+        return instance;
+    }
+    private HealthMonitor() {
+        indicators = new CopyOnWriteArrayList<HealthIndicator>();
+        indicators.add(new SettingsIndicator());
+        indicators.add(new ServicesIndicator());
+        indicators.add(new AuditQueueIndicator());
+        indicators.add(new SchedulerIndicator());
+        report = new Report(Health.Status.DOWN, "status: DOWN\nmonitor: DOWN starting\n");
+        checkTask = Scheduler.getInstance().schedule("health_check", new HealthCheckTask(), 0L, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds an indicator to the report, from the next check on.
+     *
+     * @param indicator
+     */
+    public void registerIndicator(final HealthIndicator indicator) {
+        indicators.add(indicator);
+    }
+
+    /**
+     * Removes an indicator from the report.
+     *
+     * @param indicator
+     */
+    public void removeIndicator(final HealthIndicator indicator) {
+        indicators.remove(indicator);
+    }
+
+    /**
+     * Returns the most recent report.
+     *
+     * @return
+     */
+    public Report getReport() {
+        final Report current = report;
+        if(Health.Status.DOWN != current.status && System.currentTimeMillis() - current.createdAt > REPORT_MAX_AGE) {
+            return new Report(Health.Status.DOWN, "status: DOWN\nmonitor: DOWN report_age_ms=" + (System.currentTimeMillis() - current.createdAt) + "\n");
+        }
+        return current;
+    }
+
+    /**
+     * Stops checking the indicators and forgets the instance.
+     */
+    public static synchronized void destroy() {
+        if(null != instance) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Stops checking the indicators.
+     */
+    public void shutdown() {
+        if(null != checkTask) {
+            checkTask.cancel();
+        }
+    }
+
+    /**
+     * Internal method to check all indicators and build a new report.
+     */
+    private Report check() {
+        Health.Status overall = Health.Status.UP;
+        final StringBuilder lines = new StringBuilder(256);
+        for(HealthIndicator indicator : indicators) {
+            Health health;
+            try {
+                health = indicator.check();
+            } catch(Exception e) {
+                LOG.warn("Health check failed", indicator.getName(), e);
+                health = Health.down(e.getClass().getSimpleName());
+            }
+            if(health.getStatus().compareTo(overall) > 0) {
+                overall = health.getStatus();
+            }
+            lines.append(indicator.getName()).append(": ").append(health.getStatus());
+            if(null != health.getDetail() && health.getDetail().length() > 0) {
+                lines.append(' ').append(health.getDetail());
+            }
+            lines.append('\n');
+        }
+        return new Report(overall, "status: " + overall + "\n" + lines);
+    }
+
+    /**
+     * A cached health report, as served to probes.
+     */
+    public static final class Report {
+
+        private final Health.Status status;
+        private final byte[] body;
+        private final long createdAt;
+
+        private Report(final Health.Status status, final String text) {
+            this.status = status;
+            this.createdAt = System.currentTimeMillis();
+            byte[] bytes;
+            try {
+                bytes = text.getBytes("US-ASCII");
+            } catch(UnsupportedEncodingException e) {
+                bytes = text.getBytes();
+            }
+            this.body = bytes;
+        }
+
+        public Health.Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the report as plain text, one <code>name: STATUS detail</code> line
+         * per indicator after an overall <code>status: STATUS</code> line. Must not
+         * be modified.
+         *
+         * @return
+         */
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Reports whether the settings have been loaded and how long ago they were
+     * last synced with the properties file.
+     */
+    private static class SettingsIndicator implements HealthIndicator {
+
+        public String getName() {
+            return "settings";
+        }
+
+        public Health check() {
+            final SettingsManager settingsManager = SettingsManager.getInstance();
+            final long syncedAt = settingsManager.getLastSyncTime();
+            if(syncedAt < 0) {
+                return Health.down("not_loaded");
+            }
+            final long age = System.currentTimeMillis() - syncedAt;
+            final String detail = "version=" + settingsManager.getVersion() + " age_ms=" + age;
+            return age > SETTINGS_MAX_AGE ? Health.down(detail) : Health.up(detail);
+        }
+    }
+
+    /**
+     * Reports whether the Blackboard loaders and session manager could be obtained.
+     */
+    private static class ServicesIndicator implements HealthIndicator {
+
+        public String getName() {
+            return "services";
+        }
+
+        public Health check() {
+            final BlackboardServices services = BlackboardServicesFactory.getInstance();
+            final boolean courseLoaders = null != services.getCourseLoader() && null != services.getCourseCourseLoader()
+                    && null != services.getCourseMembershipLoader();
+            final boolean sessionServices = SessionService.getInstance().isAvailable();
+            final String detail = "session=" + sessionServices + " course=" + courseLoaders;
+            return sessionServices && courseLoaders ? Health.up(detail) : Health.down(detail);
+        }
+    }
+
+    /**
+     * Reports how full the audit queue is. A full queue only loses audit records,
+     * so it never takes the node down.
+     */
+    private static class AuditQueueIndicator implements HealthIndicator {
+
+        public String getName() {
+            return "audit_queue";
+        }
+
+        public Health check() {
+            final AuditLog auditLog = AuditLog.getInstance();
+            final Health queue = Health.saturation(auditLog.getQueueSize(), auditLog.getQueueCapacity());
+            final String detail = queue.getDetail() + " dropped=" + auditLog.getDroppedCount();
+            return Health.Status.UP == queue.getStatus() ? Health.up(detail) : Health.degraded(detail);
+        }
+    }
+
+    /**
+     * Reports whether the background tasks are running, and how many of their runs
+     * failed or overran. Those only delay what the tasks keep up to date (which other
+     * indicators report), so they never take the node down.
+     */
+    private static class SchedulerIndicator implements HealthIndicator {
+
+        public String getName() {
+            return "scheduler";
+        }
+
+        public Health check() {
+            final Scheduler scheduler = Scheduler.getInstance();
+            if(!scheduler.isRunning()) {
+                return Health.down("shut_down");
+            }
+            long failures = 0;
+            long overruns = 0;
+            final List<Scheduler.Task> tasks = scheduler.getTasks();
+            for(Scheduler.Task task : tasks) {
+                failures += task.getFailureCount();
+                overruns += task.getOverrunCount();
+            }
+            return Health.up("tasks=" + tasks.size() + " failures=" + failures + " overruns=" + overruns);
+        }
+    }
+
+    /**
+     * Internal task that refreshes the report.
+     */
+    private class HealthCheckTask implements Runnable {
+
+        public void run() {
+            try {
+                final Report previous = report;
+                report = check();
+                if(report.status.compareTo(previous.status) > 0) {
+                    LOG.warn("Health changed from " + previous.status + " to " + report.status, "\n" + new String(report.body, "US-ASCII"), null);
+                } else if(report.status != previous.status) {
+                    LOG.info("Health changed from " + previous.status + " to " + report.status);
+                }
+            } catch(Exception e) {
+                LOG.error("Failed while checking health", e);
+            }
+        }
+    }
+
+}
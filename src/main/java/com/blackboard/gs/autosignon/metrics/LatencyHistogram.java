@@ -0,0 +1,180 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram. Values are recorded in microseconds into
+ * log-linear buckets (8 buckets per power of two, so any reported percentile is
+ * within 12.5% of the real value), which keeps recording down to a couple of
+ * atomic increments with no allocation.
+ *
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS    = 3;
+    private static final int SUB_BUCKETS        = 1 << SUB_BUCKET_BITS;
+    // largest power of two tracked (2^40 microseconds is about 12 days)
+    private static final int MAX_EXPONENT       = 40;
+    private static final int BUCKETS            = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(BUCKETS);
+        count   = new AtomicLong();
+        sum     = new AtomicLong();
+        max     = new AtomicLong();
+    }
+
+    /**
+     * Records a single latency.
+     *
+     * @param nanos
+     *         the latency in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long micros = nanos < 0 ? 0 : nanos / 1000L;
+
+        buckets.incrementAndGet(bucketFor(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     *
+     * @return
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean latency in microseconds.
+     *
+     * @return
+     */
+    public long getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * Returns the largest latency recorded in microseconds.
+     *
+     * @return
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the (approximate) latency in microseconds that the given fraction
+     * of all recorded latencies did not exceed.
+     *
+     * @param fraction
+     *         the percentile as a fraction, e.g. <code>0.99</code>
+     * @return
+     */
+    public long getPercentile(final double fraction) {
+        long total = 0;
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1L, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears all recorded latencies. Latencies recorded concurrently may be
+     * partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Internal method to map a value onto its bucket.
+     */
+    private static int bucketFor(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) Math.min((value >>> shift) - SUB_BUCKETS, SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Internal method to find the largest value that maps onto a bucket.
+     */
+    private static long upperBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,69 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.metrics;
+
+/**
+ * The outcomes of an SSO or course forward request. Everything other than
+ * {@link #SUCCESS} is a reason for denying (or not forwarding) the request.
+ * The course outcomes of a sign-on are counted in addition to its own outcome,
+ * as the user is still signed on when the course can't be forwarded to.
+ *
+ */
+public enum Outcome {
+
+    SUCCESS             ("success"),
+    SSO_DISABLED        ("sso_disabled"),
+    MAC_INVALID         ("mac_invalid"),
+    TIMESTAMP_EXPIRED   ("timestamp_expired"),
+    UNKNOWN_USER        ("unknown_user"),
+    DISABLED_USER       ("disabled_user"),
+    SESSION_FAILED      ("session_failed"),
+    COURSE_INVALID      ("course_invalid"),
+    COURSE_NOT_STARTED  ("course_not_started"),
+    COURSE_OVER         ("course_over"),
+    FORWARD_NOT_ALLOWED ("forward_not_allowed"),
+    OVERLOADED          ("overloaded"),
+    COURSE_DEADLINE     ("course_deadline"),
+    UNKNOWN_PROFILE     ("unknown_profile");
+
+    private final String metricName;
+
+    Outcome(final String metricName) {
+        this.metricName = metricName;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+
+}
@@ -0,0 +1,108 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class collects the metrics of one integration profile: a latency histogram
+ * of its requests and counters for each {@link Outcome}, recorded as its requests
+ * finish (see {@link RequestTrace#setProfile(ProfileMetrics)}). Like {@link SsoMetrics}
+ * recording is lock-free and allocation-free.
+ *
+ * Requests of the default profile are only in the node-wide metrics.
+ *
+ */
+public final class ProfileMetrics {
+
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private final String name;
+    private final LatencyHistogram latency;
+    private final AtomicLongArray outcomes;
+
+    ProfileMetrics(final String name) {
+        this.name = name;
+        latency = new LatencyHistogram();
+        outcomes = new AtomicLongArray(OUTCOMES.length);
+    }
+
+    /**
+     * Records a finished request.
+     *
+     * @param outcomeBits
+     *         the outcomes of the request, as a bit set of {@link Outcome} ordinals
+     * @param nanos
+     *         time the request took, in nanoseconds
+     */
+    void record(final int outcomeBits, final long nanos) {
+        latency.record(nanos);
+        for(int bits = outcomeBits; 0 != bits; bits &= bits - 1) {
+            outcomes.incrementAndGet(Integer.numberOfTrailingZeros(bits));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the latency histogram of the profile's requests.
+     *
+     * @return
+     */
+    public LatencyHistogram getHistogram() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of the profile's requests with an outcome.
+     *
+     * @param outcome
+     * @return
+     */
+    public long getOutcomeCount(final Outcome outcome) {
+        return outcomes.get(outcome.ordinal());
+    }
+
+    /**
+     * Clears the histogram and counters.
+     */
+    public void reset() {
+        latency.reset();
+        for(int i = 0; i < outcomes.length(); i++) {
+            outcomes.set(i, 0);
+        }
+    }
+
+}
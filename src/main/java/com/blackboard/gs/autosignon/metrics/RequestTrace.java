@@ -0,0 +1,292 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.metrics;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.log4j.MDC;
+
+import com.blackboard.gs.autosignon.audit.AuditLog;
+
+/**
+ * This class collects what happens during a single SSO or course forward request:
+ * the time spent in each {@link Stage}, the {@link Outcome}s and who/what the request
+ * was for. Everything recorded here is also recorded in the node-wide {@link SsoMetrics},
+ * and once the request finishes in the {@link ProfileMetrics} of its integration profile.
+ *
+ * Each trace has a correlation id, taken from the <code>X-Correlation-Id</code> request
+ * header when the caller sends a sensible one, generated otherwise. While the trace is
+ * running the id is in the log4j MDC under {@link #MDC_KEY}, so every log line written
+ * for the request carries it. Finished traces slower than the configured threshold
+ * are kept by the {@link SlowRequestLog}.
+ *
+ * A trace lives in a request attribute, so it is available to every service that
+ * handles the request. It is not thread-safe, a request is handled by one thread at a time.
+ *
+ */
+public final class RequestTrace {
+
+    public static final String ATTRIBUTE = RequestTrace.class.getName();
+    public static final String MDC_KEY = "correlationId";
+    public static final String HEADER = "X-Correlation-Id";
+
+    private static final int MAX_CORRELATION_ID = 64;
+    private static final String NODE_PREFIX = Integer.toString(0x100000 + new Random().nextInt(0xf00000), 36);
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final long startTime;
+    private final long startNanos;
+    private final String remoteAddress;
+    private final String correlationId;
+    private final long[] stageNanos;
+    private int outcomes;
+    private long totalNanos;
+    private String userId;
+    private String courseId;
+    private ProfileMetrics profile;
+
+    private RequestTrace(final HttpServletRequest request) {
+        startTime = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        remoteAddress = request.getRemoteAddr();
+        correlationId = correlationId(request.getHeader(HEADER));
+        stageNanos = new long[STAGES.length];
+        outcomes = 0;
+        totalNanos = -1L;
+    }
+
+    private RequestTrace(final RequestTrace parent) {
+        startTime = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        remoteAddress = parent.remoteAddress;
+        correlationId = parent.correlationId;
+        stageNanos = new long[STAGES.length];
+        outcomes = 0;
+        totalNanos = -1L;
+    }
+
+    /**
+     * Starts a trace for the given request and puts its correlation id in the MDC,
+     * until the trace is finished.
+     *
+     * @param request
+     * @return
+     */
+    public static RequestTrace begin(final HttpServletRequest request) {
+        final RequestTrace trace = new RequestTrace(request);
+        request.setAttribute(ATTRIBUTE, trace);
+        MDC.put(MDC_KEY, trace.correlationId);
+        return trace;
+    }
+
+    /**
+     * Returns the trace of the given request, starting one if the request
+     * doesn't have one yet.
+     *
+     * @param request
+     * @return
+     */
+    public static RequestTrace get(final HttpServletRequest request) {
+        final Object trace = request.getAttribute(ATTRIBUTE);
+        if(trace instanceof RequestTrace) {
+            return (RequestTrace) trace;
+        }
+        // nobody will finish this one, so leave the MDC alone
+        final RequestTrace started = new RequestTrace(request);
+        request.setAttribute(ATTRIBUTE, started);
+        return started;
+    }
+
+    /**
+     * Starts a trace for work done on another thread on behalf of this request. Its
+     * stages and outcomes go to the node-wide metrics as they are recorded, and are
+     * added to this trace by {@link #join(RequestTrace)}. It is never finished itself.
+     *
+     * @return
+     */
+    public RequestTrace fork() {
+        return new RequestTrace(this);
+    }
+
+    /**
+     * Adds what a forked trace recorded to this trace. Only call this once the
+     * work on the other thread is done.
+     *
+     * @param forked
+     */
+    public void join(final RequestTrace forked) {
+        for(int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] += forked.stageNanos[i];
+        }
+        outcomes |= forked.outcomes;
+    }
+
+    /**
+     * Records the time spent in a stage. A stage may be recorded more than once,
+     * the times add up.
+     *
+     * @param stage
+     * @param nanos
+     *         time spent, in nanoseconds
+     */
+    public void recordStage(final Stage stage, final long nanos) {
+        stageNanos[stage.ordinal()] += nanos;
+        SsoMetrics.getInstance().recordStage(stage, nanos);
+    }
+
+    /**
+     * Records an outcome.
+     *
+     * @param outcome
+     */
+    public void recordOutcome(final Outcome outcome) {
+        outcomes |= 1 << outcome.ordinal();
+        SsoMetrics.getInstance().recordOutcome(outcome);
+    }
+
+    /**
+     * Ends the trace, hands it to the audit log and the slow request log, and
+     * removes the correlation id from the MDC. Calling this more than once has no effect.
+     */
+    public void finish() {
+        if(totalNanos >= 0) {
+            return;
+        }
+        totalNanos = System.nanoTime() - startNanos;
+        if(null != profile) {
+            profile.record(outcomes, totalNanos);
+        }
+        try {
+            AuditLog.getInstance().append(this);
+            SlowRequestLog.getInstance().offer(this);
+        } finally {
+            MDC.remove(MDC_KEY);
+        }
+    }
+
+    public void setUserId(final String userId) {
+        this.userId = userId;
+    }
+
+    public void setCourseId(final String courseId) {
+        this.courseId = courseId;
+    }
+
+    /**
+     * Sets the metrics of the integration profile the request is for, they get the
+     * request's outcomes and total time when it finishes.
+     *
+     * @param profile
+     *         <code>null</code> for the default profile
+     */
+    public void setProfile(final ProfileMetrics profile) {
+        this.profile = profile;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getCourseId() {
+        return courseId;
+    }
+
+    /**
+     * Returns the outcomes recorded, as a bit set of {@link Outcome} ordinals.
+     *
+     * @return
+     */
+    public int getOutcomes() {
+        return outcomes;
+    }
+
+    /**
+     * Returns the time spent in a stage, in nanoseconds.
+     *
+     * @param stage
+     * @return
+     */
+    public long getStageNanos(final Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * Returns the time the request took, in nanoseconds. Until the trace is
+     * finished this is the time elapsed so far.
+     *
+     * @return
+     */
+    public long getTotalNanos() {
+        return totalNanos >= 0 ? totalNanos : System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns the caller's correlation id if it is short and only contains letters,
+     * digits, '.', '_', ':' or '-', so it can't forge log lines; a new one otherwise.
+     *
+     * @param header
+     * @return
+     */
+    private static String correlationId(final String header) {
+        if(null != header && header.length() > 0 && header.length() <= MAX_CORRELATION_ID) {
+            boolean valid = true;
+            for(int i = 0; valid && i < header.length(); i++) {
+                final char c = header.charAt(i);
+                valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                        || c == '.' || c == '_' || c == ':' || c == '-';
+            }
+            if(valid) {
+                return header;
+            }
+        }
+        return NODE_PREFIX + "-" + Long.toString(SEQUENCE.incrementAndGet(), 36);
+    }
+
+}
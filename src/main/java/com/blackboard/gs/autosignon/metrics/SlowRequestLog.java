@@ -0,0 +1,186 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.metrics;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * This class keeps the most recent requests that took longer than the configured
+ * threshold, with a per-stage breakdown of where the time went. The buffer is
+ * bounded, once it is full the oldest entry is overwritten.
+ *
+ * Requests under the threshold cost a single comparison.
+ *
+ */
+public final class SlowRequestLog {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(SlowRequestLog.class);
+
+    private static final int CAPACITY = 100;
+    private static final Stage[] STAGES = Stage.values();
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicLong next;
+
+    private static SlowRequestLog instance = null;
+    public static synchronized SlowRequestLog getInstance() {
+        if(null == instance) {
+            instance = new SlowRequestLog();
+        }
+        return instance;
+    }
+    private SlowRequestLog() {
+        entries = new AtomicReferenceArray<Entry>(CAPACITY);
+        next = new AtomicLong();
+    }
+
+    /**
+     * Forgets the instance, the next {@link #getInstance()} creates a new one.
+     */
+    public static synchronized void destroy() {
+        instance = null;
+    }
+
+    /**
+     * Keeps the trace if it took longer than the threshold.
+     *
+     * @param trace
+     *         a finished trace
+     */
+    public void offer(final RequestTrace trace) {
+        final long totalMillis = trace.getTotalNanos() / 1000000L;
+        if(totalMillis < AutoSignonConfig.getSlowRequestThreshold()) {
+            return;
+        }
+
+        final Entry entry = new Entry(trace, totalMillis);
+        entries.set((int) (next.getAndIncrement() % CAPACITY), entry);
+        LOG.warn("Slow request", totalMillis + " ms, " + entry.getBreakdown(), null);
+    }
+
+    /**
+     * Returns the slow requests kept, most recent first.
+     *
+     * @return
+     */
+    public List<Entry> getEntries() {
+        final long last = next.get();
+        final List<Entry> list = new ArrayList<Entry>(CAPACITY);
+        for(long i = last - 1; i >= 0 && i >= last - CAPACITY; i--) {
+            final Entry entry = entries.get((int) (i % CAPACITY));
+            if(null != entry) {
+                list.add(entry);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Removes all slow requests kept.
+     */
+    public void clear() {
+        for(int i = 0; i < CAPACITY; i++) {
+            entries.set(i, null);
+        }
+    }
+
+    /**
+     * A compact, immutable copy of a slow request's trace.
+     */
+    public static final class Entry {
+
+        private final long startTime;
+        private final long totalMillis;
+        private final String correlationId;
+        private final String userId;
+        private final String courseId;
+        private final String breakdown;
+
+        private Entry(final RequestTrace trace, final long totalMillis) {
+            this.startTime = trace.getStartTime();
+            this.totalMillis = totalMillis;
+            this.correlationId = trace.getCorrelationId();
+            this.userId = trace.getUserId();
+            this.courseId = trace.getCourseId();
+
+            final StringBuilder buffer = new StringBuilder(128);
+            for(Stage stage : STAGES) {
+                final long nanos = trace.getStageNanos(stage);
+                if(nanos > 0) {
+                    if(buffer.length() > 0) {
+                        buffer.append(' ');
+                    }
+                    buffer.append(stage.getMetricName()).append('=').append(nanos / 1000000L).append("ms");
+                }
+            }
+            this.breakdown = buffer.toString();
+        }
+
+        public Date getStartTime() {
+            return new Date(startTime);
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public String getCorrelationId() {
+            return correlationId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getCourseId() {
+            return courseId;
+        }
+
+        /**
+         * Returns the time spent per stage, e.g. <code>user_load=1200ms session_associate=40ms</code>.
+         *
+         * @return
+         */
+        public String getBreakdown() {
+            return breakdown;
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.blackboard.gs.autosignon.service.ConcurrencyLimiter;
+import com.blackboard.gs.autosignon.service.CourseForwardService;
+import com.blackboard.gs.autosignon.service.UserIndex;
+import com.blackboard.gs.settings.Scheduler;
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * This class collects latency histograms for each {@link Stage} of an SSO request
+ * and counters for each {@link Outcome}. Recording is lock-free and allocation-free,
+ * so it is safe to call on every request. The {@link ProfileMetrics} of each integration
+ * profile, the state of the {@link ConcurrencyLimiter} and the {@link UserIndex}, the
+ * course lookups that found nothing (see {@link CourseForwardService}), the warnings
+ * and errors only counted by the {@link ThrottledLogger} and the run statistics of
+ * each {@link Scheduler} task are published alongside.
+ *
+ * The values are published as attributes of an MBean (see {@link #OBJECT_NAME}) and
+ * as plain text through the metrics action. Latencies are in microseconds.
+ *
+ */
+public final class SsoMetrics implements DynamicMBean {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(SsoMetrics.class);
+
+    public static final String OBJECT_NAME = "com.blackboard.gs.autosignon:type=SsoMetrics";
+
+    private static final String OP_RESET = "reset";
+
+    private final Map<Stage, LatencyHistogram> stages;
+    private final AtomicLongArray outcomes;
+    private final ConcurrentMap<String, ProfileMetrics> profiles;
+
+    private ObjectName objectName;
+
+    private static SsoMetrics instance = null;
+    public static synchronized SsoMetrics getInstance() {
+        if(null == instance) {
+            instance = new SsoMetrics();
+        }
+        return instance;
+    }
+    private SsoMetrics() {
+        stages = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+        for(Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+        outcomes = new AtomicLongArray(Outcome.values().length);
+        profiles = new ConcurrentHashMap<String, ProfileMetrics>();
+        register();
+    }
+
+    /**
+     * Records the time spent in a stage.
+     *
+     * @param stage
+     * @param nanos
+     *         time spent, in nanoseconds
+     */
+    public void recordStage(final Stage stage, final long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    /**
+     * Counts an outcome.
+     *
+     * @param outcome
+     */
+    public void recordOutcome(final Outcome outcome) {
+        outcomes.incrementAndGet(outcome.ordinal());
+    }
+
+    /**
+     * Returns the latency histogram of a stage.
+     *
+     * @param stage
+     * @return
+     */
+    public LatencyHistogram getHistogram(final Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * Returns the number of times an outcome was counted.
+     *
+     * @param outcome
+     * @return
+     */
+    public long getOutcomeCount(final Outcome outcome) {
+        return outcomes.get(outcome.ordinal());
+    }
+
+    /**
+     * Returns the metrics of an integration profile, kept from the first time they are
+     * asked for on, so they survive the profile being recompiled.
+     *
+     * @param profile
+     *         the profile name
+     * @return
+     */
+    public ProfileMetrics getProfileMetrics(final String profile) {
+        ProfileMetrics metrics = profiles.get(profile);
+        if(null == metrics) {
+            final ProfileMetrics created = new ProfileMetrics(profile);
+            metrics = profiles.putIfAbsent(profile, created);
+            if(null == metrics) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Clears all histograms and counters.
+     */
+    public void reset() {
+        for(LatencyHistogram histogram : stages.values()) {
+            histogram.reset();
+        }
+        for(int i = 0; i < outcomes.length(); i++) {
+            outcomes.set(i, 0);
+        }
+        for(ProfileMetrics profile : profiles.values()) {
+            profile.reset();
+        }
+    }
+
+    /**
+     * Returns all current values by name, in a stable order.
+     *
+     * @return
+     */
+    public Map<String, Long> getValues() {
+        final Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for(Map.Entry<Stage, LatencyHistogram> pair : stages.entrySet()) {
+            final String prefix = "stage." + pair.getKey().getMetricName() + ".";
+            final LatencyHistogram histogram = pair.getValue();
+            values.put(prefix + "count", histogram.getCount());
+            values.put(prefix + "mean_us", histogram.getMean());
+            values.put(prefix + "p50_us", histogram.getPercentile(0.50));
+            values.put(prefix + "p95_us", histogram.getPercentile(0.95));
+            values.put(prefix + "p99_us", histogram.getPercentile(0.99));
+            values.put(prefix + "max_us", histogram.getMax());
+        }
+        for(Outcome outcome : Outcome.values()) {
+            values.put("outcome." + outcome.getMetricName(), getOutcomeCount(outcome));
+        }
+        for(ProfileMetrics profile : new TreeMap<String, ProfileMetrics>(profiles).values()) {
+            final String prefix = "profile." + profile.getName() + ".";
+            final LatencyHistogram histogram = profile.getHistogram();
+            values.put(prefix + "count", histogram.getCount());
+            values.put(prefix + "mean_us", histogram.getMean());
+            values.put(prefix + "p99_us", histogram.getPercentile(0.99));
+            for(Outcome outcome : Outcome.values()) {
+                values.put(prefix + "outcome." + outcome.getMetricName(), profile.getOutcomeCount(outcome));
+            }
+        }
+        final ConcurrencyLimiter limiter = ConcurrencyLimiter.getInstance();
+        values.put("concurrency.limit", (long) limiter.getLimit());
+        values.put("concurrency.in_flight", (long) limiter.getInFlight());
+        values.put("concurrency.latency_us", limiter.getLatency());
+        values.put("concurrency.rejected", limiter.getRejectedCount());
+        final UserIndex userIndex = UserIndex.getInstance();
+        values.put("user_index.entries", (long) userIndex.getSize());
+        values.put("user_index.bytes", userIndex.getFootprint());
+        values.put("user_index.build_ms", userIndex.getBuildMillis());
+        values.put("user_index.restore_ms", userIndex.getRestoreMillis());
+        values.put("user_index.hits", userIndex.getHitCount());
+        values.put("user_index.misses", userIndex.getMissCount());
+        final CourseForwardService courseForwardService = CourseForwardService.getInstance();
+        values.put("course_misses.loaded", courseForwardService.getMissCount());
+        values.put("course_misses.cached", courseForwardService.getCachedMissCount());
+        values.put("log.suppressed", ThrottledLogger.getSuppressedCount());
+        for(Scheduler.Task task : Scheduler.getInstance().getTasks()) {
+            final String prefix = "scheduler." + task.getName() + ".";
+            values.put(prefix + "runs", task.getRunCount());
+            values.put(prefix + "failures", task.getFailureCount());
+            values.put(prefix + "overruns", task.getOverrunCount());
+            values.put(prefix + "mean_us", task.getMeanMicros());
+            values.put(prefix + "max_us", task.getMaxMicros());
+        }
+        return values;
+    }
+
+    /**
+     * Renders all current values as plain text, one <code>name value</code> pair per line.
+     *
+     * @return
+     */
+    public String toText() {
+        final StringBuilder buffer = new StringBuilder(4096);
+        for(Map.Entry<String, Long> pair : getValues().entrySet()) {
+            buffer.append(pair.getKey()).append(' ').append(pair.getValue()).append('\n');
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Unregisters the MBean and forgets the instance.
+     */
+    public static synchronized void destroy() {
+        if(null != instance) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Unregisters the MBean. Recording continues to work, but is no longer published.
+     */
+    public synchronized void shutdown() {
+        if(null == objectName) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch(Exception e) {
+            LOG.warn("Failed to unregister metrics MBean", e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Internal method to register the MBean, replacing one left behind by an earlier deployment.
+     */
+    private synchronized void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if(server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch(Exception e) {
+            LOG.warn("Failed to register metrics MBean, metrics are only available as text", e);
+        }
+    }
+
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        final Long value = getValues().get(attribute);
+        if(null == value) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    public AttributeList getAttributes(final String[] attributes) {
+        final Map<String, Long> values = getValues();
+        final AttributeList list = new AttributeList();
+        for(String attribute : attributes) {
+            if(values.containsKey(attribute)) {
+                list.add(new Attribute(attribute, values.get(attribute)));
+            }
+        }
+        return list;
+    }
+
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(final String actionName, final Object[] params, final String[] signature) throws ReflectionException {
+        if(OP_RESET.equals(actionName)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for(String name : getValues().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+        }
+        final MBeanOperationInfo reset = new MBeanOperationInfo(OP_RESET, "Clears all histograms and counters",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "AutoSignon SSO latencies and outcomes",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                new MBeanOperationInfo[] { reset }, null);
+    }
+
+}
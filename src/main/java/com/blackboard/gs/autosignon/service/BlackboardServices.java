@@ -0,0 +1,75 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import blackboard.persist.course.CourseCourseDbLoader;
+import blackboard.persist.course.CourseDbLoader;
+import blackboard.persist.course.CourseMembershipDbLoader;
+import blackboard.persist.user.UserDbLoader;
+import blackboard.persist.user.UserDbPersister;
+import blackboard.platform.context.ContextManager;
+import blackboard.platform.session.BbSessionManagerService;
+import blackboard.platform.tracking.TrackingEventManager;
+
+/**
+ * The Blackboard services the building block depends on. Services and actions get
+ * them from {@link BlackboardServicesFactory} rather than from the Blackboard
+ * factories directly, so they can be replaced outside of Blackboard (e.g. by the
+ * load test harness).
+ *
+ * A service that could not be obtained is returned as <code>null</code>.
+ *
+ */
+public interface BlackboardServices {
+
+    UserDbLoader getUserLoader();
+
+    UserDbPersister getUserPersister();
+
+    CourseDbLoader getCourseLoader();
+
+    CourseCourseDbLoader getCourseCourseLoader();
+
+    CourseMembershipDbLoader getCourseMembershipLoader();
+
+    ContextManager getContextManager();
+
+    BbSessionManagerService getSessionManager();
+
+    TrackingEventManager getTrackingEventManager();
+
+    SessionAssociator getSessionAssociator();
+
+    UserScanner getUserScanner();
+
+}
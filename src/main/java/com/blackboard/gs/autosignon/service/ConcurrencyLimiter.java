@@ -0,0 +1,214 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.health.Health;
+import com.blackboard.gs.autosignon.health.HealthIndicator;
+import com.blackboard.gs.autosignon.health.HealthMonitor;
+
+/**
+ * This class limits how many requests are in the database-bound part of SSO at once
+ * (see the <i>Concurrency Limiting</i> setting), so a slow database doesn't collect an
+ * ever growing pile of waiting requests. Requests over the limit are turned away at
+ * once instead of queuing.
+ *
+ * The limit adapts to the database (AIMD): every finished request feeds its time into
+ * a smoothed latency. While that stays under the <i>Concurrency Latency Target</i> and
+ * the limit is actually being used, the limit grows by about one per limit's worth of
+ * requests; once it goes over, the limit is cut by 10%, at most once per target
+ * latency so a burst of slow requests counts as one signal.
+ *
+ * With limiting disabled, requests are only counted.
+ *
+ */
+public final class ConcurrencyLimiter {
+
+    private static final int MIN_LIMIT          = 4;
+    private static final int MAX_LIMIT          = 256;
+    private static final int INITIAL_LIMIT      = 32;
+    private static final double BACKOFF         = 0.9;
+    // weight of a new sample in the smoothed latency
+    private static final double SMOOTHING       = 0.1;
+
+    private final AtomicInteger inFlight;
+    private final AtomicLong rejected;
+
+    // written under the lock, read without it
+    private volatile double limit;
+    private volatile long smoothedNanos;
+    private long lastDecrease;
+
+    private static ConcurrencyLimiter instance = null;
+    public static synchronized ConcurrencyLimiter getInstance() {
+        if(null == instance) {
+            instance = new ConcurrencyLimiter();
+        }
+        return instance;
+    }
+    private ConcurrencyLimiter() {
+        inFlight = new AtomicInteger();
+        rejected = new AtomicLong();
+        limit = INITIAL_LIMIT;
+        lastDecrease = System.nanoTime();
+        HealthMonitor.getInstance().registerIndicator(new LimiterIndicator());
+    }
+
+    /**
+     * Forgets the instance, the next {@link #getInstance()} creates a new one.
+     */
+    public static synchronized void destroy() {
+        instance = null;
+    }
+
+    /**
+     * Lets a request into the database-bound part, unless the limit is reached.
+     * Every request let in must be {@link #release(long) released}.
+     *
+     * @return <code>false</code> if the request must be turned away
+     */
+    public boolean tryAcquire() {
+        if(!AutoSignonConfig.isConcurrencyLimitEnabled()) {
+            inFlight.incrementAndGet();
+            return true;
+        }
+        while(true) {
+            final int current = inFlight.get();
+            if(current >= (int) limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if(inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Lets a request out again, and adapts the limit to the time it took.
+     *
+     * @param nanos
+     *         time spent in the database-bound part
+     */
+    public void release(final long nanos) {
+        final int current = inFlight.getAndDecrement();
+        update(nanos, current);
+    }
+
+    /**
+     * Internal method to feed a sample into the smoothed latency and adapt the limit.
+     *
+     * @param nanos
+     * @param inFlightBefore
+     *         requests in flight, including this one
+     */
+    private synchronized void update(final long nanos, final int inFlightBefore) {
+        final long smoothed = 0 == smoothedNanos ? nanos : smoothedNanos + (long) ((nanos - smoothedNanos) * SMOOTHING);
+        smoothedNanos = smoothed;
+
+        final long target = AutoSignonConfig.getConcurrencyLatencyTarget() * 1000000L;
+        if(smoothed > target) {
+            final long now = System.nanoTime();
+            if(now - lastDecrease >= target) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+                lastDecrease = now;
+            }
+        } else if(inFlightBefore * 2 >= limit) {
+            // only grow a limit that is actually in use
+            limit = Math.min(MAX_LIMIT, limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Returns the number of requests in the database-bound part right now.
+     *
+     * @return
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the number of requests turned away so far.
+     *
+     * @return
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the smoothed time (in microseconds) of the database-bound part, the
+     * signal the limit adapts to.
+     *
+     * @return
+     */
+    public long getLatency() {
+        return smoothedNanos / 1000L;
+    }
+
+    /**
+     * Reports the limit and whether it is turning requests away. Shedding load is
+     * what keeps the node up, so it is only ever degraded.
+     */
+    private class LimiterIndicator implements HealthIndicator {
+
+        private long lastRejected;
+
+        public String getName() {
+            return "concurrency_limit";
+        }
+
+        public Health check() {
+            final long total = rejected.get();
+            final long recent = total - lastRejected;
+            lastRejected = total;
+            final String detail = "limit=" + getLimit() + " in_flight=" + getInFlight() + " latency_us=" + getLatency()
+                    + " rejected=" + total;
+            return recent > 0 ? Health.degraded(detail) : Health.up(detail);
+        }
+    }
+
+}
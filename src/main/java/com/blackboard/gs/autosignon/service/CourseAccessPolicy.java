@@ -0,0 +1,119 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.util.Calendar;
+
+import com.blackboard.gs.autosignon.metrics.Outcome;
+
+/**
+ * This class decides whether a course forward may go to the course itself, based on
+ * the course's availability and dates. It only works on plain values, the course and
+ * membership are loaded by the caller.
+ *
+ * The checks apply to every course role. (The original role exemption for instructors,
+ * teaching assistants, course builders and graders could never match, and has been
+ * left out rather than changing who gets in.)
+ *
+ */
+public final class CourseAccessPolicy {
+
+    // a course without a start or end date
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    private CourseAccessPolicy() {
+    }
+
+    /**
+     * Returns {@link Outcome#SUCCESS} if the course can be entered today,
+     * {@link Outcome#COURSE_NOT_STARTED} if it is unavailable or hasn't started yet,
+     * or {@link Outcome#COURSE_OVER} if it has ended.
+     *
+     * @param continuous
+     *         whether the course has a continuous duration
+     * @param dateRange
+     *         whether the course has a date range duration
+     * @param available
+     *         whether the course is available
+     * @param startDate
+     *         start of the date range, may be <code>null</code>
+     * @param endDate
+     *         end of the date range, may be <code>null</code>
+     * @param now
+     *         the current time (ms since epoch)
+     * @return
+     */
+    public static Outcome checkAvailability(final boolean continuous, final boolean dateRange, final boolean available,
+            final Calendar startDate, final Calendar endDate, final long now) {
+
+        return checkAvailability(continuous, dateRange, available, toMillis(startDate), toMillis(endDate), now);
+
+    }
+
+    /**
+     * Same as {@link #checkAvailability(boolean, boolean, boolean, Calendar, Calendar, long)},
+     * with the dates in ms since epoch, or {@link #NO_DATE}.
+     *
+     * @param continuous
+     * @param dateRange
+     * @param available
+     * @param startDate
+     * @param endDate
+     * @param now
+     * @return
+     */
+    public static Outcome checkAvailability(final boolean continuous, final boolean dateRange, final boolean available,
+            final long startDate, final long endDate, final long now) {
+
+        if(continuous && !available) {
+            return Outcome.COURSE_NOT_STARTED;
+        } else if(dateRange && NO_DATE != startDate && startDate > now) {
+            return Outcome.COURSE_NOT_STARTED;
+        } else if(dateRange && NO_DATE != endDate && endDate < now) {
+            return Outcome.COURSE_OVER;
+        }
+        return Outcome.SUCCESS;
+
+    }
+
+    /**
+     * Returns the date in ms since epoch, or {@link #NO_DATE} if there is none.
+     *
+     * @param date
+     * @return
+     */
+    public static long toMillis(final Calendar date) {
+        return null == date ? NO_DATE : date.getTimeInMillis();
+    }
+
+}
@@ -0,0 +1,491 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import blackboard.data.course.Course;
+import blackboard.data.course.CourseMembership;
+import blackboard.data.course.CourseMembership.Role;
+import blackboard.data.user.User;
+import blackboard.persist.Id;
+import blackboard.persist.KeyNotFoundException;
+import blackboard.persist.PersistenceException;
+import blackboard.persist.course.CourseCourseDbLoader;
+import blackboard.persist.course.CourseDbLoader;
+import blackboard.persist.course.CourseMembershipDbLoader;
+import blackboard.persist.user.UserDbLoader;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.metrics.Outcome;
+import com.blackboard.gs.autosignon.metrics.RequestTrace;
+import com.blackboard.gs.autosignon.metrics.Stage;
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * This class resolves where a course forward would go for several courses of one
+ * user at once, e.g. for a portal listing the user's courses, or to prefetch them
+ * at sign-on (see {@link CoursePrefetcher}).
+ *
+ * Rather than loading each course and membership on its own (as a single course
+ * forward does), it loads all of the user's memberships and all of the user's
+ * courses in one query each, and matches them up by batch uid. Only cross-listed
+ * courses of non-instructors need another lookup, for their parent course. What the
+ * forward needs of each course is kept as a compact {@link Target}, checked with
+ * the same {@link CourseAccessPolicy} as a single course forward.
+ *
+ * A single course forward loads its course and membership on their own, through
+ * {@link #loadCourse(String, RequestTrace)} and {@link #loadTarget(Course, Id, RequestTrace)},
+ * possibly with a deadline (see {@link CourseTargetLoader}). Blackboard reports an
+ * unknown course, a missing membership or parent by throwing; those lookups are
+ * remembered for a minute (see {@link CourseMissCache}), so a broken link clicked
+ * over and over costs a cache lookup rather than a query and an exception, and is
+ * logged once a minute with a count.
+ *
+ */
+public final class CourseForwardService {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(CourseForwardService.class);
+
+    // most courses resolved per request
+    public static final int MAX_COURSES = 50;
+
+    // lookups that found nothing, how many are remembered and for how long
+    private static final int MISS_CACHE_SIZE    = 4096;
+    private static final long MISS_TTL          = 60L * 1000;   // 1 minute
+    // one fingerprint seed per kind of lookup
+    private static final long COURSE_SEED       = 0x165667b19e3779f9L;
+    private static final long ENROLLMENT_SEED   = 0x27d4eb2f165667c5L;
+    private static final long PARENT_SEED       = 0x85ebca77c2b2ae63L;
+
+    private final UserDbLoader userLoader;
+    private final CourseDbLoader courseLoader;
+    private final CourseCourseDbLoader courseCourseLoader;
+    private final CourseMembershipDbLoader courseMembershipLoader;
+    private final CourseMissCache misses;
+
+    private static CourseForwardService instance = null;
+    public static synchronized CourseForwardService getInstance() {
+        if(null == instance) {
+            instance = new CourseForwardService();
+        }
+        return instance;
+    }
+    private CourseForwardService() {
+        final BlackboardServices services = BlackboardServicesFactory.getInstance();
+        userLoader = services.getUserLoader();
+        courseLoader = services.getCourseLoader();
+        courseCourseLoader = services.getCourseCourseLoader();
+        courseMembershipLoader = services.getCourseMembershipLoader();
+        misses = new CourseMissCache(MISS_CACHE_SIZE, MISS_TTL);
+    }
+
+    /**
+     * Forgets the instance, the next {@link #getInstance()} creates a new one.
+     */
+    public static synchronized void destroy() {
+        instance = null;
+    }
+
+    /**
+     * Resolves the course forwards of a user, in the order of the batch uids given.
+     * A batch uid given more than once is resolved once.
+     *
+     * @param userId
+     *         the batch uid or user name of the user
+     * @param batchUids
+     *         the batch uids of the courses, at most {@link #MAX_COURSES}
+     * @param trace
+     *         the trace of the request, the course outcomes are recorded in it
+     * @return the resolutions, or <code>null</code> if the user is unknown or disabled
+     * @throws PersistenceException
+     *         if the user's courses or memberships could not be loaded
+     */
+    public List<Resolution> resolve(final String userId, final List<String> batchUids, final RequestTrace trace) throws PersistenceException {
+
+        final User user = loadUser(userId, trace);
+        if(null == user) {
+            return null;
+        }
+
+        final Map<String, Target> targets = loadTargets(user.getId(), new HashSet<String>(batchUids), Integer.MAX_VALUE, trace);
+
+        final long now = System.currentTimeMillis();
+        final List<Resolution> resolutions = new ArrayList<Resolution>(batchUids.size());
+        final Set<String> resolved = new HashSet<String>();
+        for(String batchUid : batchUids) {
+            if(resolved.add(batchUid)) {
+                final Target target = targets.get(batchUid);
+                final Resolution resolution = null == target
+                        ? new Resolution(batchUid, Outcome.COURSE_INVALID, null)
+                        : new Resolution(batchUid, target.checkAvailability(now), "/" + target.getForwardUrl());
+                trace.recordOutcome(resolution.getOutcome());
+                resolutions.add(resolution);
+            }
+        }
+        return resolutions;
+
+    }
+
+    /**
+     * Loads the targets of all courses a user is enrolled in, unless there are too many.
+     *
+     * @param userId
+     * @param maxCourses
+     *         the most courses to load
+     * @param trace
+     *         the trace to record the stages in, may be <code>null</code>
+     * @return the targets by batch uid, or <code>null</code> if the user is enrolled in more courses
+     * @throws PersistenceException
+     */
+    public Map<String, Target> loadTargets(final Id userId, final int maxCourses, final RequestTrace trace) throws PersistenceException {
+        return loadTargets(userId, null, maxCourses, trace);
+    }
+
+    /**
+     * Loads a single course for a course forward, the first half of {@link #loadTarget(Course, Id, RequestTrace)}.
+     *
+     * @param batchUid
+     * @param trace
+     *         the trace to record the stage in, may be <code>null</code>
+     * @return the course, or <code>null</code> if there is none with the batch uid
+     * @throws PersistenceException
+     *         if the course could not be loaded
+     */
+    public Course loadCourse(final String batchUid, final RequestTrace trace) throws PersistenceException {
+        final long key = UserIndex.fingerprint(batchUid, COURSE_SEED);
+        if(misses.contains(key, System.currentTimeMillis())) {
+            return null;
+        }
+        final long courseStart = System.nanoTime();
+        try {
+            return courseLoader.loadByBatchUid(batchUid);
+        } catch(KeyNotFoundException e) {
+            logMiss(misses.put(key, System.currentTimeMillis()), "Course invalid", batchUid);
+            return null;
+        } finally {
+            recordStage(trace, Stage.COURSE_LOAD, System.nanoTime() - courseStart);
+        }
+    }
+
+    /**
+     * Works out the target of a single course forward, from the user's membership
+     * (and for cross-listed courses, the parent course).
+     *
+     * @param course
+     *         the course, see {@link #loadCourse(String, RequestTrace)}
+     * @param userId
+     * @param trace
+     *         the trace to record the stages in, may be <code>null</code>
+     * @return the target, or <code>null</code> if the user isn't enrolled in the course or
+     *         the parent of a cross-listed course could not be loaded
+     * @throws PersistenceException
+     *         if the user's membership could not be loaded
+     */
+    public Target loadTarget(final Course course, final Id userId, final RequestTrace trace) throws PersistenceException {
+        final long key = UserIndex.fingerprint(course.getBatchUid(), UserIndex.fingerprint(userId.toExternalString(), ENROLLMENT_SEED));
+        if(misses.contains(key, System.currentTimeMillis())) {
+            return null;
+        }
+        final Role role;
+        final long membershipStart = System.nanoTime();
+        try {
+            role = courseMembershipLoader.loadByCourseAndUserId(course.getId(), userId).getRole();
+        } catch(KeyNotFoundException e) {
+            logMiss(misses.put(key, System.currentTimeMillis()), "User not enrolled", userId.toExternalString() + " in " + course.getBatchUid());
+            return null;
+        } finally {
+            recordStage(trace, Stage.MEMBERSHIP_LOAD, System.nanoTime() - membershipStart);
+        }
+        return toTarget(course, role, Collections.<Id, Course>emptyMap(), trace);
+    }
+
+    /**
+     * Internal method to load the targets of the courses a user is enrolled in.
+     *
+     * @param userId
+     * @param batchUids
+     *         the courses wanted, <code>null</code> for all
+     * @param maxCourses
+     * @param trace
+     * @return
+     * @throws PersistenceException
+     */
+    private Map<String, Target> loadTargets(final Id userId, final Set<String> batchUids, final int maxCourses,
+            final RequestTrace trace) throws PersistenceException {
+
+        // the user's role in each course
+        final Map<Id, Role> roles = new HashMap<Id, Role>();
+        final long membershipStart = System.nanoTime();
+        try {
+            for(CourseMembership membership : courseMembershipLoader.loadByUserId(userId)) {
+                roles.put(membership.getCourseId(), membership.getRole());
+            }
+        } finally {
+            recordStage(trace, Stage.MEMBERSHIP_LOAD, System.nanoTime() - membershipStart);
+        }
+        if(roles.size() > maxCourses) {
+            return null;
+        }
+
+        // and the courses themselves, by batch uid and by id (for the parents)
+        final List<Course> courses;
+        final Map<Id, Course> coursesById = new HashMap<Id, Course>();
+        final long courseStart = System.nanoTime();
+        try {
+            courses = courseLoader.loadByUserId(userId);
+            for(Course course : courses) {
+                coursesById.put(course.getId(), course);
+            }
+        } finally {
+            recordStage(trace, Stage.COURSE_LOAD, System.nanoTime() - courseStart);
+        }
+
+        final Map<String, Target> targets = new HashMap<String, Target>();
+        for(Course course : courses) {
+            final String batchUid = course.getBatchUid();
+            final Role role = roles.get(course.getId());
+            if(null != role && (null == batchUids || batchUids.contains(batchUid))) {
+                final Target target = toTarget(course, role, coursesById, trace);
+                if(null != target) {
+                    targets.put(batchUid, target);
+                }
+            }
+        }
+        return targets;
+
+    }
+
+    /**
+     * Internal method to work out the target of one course.
+     */
+    private Target toTarget(final Course course, final Role role, final Map<Id, Course> coursesById, final RequestTrace trace) {
+
+        // cross-listed courses are checked (and entered) through their parent, except by instructors
+        Id courseId = course.getId();
+        Course courseToCheck = course;
+        if(course.isChild() && !role.equals(CourseMembership.Role.INSTRUCTOR)) {
+            final long key = UserIndex.fingerprint(course.getBatchUid(), PARENT_SEED);
+            if(misses.contains(key, System.currentTimeMillis())) {
+                return null;
+            }
+            final long parentStart = System.nanoTime();
+            try {
+                courseId = courseCourseLoader.loadParent(courseId).getParentCourseId();
+                courseToCheck = coursesById.get(courseId);
+                if(null == courseToCheck) {
+                    courseToCheck = courseLoader.loadById(courseId);
+                }
+            } catch(KeyNotFoundException e) {
+                logMiss(misses.put(key, System.currentTimeMillis()), "Parent not found", course.getBatchUid());
+                return null;
+            } catch(Exception e) {
+                LOG.warn("Could not load parent", course.getBatchUid(), e);
+                return null;
+            } finally {
+                recordStage(trace, Stage.PARENT_LOAD, System.nanoTime() - parentStart);
+            }
+        }
+
+        return new Target(courseId,
+                courseToCheck.getDurationType() == Course.Duration.CONTINUOUS,
+                courseToCheck.getDurationType() == Course.Duration.DATE_RANGE,
+                courseToCheck.getIsAvailable(),
+                CourseAccessPolicy.toMillis(course.getStartDate()),
+                CourseAccessPolicy.toMillis(course.getEndDate()));
+
+    }
+
+    /**
+     * Returns the number of course, membership and parent lookups answered from the
+     * cache of lookups that found nothing.
+     *
+     * @return
+     */
+    public long getCachedMissCount() {
+        return misses.getHitCount();
+    }
+
+    /**
+     * Returns the number of course, membership and parent lookups that found nothing
+     * in the database.
+     *
+     * @return
+     */
+    public long getMissCount() {
+        return misses.getMissCount();
+    }
+
+    /**
+     * Internal method to log a lookup that found nothing, with the number of times it
+     * was answered from the cache since the last time it was logged.
+     */
+    private void logMiss(final long repeats, final String message, final String subject) {
+        if(repeats > 0) {
+            LOG.warn(message, subject + " (requested " + repeats + " more times in the last " + misses.getTtl() / 1000 + " s)", null);
+        } else {
+            LOG.warn(message, subject, null);
+        }
+    }
+
+    private static void recordStage(final RequestTrace trace, final Stage stage, final long nanos) {
+        if(null != trace) {
+            trace.recordStage(stage, nanos);
+        }
+    }
+
+    /**
+     * Internal method to load an available user by batch uid or, failing that, by user name.
+     */
+    private User loadUser(final String userId, final RequestTrace trace) {
+        User user = null;
+        final long userLoadStart = System.nanoTime();
+        try {
+            try {
+                user = userLoader.loadByBatchUid(userId);
+            } catch(Exception e) {
+                user = null;
+            }
+            if(null == user) {
+                user = userLoader.loadByUserName(userId);
+            }
+        } catch(Exception e) {
+            trace.recordOutcome(Outcome.UNKNOWN_USER);
+            LOG.warn("Course forwards requested for invalid user", userId, e);
+            return null;
+        } finally {
+            trace.recordStage(Stage.USER_LOAD, System.nanoTime() - userLoadStart);
+        }
+        if(!user.getIsAvailable()) {
+            trace.recordOutcome(Outcome.DISABLED_USER);
+            LOG.debug("Course forwards requested for disabled user: " + userId);
+            return null;
+        }
+        return user;
+    }
+
+    /**
+     * What a course forward needs of a course: the course it enters (the parent of a
+     * cross-listed course) and the values its availability is checked on. Immutable,
+     * serializable (it is kept in the session) and small enough to keep a few hundred
+     * per user.
+     */
+    public static final class Target implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Id courseId;
+        private final boolean continuous;
+        private final boolean dateRange;
+        private final boolean available;
+        private final long startDate;
+        private final long endDate;
+
+        private Target(final Id courseId, final boolean continuous, final boolean dateRange, final boolean available,
+                final long startDate, final long endDate) {
+            this.courseId = courseId;
+            this.continuous = continuous;
+            this.dateRange = dateRange;
+            this.available = available;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        /**
+         * Returns whether the course can be entered at the given time, see
+         * {@link CourseAccessPolicy}.
+         *
+         * @param now
+         * @return
+         */
+        public Outcome checkAvailability(final long now) {
+            return CourseAccessPolicy.checkAvailability(continuous, dateRange, available, startDate, endDate, now);
+        }
+
+        /**
+         * Returns the course's URL as the course forward redirects to it.
+         *
+         * @return
+         */
+        public String getForwardUrl() {
+            return AutoSignonConfig.BB_COURSE_HOME + courseId.toExternalString();
+        }
+    }
+
+    /**
+     * Where a course forward would go.
+     */
+    public static final class Resolution {
+
+        private final String batchUid;
+        private final Outcome outcome;
+        private final String url;
+
+        private Resolution(final String batchUid, final Outcome outcome, final String url) {
+            this.batchUid = batchUid;
+            this.outcome = outcome;
+            this.url = Outcome.SUCCESS == outcome ? url : null;
+        }
+
+        public String getBatchUid() {
+            return batchUid;
+        }
+
+        /**
+         * Returns {@link Outcome#SUCCESS}, {@link Outcome#COURSE_NOT_STARTED},
+         * {@link Outcome#COURSE_OVER} or {@link Outcome#COURSE_INVALID}.
+         *
+         * @return
+         */
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Returns the course's URL, relative to the Blackboard server.
+         *
+         * @return the URL, or <code>null</code> unless the outcome is {@link Outcome#SUCCESS}
+         */
+        public String getUrl() {
+            return url;
+        }
+    }
+
+}
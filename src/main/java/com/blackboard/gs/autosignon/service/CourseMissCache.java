@@ -0,0 +1,156 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A small negative cache of course forward lookups that found nothing: unknown
+ * course batch uids, users not enrolled in a course, cross-listed courses without
+ * a parent. Keys are 64-bit fingerprints, each remembered for a short while only,
+ * so a course created or an enrollment added meanwhile is picked up soon.
+ *
+ * The cache is direct-mapped, in three primitive arrays: a key that collides with
+ * another one simply replaces it, so the cache never grows or needs cleaning up,
+ * and a lookup is a single slot read. Readers and writers don't lock. Writers that
+ * race for a slot may leave one key with the other's expiry, which only shifts when
+ * a miss is looked up again.
+ *
+ * For each key it counts the lookups it answered, so a miss that keeps coming back
+ * can be logged once per period with a count, rather than every time.
+ *
+ */
+final class CourseMissCache {
+
+    private final AtomicLongArray fingerprints;
+    private final AtomicLongArray expiries;
+    private final AtomicLongArray repeats;
+    private final int mask;
+    private final long ttl;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * @param capacity
+     *         number of keys, rounded up to a power of two
+     * @param ttl
+     *         how long (ms) a key is remembered
+     */
+    CourseMissCache(final int capacity, final long ttl) {
+        int size = 1;
+        while(size < capacity) {
+            size <<= 1;
+        }
+        fingerprints = new AtomicLongArray(size);
+        expiries = new AtomicLongArray(size);
+        repeats = new AtomicLongArray(size);
+        mask = size - 1;
+        this.ttl = ttl;
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+    }
+
+    /**
+     * Returns whether a lookup is known to find nothing, counting it if so.
+     *
+     * @param fingerprint
+     *         of the lookup, not 0
+     * @param now
+     *         current time (ms)
+     * @return
+     */
+    boolean contains(final long fingerprint, final long now) {
+        final int slot = slot(fingerprint);
+        if(fingerprints.get(slot) != fingerprint || expiries.get(slot) <= now) {
+            return false;
+        }
+        repeats.incrementAndGet(slot);
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remembers that a lookup found nothing.
+     *
+     * @param fingerprint
+     *         of the lookup, not 0
+     * @param now
+     *         current time (ms)
+     * @return the number of times the lookup was answered from the cache since it was
+     *         last put, or -1 if it wasn't in the cache any more
+     */
+    long put(final long fingerprint, final long now) {
+        misses.incrementAndGet();
+        final int slot = slot(fingerprint);
+        final long previous = fingerprints.get(slot) == fingerprint ? repeats.getAndSet(slot, 0L) : -1L;
+        if(previous < 0) {
+            repeats.set(slot, 0L);
+        }
+        expiries.set(slot, now + ttl);
+        fingerprints.set(slot, fingerprint);
+        return previous;
+    }
+
+    /**
+     * Returns how long (ms) a key is remembered.
+     *
+     * @return
+     */
+    long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return
+     */
+    long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that found nothing in the database.
+     *
+     * @return
+     */
+    long getMissCount() {
+        return misses.get();
+    }
+
+    private int slot(final long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+
+}
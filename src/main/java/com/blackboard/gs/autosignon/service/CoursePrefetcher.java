@@ -0,0 +1,316 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import blackboard.persist.Id;
+
+import com.blackboard.gs.autosignon.health.Health;
+import com.blackboard.gs.autosignon.health.HealthIndicator;
+import com.blackboard.gs.autosignon.health.HealthMonitor;
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * This class prefetches the courses of a user at sign-on, so the course forwards that
+ * usually follow within seconds don't have to load the course and membership again
+ * (see the <i>Course Prefetch</i> setting).
+ *
+ * {@link SessionService} hands the user over once signed on; a small pool of
+ * background threads then loads the targets of all of the user's courses with
+ * {@link CourseForwardService} (two set-based queries) and keeps them in the user's
+ * HTTP session. A course forward in the same session looks its course up there
+ * first, and only goes to the database if it isn't found (not loaded yet, loaded
+ * too long ago, or a course the user was enrolled in since).
+ *
+ * Memory is bounded: users enrolled in more than {@link #MAX_COURSES} courses (admins,
+ * TAs) aren't prefetched at all, and the targets kept are small. Targets loaded late
+ * for a course forward are kept up to the same number per session, the oldest are
+ * dropped first. If the pool falls behind, prefetches are dropped (and counted)
+ * rather than queued without end.
+ *
+ */
+public final class CoursePrefetcher {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(CoursePrefetcher.class);
+
+    private static final String ATTRIBUTE = CoursePrefetcher.class.getName();
+
+    // most courses kept per session, users enrolled in more aren't prefetched
+    public static final int MAX_COURSES = 200;
+
+    // prefetched courses are not used after this long, so changes show up eventually
+    private static final long MAX_AGE       = 30L * 60 * 1000;   // 30 minutes
+    private static final int THREADS        = 2;
+    private static final int QUEUE_SIZE     = 1000;
+    // how long (ms) prefetches running at shutdown get to finish
+    private static final long SHUTDOWN_TIMEOUT = 5000L;
+
+    private final CourseForwardService courseForwardService;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong dropped;
+
+    private static CoursePrefetcher instance = null;
+    public static synchronized CoursePrefetcher getInstance() {
+        if(null == instance) {
+            instance = new CoursePrefetcher();
+        }
+        return instance;
+    }
+    private CoursePrefetcher() {
+        courseForwardService = CourseForwardService.getInstance();
+        dropped = new AtomicLong();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "AutoSignon course prefetch " + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        HealthMonitor.getInstance().registerIndicator(new PrefetchQueueIndicator());
+    }
+
+    /**
+     * Starts prefetching the courses of a user who has just signed on, into the
+     * request's session. Never blocks.
+     *
+     * @param request
+     * @param userId
+     */
+    public void prefetch(final HttpServletRequest request, final Id userId) {
+        final PrefetchedCourses courses = new PrefetchedCourses(userId);
+        request.getSession(true).setAttribute(ATTRIBUTE, courses);
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    load(courses);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the prefetched target of a course, if the user's courses have been
+     * prefetched in this session.
+     *
+     * @param request
+     * @param userId
+     *         the user signed on
+     * @param batchUid
+     *         the batch uid of the course
+     * @return the target, or <code>null</code> if it has to be loaded
+     */
+    public CourseForwardService.Target getTarget(final HttpServletRequest request, final Id userId, final String batchUid) {
+        final HttpSession session = request.getSession(false);
+        if(null == session) {
+            return null;
+        }
+        final Object courses = session.getAttribute(ATTRIBUTE);
+        if(!(courses instanceof PrefetchedCourses)) {
+            return null;
+        }
+        return ((PrefetchedCourses) courses).get(userId, batchUid, System.currentTimeMillis());
+    }
+
+    /**
+     * Keeps the target of a course that was loaded for a course forward anyway (e.g.
+     * one that came in too late, see {@link CourseTargetLoader}) with the session's
+     * prefetched courses, so the next forward to it doesn't go to the database.
+     *
+     * @param session
+     * @param userId
+     *         the user signed on
+     * @param batchUid
+     *         the batch uid of the course
+     * @param target
+     */
+    public void putTarget(final HttpSession session, final Id userId, final String batchUid, final CourseForwardService.Target target) {
+        try {
+            final Object attribute = session.getAttribute(ATTRIBUTE);
+            PrefetchedCourses courses = attribute instanceof PrefetchedCourses ? (PrefetchedCourses) attribute : null;
+            if(null == courses || !courses.isCurrent(userId, System.currentTimeMillis())) {
+                courses = new PrefetchedCourses(userId);
+                session.setAttribute(ATTRIBUTE, courses);
+            }
+            courses.put(batchUid, target);
+        } catch(IllegalStateException e) {
+            // the session has been invalidated meanwhile
+        }
+    }
+
+    /**
+     * Returns the number of prefetches dropped because the pool fell behind.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops the prefetch threads and forgets the instance.
+     */
+    public static synchronized void destroy() {
+        if(null != instance) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Stops the prefetch threads, prefetches still queued are dropped. Waits (a
+     * little) for those running to finish.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            if(!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Course prefetch threads still running after " + SHUTDOWN_TIMEOUT + " ms");
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Internal method to load the courses, on a prefetch thread.
+     */
+    private void load(final PrefetchedCourses courses) {
+        try {
+            final Map<String, CourseForwardService.Target> targets = courseForwardService.loadTargets(courses.userId, MAX_COURSES, null);
+            if(null == targets) {
+                LOG.debug("Not prefetching courses, user is enrolled in more than " + MAX_COURSES + ": " + courses.userId);
+            } else {
+                courses.putAll(targets);
+            }
+        } catch(Exception e) {
+            LOG.warn("Failed to prefetch courses of user", courses.userId, e);
+        }
+    }
+
+    /**
+     * The courses prefetched for a user, kept in the session. Empty until loaded, the
+     * map is replaced rather than changed so lookups need no lock. Serializable, so the
+     * session can be persisted or replicated by the container.
+     */
+    private static final class PrefetchedCourses implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Id userId;
+        private final long loadedAt;
+        private volatile Map<String, CourseForwardService.Target> targets;
+
+        private PrefetchedCourses(final Id userId) {
+            this.userId = userId;
+            this.loadedAt = System.currentTimeMillis();
+        }
+
+        private CourseForwardService.Target get(final Id signedOnUserId, final String batchUid, final long now) {
+            final Map<String, CourseForwardService.Target> loaded = targets;
+            if(null == loaded || !isCurrent(signedOnUserId, now)) {
+                return null;
+            }
+            return loaded.get(batchUid);
+        }
+
+        private boolean isCurrent(final Id signedOnUserId, final long now) {
+            return now - loadedAt <= MAX_AGE && userId.equals(signedOnUserId);
+        }
+
+        private synchronized void put(final String batchUid, final CourseForwardService.Target target) {
+            final Map<String, CourseForwardService.Target> copy = null == targets
+                    ? new LinkedHashMap<String, CourseForwardService.Target>()
+                    : new LinkedHashMap<String, CourseForwardService.Target>(targets);
+            // newest last, so the oldest is dropped when full
+            copy.remove(batchUid);
+            if(copy.size() >= MAX_COURSES) {
+                final Iterator<String> oldest = copy.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            copy.put(batchUid, target);
+            targets = copy;
+        }
+
+        private synchronized void putAll(final Map<String, CourseForwardService.Target> loaded) {
+            // keep targets put meanwhile (as many as fit), unless the load has them too
+            if(null != targets) {
+                for(Map.Entry<String, CourseForwardService.Target> entry : targets.entrySet()) {
+                    if(loaded.size() >= MAX_COURSES) {
+                        break;
+                    }
+                    if(!loaded.containsKey(entry.getKey())) {
+                        loaded.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            targets = loaded;
+        }
+    }
+
+    /**
+     * Reports how full the prefetch queue is. Prefetching is an optimization only,
+     * so it never takes the node down.
+     */
+    private class PrefetchQueueIndicator implements HealthIndicator {
+
+        public String getName() {
+            return "prefetch_queue";
+        }
+
+        public Health check() {
+            final Health queue = Health.saturation(executor.getQueue().size(), QUEUE_SIZE);
+            final String detail = queue.getDetail() + " dropped=" + dropped.get();
+            return Health.Status.UP == queue.getStatus() ? Health.up(detail) : Health.degraded(detail);
+        }
+    }
+
+}
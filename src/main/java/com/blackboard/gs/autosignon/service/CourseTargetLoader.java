@@ -0,0 +1,321 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpSession;
+
+import org.apache.log4j.MDC;
+
+import blackboard.data.course.Course;
+import blackboard.persist.Id;
+
+import com.blackboard.gs.autosignon.health.Health;
+import com.blackboard.gs.autosignon.health.HealthIndicator;
+import com.blackboard.gs.autosignon.health.HealthMonitor;
+import com.blackboard.gs.autosignon.metrics.RequestTrace;
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * This class loads the target of a course forward on a background thread, so the
+ * request can stop waiting for it once its deadline has passed (see the <i>Course
+ * Forward Deadline</i> setting). The user is signed on by then, so rather than
+ * waiting on a struggling database the request forwards to the fallback.
+ *
+ * A load that is given up on still runs to the end, and its target is kept with
+ * the session's prefetched courses (see {@link CoursePrefetcher#putTarget}), so
+ * following the link again is quick. If the pool is busy with loads nobody waits
+ * for any more, new loads are turned away (and counted) right away.
+ *
+ */
+public final class CourseTargetLoader {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(CourseTargetLoader.class);
+
+    private static final int THREADS        = 8;
+    private static final int QUEUE_SIZE     = 64;
+    // how long (ms) loads running at shutdown get to finish
+    private static final long SHUTDOWN_TIMEOUT = 5000L;
+
+    private final CourseForwardService courseForwardService;
+    private final CoursePrefetcher coursePrefetcher;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejected;
+    private final AtomicLong late;
+
+    private static CourseTargetLoader instance = null;
+    public static synchronized CourseTargetLoader getInstance() {
+        if(null == instance) {
+            instance = new CourseTargetLoader();
+        }
+        return instance;
+    }
+    private CourseTargetLoader() {
+        courseForwardService = CourseForwardService.getInstance();
+        coursePrefetcher = CoursePrefetcher.getInstance();
+        rejected = new AtomicLong();
+        late = new AtomicLong();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "AutoSignon course loader " + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        HealthMonitor.getInstance().registerIndicator(new LoaderQueueIndicator());
+    }
+
+    /**
+     * Starts loading the target of a course forward. Never blocks.
+     *
+     * @param userId
+     *         the user signed on
+     * @param batchUid
+     *         the batch uid of the course
+     * @param trace
+     *         the trace of the request, the stages are added to it once the load is done
+     * @return the load, or <code>null</code> if the pool is too busy to take it
+     */
+    public PendingTarget load(final Id userId, final String batchUid, final RequestTrace trace) {
+        final PendingTarget pending = new PendingTarget(userId, batchUid, trace);
+        try {
+            executor.execute(pending);
+        } catch(RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        return pending;
+    }
+
+    /**
+     * Returns the number of loads turned away because the pool was busy.
+     *
+     * @return
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the number of loads the request stopped waiting for.
+     *
+     * @return
+     */
+    public long getLateCount() {
+        return late.get();
+    }
+
+    /**
+     * Stops the loader threads and forgets the instance.
+     */
+    public static synchronized void destroy() {
+        if(null != instance) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Stops the loader threads, loads still queued are dropped. Waits (a little) for
+     * those running to finish.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            if(!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Course loader threads still running after " + SHUTDOWN_TIMEOUT + " ms");
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The load of one course forward's target. The request waits for it with
+     * {@link #await(long)}, and either uses the result or gives up on it with
+     * {@link #abandon(HttpSession)}; exactly one of the two happens.
+     */
+    public final class PendingTarget implements Runnable {
+
+        private final Id userId;
+        private final String batchUid;
+        private final RequestTrace trace;
+        private final CountDownLatch done;
+        private volatile Id courseId;
+        private CourseForwardService.Target target;
+        private Exception failure;
+        private boolean finished;
+        private HttpSession lateSession;
+        private boolean abandoned;
+
+        private PendingTarget(final Id userId, final String batchUid, final RequestTrace trace) {
+            this.userId = userId;
+            this.batchUid = batchUid;
+            this.trace = trace.fork();
+            this.done = new CountDownLatch(1);
+        }
+
+        public void run() {
+            MDC.put(RequestTrace.MDC_KEY, trace.getCorrelationId());
+            CourseForwardService.Target loaded = null;
+            Exception error = null;
+            try {
+                final Course course = courseForwardService.loadCourse(batchUid, trace);
+                if(null != course) {
+                    courseId = course.getId();
+                    loaded = courseForwardService.loadTarget(course, userId, trace);
+                }
+            } catch(Exception e) {
+                error = e;
+            } finally {
+                finish(loaded, error);
+                MDC.remove(RequestTrace.MDC_KEY);
+            }
+        }
+
+        /**
+         * Waits for the load to be done.
+         *
+         * @param nanos
+         *         the longest time to wait, in nanoseconds
+         * @return <code>true</code> if the load is done
+         */
+        public boolean await(final long nanos) {
+            try {
+                return done.await(Math.max(0L, nanos), TimeUnit.NANOSECONDS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return done.getCount() == 0;
+            }
+        }
+
+        /**
+         * Gives up on the load, unless it has just been done. The target will be
+         * kept in the session once it has been loaded.
+         *
+         * @param session
+         *         the session to keep the target in, may be <code>null</code>
+         * @return <code>false</code> if the load is done after all and its result can be used
+         */
+        public synchronized boolean abandon(final HttpSession session) {
+            if(finished) {
+                return false;
+            }
+            abandoned = true;
+            lateSession = session;
+            late.incrementAndGet();
+            return true;
+        }
+
+        /**
+         * Returns the course loaded so far: the course forwarded to, not yet checked
+         * for availability or membership.
+         *
+         * @return the course id, or <code>null</code> if the course itself isn't loaded yet
+         */
+        public Id getCourseId() {
+            return courseId;
+        }
+
+        /**
+         * Returns the target, once the load is done.
+         *
+         * @return the target, or <code>null</code> if there is none (an unknown course, or
+         *         one the user isn't enrolled in) or it could not be loaded
+         */
+        public synchronized CourseForwardService.Target getTarget() {
+            return target;
+        }
+
+        /**
+         * Returns why the target could not be loaded, once the load is done.
+         *
+         * @return the exception, or <code>null</code>
+         */
+        public synchronized Exception getFailure() {
+            return failure;
+        }
+
+        /**
+         * Returns the trace the load was recorded in, to be joined into the
+         * request's trace once the load is done.
+         *
+         * @return
+         */
+        public RequestTrace getTrace() {
+            return trace;
+        }
+
+        private void finish(final CourseForwardService.Target loaded, final Exception error) {
+            final HttpSession session;
+            synchronized(this) {
+                target = loaded;
+                failure = error;
+                finished = true;
+                session = abandoned ? lateSession : null;
+            }
+            done.countDown();
+            if(null != session && null != loaded) {
+                coursePrefetcher.putTarget(session, userId, batchUid, loaded);
+            }
+        }
+    }
+
+    /**
+     * Reports how full the loader queue is. Loads turned away only cost a fallback
+     * forward, so it never takes the node down.
+     */
+    private class LoaderQueueIndicator implements HealthIndicator {
+
+        public String getName() {
+            return "course_loader_queue";
+        }
+
+        public Health check() {
+            final Health queue = Health.saturation(executor.getQueue().size(), QUEUE_SIZE);
+            final String detail = queue.getDetail() + " late=" + late.get() + " rejected=" + rejected.get();
+            return Health.Status.UP == queue.getStatus() ? Health.up(detail) : Health.degraded(detail);
+        }
+    }
+
+}
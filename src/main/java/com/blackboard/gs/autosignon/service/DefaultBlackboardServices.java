@@ -0,0 +1,224 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import javax.servlet.http.HttpServletRequest;
+
+import blackboard.db.BbDatabase;
+import blackboard.db.ConnectionManager;
+import blackboard.persist.course.CourseCourseDbLoader;
+import blackboard.persist.course.CourseDbLoader;
+import blackboard.persist.course.CourseMembershipDbLoader;
+import blackboard.persist.user.UserDbLoader;
+import blackboard.persist.user.UserDbPersister;
+import blackboard.platform.context.ContextManager;
+import blackboard.platform.context.ContextManagerFactory;
+import blackboard.platform.security.authentication.SessionStub;
+import blackboard.platform.session.BbSessionManagerService;
+import blackboard.platform.session.BbSessionManagerServiceFactory;
+import blackboard.platform.tracking.TrackingEventManager;
+import blackboard.platform.tracking.TrackingEventManagerFactory;
+
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * The services of the running Blackboard instance, obtained once from the Blackboard
+ * factories. Each service is obtained separately, so one failing doesn't take the
+ * others with it.
+ *
+ */
+final class DefaultBlackboardServices implements BlackboardServices {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(DefaultBlackboardServices.class);
+
+    private UserDbLoader userLoader;
+    private UserDbPersister userPersister;
+    private CourseDbLoader courseLoader;
+    private CourseCourseDbLoader courseCourseLoader;
+    private CourseMembershipDbLoader courseMembershipLoader;
+    private ContextManager contextManager;
+    private BbSessionManagerService sessionManager;
+    private TrackingEventManager trackingEventManager;
+    private final SessionAssociator sessionAssociator;
+    private final UserScanner userScanner;
+
+    DefaultBlackboardServices() {
+        try {
+            userLoader = UserDbLoader.Default.getInstance();
+        } catch(Exception e) {
+            LOG.error("Error during init, failed to get UserDbLoader", e);
+        }
+        try {
+            userPersister = UserDbPersister.Default.getInstance();
+        } catch(Exception e) {
+            LOG.error("Error during init, failed to get UserDbPersister", e);
+        }
+        try {
+            courseLoader = CourseDbLoader.Default.getInstance();
+        } catch(Exception e) {
+            LOG.error("Error during init, failed to get CourseDbLoader", e);
+        }
+        try {
+            courseCourseLoader = CourseCourseDbLoader.Default.getInstance();
+        } catch(Exception e) {
+            LOG.error("Error during init, failed to get CourseCourseDbLoader", e);
+        }
+        try {
+            courseMembershipLoader = CourseMembershipDbLoader.Default.getInstance();
+        } catch(Exception e) {
+            LOG.error("Error during init, failed to get CourseMembershipDbLoader", e);
+        }
+        try {
+            contextManager = ContextManagerFactory.getInstance();
+        } catch(Exception e) {
+            LOG.error("Error during init, failed to get ContextManager", e);
+        }
+        try {
+            sessionManager = BbSessionManagerServiceFactory.getInstance();
+        } catch(Exception e) {
+            LOG.error("Error during init, failed to get BbSessionManagerService", e);
+        }
+        try {
+            trackingEventManager = TrackingEventManagerFactory.getInstance();
+        } catch(Exception e) {
+            LOG.error("Error during init, failed to get TrackingEventManager", e);
+        }
+        sessionAssociator = new SessionStubAssociator();
+        userScanner = new JdbcUserScanner();
+    }
+
+    public UserDbLoader getUserLoader() {
+        return userLoader;
+    }
+
+    public UserDbPersister getUserPersister() {
+        return userPersister;
+    }
+
+    public CourseDbLoader getCourseLoader() {
+        return courseLoader;
+    }
+
+    public CourseCourseDbLoader getCourseCourseLoader() {
+        return courseCourseLoader;
+    }
+
+    public CourseMembershipDbLoader getCourseMembershipLoader() {
+        return courseMembershipLoader;
+    }
+
+    public ContextManager getContextManager() {
+        return contextManager;
+    }
+
+    public BbSessionManagerService getSessionManager() {
+        return sessionManager;
+    }
+
+    public TrackingEventManager getTrackingEventManager() {
+        return trackingEventManager;
+    }
+
+    public SessionAssociator getSessionAssociator() {
+        return sessionAssociator;
+    }
+
+    public UserScanner getUserScanner() {
+        return userScanner;
+    }
+
+    /**
+     * Signs users on through a Blackboard session stub.
+     */
+    private static class SessionStubAssociator implements SessionAssociator {
+
+        public void associateSessionWithUser(final HttpServletRequest request, final String userName) throws Exception {
+            new SessionStub(request).associateSessionWithUser(userName);
+        }
+    }
+
+    /**
+     * Scans the users table through the Blackboard connection pool, a few columns
+     * and a thousand rows per round trip.
+     */
+    private static class JdbcUserScanner implements UserScanner {
+
+        private static final String SELECT_USERS    = "SELECT pk1, batch_uid, user_id, available_ind FROM users";
+        private static final String MODIFIED_SINCE  = " WHERE dtmodified >= ?";
+        private static final int FETCH_SIZE         = 1000;
+
+        public int scan(final long modifiedSince, final Visitor visitor) throws Exception {
+            final ConnectionManager connectionManager = BbDatabase.getDefaultInstance().getConnectionManager();
+            final Connection connection = connectionManager.getConnection();
+            PreparedStatement statement = null;
+            ResultSet result = null;
+            try {
+                statement = connection.prepareStatement(modifiedSince > 0 ? SELECT_USERS + MODIFIED_SINCE : SELECT_USERS);
+                if(modifiedSince > 0) {
+                    statement.setTimestamp(1, new Timestamp(modifiedSince));
+                }
+                statement.setFetchSize(FETCH_SIZE);
+                result = statement.executeQuery();
+                int count = 0;
+                while(result.next()) {
+                    visitor.visit(result.getLong(1), result.getString(2), result.getString(3), "Y".equals(result.getString(4)));
+                    count++;
+                }
+                return count;
+            } finally {
+                close(result, statement);
+                connectionManager.releaseConnection(connection);
+            }
+        }
+
+        private static void close(final ResultSet result, final PreparedStatement statement) {
+            try {
+                if(null != result) {
+                    result.close();
+                }
+                if(null != statement) {
+                    statement.close();
+                }
+            } catch(SQLException e) {
+                LOG.warn("Failed to close user scan", e);
+            }
+        }
+    }
+
+}
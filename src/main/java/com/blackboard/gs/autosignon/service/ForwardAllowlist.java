@@ -0,0 +1,407 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * This class decides which URLs a sign-on may forward to. The allowlist is a set
+ * of prefixes, one per line: paths on this server (<code>/webapps/</code>) or
+ * http(s) URLs of other servers (<code>https://portal.example.edu/courses/</code>).
+ * The scheme is part of the prefix, an <code>https</code> prefix doesn't allow the
+ * same URL over <code>http</code>. A protocol relative prefix
+ * (<code>//portal.example.edu/</code>) allows both schemes. A protocol relative
+ * forward URL keeps the scheme of the page it is followed from, which isn't known
+ * here, so it is only allowed if it is allowed over both schemes.
+ *
+ * The prefixes are compiled into a trie. A forward URL is normalized while it is
+ * walked down the trie, in a single pass over its characters: scheme and host are
+ * lower-cased, default ports and backslashes (which browsers read as slashes) are
+ * normalized. URLs with user info, control characters, <code>.</code> or
+ * <code>..</code> path segments, or a scheme other than http(s) never match.
+ *
+ * Instances are immutable and thread safe.
+ *
+ */
+public final class ForwardAllowlist {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(ForwardAllowlist.class);
+
+    private static final String HTTP  = "http";
+    private static final String HTTPS = "https";
+
+    private final String source;
+    private final int size;
+
+    // the trie, flattened: the edges of node n are edgeLabels/edgeTargets[edgeStart[n] .. edgeStart[n + 1]), sorted by label
+    private final int[] edgeStart;
+    private final char[] edgeLabels;
+    private final int[] edgeTargets;
+    private final boolean[] terminal;
+
+    private ForwardAllowlist(final String source, final int size, final List<String> keys) {
+        this.source = source;
+        this.size = size;
+
+        final Node root = new Node();
+        for(String key : keys) {
+            Node node = root;
+            for(int i = 0; i < key.length(); i++) {
+                Node child = node.children.get(Character.valueOf(key.charAt(i)));
+                if(null == child) {
+                    child = new Node();
+                    node.children.put(Character.valueOf(key.charAt(i)), child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+        }
+
+        // number the nodes breadth first, then copy their edges in that order
+        final List<Node> nodes = new ArrayList<Node>();
+        nodes.add(root);
+        int edges = 0;
+        for(int n = 0; n < nodes.size(); n++) {
+            for(Node child : nodes.get(n).children.values()) {
+                child.index = nodes.size();
+                nodes.add(child);
+                edges++;
+            }
+        }
+        edgeStart = new int[nodes.size() + 1];
+        edgeLabels = new char[edges];
+        edgeTargets = new int[edges];
+        terminal = new boolean[nodes.size()];
+        int edge = 0;
+        for(int n = 0; n < nodes.size(); n++) {
+            edgeStart[n] = edge;
+            terminal[n] = nodes.get(n).terminal;
+            for(Map.Entry<Character, Node> child : nodes.get(n).children.entrySet()) {
+                edgeLabels[edge] = child.getKey().charValue();
+                edgeTargets[edge] = child.getValue().index;
+                edge++;
+            }
+        }
+        edgeStart[nodes.size()] = edge;
+    }
+
+    /**
+     * Compiles an allowlist setting: one prefix per line, empty lines and lines
+     * starting with <code>#</code> are ignored, as are invalid prefixes (see
+     * {@link #isValidPrefix(String)}).
+     *
+     * @param setting
+     * @return
+     */
+    public static ForwardAllowlist compile(final String setting) {
+        final List<String> keys = new ArrayList<String>();
+        int size = 0;
+        if(null != setting) {
+            for(String line : setting.split("\n")) {
+                final String prefix = line.trim();
+                if(0 == prefix.length() || '#' == prefix.charAt(0)) {
+                    continue;
+                }
+                final KeyBuilder key = new KeyBuilder();
+                if(!normalize(prefix, HTTPS, key)) {
+                    LOG.warn("Ignoring invalid forward allowlist entry", prefix, null);
+                    continue;
+                }
+                keys.add(key.toString());
+                if(isProtocolRelative(prefix)) {
+                    final KeyBuilder http = new KeyBuilder();
+                    normalize(prefix, HTTP, http);
+                    keys.add(http.toString());
+                }
+                size++;
+            }
+        }
+        return new ForwardAllowlist(setting, size, keys);
+    }
+
+    /**
+     * Returns <code>true</code> if the prefix can be used in an allowlist.
+     *
+     * @param prefix
+     * @return
+     */
+    public static boolean isValidPrefix(final String prefix) {
+        return normalize(prefix.trim(), HTTPS, new KeyBuilder());
+    }
+
+    /**
+     * Returns <code>true</code> if this allowlist was compiled from the setting.
+     *
+     * @param setting
+     * @return
+     */
+    public boolean isCompiledFrom(final String setting) {
+        return source == setting || (null != source && source.equals(setting));
+    }
+
+    /**
+     * Returns the number of prefixes.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if the URL starts with one of the allowed prefixes.
+     *
+     * @param url
+     * @return
+     */
+    public boolean isAllowed(final String url) {
+        if(null == url || 0 == size) {
+            return false;
+        }
+        final Walker walker = new Walker();
+        if(!normalize(url, HTTPS, walker) || !walker.matched) {
+            return false;
+        }
+        if(isProtocolRelative(url)) {
+            final Walker http = new Walker();
+            return normalize(url, HTTP, http) && http.matched;
+        }
+        return true;
+    }
+
+    /**
+     * Receives the characters of a normalized URL.
+     */
+    private abstract static class Sink {
+        abstract void append(char c);
+    }
+
+    private static final class KeyBuilder extends Sink {
+
+        private final StringBuilder key = new StringBuilder(64);
+
+        void append(final char c) {
+            key.append(c);
+        }
+
+        public String toString() {
+            return key.toString();
+        }
+    }
+
+    /**
+     * Walks down the trie, remembering whether it passed the end of a prefix.
+     */
+    private final class Walker extends Sink {
+
+        private int node = 0;
+        private boolean matched = false;
+
+        void append(final char c) {
+            if(node < 0) {
+                return;
+            }
+            int low = edgeStart[node];
+            int high = edgeStart[node + 1] - 1;
+            node = -1;
+            while(low <= high) {
+                final int middle = (low + high) >>> 1;
+                final char label = edgeLabels[middle];
+                if(label < c) {
+                    low = middle + 1;
+                } else if(label > c) {
+                    high = middle - 1;
+                } else {
+                    node = edgeTargets[middle];
+                    break;
+                }
+            }
+            if(node >= 0 && terminal[node]) {
+                matched = true;
+                // a match can't be undone, the rest only needs validating
+                node = -1;
+            }
+        }
+    }
+
+    /**
+     * Normalizes a URL into the sink: <code>scheme@host[:port]/path...</code> for
+     * absolute URLs, <code>/path...</code> for paths on this server.
+     *
+     * @param relativeScheme
+     *         the scheme ({@link #HTTP} or {@link #HTTPS}) a protocol relative URL is normalized with
+     * @return <code>false</code> if the URL is one that must never match
+     */
+    private static boolean normalize(final String url, final String relativeScheme, final Sink sink) {
+        final int length = url.length();
+        int i = 0;
+        final String scheme;
+
+        if(isProtocolRelative(url)) {
+            // the browser keeps the current scheme
+            scheme = relativeScheme;
+            i = 2;
+        } else if(length > 0 && isSlash(url.charAt(0))) {
+            return normalizePath(url, 0, sink);
+        } else {
+            final int colon = url.indexOf(':');
+            if(colon <= 0) {
+                return false;
+            }
+            if(url.regionMatches(true, 0, HTTP, 0, colon) && HTTP.length() == colon) {
+                scheme = HTTP;
+            } else if(url.regionMatches(true, 0, HTTPS, 0, colon) && HTTPS.length() == colon) {
+                scheme = HTTPS;
+            } else {
+                return false;
+            }
+            if(length < colon + 3 || !isSlash(url.charAt(colon + 1)) || !isSlash(url.charAt(colon + 2))) {
+                return false;
+            }
+            i = colon + 3;
+        }
+        final int defaultPort = HTTPS.equals(scheme) ? 443 : 80;
+
+        // keys of hosts start with the scheme, keys of paths with '/', so a path prefix never matches another host
+        for(int s = 0; s < scheme.length(); s++) {
+            sink.append(scheme.charAt(s));
+        }
+        // '@' can't appear in a host, it ends the scheme
+        sink.append('@');
+        final int hostStart = i;
+        while(i < length && !isSlash(url.charAt(i)) && ':' != url.charAt(i) && '?' != url.charAt(i) && '#' != url.charAt(i)) {
+            final char c = url.charAt(i);
+            if('@' == c || isControl(c) || ' ' == c) {
+                return false;
+            }
+            sink.append(Character.toLowerCase(c));
+            i++;
+        }
+        if(i == hostStart) {
+            return false;
+        }
+
+        if(i < length && ':' == url.charAt(i)) {
+            final int portStart = ++i;
+            int port = 0;
+            while(i < length && url.charAt(i) >= '0' && url.charAt(i) <= '9') {
+                port = Math.min(port * 10 + (url.charAt(i) - '0'), 100000);
+                i++;
+            }
+            if(i == portStart || (i < length && !isSlash(url.charAt(i)) && '?' != url.charAt(i) && '#' != url.charAt(i))) {
+                return false;
+            }
+            if(port != defaultPort) {
+                sink.append(':');
+                for(int p = portStart; p < i; p++) {
+                    sink.append(url.charAt(p));
+                }
+            }
+        }
+
+        if(i == length || !isSlash(url.charAt(i))) {
+            // no path, it is the root
+            sink.append('/');
+        }
+        return normalizePath(url, i, sink);
+    }
+
+    /**
+     * Normalizes the path, query and fragment, starting at <code>start</code>.
+     */
+    private static boolean normalizePath(final String url, final int start, final Sink sink) {
+        final int length = url.length();
+        boolean inPath = true;
+        // the current path segment so far: number of dots, and whether it has anything else
+        int dots = 0;
+        boolean other = false;
+        for(int i = start; i < length; i++) {
+            char c = url.charAt(i);
+            if(isControl(c)) {
+                return false;
+            }
+            if(inPath) {
+                if('\\' == c) {
+                    c = '/';
+                }
+                if('/' == c || '?' == c || '#' == c) {
+                    if(!other && (1 == dots || 2 == dots)) {
+                        return false;
+                    }
+                    dots = 0;
+                    other = false;
+                    inPath = '/' == c;
+                } else if('.' == c) {
+                    dots++;
+                } else if('%' == c && i + 2 < length && '2' == url.charAt(i + 1) && 'e' == Character.toLowerCase(url.charAt(i + 2))) {
+                    // an encoded dot, which the server decodes
+                    dots++;
+                    sink.append(c);
+                    sink.append(url.charAt(++i));
+                    c = url.charAt(++i);
+                } else {
+                    other = true;
+                }
+            }
+            sink.append(c);
+        }
+        return !(inPath && !other && (1 == dots || 2 == dots));
+    }
+
+    private static boolean isProtocolRelative(final String url) {
+        return url.length() > 1 && isSlash(url.charAt(0)) && isSlash(url.charAt(1));
+    }
+
+    private static boolean isSlash(final char c) {
+        return '/' == c || '\\' == c;
+    }
+
+    private static boolean isControl(final char c) {
+        return c < 0x20 || 0x7f == c;
+    }
+
+    /**
+     * A trie node, only used while compiling.
+     */
+    private static final class Node {
+        private final TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+        private boolean terminal;
+        private int index;
+    }
+
+}
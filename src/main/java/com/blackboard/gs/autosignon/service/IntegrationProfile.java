@@ -0,0 +1,254 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.lang.ref.WeakReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.metrics.ProfileMetrics;
+import com.blackboard.gs.autosignon.metrics.SsoMetrics;
+import com.blackboard.gs.autosignon.signer.MacAlgorithm;
+import com.blackboard.gs.autosignon.signer.MacScheme;
+import com.blackboard.gs.autosignon.signer.SsoSigner;
+import com.blackboard.gs.autosignon.signer.SsoTokenCodec;
+
+/**
+ * The validation plan of an integration profile, a trusted system with its own shared
+ * secret, MAC parameters and request parameter names. Everything needed to validate
+ * and read its SSO requests is compiled once from the settings (the profile's own
+ * values, or the settings' values where it has none), rather than looked up for
+ * every request. The default profile is compiled from the settings alone.
+ *
+ * Instances are immutable and thread safe. The signers and token codec they hand out
+ * reuse their buffers, so each thread gets its own; they belong to the plan and are
+ * never checked against the settings again. The container's threads outlive the web
+ * application, so their thread locals only hold weak references: the signers are
+ * kept by the plan, and go away with it.
+ *
+ */
+public final class IntegrationProfile {
+
+    private final String name;
+    private final String sharedSecret;
+    private final long timestampRange;
+    private final boolean secureMac;
+    private final boolean insecureMac;
+    private final boolean parameterFormat;
+    private final boolean tokenFormat;
+    private final MacScheme scheme;
+    private final String macParameter;
+    private final String userIdParameter;
+    private final String timestampParameter;
+    private final String forwardParameter;
+    private final String courseIdParameter;
+    private final String tokenParameter;
+    private final ForwardAllowlist forwardAllowlist;
+    private final ProfileMetrics metrics;
+    private final ThreadLocal<WeakReference<ThreadSigners>> threadSigners;
+    // every thread's signers, so they live as long as the plan
+    private final Queue<ThreadSigners> allSigners;
+
+    private IntegrationProfile(final String name) {
+        this.name = name;
+        sharedSecret = AutoSignonConfig.getSharedSecret(name);
+        timestampRange = AutoSignonConfig.getTimestampRange(name);
+        secureMac = AutoSignonConfig.allowSecureMac(name);
+        insecureMac = AutoSignonConfig.allowInsecureMac(name);
+        parameterFormat = AutoSignonConfig.acceptsParameterFormat(name);
+        tokenFormat = AutoSignonConfig.acceptsTokenFormat(name);
+        macParameter = AutoSignonConfig.getMacRequestParameter(name);
+        userIdParameter = AutoSignonConfig.getUserIdRequestParameter(name);
+        timestampParameter = AutoSignonConfig.getTimestampRequestParameter(name);
+        forwardParameter = AutoSignonConfig.getForwardRequestParameter(name);
+        courseIdParameter = AutoSignonConfig.getCourseIdRequestParameter(name);
+        tokenParameter = AutoSignonConfig.getTokenRequestParameter(name);
+        scheme = new MacScheme(timestampParameter, userIdParameter, AutoSignonConfig.getMacParameters(name));
+        forwardAllowlist = ForwardAllowlist.compile(AutoSignonConfig.getForwardAllowlist(name));
+        metrics = null == name ? null : SsoMetrics.getInstance().getProfileMetrics(name);
+        threadSigners = new ThreadLocal<WeakReference<ThreadSigners>>();
+        allSigners = new ConcurrentLinkedQueue<ThreadSigners>();
+    }
+
+    /**
+     * Compiles the plan of an integration profile from the current settings.
+     *
+     * @param name
+     *         the profile name, <code>null</code> for the default profile
+     * @return
+     */
+    static IntegrationProfile compile(final String name) {
+        return new IntegrationProfile(name);
+    }
+
+    /**
+     * Returns the profile name.
+     *
+     * @return the name, <code>null</code> for the default profile
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the profile's metrics.
+     *
+     * @return the metrics, <code>null</code> for the default profile
+     */
+    public ProfileMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean hasSharedSecret() {
+        return null != sharedSecret && sharedSecret.length() > 0;
+    }
+
+    public long getTimestampRange() {
+        return timestampRange;
+    }
+
+    public boolean allowSecureMac() {
+        return secureMac;
+    }
+
+    public boolean allowInsecureMac() {
+        return insecureMac;
+    }
+
+    public boolean acceptsParameterFormat() {
+        return parameterFormat;
+    }
+
+    public boolean acceptsTokenFormat() {
+        return tokenFormat;
+    }
+
+    /**
+     * Returns the parameters the profile's MACs are calculated over.
+     *
+     * @return
+     */
+    public MacScheme getScheme() {
+        return scheme;
+    }
+
+    public String getMacRequestParameter() {
+        return macParameter;
+    }
+
+    public String getUserIdRequestParameter() {
+        return userIdParameter;
+    }
+
+    public String getTimestampRequestParameter() {
+        return timestampParameter;
+    }
+
+    public String getForwardRequestParameter() {
+        return forwardParameter;
+    }
+
+    public String getCourseIdRequestParameter() {
+        return courseIdParameter;
+    }
+
+    public String getTokenRequestParameter() {
+        return tokenParameter;
+    }
+
+    /**
+     * Returns the URLs that a sign-on of the profile may forward to.
+     *
+     * @return
+     */
+    public ForwardAllowlist getForwardAllowlist() {
+        return forwardAllowlist;
+    }
+
+    /**
+     * Returns this thread's signer for an algorithm.
+     *
+     * @param algorithm
+     * @return
+     */
+    SsoSigner getSigner(final MacAlgorithm algorithm) {
+        final ThreadSigners current = getThreadSigners();
+        SsoSigner signer = current.signers[algorithm.ordinal()];
+        if(null == signer) {
+            signer = new SsoSigner(sharedSecret, scheme, algorithm);
+            current.signers[algorithm.ordinal()] = signer;
+        }
+        return signer;
+    }
+
+    /**
+     * Returns this thread's token codec.
+     *
+     * @return the codec, or <code>null</code> if the profile has no shared secret
+     */
+    SsoTokenCodec getTokenCodec() {
+        if(!hasSharedSecret()) {
+            return null;
+        }
+        final ThreadSigners current = getThreadSigners();
+        if(null == current.tokenCodec) {
+            current.tokenCodec = new SsoTokenCodec(sharedSecret);
+        }
+        return current.tokenCodec;
+    }
+
+    /**
+     * Internal method to get this thread's signers, created on its first request.
+     */
+    private ThreadSigners getThreadSigners() {
+        final WeakReference<ThreadSigners> reference = threadSigners.get();
+        ThreadSigners current = null == reference ? null : reference.get();
+        if(null == current) {
+            current = new ThreadSigners();
+            allSigners.add(current);
+            threadSigners.set(new WeakReference<ThreadSigners>(current));
+        }
+        return current;
+    }
+
+    /**
+     * The signers and token codec of one thread.
+     */
+    private static final class ThreadSigners {
+
+        private final SsoSigner[] signers = new SsoSigner[MacAlgorithm.values().length];
+        private SsoTokenCodec tokenCodec;
+    }
+
+}
@@ -0,0 +1,139 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The {@link IntegrationProfile}s compiled from one revision of the settings (see
+ * {@link com.blackboard.gs.autosignon.AutoSignonConfig#getProfiles()}), and the
+ * selection of the profile a request is for.
+ *
+ * A request is for the profile named by the first segment of its path, e.g.
+ * <code>/portal/autoSignon.do</code>, or else by the profile request parameter.
+ * Requests naming neither are for the default profile. Either way the profile is
+ * found with a single hash lookup, a request is never tried against several secrets.
+ *
+ * Instances are immutable and thread safe.
+ *
+ */
+public final class IntegrationProfiles {
+
+    private final long revision;
+    private final String profileParameter;
+    private final IntegrationProfile defaultProfile;
+    private final Map<String, IntegrationProfile> profiles;
+
+    private IntegrationProfiles(final long revision, final Collection<String> names, final String profileParameter) {
+        this.revision = revision;
+        this.profileParameter = profileParameter;
+        defaultProfile = IntegrationProfile.compile(null);
+        final Map<String, IntegrationProfile> compiled = new HashMap<String, IntegrationProfile>();
+        for(String name : names) {
+            compiled.put(name, IntegrationProfile.compile(name));
+        }
+        profiles = Collections.unmodifiableMap(compiled);
+    }
+
+    /**
+     * Compiles the integration profiles from the current settings.
+     *
+     * @param revision
+     *         the revision of the settings they are compiled from
+     * @param names
+     *         the names of the profiles other than the default one
+     * @param profileParameter
+     *         the request parameter a profile can be selected by
+     * @return
+     */
+    public static IntegrationProfiles compile(final long revision, final Collection<String> names, final String profileParameter) {
+        return new IntegrationProfiles(revision, names, profileParameter);
+    }
+
+    /**
+     * Returns the revision of the settings the profiles were compiled from.
+     *
+     * @return
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    public IntegrationProfile getDefault() {
+        return defaultProfile;
+    }
+
+    /**
+     * Returns a profile by name.
+     *
+     * @param name
+     * @return the profile, or <code>null</code> if there is no such profile
+     */
+    public IntegrationProfile get(final String name) {
+        return profiles.get(name);
+    }
+
+    /**
+     * Returns the names of the profiles other than the default one.
+     *
+     * @return
+     */
+    public Collection<String> getNames() {
+        return profiles.keySet();
+    }
+
+    /**
+     * Selects the profile a request is for.
+     *
+     * @param request
+     * @return the profile, or <code>null</code> if the request names a profile that doesn't exist
+     */
+    public IntegrationProfile select(final HttpServletRequest request) {
+        final String path = request.getServletPath();
+        final int slash = null == path ? -1 : path.indexOf('/', 1);
+        if(slash > 0) {
+            return profiles.get(path.substring(1, slash));
+        }
+        final String name = request.getParameter(profileParameter);
+        if(null == name) {
+            return defaultProfile;
+        }
+        return profiles.get(name);
+    }
+
+}
@@ -32,18 +32,16 @@
 
 package com.blackboard.gs.autosignon.service;
 
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
-import java.util.Calendar;
-import java.util.TreeSet;
-
 import javax.servlet.http.HttpServletRequest;
 
-import org.apache.commons.codec.binary.Hex;
-import org.apache.log4j.LogManager;
-import org.apache.log4j.Logger;
-
-import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.metrics.Outcome;
+import com.blackboard.gs.autosignon.metrics.RequestTrace;
+import com.blackboard.gs.autosignon.signer.MacAlgorithm;
+import com.blackboard.gs.autosignon.signer.SignedParameters;
+import com.blackboard.gs.autosignon.signer.SsoSigner;
+import com.blackboard.gs.autosignon.signer.SsoToken;
+import com.blackboard.gs.autosignon.signer.SsoTokenCodec;
+import com.blackboard.gs.settings.ThrottledLogger;
 
 /**
  * This class provides functionality for validating AutoSignon SSO requests by
@@ -52,10 +50,14 @@ import com.blackboard.gs.autosignon.AutoSignonConfig;
  * the generated MAC matches the request MAC and the timestamp is within the allotted
  * range, the SSO request is deemed valid.
  *
+ * The MAC itself is calculated by {@link SsoSigner}, the same code portals can use
+ * to sign their links. Depending on the SSO format setting, the signed fields can
+ * instead come in a single token (see {@link SsoTokenCodec}).
+ *
  */
 public final class SecurityService {
 
-    private static final Logger LOG = LogManager.getLogger(SecurityService.class);
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(SecurityService.class);
 
     private static SecurityService instance = null;
     public static synchronized SecurityService getInstance() {
@@ -71,6 +73,9 @@ public final class SecurityService {
      * Validates that all of the required security parameters are in place in this request
      * and that the generated MAC is valid.
      *
+     * The shared secret, parameters and algorithms are those of the request's
+     * {@link IntegrationProfile}. A request naming a profile that doesn't exist is invalid.
+     *
      * This method can use either insecure or secure MAC calculation based on settings.
      *
      * Secure:
@@ -83,138 +88,129 @@ public final class SecurityService {
      * - string together the sum (number) with the shared secret at the end
      * - calculate the md5 sum of the resulting string
      *
+     * Token (if the SSO format allows it and the request has one):
+     * - verify the token's own MAC and its timestamp, the request's parameters then
+     *   come from the token (see {@link SsoParameters})
+     *
      * @param request
      * @return
      */
     public boolean validateMacInRequest(final HttpServletRequest request) {
 
-        boolean macValid = false;
-
-        if(AutoSignonConfig.allowSecureMac()) {
-            macValid = macValid || validateMac(request, true);
-        }
-        if(AutoSignonConfig.allowInsecureMac()) {
-            macValid = macValid || validateMac(request, false);
+        final SsoParameters parameters = SsoParameters.get(request);
+        if(null == parameters) {
+            LOG.debug("Request names an integration profile that doesn't exist");
+            RequestTrace.get(request).recordOutcome(Outcome.UNKNOWN_PROFILE);
+            return false;
         }
+        final IntegrationProfile profile = parameters.getProfile();
 
-        if(!macValid) {
-          LOG.debug( "MAC from incoming request was invalid" );
+        // a token carries all signed fields, and is validated on its own
+        if(profile.acceptsTokenFormat()) {
+            final String token = request.getParameter(profile.getTokenRequestParameter());
+            if(null != token) {
+                return validateToken(request, parameters, token);
+            }
+        }
+        if(!profile.acceptsParameterFormat()) {
+            LOG.debug("Request has no SSO token, but only tokens are accepted");
+            RequestTrace.get(request).recordOutcome(Outcome.MAC_INVALID);
+            return false;
         }
 
-
-        return macValid;
-
-    }
-
-    /**
-     * Internal method to validate a MAC based on secure or non-secure algorithm.
-     *
-     * @param request
-     * @param usingSecure
-     * @return
-     */
-    private boolean validateMac(final HttpServletRequest request, final boolean usingSecure) {
-        LOG.debug( "Using Secure MAC: " + usingSecure );
-
-        // validate the timestamp
+        // validate the timestamp (the same for either algorithm)
         final long timestamp;
         try {
-            timestamp = Long.parseLong(request.getParameter(AutoSignonConfig.getTimestampRequestParameter()));
+            timestamp = Long.parseLong(request.getParameter(profile.getTimestampRequestParameter()));
         } catch(Exception e) {
             LOG.error("Invalid timestamp found on request object", e);
+            RequestTrace.get(request).recordOutcome(Outcome.MAC_INVALID);
             return false;
         }
-        if(timestampExpired(timestamp)) {
+        if(timestampExpired(timestamp, profile.getTimestampRange())) {
             LOG.debug("Timestamp received has expired: " + timestamp);
+            RequestTrace.get(request).recordOutcome(Outcome.TIMESTAMP_EXPIRED);
             return false;
         }
 
-        // use the appropriate algorithm here
-        final String algorithmResult;
-        if(usingSecure) {
-            algorithmResult = getSortedValues(request);
-        } else {
-            algorithmResult = getAsciiSum(request);
+        boolean macValid = false;
+
+        if(profile.allowSecureMac()) {
+            macValid = macValid || validateMac(request, profile, true);
+        }
+        if(profile.allowInsecureMac()) {
+            macValid = macValid || validateMac(request, profile, false);
         }
 
-        final String realMac = calculateHash(algorithmResult + AutoSignonConfig.getSharedSecret(), "UTF-8", "MD5");
-        final String requestMac = request.getParameter(AutoSignonConfig.getMacRequestParameter());
+        if(!macValid) {
+          LOG.debug( "MAC from incoming request was invalid" );
+          RequestTrace.get(request).recordOutcome(Outcome.MAC_INVALID);
+        }
 
-        LOG.debug("Validating ## realMac = " + realMac + ", requestMac = " + requestMac);
-        return (null != realMac && null != requestMac && realMac.equalsIgnoreCase(requestMac));
 
+        return macValid;
+
+    }
+
+    /**
+     * Forgets the instance, the next {@link #getInstance()} creates a new one.
+     */
+    public static synchronized void destroy() {
+        instance = null;
     }
 
     /**
-     * Returns a string that represents the number of the sum of all required
-     * data values.
+     * Internal method to validate an SSO token and make its fields the request's parameters.
      *
      * @param request
+     * @param parameters
+     * @param token
      * @return
      */
-    private String getAsciiSum(final HttpServletRequest request) {
+    private boolean validateToken(final HttpServletRequest request, final SsoParameters parameters, final String token) {
 
-        // select all request values that matter to us
-        final StringBuffer buffer = new StringBuffer();
-
-        // required parameters
-        buffer.append(request.getParameter(AutoSignonConfig.getTimestampRequestParameter()));
-        buffer.append(request.getParameter(AutoSignonConfig.getUserIdRequestParameter()));
-
-        // optional parameters
-        final String[] macParameters = AutoSignonConfig.getMacParameters();
-        for(String parameter : macParameters) {
-            LOG.debug("Optional parameter for MAC: " + parameter);
-            if(null != request.getParameter(parameter)) {
-                buffer.append(request.getParameter(parameter));
-            }
+        final IntegrationProfile profile = parameters.getProfile();
+        final SsoTokenCodec codec = profile.getTokenCodec();
+        if(null == codec) {
+            LOG.warn("No shared secret configured, SSO tokens can't be validated");
         }
-
-        int asciiSum = 0;
-        final String dataString = buffer.toString();
-        LOG.debug("Insecure MAC dataString: " + dataString);
-
-        for(int i = 0; i < dataString.length(); i++) {
-            asciiSum += dataString.charAt(i);
+        final SsoToken ssoToken = null == codec ? null : codec.decode(token);
+        if(null == ssoToken) {
+            LOG.debug("SSO token from incoming request was invalid");
+            RequestTrace.get(request).recordOutcome(Outcome.MAC_INVALID);
+            return false;
+        }
+        if(timestampExpired(ssoToken.getTimestamp(), profile.getTimestampRange())) {
+            LOG.debug("Timestamp received has expired: " + ssoToken.getTimestamp());
+            RequestTrace.get(request).recordOutcome(Outcome.TIMESTAMP_EXPIRED);
+            return false;
         }
 
-        return Integer.toString(asciiSum);
+        parameters.setToken(ssoToken);
+        return true;
 
     }
 
     /**
-     * Returns a String that is the concatenation of each required/optional value in order of
-     * the keys.
+     * Internal method to validate a MAC based on secure or non-secure algorithm.
      *
      * @param request
+     * @param profile
+     * @param usingSecure
      * @return
      */
-    private String getSortedValues(final HttpServletRequest request) {
-
-        // sort the input parameters we are looking for
-        final TreeSet<String> sortedSet = new TreeSet<String>();
-
-        // required parameters
-        sortedSet.add(AutoSignonConfig.getTimestampRequestParameter());
-        sortedSet.add(AutoSignonConfig.getUserIdRequestParameter());
+    private boolean validateMac(final HttpServletRequest request, final IntegrationProfile profile, final boolean usingSecure) {
+        LOG.debug( "Using Secure MAC: " + usingSecure );
 
-        // optional parameters
-        final String[] macParameters = AutoSignonConfig.getMacParameters();
-        for(String parameter : macParameters) {
-            LOG.debug("Optional parameter for MAC: " + parameter);
-            sortedSet.add(parameter);
-        }
+        final SsoSigner signer = profile.getSigner(usingSecure ? MacAlgorithm.SECURE : MacAlgorithm.INSECURE);
+        final SignedParameters parameters = new RequestParameters(request);
+        final String requestMac = request.getParameter(profile.getMacRequestParameter());
 
-        // go over each parameter in order and build a string of values
-        final StringBuffer buffer = new StringBuffer();
-        for(String param : sortedSet) {
-            if(null != request.getParameter(param)) {
-                buffer.append(request.getParameter(param));
-            }
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("MAC dataString: " + signer.canonicalInput(parameters));
+            LOG.debug("Validating ## realMac = " + signer.sign(parameters) + ", requestMac = " + requestMac);
         }
-
-        LOG.debug("Secure MAC dataString: " + buffer.toString());
-        return buffer.toString();
+        return signer.verify(parameters, requestMac);
 
     }
 
@@ -222,15 +218,15 @@ public final class SecurityService {
      * Internal method to determine if the timestamp we received is too old.
      *
      * @param timestamp
+     * @param timestampRange
      * @return
      */
-    private boolean timestampExpired(long timestamp) {
+    private boolean timestampExpired(long timestamp, final long timestampRange) {
 
-        final long currentTimestamp = Calendar.getInstance().getTimeInMillis();
+        final long currentTimestamp = System.currentTimeMillis();
         if ((String.valueOf(currentTimestamp).length() - String.valueOf(timestamp).length()) >= 2) {
           timestamp = timestamp * 1000L;
         }
-        final long timestampRange = AutoSignonConfig.getTimestampRange();
 
         // allow for either direction to include some room for subtle clock differences
         final long delta = Math.abs(currentTimestamp - timestamp);
@@ -241,45 +237,19 @@ public final class SecurityService {
     }
 
     /**
-     * Internal method to calculate a valid MD5 for a string.
-     *
-     * @param encrypt
-     * @param charSet
-     * @param algorithm
-     * @return
+     * The request parameters of an SSO request, for the signer.
      */
-    private String calculateHash(final String encrypt, final String charSet, final String algorithm)  {
+    private static final class RequestParameters implements SignedParameters {
 
-        byte[] bytes = null;
+        private final HttpServletRequest request;
 
-        try {
-            bytes = encrypt.getBytes(charSet);
-        } catch (UnsupportedEncodingException e) {
-            bytes = encrypt.getBytes();
+        private RequestParameters(final HttpServletRequest request) {
+            this.request = request;
         }
 
-        return calculateHash(bytes, algorithm);
-
-    }
-
-    /**
-     * Internal method to calculate a valid MD5 for a byte array.
-     *
-     * @param encrypt
-     * @param algorithm
-     * @return
-     */
-    private String calculateHash(final byte[] encrypt, final String algorithm) {
-
-        try {
-            final MessageDigest md = MessageDigest.getInstance(algorithm);
-            final byte[] hash = md.digest(encrypt);
-            return new String(Hex.encodeHex(hash));
-        } catch (Exception e) {
-            LOG.error("Failed to calculate hash sum", e);
-            return null;
+        public String get(final String name) {
+            return request.getParameter(name);
         }
-
     }
 
 }
\ No newline at end of file
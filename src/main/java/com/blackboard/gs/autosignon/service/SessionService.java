@@ -37,21 +37,22 @@ import java.util.Calendar;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.log4j.LogManager;
-import org.apache.log4j.Logger;
-
 import blackboard.data.user.User;
+import blackboard.persist.Id;
 import blackboard.persist.user.UserDbLoader;
 import blackboard.persist.user.UserDbPersister;
 import blackboard.platform.context.ContextManager;
-import blackboard.platform.context.ContextManagerFactory;
-import blackboard.platform.security.authentication.SessionStub;
 import blackboard.platform.session.BbSession;
 import blackboard.platform.session.BbSessionManagerService;
-import blackboard.platform.session.BbSessionManagerServiceFactory;
-import blackboard.platform.tracking.TrackingEventManagerFactory;
+import blackboard.platform.tracking.TrackingEventManager;
 import blackboard.platform.tracking.data.TrackingEvent;
 
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.metrics.Outcome;
+import com.blackboard.gs.autosignon.metrics.RequestTrace;
+import com.blackboard.gs.autosignon.metrics.Stage;
+import com.blackboard.gs.settings.ThrottledLogger;
+
 /**
  * This class provides functionality for creating and associating Blackboard sessions
  * to use with the AutoSignon SSO.
@@ -59,17 +60,27 @@ import blackboard.platform.tracking.data.TrackingEvent;
  */
 public class SessionService {
 
-	private static final Logger LOG = LogManager.getLogger(SessionService.class);
+	private static final ThrottledLogger LOG = ThrottledLogger.getLogger(SessionService.class);
 
 	// User DB Loader/Persister
-	private UserDbLoader uLoader;
-	private UserDbPersister uPersister;
+	private final UserDbLoader uLoader;
+	private final UserDbPersister uPersister;
 
 	// Context Manager
-	private ContextManager contextManager;
+	private final ContextManager contextManager;
 
 	// Session Manager
-	private BbSessionManagerService sessionManager;
+	private final BbSessionManagerService sessionManager;
+	private final SessionAssociator sessionAssociator;
+
+	// Tracking Event Manager
+	private final TrackingEventManager trackingManager;
+
+	// Course Prefetcher
+	private final CoursePrefetcher coursePrefetcher;
+
+	// User Index
+	private final UserIndex userIndex;
 
 	private static SessionService instance = null;
 	public static synchronized SessionService getInstance() {
@@ -79,16 +90,34 @@ public class SessionService {
 		return instance;
 	}
 	private SessionService() {
-		try {
-			uLoader = UserDbLoader.Default.getInstance();
-			uPersister = UserDbPersister.Default.getInstance();
-			contextManager = ContextManagerFactory.getInstance();
-			sessionManager = BbSessionManagerServiceFactory.getInstance();
-		} catch(Exception e) {
-			LOG.error("Error during init, failed to get all services", e);
-		}
+		final BlackboardServices services = BlackboardServicesFactory.getInstance();
+		uLoader = services.getUserLoader();
+		uPersister = services.getUserPersister();
+		contextManager = services.getContextManager();
+		sessionManager = services.getSessionManager();
+		sessionAssociator = services.getSessionAssociator();
+		trackingManager = services.getTrackingEventManager();
+		coursePrefetcher = CoursePrefetcher.getInstance();
+		userIndex = UserIndex.getInstance();
 	}
 
+	/**
+	 * Forgets the instance, the next {@link #getInstance()} creates a new one.
+	 */
+	public static synchronized void destroy() {
+		instance = null;
+	}
+
+
+	/**
+	 * Returns whether all Blackboard services this class depends on were obtained.
+	 *
+	 * @return <code>true</code> if sessions can be created, <code>false</code> otherwise
+	 */
+	public boolean isAvailable() {
+		return null != uLoader && null != uPersister && null != contextManager && null != sessionManager
+				&& null != sessionAssociator && null != trackingManager;
+	}
 
 	/**
 	 * Creates a valid Blackboard session associated with the given user.
@@ -102,22 +131,37 @@ public class SessionService {
 	 */
 	public boolean createSession(final String batchUid, final HttpServletRequest request, final HttpServletResponse response) {
 
+    final RequestTrace trace = RequestTrace.get(request);
+
     // ensure that this user exists and is available
     User user = null;
-    try {
-      user = uLoader.loadByBatchUid(batchUid);
-    } catch(Exception e) {
-      user = null;
+    final long userLoadStart = System.nanoTime();
+    // the user index knows the user's key, sparing the batch uid lookup that misses for user names;
+    // its entries may be out of date, so the user loaded decides whether it is available
+    final long indexed = userIndex.find(batchUid);
+    if(UserIndex.MISSING != indexed) {
+      user = loadIndexedUser(UserIndex.getKey(indexed), batchUid);
+    }
+    if (user == null) {
+      try {
+        user = uLoader.loadByBatchUid(batchUid);
+      } catch(Exception e) {
+        user = null;
+      }
     }
     if (user == null) {
       try {
         user = uLoader.loadByUserName(batchUid);
       } catch(Exception e) {
-        LOG.warn("Authentication requested for invalid user: " + batchUid, e);
+        trace.recordStage(Stage.USER_LOAD, System.nanoTime() - userLoadStart);
+        trace.recordOutcome(Outcome.UNKNOWN_USER);
+        LOG.warn("Authentication requested for invalid user", batchUid, e);
         return false;
       }
     }
+    trace.recordStage(Stage.USER_LOAD, System.nanoTime() - userLoadStart);
 		if(!user.getIsAvailable()) {
+			trace.recordOutcome(Outcome.DISABLED_USER);
 			LOG.debug("Authentication requested for disabled user: " + batchUid);
 			return false;
 		}
@@ -125,14 +169,16 @@ public class SessionService {
 		// call safeGetSession to make sure that a session cookie & db record exist
 		sessionManager.safeGetSession(request,response);
 
-        // create a session stub
-  		final SessionStub sessionStub;
+        // associate the session with the user
+  		final long associateStart = System.nanoTime();
   		try {
-   			sessionStub = new SessionStub(request);
-   			sessionStub.associateSessionWithUser(user.getUserName());
+   			sessionAssociator.associateSessionWithUser(request, user.getUserName());
    		} catch(Exception e) {
-   			LOG.error("Failed to associate session with user: " + batchUid, e);
+   			trace.recordOutcome(Outcome.SESSION_FAILED);
+   			LOG.error("Failed to associate session with user", batchUid, e);
    			return false;
+   		} finally {
+   			trace.recordStage(Stage.SESSION_ASSOCIATE, System.nanoTime() - associateStart);
    		}
 
    		// refresh session (and context) since we've updated the session
@@ -140,37 +186,71 @@ public class SessionService {
         contextManager.setContext(request);
 
   	    // update last login time
-   	    updateLastLogin(user);
+   	    updateLastLogin(user, trace);
+
+		// load the user's courses for the course forwards to come
+		if(AutoSignonConfig.isCoursePrefetchEnabled()) {
+			coursePrefetcher.prefetch(request, user.getId());
+		}
 
 	    return true;
 	}
 
 
+	/**
+	 * Loads the user the user index found, by primary key. The index only keeps
+	 * fingerprints of the identifiers, so the user is checked against the identifier.
+	 *
+	 * @param key
+	 *         the primary key of the user
+	 * @param userId
+	 *         the batch uid or user name the user was looked up by
+	 * @return the user, or <code>null</code> if it isn't the user (any more) or could not be loaded
+	 */
+	private User loadIndexedUser(final long key, final String userId) {
+		try {
+			final User user = uLoader.loadById(Id.generateId(User.DATA_TYPE, key));
+			if(userId.equals(user.getBatchUid()) || userId.equals(user.getUserName())) {
+				return user;
+			}
+			LOG.debug("User index out of date for user: " + userId);
+		} catch(Exception e) {
+			LOG.debug("Failed to load indexed user: " + userId, e);
+		}
+		return null;
+	}
+
 	/**
 	 * Updates last login date of given user to the current system time.
 	 *
 	 * @param user
 	 *         the {@link User} that will be updated
+	 * @param trace
+	 *         the trace of the request the user signed on with
 	 */
-	private void updateLastLogin(final User user) {
+	private void updateLastLogin(final User user, final RequestTrace trace) {
 		user.setLastLoginDate(Calendar.getInstance());
+		final long persistStart = System.nanoTime();
 		try {
 			uPersister.persist(user);
 		} catch(Exception e) {
-			LOG.error("Failed to update user last access time: " + user.getBatchUid(), e);
+			LOG.error("Failed to update user last access time", user.getBatchUid(), e);
 		}
+		trace.recordStage(Stage.USER_PERSIST, System.nanoTime() - persistStart);
 		/*
 		 * FIX by (@johnfontaine): Add event tracking call to post to activity accumulator
 		 * 
 		 */
-		BbSession session = ContextManagerFactory.getInstance().getContext().getSession();
+		BbSession session = contextManager.getContext().getSession();
 		TrackingEvent event = new TrackingEvent();
 	    event.setType( TrackingEvent.Type.LOGIN_ATTEMPT );
 	    event.setStatus( TrackingEvent.Status.SUCCESS );
 	    event.setData( "Login succeeded." );
 	    event.setSessionId( session.getBbSessionId() );
 	    event.setUserId( user.getId() );
-	    TrackingEventManagerFactory.getInstance().postTrackingEvent( event );
+	    final long trackingStart = System.nanoTime();
+	    trackingManager.postTrackingEvent( event );
+	    trace.recordStage(Stage.TRACKING_EVENT, System.nanoTime() - trackingStart);
 		
 	}
 }
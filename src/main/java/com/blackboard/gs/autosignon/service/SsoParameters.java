@@ -0,0 +1,153 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.metrics.RequestTrace;
+import com.blackboard.gs.autosignon.signer.MacScheme;
+import com.blackboard.gs.autosignon.signer.SsoToken;
+
+/**
+ * The parameters of an SSO request, whichever format they came in: separate request
+ * parameters, or a verified token (see {@link SecurityService}).
+ *
+ * For a token, the signed parameters (user id, timestamp and the MAC parameters)
+ * only come from the token. Other parameters still come from the request.
+ *
+ * The names of the parameters are those of the request's {@link IntegrationProfile}.
+ *
+ */
+public final class SsoParameters {
+
+    public static final String ATTRIBUTE = SsoParameters.class.getName();
+
+    private final HttpServletRequest request;
+    private final IntegrationProfile profile;
+    private final SsoToken token;
+
+    private SsoParameters(final HttpServletRequest request, final IntegrationProfile profile, final SsoToken token) {
+        this.request = request;
+        this.profile = profile;
+        this.token = token;
+    }
+
+    /**
+     * Returns the parameters of the request, selecting its integration profile the
+     * first time.
+     *
+     * @param request
+     * @return the parameters, or <code>null</code> if the request names a profile that doesn't exist
+     */
+    public static SsoParameters get(final HttpServletRequest request) {
+        final SsoParameters parameters = (SsoParameters) request.getAttribute(ATTRIBUTE);
+        if(null != parameters) {
+            return parameters;
+        }
+        final IntegrationProfile profile = AutoSignonConfig.getProfiles().select(request);
+        if(null == profile) {
+            return null;
+        }
+        if(null != profile.getMetrics()) {
+            RequestTrace.get(request).setProfile(profile.getMetrics());
+        }
+        final SsoParameters selected = new SsoParameters(request, profile, null);
+        request.setAttribute(ATTRIBUTE, selected);
+        return selected;
+    }
+
+    /**
+     * Makes the fields of a verified token the request's parameters.
+     *
+     * @param token
+     */
+    void setToken(final SsoToken token) {
+        request.setAttribute(ATTRIBUTE, new SsoParameters(request, profile, token));
+    }
+
+    /**
+     * Returns the value of a parameter.
+     *
+     * @param name
+     * @return the value, or <code>null</code> if the request doesn't have it
+     */
+    public String get(final String name) {
+        if(null == token) {
+            return request.getParameter(name);
+        }
+        final MacScheme scheme = profile.getScheme();
+        if(name.equals(scheme.getUserIdParameter())) {
+            return token.getUserId();
+        }
+        if(name.equals(scheme.getTimestampParameter())) {
+            return Long.toString(token.getTimestamp());
+        }
+        final String value = token.get(name);
+        if(null != value || scheme.isSigned(name)) {
+            return value;
+        }
+        return request.getParameter(name);
+    }
+
+    /**
+     * Returns the integration profile the request is for.
+     *
+     * @return
+     */
+    public IntegrationProfile getProfile() {
+        return profile;
+    }
+
+    public String getUserId() {
+        return get(profile.getUserIdRequestParameter());
+    }
+
+    public String getCourseId() {
+        return get(profile.getCourseIdRequestParameter());
+    }
+
+    public String getForward() {
+        return get(profile.getForwardRequestParameter());
+    }
+
+    /**
+     * Returns <code>true</code> if the parameters came in a token.
+     *
+     * @return
+     */
+    public boolean isToken() {
+        return null != token;
+    }
+
+}
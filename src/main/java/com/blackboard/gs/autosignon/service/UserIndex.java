@@ -0,0 +1,421 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.health.Health;
+import com.blackboard.gs.autosignon.health.HealthIndicator;
+import com.blackboard.gs.autosignon.health.HealthMonitor;
+import com.blackboard.gs.settings.Scheduler;
+import com.blackboard.gs.settings.SettingsManager;
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * This class keeps an index of every user's batch uid and user name, so a sign-on
+ * knows which user it is for without trying the batch uid and then the user name
+ * against the database (see the <i>User Index</i> setting). A TTL cache wouldn't
+ * help there, most sign-ons are a user's first of the day.
+ *
+ * The index is built by a bulk scan of the users table ({@link UserScanner}) in the
+ * background at startup, rebuilt daily, and refreshed every minute with the users
+ * modified since. It doesn't keep the identifiers themselves, only a 64-bit
+ * fingerprint of each, mapped to the user's primary key and availability flag in a
+ * {@link UserIndexTable}: 50 to 90 bytes per user, rather than several hundred for a
+ * map of strings. A fingerprint may (very rarely) match the wrong user, and a user
+ * may have been renamed, re-enabled or disabled since the last refresh, so an entry
+ * is only a hint: the user loaded for it has to be checked against the identifier
+ * it was looked up by, and for availability.
+ *
+ * The index is checkpointed to a {@link UserIndexSnapshot} after each build and
+ * every 10 minutes while it changes, and at shutdown. At startup a snapshot less
+ * than a day old is restored and brought up to date with the users modified
+ * since, instead of scanning them all.
+ *
+ */
+public final class UserIndex {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(UserIndex.class);
+
+    // the entry returned for users not in the index
+    public static final long MISSING = 0L;
+
+    private static final long REFRESH_INTERVAL  = 60L * 1000;               // 1 minute
+    private static final long REBUILD_INTERVAL  = 24L * 60 * 60 * 1000;     // 1 day
+    // modifications are scanned with some overlap, the database clock may differ from ours
+    private static final long OVERLAP           = 5L * 60 * 1000;           // 5 minutes
+    private static final long CHECKPOINT_INTERVAL = 10L * 60 * 1000;        // 10 minutes
+    private static final int INITIAL_SIZE       = 1024;
+
+    private static final long BATCH_UID_SEED    = 0x9e3779b97f4a7c15L;
+    private static final long USER_NAME_SEED    = 0xc2b2ae3d27d4eb4fL;
+
+    private final UserScanner scanner;
+    private final Scheduler.Task refreshTask;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private volatile UserIndexTable table;
+    private volatile long builtAt;
+    private volatile long buildMillis;
+    private volatile long restoreMillis;
+    private volatile long refreshedAt;
+    private volatile boolean failed;
+    // only touched while holding the lock
+    private long checkpointedAt;
+    private boolean dirty;
+
+    private static UserIndex instance = null;
+    public static synchronized UserIndex getInstance() {
+        if(null == instance) {
+            instance = new UserIndex();
+        }
+        return instance;
+    }
+    private UserIndex() {
+        scanner = BlackboardServicesFactory.getInstance().getUserScanner();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        refreshTask = Scheduler.getInstance().schedule("user_index_refresh", new Runnable() {
+            public void run() {
+                refresh();
+            }
+        }, 0L, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+        HealthMonitor.getInstance().registerIndicator(new UserIndexIndicator());
+    }
+
+    /**
+     * Looks a user up by batch uid or, failing that, by user name.
+     *
+     * @param userId
+     * @return the user's entry, or {@link #MISSING} if the user isn't in the index
+     *         (or the index isn't built)
+     */
+    public long find(final String userId) {
+        final UserIndexTable current = table;
+        if(null == current || null == userId) {
+            return MISSING;
+        }
+        long entry = current.get(fingerprint(userId, BATCH_UID_SEED));
+        if(MISSING == entry) {
+            entry = current.get(fingerprint(userId, USER_NAME_SEED));
+        }
+        (MISSING == entry ? misses : hits).incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Returns the primary key of the user of an entry.
+     *
+     * @param entry
+     *         an entry found, not {@link #MISSING}
+     * @return
+     */
+    public static long getKey(final long entry) {
+        return (entry >>> 1) - 1;
+    }
+
+    /**
+     * Returns whether the user of an entry was available when last scanned.
+     *
+     * @param entry
+     *         an entry found, not {@link #MISSING}
+     * @return
+     */
+    public static boolean isAvailable(final long entry) {
+        return 0 != (entry & 1L);
+    }
+
+    /**
+     * Builds, rebuilds or refreshes the index as due, or drops it if the index has
+     * been disabled. Called every minute on the index thread.
+     */
+    public synchronized void refresh() {
+        if(!AutoSignonConfig.isUserIndexEnabled()) {
+            if(null != table) {
+                table = null;
+                dirty = false;
+                LOG.info("User index disabled, dropped");
+            }
+            return;
+        }
+        if(null == scanner) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        try {
+            if(null == table) {
+                restore(now);
+            }
+            if(null == table || now - builtAt > REBUILD_INTERVAL) {
+                rebuild(now);
+            } else {
+                update(now);
+            }
+            failed = false;
+        } catch(Exception e) {
+            failed = true;
+            LOG.error("Failed to refresh the user index", e);
+        }
+        if(dirty && now - checkpointedAt >= CHECKPOINT_INTERVAL) {
+            checkpoint(now);
+        }
+    }
+
+    /**
+     * Returns the number of identifiers in the index, two per user with a batch uid.
+     *
+     * @return
+     */
+    public int getSize() {
+        final UserIndexTable current = table;
+        return null == current ? 0 : current.size();
+    }
+
+    /**
+     * Returns the memory the index takes up, in bytes.
+     *
+     * @return
+     */
+    public long getFootprint() {
+        final UserIndexTable current = table;
+        return null == current ? 0L : current.footprint();
+    }
+
+    /**
+     * Returns how long the last full build took, in milliseconds.
+     *
+     * @return
+     */
+    public long getBuildMillis() {
+        return buildMillis;
+    }
+
+    /**
+     * Returns how long restoring the index from its snapshot took, in milliseconds,
+     * 0 if it wasn't restored.
+     *
+     * @return
+     */
+    public long getRestoreMillis() {
+        return restoreMillis;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Stops refreshing (and checkpoints) the index, and forgets the instance.
+     */
+    public static synchronized void destroy() {
+        if(null != instance) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Stops refreshing the index, and checkpoints it if it changed since the last time.
+     */
+    public void shutdown() {
+        if(null != refreshTask) {
+            refreshTask.cancel();
+        }
+        synchronized(this) {
+            if(dirty) {
+                checkpoint(System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Internal method to restore the index from its snapshot, if there is a recent one.
+     */
+    private void restore(final long now) {
+        final long start = System.nanoTime();
+        final UserIndexSnapshot snapshot;
+        try {
+            snapshot = UserIndexSnapshot.read(snapshotFile());
+        } catch(Exception e) {
+            LOG.warn("Failed to read the user index snapshot, building the index instead", e);
+            return;
+        }
+        if(null == snapshot) {
+            return;
+        }
+        // the snapshot may come from another node, allow for its clock to be ahead of ours
+        if(now - snapshot.getBuiltAt() > REBUILD_INTERVAL || snapshot.getRefreshedAt() > now + OVERLAP) {
+            LOG.info("User index snapshot out of date, building the index instead");
+            return;
+        }
+        table = snapshot.getTable();
+        builtAt = snapshot.getBuiltAt();
+        refreshedAt = snapshot.getRefreshedAt();
+        checkpointedAt = now;
+        restoreMillis = (System.nanoTime() - start) / 1000000L;
+        LOG.info("User index restored: " + table.size() + " entries, " + ((now - refreshedAt) / 1000) + " s old, in " + restoreMillis + " ms");
+    }
+
+    /**
+     * Internal method to write the index to its snapshot. A failure is only logged,
+     * and retried at the next checkpoint.
+     */
+    private void checkpoint(final long now) {
+        final UserIndexTable current = table;
+        checkpointedAt = now;
+        if(null == current) {
+            return;
+        }
+        try {
+            new UserIndexSnapshot(current, builtAt, refreshedAt).write(snapshotFile());
+            dirty = false;
+        } catch(Exception e) {
+            LOG.warn("Failed to write the user index snapshot", e);
+        }
+    }
+
+    private static File snapshotFile() {
+        return new File(SettingsManager.getInstance().getConfigDirectory(), UserIndexSnapshot.FILE_NAME);
+    }
+
+    /**
+     * Internal method to build a new index from all users, while the current one stays in use.
+     */
+    private void rebuild(final long now) throws Exception {
+        final long start = System.nanoTime();
+        final UserIndexTable current = table;
+        final Builder builder = new Builder(new UserIndexTable(null == current ? INITIAL_SIZE : current.size()));
+        final int users = scanner.scan(0L, builder);
+        table = builder.table;
+        builtAt = now;
+        refreshedAt = now;
+        dirty = true;
+        checkpointedAt = 0L;
+        buildMillis = (System.nanoTime() - start) / 1000000L;
+        LOG.info("User index built: " + users + " users, " + (builder.table.footprint() / 1024) + " KB, in " + buildMillis + " ms");
+    }
+
+    /**
+     * Internal method to add the users modified since the last scan to the index, in place.
+     */
+    private void update(final long now) throws Exception {
+        final Builder builder = new Builder(table);
+        final int users = scanner.scan(refreshedAt - OVERLAP, builder);
+        // a new table only if it had to grow
+        table = builder.table;
+        refreshedAt = now;
+        dirty |= users > 0;
+        LOG.debug("User index refreshed: " + users + " users modified");
+    }
+
+    private static long entry(final long key, final boolean available) {
+        return ((key + 1) << 1) | (available ? 1L : 0L);
+    }
+
+    /**
+     * Computes the fingerprint of an identifier: FNV-1a over the characters, finished
+     * with the MurmurHash3 mixer. Never 0. Also used for the {@link CourseMissCache}.
+     */
+    static long fingerprint(final String value, final long seed) {
+        long hash = seed;
+        for(int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return 0L == hash ? 1L : hash;
+    }
+
+    /**
+     * Puts the users scanned into a table, growing it as needed.
+     */
+    private static final class Builder implements UserScanner.Visitor {
+
+        private UserIndexTable table;
+
+        private Builder(final UserIndexTable table) {
+            this.table = table;
+        }
+
+        public void visit(final long key, final String batchUid, final String userName, final boolean available) {
+            final long entry = entry(key, available);
+            if(null != batchUid) {
+                put(fingerprint(batchUid, BATCH_UID_SEED), entry);
+            }
+            if(null != userName) {
+                put(fingerprint(userName, USER_NAME_SEED), entry);
+            }
+        }
+
+        private void put(final long fingerprint, final long entry) {
+            while(!table.put(fingerprint, entry)) {
+                table = table.grow();
+            }
+        }
+    }
+
+    /**
+     * Reports whether the index is built. Without it sign-ons only take the slower
+     * path, so it never takes the node down.
+     */
+    private class UserIndexIndicator implements HealthIndicator {
+
+        public String getName() {
+            return "user_index";
+        }
+
+        public Health check() {
+            if(!AutoSignonConfig.isUserIndexEnabled()) {
+                return Health.up("disabled");
+            }
+            final UserIndexTable current = table;
+            if(null == current) {
+                return Health.degraded(failed ? "build failed" : "building");
+            }
+            final String detail = "entries=" + current.size() + " bytes=" + current.footprint() + " build_ms=" + buildMillis;
+            return failed ? Health.degraded("refresh failed " + detail) : Health.up(detail);
+        }
+    }
+
+}
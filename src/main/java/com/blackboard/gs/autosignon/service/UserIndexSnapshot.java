@@ -0,0 +1,182 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * The {@link UserIndex} saved to a file in the plugin's config directory, so a
+ * restarted node or redeployed building block has its index back within
+ * milliseconds, rather than after a scan of all users.
+ *
+ * The file is a fixed header followed by the table's slots as written by
+ * {@link UserIndexTable#writeTo}. It is memory-mapped and read in bulk. A file
+ * of another version, of the wrong length or failing the checksum is ignored.
+ * How old the snapshot may be is up to the index.
+ *
+ */
+final class UserIndexSnapshot {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(UserIndexSnapshot.class);
+
+    static final String FILE_NAME = "user-index.snapshot";
+
+    private static final int MAGIC          = 0x55494458;   // "UIDX"
+    private static final int VERSION        = 1;
+    private static final int HEADER_SIZE    = 40;
+
+    private final UserIndexTable table;
+    private final long builtAt;
+    private final long refreshedAt;
+
+    /**
+     * @param table
+     * @param builtAt
+     *         when the table was last built from all users
+     * @param refreshedAt
+     *         when the users modified were last scanned
+     */
+    UserIndexSnapshot(final UserIndexTable table, final long builtAt, final long refreshedAt) {
+        this.table = table;
+        this.builtAt = builtAt;
+        this.refreshedAt = refreshedAt;
+    }
+
+    UserIndexTable getTable() {
+        return table;
+    }
+
+    long getBuiltAt() {
+        return builtAt;
+    }
+
+    long getRefreshedAt() {
+        return refreshedAt;
+    }
+
+    /**
+     * Reads a snapshot.
+     *
+     * @param file
+     * @return the snapshot, or <code>null</code> if there is none or it can't be used
+     * @throws IOException
+     */
+    static UserIndexSnapshot read(final File file) throws IOException {
+        if(!file.isFile()) {
+            return null;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long length = channel.size();
+            if(length < HEADER_SIZE) {
+                LOG.warn("User index snapshot truncated, ignored", file, null);
+                return null;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                LOG.warn("Not a user index snapshot (or an unsupported version), ignored", file, null);
+                return null;
+            }
+            final long builtAt = buffer.getLong();
+            final long refreshedAt = buffer.getLong();
+            final int capacity = buffer.getInt();
+            final int size = buffer.getInt();
+            final long checksum = buffer.getLong();
+            if(capacity <= 0 || 0 != (capacity & (capacity - 1)) || size < 0 || size > capacity
+                    || length != HEADER_SIZE + 16L * capacity) {
+                LOG.warn("User index snapshot corrupt, ignored", file, null);
+                return null;
+            }
+
+            final UserIndexTable table = UserIndexTable.readFrom(buffer.asLongBuffer(), capacity, size, checksum);
+            if(null == table) {
+                LOG.warn("User index snapshot fails its checksum, ignored", file, null);
+                return null;
+            }
+            return new UserIndexSnapshot(table, builtAt, refreshedAt);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file, then moves it in place of the file,
+     * so readers (on any node) only ever see a complete snapshot.
+     *
+     * @param file
+     * @throws IOException
+     */
+    void write(final File file) throws IOException {
+        File tempFile = File.createTempFile(FILE_NAME + ".", ".tmp", file.getParentFile());
+        try {
+            final FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(builtAt).putLong(refreshedAt)
+                        .putInt(table.capacity()).putInt(table.size()).putLong(table.checksum());
+                header.flip();
+                while(header.hasRemaining()) {
+                    channel.write(header);
+                }
+                table.writeTo(channel);
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            tempFile = null;
+        } finally {
+            if(null != tempFile && !tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
+        }
+    }
+
+}
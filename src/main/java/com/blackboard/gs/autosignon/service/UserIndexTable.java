@@ -0,0 +1,252 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An open-addressing hash table from 64-bit identifier fingerprints to 64-bit
+ * entries, in two primitive arrays: 16 bytes per slot, no objects per user.
+ * Fingerprint 0 marks an empty slot.
+ *
+ * There is a single writer; readers don't lock. A slot's entry is written before
+ * its fingerprint (both volatile), so a reader that finds the fingerprint also
+ * finds the entry.
+ *
+ */
+final class UserIndexTable {
+
+    // grown once this full, so probe sequences stay short
+    private static final float MAX_LOAD = 0.7f;
+
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    private final AtomicLongArray fingerprints;
+    private final AtomicLongArray entries;
+    private final int mask;
+    private volatile int size;
+
+    /**
+     * @param expected
+     *         number of entries expected, the table is sized to hold them without growing
+     */
+    UserIndexTable(final int expected) {
+        this(expected, 16);
+    }
+
+    private UserIndexTable(final int expected, final int minimumCapacity) {
+        int capacity = minimumCapacity;
+        while(capacity * MAX_LOAD < expected) {
+            capacity <<= 1;
+        }
+        fingerprints = new AtomicLongArray(capacity);
+        entries = new AtomicLongArray(capacity);
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private UserIndexTable(final long[] fingerprints, final long[] entries, final int size) {
+        this.fingerprints = new AtomicLongArray(fingerprints);
+        this.entries = new AtomicLongArray(entries);
+        this.mask = fingerprints.length - 1;
+        this.size = size;
+    }
+
+    /**
+     * Reads a table written by {@link #writeTo(WritableByteChannel)}, in bulk.
+     *
+     * @param buffer
+     * @param capacity
+     *         the capacity of the table written, a power of two
+     * @param size
+     *         the size of the table written
+     * @param checksum
+     *         the {@link #checksum()} of the table written
+     * @return the table, or <code>null</code> if it doesn't match the checksum
+     */
+    static UserIndexTable readFrom(final LongBuffer buffer, final int capacity, final int size, final long checksum) {
+        final long[] fingerprints = new long[capacity];
+        final long[] entries = new long[capacity];
+        buffer.get(fingerprints);
+        buffer.get(entries);
+        if(checksum != checksum(fingerprints, entries)) {
+            return null;
+        }
+        return new UserIndexTable(fingerprints, entries, size);
+    }
+
+    /**
+     * Returns the entry of a fingerprint.
+     *
+     * @param fingerprint
+     *         not 0
+     * @return the entry, or 0 if there is none
+     */
+    long get(final long fingerprint) {
+        int slot = slot(fingerprint);
+        while(true) {
+            final long found = fingerprints.get(slot);
+            if(found == fingerprint) {
+                return entries.get(slot);
+            } else if(0 == found) {
+                return 0L;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Adds or replaces the entry of a fingerprint. Only called by the writer.
+     *
+     * @param fingerprint
+     *         not 0
+     * @param entry
+     *         not 0
+     * @return <code>false</code> if the table is full and has to be grown first
+     */
+    boolean put(final long fingerprint, final long entry) {
+        int slot = slot(fingerprint);
+        while(true) {
+            final long found = fingerprints.get(slot);
+            if(found == fingerprint) {
+                entries.set(slot, entry);
+                return true;
+            } else if(0 == found) {
+                if(size + 1 > (mask + 1) * MAX_LOAD) {
+                    return false;
+                }
+                entries.set(slot, entry);
+                fingerprints.set(slot, fingerprint);
+                size++;
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns a copy with twice the capacity. Only called by the writer.
+     *
+     * @return
+     */
+    UserIndexTable grow() {
+        final UserIndexTable grown = new UserIndexTable(size, (mask + 1) * 2);
+        for(int slot = 0; slot <= mask; slot++) {
+            final long fingerprint = fingerprints.get(slot);
+            if(0 != fingerprint) {
+                grown.put(fingerprint, entries.get(slot));
+            }
+        }
+        return grown;
+    }
+
+    /**
+     * Writes all slots, the fingerprints and then the entries, as 2 * {@link #capacity()}
+     * longs. Only called by the writer.
+     *
+     * @param channel
+     * @throws IOException
+     */
+    void writeTo(final WritableByteChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER);
+        write(fingerprints, buffer, channel);
+        write(entries, buffer, channel);
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Returns the checksum of all slots, as {@link #readFrom} checks it. Only called
+     * by the writer.
+     *
+     * @return
+     */
+    long checksum() {
+        long checksum = 0L;
+        for(int slot = 0; slot <= mask; slot++) {
+            checksum = checksum * 31 + fingerprints.get(slot);
+            checksum = checksum * 31 + entries.get(slot);
+        }
+        return checksum;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the memory the table takes up, in bytes.
+     *
+     * @return
+     */
+    long footprint() {
+        return 2L * 8 * (mask + 1);
+    }
+
+    private static void write(final AtomicLongArray values, final ByteBuffer buffer, final WritableByteChannel channel) throws IOException {
+        for(int i = 0; i < values.length(); i++) {
+            if(buffer.remaining() < 8) {
+                buffer.flip();
+                while(buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+            buffer.putLong(values.get(i));
+        }
+    }
+
+    private static long checksum(final long[] fingerprints, final long[] entries) {
+        long checksum = 0L;
+        for(int i = 0; i < fingerprints.length; i++) {
+            checksum = checksum * 31 + fingerprints[i];
+            checksum = checksum * 31 + entries[i];
+        }
+        return checksum;
+    }
+
+    private int slot(final long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+
+}
@@ -0,0 +1,72 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.service;
+
+/**
+ * Reads the identifiers of many users at once, straight from the users table,
+ * to build the {@link UserIndex}. Loading each {@link blackboard.data.user.User}
+ * would be far too slow for that.
+ *
+ */
+public interface UserScanner {
+
+    /**
+     * Calls the visitor for every user, or every user modified since the given time.
+     *
+     * @param modifiedSince
+     *         the earliest modification time (in milliseconds) of the users wanted, 0 for all users
+     * @param visitor
+     * @return the number of users visited
+     * @throws Exception
+     *         if the users could not be read
+     */
+    int scan(long modifiedSince, Visitor visitor) throws Exception;
+
+    /**
+     * Receives the users scanned, one at a time.
+     */
+    interface Visitor {
+
+        /**
+         * @param key
+         *         the user's primary key
+         * @param batchUid
+         *         may be <code>null</code>
+         * @param userName
+         * @param available
+         *         whether the user may sign on
+         */
+        void visit(long key, String batchUid, String userName, boolean available);
+    }
+
+}
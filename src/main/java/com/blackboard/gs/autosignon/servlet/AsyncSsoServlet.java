@@ -0,0 +1,244 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.servlet;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.struts.action.ActionForward;
+import org.apache.struts.action.ActionMapping;
+
+import blackboard.platform.context.ContextManager;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.health.Health;
+import com.blackboard.gs.autosignon.health.HealthIndicator;
+import com.blackboard.gs.autosignon.health.HealthMonitor;
+import com.blackboard.gs.autosignon.service.BlackboardServicesFactory;
+import com.blackboard.gs.autosignon.struts.actions.AutoSignonAction;
+import com.blackboard.gs.settings.ThrottledLogger;
+
+/**
+ * This servlet runs the SSO and course forward requests asynchronously on servlet
+ * 3.0 containers (see the <i>Asynchronous Processing</i> setting), so a request
+ * waiting on Blackboard's loaders and session writes doesn't hold on to a container
+ * thread.
+ *
+ * It is registered by the {@link AutoSignonListener} for the SSO paths only when the
+ * container supports it, and takes them over from the Struts servlet. While the setting
+ * is disabled (or the request can't go async) it processes the request synchronously,
+ * on the container thread like the {@link DirectDispatchFilter} does, or forwards to the
+ * Struts servlet when <i>Direct Dispatch</i> is disabled. While enabled, it releases the
+ * container thread and runs the {@link AutoSignonAction} on a bounded pool of its own;
+ * an action forward (the access denied page) is dispatched back to the container.
+ * When the pool is full, requests are turned away with <code>503</code> rather than
+ * queued without end. Until the Struts servlet has loaded its module, requests are
+ * forwarded to it either way.
+ *
+ * The paths of integration profiles (<code>/&lt;profile&gt;/autoSignon.do</code>) come
+ * and go with the settings, so they are left to the Struts servlet (and the filter in front
+ * of it) and always processed synchronously. Trusted systems select their profile by
+ * request parameter on these paths to have their requests processed asynchronously.
+ *
+ */
+public class AsyncSsoServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(AsyncSsoServlet.class);
+
+    private static final String NAME            = "autoSignonAsync";
+    private static final String STRUTS_SERVLET  = "action";
+    private static final String[] PATHS         = { "/autoSignon.do", "/courseForward.do", "/courseForwards.do" };
+
+    private static final int THREADS           = 32;
+    private static final int QUEUE_SIZE        = 256;
+    // seconds a client turned away should wait before trying again
+    private static final String RETRY_AFTER     = "1";
+    // how long (ms) requests still being processed get to finish when the servlet is destroyed
+    private static final long SHUTDOWN_TIMEOUT  = 5000L;
+
+    private transient ThreadPoolExecutor executor;
+    private transient SsoDispatcher dispatcher;
+    private transient ContextManager contextManager;
+    private transient HealthIndicator indicator;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Registers the servlet for the SSO paths. Must only be called on a servlet 3.0
+     * (or later) container, while the context is being initialized.
+     *
+     * @param context
+     */
+    public static void register(final ServletContext context) {
+        final ServletRegistration.Dynamic registration = context.addServlet(NAME, new AsyncSsoServlet());
+        if(null == registration) {
+            LOG.warn("Asynchronous processing is not available, a servlet named " + NAME + " already exists");
+            return;
+        }
+        registration.setAsyncSupported(true);
+        registration.setLoadOnStartup(2);
+        registration.addMapping(PATHS);
+    }
+
+    public void init() throws ServletException {
+        dispatcher = new SsoDispatcher(getServletContext(), new AutoSignonAction());
+        contextManager = BlackboardServicesFactory.getInstance().getContextManager();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "AutoSignon async " + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        indicator = new AsyncQueueIndicator();
+        HealthMonitor.getInstance().registerIndicator(indicator);
+    }
+
+    public void destroy() {
+        HealthMonitor.getInstance().removeIndicator(indicator);
+        executor.shutdownNow();
+        try {
+            if(!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Asynchronous request threads still running after " + SHUTDOWN_TIMEOUT + " ms");
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void service(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+
+        final SsoDispatcher.Endpoint endpoint = SsoDispatcher.Endpoint.of(request.getServletPath());
+        final ActionMapping mapping = dispatcher.getMapping(endpoint);
+        if(null == mapping) {
+            // the Struts module isn't loaded yet, the Struts servlet loads it
+            getServletContext().getNamedDispatcher(STRUTS_SERVLET).forward(request, response);
+            return;
+        }
+        if(!AutoSignonConfig.isAsyncProcessingEnabled() || !request.isAsyncSupported()) {
+            if(!AutoSignonConfig.isDirectDispatchEnabled()) {
+                getServletContext().getNamedDispatcher(STRUTS_SERVLET).forward(request, response);
+                return;
+            }
+            dispatcher.dispatch(endpoint, mapping, request, response);
+            return;
+        }
+
+        final AsyncContext async = request.startAsync();
+        // the action always completes the request, however long Blackboard takes
+        async.setTimeout(0);
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    process(async, endpoint, mapping);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            LOG.warn("Asynchronous processing queue full, turning away", request.getServletPath(), null);
+            response.setHeader("Retry-After", RETRY_AFTER);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            async.complete();
+        }
+
+    }
+
+    /**
+     * Internal method to run the action of a request on a pool thread, and finish
+     * the request.
+     *
+     * @param async
+     * @param endpoint
+     * @param mapping
+     *         the endpoint's mapping, loaded before going asynchronous
+     */
+    private void process(final AsyncContext async, final SsoDispatcher.Endpoint endpoint, final ActionMapping mapping) {
+        final HttpServletRequest request = (HttpServletRequest) async.getRequest();
+        final HttpServletResponse response = (HttpServletResponse) async.getResponse();
+        try {
+            final ActionForward forward = dispatcher.execute(endpoint, mapping, request, response);
+            if(null != forward) {
+                // pages are rendered by the container
+                async.dispatch(forward.getPath());
+                return;
+            }
+        } catch(Exception e) {
+            LOG.error("Failed to process", request.getServletPath(), e);
+            try {
+                if(!response.isCommitted()) {
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+            } catch(IOException ioe) {
+                LOG.debug("Failed to send error", ioe);
+            }
+        } finally {
+            // pool threads serve many users, don't leave this one's context behind
+            contextManager.purgeContext();
+        }
+        async.complete();
+    }
+
+    /**
+     * Reports how full the asynchronous processing queue is.
+     */
+    private class AsyncQueueIndicator implements HealthIndicator {
+
+        public String getName() {
+            return "async_queue";
+        }
+
+        public Health check() {
+            final Health queue = Health.saturation(executor.getQueue().size(), QUEUE_SIZE);
+            final String detail = queue.getDetail() + " active=" + executor.getActiveCount() + " rejected=" + rejected.get();
+            return Health.Status.UP == queue.getStatus() ? Health.up(detail) : Health.degraded(detail);
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.servlet;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import com.blackboard.gs.autosignon.audit.AuditLog;
+import com.blackboard.gs.autosignon.health.HealthMonitor;
+import com.blackboard.gs.autosignon.metrics.SlowRequestLog;
+import com.blackboard.gs.autosignon.metrics.SsoMetrics;
+import com.blackboard.gs.autosignon.service.BlackboardServicesFactory;
+import com.blackboard.gs.autosignon.service.ConcurrencyLimiter;
+import com.blackboard.gs.autosignon.service.CourseForwardService;
+import com.blackboard.gs.autosignon.service.CoursePrefetcher;
+import com.blackboard.gs.autosignon.service.CourseTargetLoader;
+import com.blackboard.gs.autosignon.service.SecurityService;
+import com.blackboard.gs.autosignon.service.SessionService;
+import com.blackboard.gs.autosignon.service.UserIndex;
+
+/**
+ * Starts and stops the AutoSignon services that live for the lifetime of the
+ * web application. Must be declared after the InitSettingsListener, so logging
+ * and settings are available.
+ *
+ * When the web application is destroyed, the services' threads are stopped and
+ * waited for, the metrics MBean is unregistered and the singletons are dropped,
+ * so nothing outside the web application refers to its classes any more and a
+ * redeploy doesn't leak them (see the <code>redeployCheck</code> Gradle task).
+ *
+ */
+public class AutoSignonListener implements ServletContextListener {
+
+    public void contextInitialized(final ServletContextEvent event) {
+
+        // publish the metrics MBean
+        SsoMetrics.getInstance();
+
+        // start the audit writer
+        AuditLog.getInstance();
+
+        // start computing the health report
+        HealthMonitor.getInstance();
+
+        // start the course prefetch and course loader threads
+        CoursePrefetcher.getInstance();
+        CourseTargetLoader.getInstance();
+
+        // start building the user index in the background
+        UserIndex.getInstance();
+
+        // take over the SSO paths where requests can be processed asynchronously
+        if(event.getServletContext().getMajorVersion() >= 3) {
+            AsyncSsoServlet.register(event.getServletContext());
+        }
+
+    }
+
+    public void contextDestroyed(final ServletContextEvent event) {
+
+        HealthMonitor.destroy();
+
+        CoursePrefetcher.destroy();
+        CourseTargetLoader.destroy();
+        UserIndex.destroy();
+
+        // writes out whatever is still queued
+        AuditLog.destroy();
+
+        SsoMetrics.destroy();
+
+        SessionService.destroy();
+        SecurityService.destroy();
+        CourseForwardService.destroy();
+        ConcurrencyLimiter.destroy();
+        SlowRequestLog.destroy();
+        BlackboardServicesFactory.setInstance(null);
+
+    }
+
+}
@@ -0,0 +1,91 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.struts.action.ActionMapping;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.struts.actions.AutoSignonAction;
+
+/**
+ * This filter sits in front of the Struts servlet and takes the SSO and course
+ * forward requests (including those of integration profiles) straight to the
+ * {@link AutoSignonAction}, see the <i>Direct Dispatch</i> setting. Every other
+ * request, the settings pages included, goes on to Struts as before.
+ *
+ * Requests don't pass through it on their way to the {@link AsyncSsoServlet},
+ * which dispatches directly itself.
+ *
+ */
+public class DirectDispatchFilter implements Filter {
+
+    private SsoDispatcher dispatcher;
+
+    public void init(final FilterConfig config) throws ServletException {
+        dispatcher = new SsoDispatcher(config.getServletContext(), new AutoSignonAction());
+    }
+
+    public void destroy() {
+    }
+
+    public void doFilter(final ServletRequest servletRequest, final ServletResponse servletResponse, final FilterChain chain)
+            throws IOException, ServletException {
+
+        if(!AutoSignonConfig.isDirectDispatchEnabled() || !(servletRequest instanceof HttpServletRequest)) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        final HttpServletRequest request = (HttpServletRequest) servletRequest;
+        final HttpServletResponse response = (HttpServletResponse) servletResponse;
+        final SsoDispatcher.Endpoint endpoint = SsoDispatcher.Endpoint.of(request.getServletPath());
+        final ActionMapping mapping = null == endpoint ? null : dispatcher.getMapping(endpoint);
+        if(null == mapping) {
+            chain.doFilter(request, response);
+            return;
+        }
+        dispatcher.dispatch(endpoint, mapping, request, response);
+
+    }
+
+}
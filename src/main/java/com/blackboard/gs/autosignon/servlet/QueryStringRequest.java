@@ -0,0 +1,168 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.servlet;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Answers {@link #getParameter(String)} for a GET request from its raw query string,
+ * without having the container parse and decode every parameter into a map first.
+ *
+ * The query string is scanned once, remembering where each name and value starts
+ * and ends; a value is only decoded when it is asked for. Values with escapes
+ * outside ASCII, and names with any escapes, are left to the container, so they
+ * are decoded with whatever character encoding it is configured for.
+ *
+ */
+final class QueryStringRequest extends HttpServletRequestWrapper {
+
+    private final String query;
+    // name start, name end (the '=', or the pair end) and pair end, per pair
+    private int[] bounds;
+    private int pairs;
+    private boolean escapedNames;
+
+    private QueryStringRequest(final HttpServletRequest request, final String query) {
+        super(request);
+        this.query = query;
+        bounds = new int[24];
+        pairs = 0;
+        escapedNames = false;
+        scan();
+    }
+
+    /**
+     * Wraps a GET request with a query string, returns any other request as is.
+     *
+     * @param request
+     * @return
+     */
+    static HttpServletRequest wrap(final HttpServletRequest request) {
+        final String query = request.getQueryString();
+        if(null == query || !"GET".equals(request.getMethod())) {
+            return request;
+        }
+        return new QueryStringRequest(request, query);
+    }
+
+    public String getParameter(final String name) {
+        if(escapedNames) {
+            return super.getParameter(name);
+        }
+        final int length = name.length();
+        for(int i = 0; i < pairs * 3; i += 3) {
+            final int nameStart = bounds[i];
+            final int nameEnd = bounds[i + 1];
+            if(nameEnd - nameStart == length && query.regionMatches(nameStart, name, 0, length)) {
+                final int pairEnd = bounds[i + 2];
+                final String value = decode(nameEnd < pairEnd ? nameEnd + 1 : pairEnd, pairEnd);
+                return null != value ? value : super.getParameter(name);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Internal method to find the bounds of the name/value pairs.
+     */
+    private void scan() {
+        int start = 0;
+        final int end = query.length();
+        while(start < end) {
+            int pairEnd = query.indexOf('&', start);
+            if(pairEnd < 0) {
+                pairEnd = end;
+            }
+            if(pairEnd > start) {
+                int nameEnd = query.indexOf('=', start);
+                if(nameEnd < 0 || nameEnd > pairEnd) {
+                    nameEnd = pairEnd;
+                }
+                for(int i = start; i < nameEnd; i++) {
+                    final char c = query.charAt(i);
+                    if('%' == c || '+' == c) {
+                        escapedNames = true;
+                    }
+                }
+                if(pairs * 3 == bounds.length) {
+                    final int[] grown = new int[bounds.length * 2];
+                    System.arraycopy(bounds, 0, grown, 0, bounds.length);
+                    bounds = grown;
+                }
+                bounds[pairs * 3] = start;
+                bounds[pairs * 3 + 1] = nameEnd;
+                bounds[pairs * 3 + 2] = pairEnd;
+                pairs++;
+            }
+            start = pairEnd + 1;
+        }
+    }
+
+    /**
+     * Internal method to decode a value.
+     *
+     * @return the value, or <code>null</code> if it must be left to the container
+     */
+    private String decode(final int start, final int end) {
+        int escape = start;
+        while(escape < end && '%' != query.charAt(escape) && '+' != query.charAt(escape)) {
+            escape++;
+        }
+        if(escape == end) {
+            return query.substring(start, end);
+        }
+
+        final StringBuilder value = new StringBuilder(end - start);
+        value.append(query, start, escape);
+        for(int i = escape; i < end; i++) {
+            final char c = query.charAt(i);
+            if('+' == c) {
+                value.append(' ');
+            } else if('%' == c) {
+                final int high = i + 2 < end ? Character.digit(query.charAt(i + 1), 16) : -1;
+                final int low = i + 2 < end ? Character.digit(query.charAt(i + 2), 16) : -1;
+                // malformed, or not ASCII: the container's encoding decides
+                if(high < 0 || low < 0 || high > 7) {
+                    return null;
+                }
+                value.append((char) (high << 4 | low));
+                i += 2;
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+
+}
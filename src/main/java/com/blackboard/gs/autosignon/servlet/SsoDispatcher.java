@@ -0,0 +1,191 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.struts.Globals;
+import org.apache.struts.action.ActionForward;
+import org.apache.struts.action.ActionMapping;
+import org.apache.struts.config.ModuleConfig;
+
+import com.blackboard.gs.autosignon.struts.actions.AutoSignonAction;
+
+/**
+ * Runs the SSO and course forward requests on the {@link AutoSignonAction} directly,
+ * rather than through the Struts request processor and its reflective dispatch. The
+ * Struts mappings are still the configuration: each endpoint's mapping (and so its
+ * forwards) is looked up once, from the module the Struts servlet loaded.
+ *
+ * Parameters of GET requests are read from the query string as needed (see
+ * {@link QueryStringRequest}).
+ *
+ */
+final class SsoDispatcher {
+
+    /**
+     * The SSO endpoints, by the last segment of their paths.
+     */
+    enum Endpoint {
+        AUTO_SIGNON     ("/autoSignon"),
+        COURSE_FORWARD  ("/courseForward"),
+        COURSE_FORWARDS ("/courseForwards");
+
+        private final String path;
+        private final String servletPath;
+
+        Endpoint(final String path) {
+            this.path = path;
+            this.servletPath = path + ".do";
+        }
+
+        /**
+         * Returns the endpoint of a path, including the paths of integration
+         * profiles (<code>/&lt;profile&gt;/autoSignon.do</code>).
+         *
+         * @param servletPath
+         * @return the endpoint, or <code>null</code> if it is no SSO path
+         */
+        static Endpoint of(final String servletPath) {
+            if(null == servletPath) {
+                return null;
+            }
+            for(Endpoint endpoint : ENDPOINTS) {
+                if(servletPath.endsWith(endpoint.servletPath)
+                        && servletPath.lastIndexOf('/') == servletPath.length() - endpoint.servletPath.length()) {
+                    return endpoint;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final Endpoint[] ENDPOINTS = Endpoint.values();
+
+    private final ServletContext context;
+    private final AutoSignonAction action;
+    // by endpoint, looked up once the Struts servlet has loaded its module
+    private volatile ActionMapping[] mappings;
+
+    SsoDispatcher(final ServletContext context, final AutoSignonAction action) {
+        this.context = context;
+        this.action = action;
+        this.mappings = null;
+    }
+
+    /**
+     * Returns the Struts mapping of an endpoint.
+     *
+     * @param endpoint
+     * @return the mapping, or <code>null</code> while the Struts servlet hasn't loaded its module
+     */
+    ActionMapping getMapping(final Endpoint endpoint) {
+        ActionMapping[] current = mappings;
+        if(null == current) {
+            final ModuleConfig module = (ModuleConfig) context.getAttribute(Globals.MODULE_KEY);
+            if(null == module) {
+                return null;
+            }
+            current = new ActionMapping[ENDPOINTS.length];
+            for(Endpoint each : ENDPOINTS) {
+                current[each.ordinal()] = (ActionMapping) module.findActionConfig(each.path);
+            }
+            mappings = current;
+        }
+        return current[endpoint.ordinal()];
+    }
+
+    /**
+     * Runs the action method of an endpoint.
+     *
+     * @param endpoint
+     * @param mapping
+     *         the endpoint's mapping (see {@link #getMapping(Endpoint)})
+     * @param request
+     * @param response
+     * @return where to go next, <code>null</code> if the response is complete
+     * @throws Exception
+     */
+    ActionForward execute(final Endpoint endpoint, final ActionMapping mapping,
+            final HttpServletRequest request, final HttpServletResponse response) throws Exception {
+        final HttpServletRequest parameters = QueryStringRequest.wrap(request);
+        if(Endpoint.AUTO_SIGNON == endpoint) {
+            return action.autoSignon(mapping, null, parameters, response);
+        } else if(Endpoint.COURSE_FORWARD == endpoint) {
+            return action.courseForward(mapping, null, parameters, response);
+        }
+        return action.courseForwards(mapping, null, parameters, response);
+    }
+
+    /**
+     * Runs the action method of an endpoint on the current thread, and goes where it
+     * sends the request the way the Struts request processor does.
+     *
+     * @param endpoint
+     * @param mapping
+     *         the endpoint's mapping (see {@link #getMapping(Endpoint)})
+     * @param request
+     * @param response
+     * @throws IOException
+     * @throws ServletException
+     */
+    void dispatch(final Endpoint endpoint, final ActionMapping mapping,
+            final HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException {
+        final ActionForward forward;
+        try {
+            forward = execute(endpoint, mapping, request, response);
+        } catch(IOException e) {
+            throw e;
+        } catch(ServletException e) {
+            throw e;
+        } catch(Exception e) {
+            // as the Struts request processor does without an exception handler
+            throw new ServletException(e);
+        }
+        if(null == forward) {
+            return;
+        }
+        final String path = forward.getPath();
+        if(forward.getRedirect()) {
+            response.sendRedirect(response.encodeRedirectURL(path.startsWith("/") ? request.getContextPath() + path : path));
+        } else {
+            request.getRequestDispatcher(path).forward(request, response);
+        }
+    }
+
+}
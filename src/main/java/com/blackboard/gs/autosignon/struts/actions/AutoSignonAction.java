@@ -32,29 +32,37 @@
 
 package com.blackboard.gs.autosignon.struts.actions;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.log4j.LogManager;
-import org.apache.log4j.Logger;
 import org.apache.struts.action.ActionForm;
 import org.apache.struts.action.ActionForward;
 import org.apache.struts.action.ActionMapping;
 import org.apache.struts.actions.MappingDispatchAction;
 
 import blackboard.data.course.Course;
-import blackboard.data.course.CourseMembership;
-import blackboard.data.course.CourseMembership.Role;
 import blackboard.persist.Id;
-import blackboard.persist.course.CourseCourseDbLoader;
-import blackboard.persist.course.CourseDbLoader;
-import blackboard.persist.course.CourseMembershipDbLoader;
-import blackboard.platform.context.ContextManagerFactory;
+import blackboard.platform.context.ContextManager;
 
 import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.metrics.Outcome;
+import com.blackboard.gs.autosignon.metrics.RequestTrace;
+import com.blackboard.gs.autosignon.metrics.Stage;
+import com.blackboard.gs.autosignon.service.BlackboardServices;
+import com.blackboard.gs.autosignon.service.BlackboardServicesFactory;
+import com.blackboard.gs.autosignon.service.ConcurrencyLimiter;
+import com.blackboard.gs.autosignon.service.CourseForwardService;
+import com.blackboard.gs.autosignon.service.CoursePrefetcher;
+import com.blackboard.gs.autosignon.service.CourseTargetLoader;
 import com.blackboard.gs.autosignon.service.SecurityService;
 import com.blackboard.gs.autosignon.service.SessionService;
-import java.util.Calendar;
+import com.blackboard.gs.autosignon.service.SsoParameters;
+import com.blackboard.gs.settings.ThrottledLogger;
 
 /**
  * This class provides point-to-point single sign-on (SSO) between a trusted system and Blackboard.
@@ -70,38 +78,39 @@ import java.util.Calendar;
  * an SSO request has been validated, the user is either redirected to a given URL, Blackboard
  * course, or the default landing page (My Institution tab) based on the SSO request. See
  * AutoSignon Administration Manual for more information.
+ *
+ * Trusted systems with an integration profile of their own send their requests to the
+ * profile's path instead, e.g. .../bbgs-autosignon-BBLEARN/portal/autoSignon.do, or add
+ * the profile request parameter (see {@link com.blackboard.gs.autosignon.service.IntegrationProfiles}).
  */
 public class AutoSignonAction extends MappingDispatchAction {
 
-    private static final Logger LOG = LogManager.getLogger(AutoSignonAction.class);
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(AutoSignonAction.class);
+
+    // the response to requests turned away by the concurrency limiter
+    private static final String RETRY_AFTER = "1";
+    private static final String TRY_AGAIN = "Busy, please try again in a moment.\n";
 
     // internal services
     private final SecurityService       securityService;
     private final SessionService        sessionService;
+    private final CourseForwardService  courseForwardService;
+    private final CoursePrefetcher      coursePrefetcher;
+    private final ConcurrencyLimiter    concurrencyLimiter;
+    private final CourseTargetLoader    courseTargetLoader;
 
-    // blackboard loaders
-    private CourseDbLoader courseLoader;
-    private CourseCourseDbLoader courseCourseLoader;
-    private CourseMembershipDbLoader courseMembershipLoader;
+    // blackboard services
+    private final ContextManager contextManager;
 
     public AutoSignonAction() {
         securityService = SecurityService.getInstance();
         sessionService  = SessionService.getInstance();
-        try {
-            courseLoader = CourseDbLoader.Default.getInstance();
-        } catch(Exception e) {
-            LOG.error("Failed during init of action class, services not available", e);
-        }
-        try {
-            courseCourseLoader = CourseCourseDbLoader.Default.getInstance();
-        } catch(Exception e) {
-            LOG.error("Failed during init of action class, services not available", e);
-        }
-        try {
-            courseMembershipLoader = CourseMembershipDbLoader.Default.getInstance();
-        } catch(Exception e) {
-            LOG.error("Failed during init of action class, services not available", e);
-        }   
+        courseForwardService = CourseForwardService.getInstance();
+        coursePrefetcher = CoursePrefetcher.getInstance();
+        concurrencyLimiter = ConcurrencyLimiter.getInstance();
+        courseTargetLoader = CourseTargetLoader.getInstance();
+        final BlackboardServices services = BlackboardServicesFactory.getInstance();
+        contextManager = services.getContextManager();
     }
 
     /**
@@ -116,26 +125,55 @@ public class AutoSignonAction extends MappingDispatchAction {
      */
     public ActionForward autoSignon(final ActionMapping mapping, final ActionForm form, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
 
-        // is SSO enabled?
-        if(AutoSignonConfig.isSsoEnabled()) {
+        final RequestTrace trace = RequestTrace.begin(request);
+        try {
 
-            if(securityService.validateMacInRequest(request)) {
+            // is SSO enabled?
+            if(AutoSignonConfig.isSsoEnabled()) {
 
-                // create a session for the user
-                final String userId = request.getParameter(AutoSignonConfig.getUserIdRequestParameter());
-                if(sessionService.createSession(userId, request, response)) {
+                final long macStart = System.nanoTime();
+                final boolean macValid = securityService.validateMacInRequest(request);
+                trace.recordStage(Stage.MAC_VALIDATION, System.nanoTime() - macStart);
 
-                    // determine the correct forwarding location and forward
-                    response.sendRedirect(generateForwardUrl(request));
-                    return null;
+                if(macValid) {
+
+                    // turn the request away rather than pile up on a slow database
+                    if(!concurrencyLimiter.tryAcquire()) {
+                        trace.recordOutcome(Outcome.OVERLOADED);
+                        sendTryAgain(response);
+                        return null;
+                    }
+                    final long limitedStart = System.nanoTime();
+                    try {
+
+                        // create a session for the user
+                        final SsoParameters parameters = SsoParameters.get(request);
+                        final String userId = parameters.getUserId();
+                        trace.setUserId(userId);
+                        if(sessionService.createSession(userId, request, response)) {
+
+                            // determine the correct forwarding location and forward
+                            response.sendRedirect(generateForwardUrl(request, parameters));
+                            trace.recordOutcome(Outcome.SUCCESS);
+                            return null;
+
+                        }
+
+                    } finally {
+                        concurrencyLimiter.release(System.nanoTime() - limitedStart);
+                    }
 
                 }
 
+            } else {
+                trace.recordOutcome(Outcome.SSO_DISABLED);
             }
 
-        }
+            return mapping.findForward("accessDenied");
 
-        return mapping.findForward("accessDenied");
+        } finally {
+            trace.finish();
+        }
 
     }
 
@@ -152,14 +190,125 @@ public class AutoSignonAction extends MappingDispatchAction {
      */
     public ActionForward courseForward(final ActionMapping mapping, final ActionForm form, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
 
-        final String courseForward = generateCourseForwardUrl(request);
+        final RequestTrace trace = RequestTrace.begin(request);
+        try {
 
-        if(null != courseForward) {
-            response.sendRedirect(generateCourseForwardUrl(request));
-            return null;
+            // resolve the profile first, a request that is turned away holds no permit
+            final SsoParameters parameters = SsoParameters.get(request);
+            if(null == parameters) {
+                trace.recordOutcome(Outcome.UNKNOWN_PROFILE);
+                return mapping.findForward("accessDenied");
+            }
+            if(!concurrencyLimiter.tryAcquire()) {
+                trace.recordOutcome(Outcome.OVERLOADED);
+                sendTryAgain(response);
+                return null;
+            }
+
+            final String courseForward;
+            final long limitedStart = System.nanoTime();
+            try {
+                courseForward = generateCourseForwardUrl(request, parameters);
+            } finally {
+                concurrencyLimiter.release(System.nanoTime() - limitedStart);
+            }
+
+            if(null != courseForward) {
+                response.sendRedirect(courseForward);
+                trace.recordOutcome(Outcome.SUCCESS);
+                return null;
+            }
+
+            return mapping.findForward("accessDenied");
+
+        } finally {
+            trace.finish();
         }
 
-        return mapping.findForward("accessDenied");
+    }
+
+    /**
+     * Resolves the course forwards of several courses at once, for a portal listing a
+     * user's courses. The request is signed like an SSO request, and carries a comma
+     * separated list of course batch uids in the course id parameter. No session is
+     * created. Answers with JSON, one entry per course in the order given:
+     *
+     * <pre>
+     * {"courses":[{"batchUid":"c1","status":"success","url":"/webapps/..."},{"batchUid":"c2","status":"course_over"}]}
+     * </pre>
+     *
+     * The status is <code>success</code>, <code>course_not_started</code>,
+     * <code>course_over</code> or <code>course_invalid</code>; the url is only present
+     * on success.
+     *
+     * @param mapping
+     * @param form
+     * @param request
+     * @param response
+     * @return
+     * @throws Exception
+     */
+    public ActionForward courseForwards(final ActionMapping mapping, final ActionForm form, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
+
+        final RequestTrace trace = RequestTrace.begin(request);
+        try {
+
+            if(!AutoSignonConfig.isSsoEnabled()) {
+                trace.recordOutcome(Outcome.SSO_DISABLED);
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return null;
+            }
+
+            final long macStart = System.nanoTime();
+            final boolean macValid = securityService.validateMacInRequest(request);
+            trace.recordStage(Stage.MAC_VALIDATION, System.nanoTime() - macStart);
+            if(!macValid) {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return null;
+            }
+
+            final SsoParameters parameters = SsoParameters.get(request);
+            final List<String> batchUids = splitCourseIds(parameters.getCourseId());
+            if(batchUids.isEmpty() || batchUids.size() > CourseForwardService.MAX_COURSES) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return null;
+            }
+
+            final String userId = parameters.getUserId();
+            trace.setUserId(userId);
+            if(!concurrencyLimiter.tryAcquire()) {
+                trace.recordOutcome(Outcome.OVERLOADED);
+                sendTryAgain(response);
+                return null;
+            }
+            final List<CourseForwardService.Resolution> resolutions;
+            final long limitedStart = System.nanoTime();
+            try {
+                resolutions = courseForwardService.resolve(userId, batchUids, trace);
+            } catch(Exception e) {
+                LOG.error("Failed to load the courses of user", userId, e);
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return null;
+            } finally {
+                concurrencyLimiter.release(System.nanoTime() - limitedStart);
+            }
+            if(null == resolutions) {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return null;
+            }
+
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Cache-Control", "no-cache");
+            final PrintWriter writer = response.getWriter();
+            writer.write(toJson(resolutions));
+            writer.flush();
+            trace.recordOutcome(Outcome.SUCCESS);
+            return null;
+
+        } finally {
+            trace.finish();
+        }
 
     }
 
@@ -168,20 +317,25 @@ public class AutoSignonAction extends MappingDispatchAction {
      * and the parameters provided.
      *
      * @param request
+     * @param parameters
      * @return
      */
-    private String generateForwardUrl(final HttpServletRequest request) {
+    private String generateForwardUrl(final HttpServletRequest request, final SsoParameters parameters) {
 
         // try to generate a course forward url
-        final String courseForward = generateCourseForwardUrl(request);
+        final String courseForward = generateCourseForwardUrl(request, parameters);
         if(null != courseForward) {
             return courseForward;
         }
 
-        // standard forward applies next
-        final String forward = request.getParameter(AutoSignonConfig.getForwardRequestParameter());
+        // standard forward applies next, if it goes somewhere allowed
+        final String forward = parameters.getForward();
         if(null != forward) {
-            return forward;
+            if(parameters.getProfile().getForwardAllowlist().isAllowed(forward)) {
+                return forward;
+            }
+            LOG.warn("Forward URL not allowed, forwarding to home instead", forward, null);
+            RequestTrace.get(request).recordOutcome(Outcome.FORWARD_NOT_ALLOWED);
         }
 
         // otherwise, forward to home
@@ -194,60 +348,71 @@ public class AutoSignonAction extends MappingDispatchAction {
      * and the parameters provided. Will forward to home if course is not valid.
      *
      * @param request
+     * @param parameters
      * @return the generated URL for course forwarding
      */
-    private String generateCourseForwardUrl(final HttpServletRequest request) {
+    private String generateCourseForwardUrl(final HttpServletRequest request, final SsoParameters parameters) {
 
         // course forward takes precendence if it is present
-        final String courseForward = request.getParameter(AutoSignonConfig.getCourseIdRequestParameter());
+        final String courseForward = parameters.getCourseId();
         if(null != courseForward) {
 
-            // Begin modified code by John Madrak <madrak@lasalle.edu> to support cross listing, detection of unavailable courses, etc
-            Course forwardedCourse;
-            Course courseToCheck;
-            Id courseID;
-            Calendar today = Calendar.getInstance();
-            Calendar startDate = null;
-            Calendar endDate = null;
-            Role courseRole;
+            // Course forward by John Madrak <madrak@lasalle.edu> to support cross listing, detection of unavailable courses, etc
+            final RequestTrace trace = RequestTrace.get(request);
+            trace.setCourseId(courseForward);
+            final Id userId;
             try {
-                forwardedCourse = courseLoader.loadByBatchUid(courseForward);  
-                courseID = forwardedCourse.getId();
-                startDate = forwardedCourse.getStartDate();
-                endDate = forwardedCourse.getEndDate();
+                contextManager.setContext(request);
+                userId = contextManager.getContext().getUserId();
             } catch(Exception e) {
-                LOG.warn("Course invalid: " + courseForward, e);
+                trace.recordOutcome(Outcome.COURSE_INVALID);
+                LOG.warn("Could not determine the user of course forward", courseForward, e);
+                return null;
+            }
+            if(null == userId) {
+                trace.recordOutcome(Outcome.COURSE_INVALID);
+                LOG.warn("Course forward requested without a signed on user", courseForward, null);
                 return null;
             }
+
+            // courses prefetched at sign-on, or loaded late for an earlier forward, need no database access
+            final CourseForwardService.Target prefetched = coursePrefetcher.getTarget(request, userId, courseForward);
+            if(null != prefetched) {
+                return generateTargetForwardUrl(prefetched, trace);
+            }
+
+            // don't keep the user waiting past the deadline
+            final long deadline = AutoSignonConfig.getCourseForwardDeadline();
+            if(deadline > 0) {
+                return generateDeadlineCourseForwardUrl(request, userId, courseForward, deadline * 1000000L - trace.getTotalNanos(), trace);
+            }
+
+            final Course course;
             try {
-                ContextManagerFactory.getInstance().setContext(request);
-                Id userID = ContextManagerFactory.getInstance().getContext().getUserId();
-                courseRole = courseMembershipLoader.loadByCourseAndUserId(courseID, userID).getRole();
+                course = courseForwardService.loadCourse(courseForward, trace);
             } catch(Exception e) {
-                LOG.warn("Could not retrieve course role" + courseForward, e);
+                trace.recordOutcome(Outcome.COURSE_INVALID);
+                LOG.warn("Could not load course", courseForward, e);
                 return null;
             }
-            if(forwardedCourse.isChild() == true && !courseRole.equals(CourseMembership.Role.INSTRUCTOR)){
-                try {
-                    courseID = courseCourseLoader.loadParent(courseID).getParentCourseId();
-                    courseToCheck = courseLoader.loadByCourseId(courseID.toString());
-                } catch(Exception e) {
-                    LOG.warn("Could not load parent " + courseForward, e);
-                    return null;
-                }
-            } else {
-                courseToCheck = forwardedCourse;
+            // unknown courses are logged (once in a while) by the service
+            if(null == course) {
+                trace.recordOutcome(Outcome.COURSE_INVALID);
+                return null;
             }
-            if(courseToCheck.getDurationType() == Course.Duration.CONTINUOUS && courseToCheck.getIsAvailable() == false && (!courseRole.equals(CourseMembership.Role.INSTRUCTOR)||!courseRole.equals(CourseMembership.Role.TEACHING_ASSISTANT)||!courseRole.equals(CourseMembership.Role.COURSE_BUILDER)||!courseRole.equals(CourseMembership.Role.GRADER))){
-                return "course_notstarted.jsp";
-            } else if(startDate!=null && courseToCheck.getDurationType() == Course.Duration.DATE_RANGE && startDate.after(today) && (!courseRole.equals(CourseMembership.Role.INSTRUCTOR)||!courseRole.equals(CourseMembership.Role.TEACHING_ASSISTANT)||!courseRole.equals(CourseMembership.Role.COURSE_BUILDER)||!courseRole.equals(CourseMembership.Role.GRADER))){
-                return "course_notstarted.jsp";
-            } else if(endDate!=null && courseToCheck.getDurationType() == Course.Duration.DATE_RANGE && endDate.before(today) && (!courseRole.equals(CourseMembership.Role.INSTRUCTOR)||!courseRole.equals(CourseMembership.Role.TEACHING_ASSISTANT)||!courseRole.equals(CourseMembership.Role.COURSE_BUILDER)||!courseRole.equals(CourseMembership.Role.GRADER))){
-                return "course_over.jsp";                
-            } else {
-                return AutoSignonConfig.BB_COURSE_HOME + courseID.toExternalString();
+            final CourseForwardService.Target target;
+            try {
+                target = courseForwardService.loadTarget(course, userId, trace);
+            } catch(Exception e) {
+                trace.recordOutcome(Outcome.COURSE_INVALID);
+                LOG.warn("Could not retrieve course role", courseForward, e);
+                return null;
+            }
+            if(null == target) {
+                trace.recordOutcome(Outcome.COURSE_INVALID);
+                return null;
             }
-            //End modified code
+            return generateTargetForwardUrl(target, trace);
 
         }
 
@@ -255,4 +420,143 @@ public class AutoSignonAction extends MappingDispatchAction {
 
     }
 
+    /**
+     * Internal method to generate a URL for course forwarding, waiting for the course at
+     * most the time left. Past that the course is left to load in the background and the
+     * user is forwarded to the configured fallback.
+     *
+     * @param request
+     * @param userId
+     * @param courseForward
+     * @param remainingNanos
+     * @param trace
+     * @return
+     */
+    private String generateDeadlineCourseForwardUrl(final HttpServletRequest request, final Id userId, final String courseForward,
+            final long remainingNanos, final RequestTrace trace) {
+
+        final CourseTargetLoader.PendingTarget pending = courseTargetLoader.load(userId, courseForward, trace);
+        if(null == pending || (!pending.await(remainingNanos) && pending.abandon(request.getSession(false)))) {
+            trace.recordOutcome(Outcome.COURSE_DEADLINE);
+            final Id courseId = null == pending ? null : pending.getCourseId();
+            if(null != courseId && AutoSignonConfig.isCourseFallbackToCourse()) {
+                LOG.info("Course forward missed the deadline, forwarding to the course unchecked: " + courseForward);
+                return AutoSignonConfig.BB_COURSE_HOME + courseId.toExternalString();
+            }
+            LOG.info("Course forward missed the deadline, forwarding to home: " + courseForward);
+            return AutoSignonConfig.BB_FORWARD_HOME;
+        }
+
+        trace.join(pending.getTrace());
+        if(null != pending.getFailure()) {
+            trace.recordOutcome(Outcome.COURSE_INVALID);
+            LOG.warn("Could not load course", courseForward, pending.getFailure());
+            return null;
+        }
+        if(null == pending.getTarget()) {
+            trace.recordOutcome(Outcome.COURSE_INVALID);
+            return null;
+        }
+        return generateTargetForwardUrl(pending.getTarget(), trace);
+
+    }
+
+    /**
+     * Internal method to generate the URL for course forwarding to a loaded (or prefetched) course.
+     *
+     * @param target
+     * @param trace
+     * @return
+     */
+    private String generateTargetForwardUrl(final CourseForwardService.Target target, final RequestTrace trace) {
+        final Outcome access = target.checkAvailability(System.currentTimeMillis());
+        if(Outcome.COURSE_NOT_STARTED == access) {
+            trace.recordOutcome(Outcome.COURSE_NOT_STARTED);
+            return "course_notstarted.jsp";
+        } else if(Outcome.COURSE_OVER == access) {
+            trace.recordOutcome(Outcome.COURSE_OVER);
+            return "course_over.jsp";
+        }
+        return target.getForwardUrl();
+    }
+
+    /**
+     * Internal method to turn a request away while the database is overloaded. Kept
+     * as cheap as possible, no page is rendered.
+     *
+     * @param response
+     * @throws IOException
+     */
+    private static void sendTryAgain(final HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", RETRY_AFTER);
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("US-ASCII");
+        final PrintWriter writer = response.getWriter();
+        writer.write(TRY_AGAIN);
+        writer.flush();
+    }
+
+    /**
+     * Internal method to split a comma separated list of course batch uids,
+     * ignoring blanks.
+     *
+     * @param courseIds
+     * @return
+     */
+    private static List<String> splitCourseIds(final String courseIds) {
+        final List<String> batchUids = new ArrayList<String>();
+        if(null != courseIds) {
+            for(String batchUid : courseIds.split(",")) {
+                final String trimmed = batchUid.trim();
+                if(trimmed.length() > 0) {
+                    batchUids.add(trimmed);
+                }
+            }
+        }
+        return batchUids;
+    }
+
+    /**
+     * Internal method to write the course forwards as JSON.
+     *
+     * @param resolutions
+     * @return
+     */
+    private static String toJson(final List<CourseForwardService.Resolution> resolutions) {
+        final StringBuilder json = new StringBuilder(64 + resolutions.size() * 128);
+        json.append("{\"courses\":[");
+        for(int i = 0; i < resolutions.size(); i++) {
+            final CourseForwardService.Resolution resolution = resolutions.get(i);
+            if(i > 0) {
+                json.append(',');
+            }
+            json.append("{\"batchUid\":");
+            appendJsonString(json, resolution.getBatchUid());
+            json.append(",\"status\":");
+            appendJsonString(json, resolution.getOutcome().getMetricName());
+            if(null != resolution.getUrl()) {
+                json.append(",\"url\":");
+                appendJsonString(json, resolution.getUrl());
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendJsonString(final StringBuilder json, final String value) {
+        json.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if('"' == c || '\\' == c) {
+                json.append('\\').append(c);
+            } else if(c < 0x20 || 0x2028 == c || 0x2029 == c) {
+                json.append(String.format("\\u%04x", Integer.valueOf(c)));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.autosignon.struts.actions;
+
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.struts.action.ActionForm;
+import org.apache.struts.action.ActionForward;
+import org.apache.struts.action.ActionMapping;
+import org.apache.struts.actions.MappingDispatchAction;
+
+import com.blackboard.gs.autosignon.AutoSignonConfig;
+import com.blackboard.gs.autosignon.metrics.SsoMetrics;
+
+/**
+ * This class exposes the SSO metrics as plain text (one <code>name value</code> pair
+ * per line), for monitoring systems that can't read JMX. The same values are
+ * available through the {@link SsoMetrics#OBJECT_NAME} MBean.
+ *
+ * The metrics name the integration profiles and describe the node's internals, so they
+ * are only written to requests carrying the <i>Metrics Token</i> setting as an
+ * <code>Authorization: Bearer</code> header; other requests (and all requests while the
+ * setting is empty) get a <code>403</code>.
+ */
+public class MetricsAction extends MappingDispatchAction {
+
+    private static final String BEARER = "Bearer ";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Writes the current metrics.
+     *
+     * @param mapping
+     * @param form
+     * @param request
+     * @param response
+     * @return
+     * @throws Exception
+     */
+    public ActionForward metrics(final ActionMapping mapping, final ActionForm form, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
+
+        if(!isAuthorized(request)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return null;
+        }
+
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        final PrintWriter writer = response.getWriter();
+        writer.write(SsoMetrics.getInstance().toText());
+        writer.flush();
+
+        return null;
+
+    }
+
+    /**
+     * Internal method to check the request's token against the <i>Metrics Token</i> setting.
+     *
+     * @param request
+     * @return <code>true</code> if the token is set and the request carries it, <code>false</code> otherwise
+     */
+    private static boolean isAuthorized(final HttpServletRequest request) {
+        final String token = AutoSignonConfig.getMetricsToken();
+        final String authorization = request.getHeader("Authorization");
+        if(0 == token.length() || null == authorization || !authorization.startsWith(BEARER)) {
+            return false;
+        }
+        // without stopping at the first difference, so the token can't be guessed by timing
+        return MessageDigest.isEqual(token.getBytes(UTF_8), authorization.substring(BEARER.length()).trim().getBytes(UTF_8));
+    }
+
+}
@@ -0,0 +1,280 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.settings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one scheduler for the building block's periodic background work (settings
+ * sync, log configuration watching, log summaries, health checks, cache refreshes),
+ * so there is a single small pool of threads to start, observe and stop. It is
+ * started by the InitSettingsListener and shut down when the web application is
+ * destroyed; nothing keeps running after that.
+ *
+ * Each task is registered by name and runs with a fixed delay between runs, so a
+ * task never overlaps itself. Its runs, failures and run times are counted, as are
+ * its overruns: runs that took longer than the task's interval. A failing run is
+ * logged and the task runs again at the next interval, whether it threw an exception
+ * or an error.
+ *
+ */
+public final class Scheduler {
+
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(Scheduler.class);
+
+    // a long task (e.g. a cache rebuild) must not hold up the short ones
+    private static final int THREADS = 3;
+    // how long (ms) running tasks get to finish at shutdown
+    private static final long SHUTDOWN_TIMEOUT = 5000L;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final List<Task> tasks;
+
+    private static Scheduler instance = null;
+
+    public static synchronized Scheduler getInstance() {
+        if (null == instance) {
+            instance = new Scheduler();
+        }
+        return instance;
+    }
+
+    private Scheduler() {
+        executor = new ScheduledThreadPoolExecutor(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "AutoSignon scheduler " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        tasks = new CopyOnWriteArrayList<Task>();
+    }
+
+    /**
+     * Runs a task every so often, the first time after the initial delay.
+     *
+     * @param name
+     *         names the task in metrics and logs, e.g. <code>settings_sync</code>
+     * @param runnable
+     * @param initialDelay
+     * @param interval
+     *         time between the end of one run and the start of the next
+     * @param unit
+     *         of the delay and interval
+     * @return the task, or <code>null</code> if the scheduler has been shut down
+     */
+    public Task schedule(final String name, final Runnable runnable, final long initialDelay, final long interval, final TimeUnit unit) {
+        final Task task = new Task(name, runnable, unit.toNanos(interval));
+        try {
+            task.future = executor.scheduleWithFixedDelay(task, initialDelay, interval, unit);
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Scheduler is shut down, not running task", name, null);
+            return null;
+        }
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * Returns the tasks scheduled, in the order they were.
+     *
+     * @return
+     */
+    public List<Task> getTasks() {
+        return new ArrayList<Task>(tasks);
+    }
+
+    /**
+     * Returns whether tasks can be scheduled and run.
+     *
+     * @return
+     */
+    public boolean isRunning() {
+        return !executor.isShutdown();
+    }
+
+    /**
+     * Shuts the scheduler down and forgets the instance. A scheduler created
+     * afterwards starts no threads until a task is scheduled on it.
+     */
+    public static synchronized void destroy() {
+        if (null != instance) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Cancels all tasks, and waits a little for those running to finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Scheduled tasks still running after " + SHUTDOWN_TIMEOUT + " ms, interrupting them");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        tasks.clear();
+    }
+
+    /**
+     * A scheduled task and its run statistics.
+     */
+    public final class Task implements Runnable {
+
+        private final String name;
+        private final Runnable runnable;
+        private final long intervalNanos;
+        private final AtomicLong runs;
+        private final AtomicLong failures;
+        private final AtomicLong overruns;
+        private final AtomicLong totalNanos;
+        private final AtomicLong maxNanos;
+        private volatile long lastRunAt;
+        private volatile ScheduledFuture<?> future;
+
+        private Task(final String name, final Runnable runnable, final long intervalNanos) {
+            this.name = name;
+            this.runnable = runnable;
+            this.intervalNanos = intervalNanos;
+            runs = new AtomicLong();
+            failures = new AtomicLong();
+            overruns = new AtomicLong();
+            totalNanos = new AtomicLong();
+            maxNanos = new AtomicLong();
+            lastRunAt = -1L;
+        }
+
+        public void run() {
+            final long start = System.nanoTime();
+            try {
+                runnable.run();
+            } catch (ThreadDeath death) {
+                failures.incrementAndGet();
+                throw death;
+            } catch (Throwable t) {
+                // errors too (e.g. a LinkageError from a driver), or the executor would cancel the task
+                failures.incrementAndGet();
+                LOG.error("Scheduled task failed", name, t);
+            }
+            final long nanos = System.nanoTime() - start;
+            runs.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            if (nanos > intervalNanos) {
+                overruns.incrementAndGet();
+            }
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            lastRunAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Stops running the task. A run in progress is left to finish.
+         */
+        public void cancel() {
+            tasks.remove(this);
+            final ScheduledFuture<?> scheduled = future;
+            if (null != scheduled) {
+                scheduled.cancel(false);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRunCount() {
+            return runs.get();
+        }
+
+        public long getFailureCount() {
+            return failures.get();
+        }
+
+        /**
+         * Returns the number of runs that took longer than the task's interval.
+         *
+         * @return
+         */
+        public long getOverrunCount() {
+            return overruns.get();
+        }
+
+        /**
+         * Returns the mean run time, in microseconds.
+         *
+         * @return
+         */
+        public long getMeanMicros() {
+            final long count = runs.get();
+            return 0 == count ? 0 : totalNanos.get() / count / 1000L;
+        }
+
+        /**
+         * Returns the longest run time, in microseconds.
+         *
+         * @return
+         */
+        public long getMaxMicros() {
+            return maxNanos.get() / 1000L;
+        }
+
+        /**
+         * Returns when the last run finished (ms), -1 if it hasn't run yet.
+         *
+         * @return
+         */
+        public long getLastRunTime() {
+            return lastRunAt;
+        }
+    }
+
+}
@@ -89,6 +89,16 @@ public enum Setting {
             new String[] { AutoSignonConfig.SECURE_MAC },
             new NonEmptyValidator()
             ),
+    SSO_FORMAT (
+            "SSO Request Format",
+            "Parameters: the user id, timestamp and MAC parameters are separate request parameters, with a MAC. Token: they are all in one signed token parameter (see the signer module).",
+            "bbgs.autosignon.ssoFormat",
+            AutoSignonConfig.FORMAT_PARAMETERS,
+            true,
+            SettingType.SELECT,
+            new String[] { AutoSignonConfig.FORMAT_PARAMETERS, AutoSignonConfig.FORMAT_TOKEN, AutoSignonConfig.FORMAT_ANY },
+            new NonEmptyValidator()
+            ),
     MAC_PARAMETERS (	
             "Request Parameters used for MAC",
             "Defines the set of additional parameters that are used for MAC calculation (UserId and Timestamp are always included).",
@@ -99,6 +109,16 @@ public enum Setting {
             null,
             new RequestParameterSettingValidator()
             ),
+    FORWARD_ALLOWLIST (
+            "Allowed Forward URLs",
+            "Prefixes of the URLs a sign-on may forward to, one per line: paths on this server (e.g. /webapps/) or http(s) URLs of other servers, for that scheme only (//host/ allows both). Other forward URLs go to the Blackboard home page.",
+            "bbgs.autosignon.forwardAllowlist",
+            "/",
+            false,
+            SettingType.TEXTAREA,
+            null,
+            new ForwardAllowlistValidator()
+            ),
     PARAM_MAC (	
             "MAC Request Parameter",
             "Request Parameter that Message Authentication Code can be located on.",
@@ -147,19 +167,195 @@ public enum Setting {
 						SettingType.TEXT,
 						null,
 						new NonEmptyValidator()
+					),
+
+	PARAM_TOKEN	(	"Token Request Parameter",
+						"Request Parameter that the SSO token can be located on (token format only).",
+						"bbgs.autosignon.paramToken",
+						"token",
+						true,
+						SettingType.TEXT,
+						null,
+						new NonEmptyValidator()
+					),
+
+	PARAM_PROFILE	(	"Profile Request Parameter",
+						"Request Parameter that the name of the integration profile can be located on. Requests without it (and not sent to a profile's own path) use these settings.",
+						"bbgs.autosignon.paramProfile",
+						"profile",
+						true,
+						SettingType.TEXT,
+						null,
+						new NonEmptyValidator()
+					),
+
+	AUDIT_ENABLED	(	"Audit Trail Enabled",
+						"Record every SSO and course forward request (time, user, source address, outcome, course and timings) in the audit files.",
+						"bbgs.autosignon.auditEnabled",
+						AutoSignonConfig.AUDIT_ENABLED,
+						true,
+						SettingType.RADIO,
+						new String[] { AutoSignonConfig.AUDIT_ENABLED, AutoSignonConfig.AUDIT_DISABLED },
+						new NonEmptyValidator()
+					),
+
+	SLOW_REQUEST_THRESHOLD	(	"Slow Request Threshold",
+						"Requests taking longer than this (in milliseconds) are logged with a per-stage timing breakdown and kept for the Slow Requests page.",
+						"bbgs.autosignon.slowRequestThreshold",
+						AutoSignonConfig.SLOW_REQUEST_THRESHOLD_DEF,
+						true,
+						SettingType.TEXT,
+						null,
+						new LongValidator()
+					),
+
+	METRICS_TOKEN	(	"Metrics Token",
+						"Token monitoring systems send (as an Authorization: Bearer header) to read the plain text metrics on metrics.do. Leave empty to turn metrics.do away, the metrics MBean is still available.",
+						"bbgs.autosignon.metricsToken",
+						"",
+						false,
+						SettingType.TEXT,
+						null,
+						null
+					),
+
+	COURSE_PREFETCH	(	"Course Prefetch",
+						"Load all of a user's courses in the background at sign-on and keep them in the session, so the course forwards that follow don't query the database.",
+						"bbgs.autosignon.coursePrefetch",
+						AutoSignonConfig.COURSE_PREFETCH_DISABLED,
+						true,
+						SettingType.RADIO,
+						new String[] { AutoSignonConfig.COURSE_PREFETCH_ENABLED, AutoSignonConfig.COURSE_PREFETCH_DISABLED },
+						new NonEmptyValidator()
+					),
+
+	ASYNC_PROCESSING	(	"Asynchronous Processing",
+						"Run SSO and course forward requests on a separate bounded thread pool, releasing the container's threads while they wait on the database. Needs a servlet 3.0 container, older containers always process synchronously.",
+						"bbgs.autosignon.asyncProcessing",
+						AutoSignonConfig.ASYNC_PROCESSING_DISABLED,
+						true,
+						SettingType.RADIO,
+						new String[] { AutoSignonConfig.ASYNC_PROCESSING_ENABLED, AutoSignonConfig.ASYNC_PROCESSING_DISABLED },
+						new NonEmptyValidator()
+					),
+
+	DIRECT_DISPATCH	(	"Direct Dispatch",
+						"Hand SSO and course forward requests straight to AutoSignon, reading only the parameters it needs from the query string, rather than through the Struts request processor. Disable to fall back to Struts dispatch.",
+						"bbgs.autosignon.directDispatch",
+						AutoSignonConfig.DIRECT_DISPATCH_ENABLED,
+						true,
+						SettingType.RADIO,
+						new String[] { AutoSignonConfig.DIRECT_DISPATCH_ENABLED, AutoSignonConfig.DIRECT_DISPATCH_DISABLED },
+						new NonEmptyValidator()
+					),
+
+	CONCURRENCY_LIMIT	(	"Concurrency Limiting",
+						"Limit how many requests wait on the database at once, adapting the limit to how fast the database answers. Requests over the limit are turned away with a try again response.",
+						"bbgs.autosignon.concurrencyLimit",
+						AutoSignonConfig.CONCURRENCY_LIMIT_DISABLED,
+						true,
+						SettingType.RADIO,
+						new String[] { AutoSignonConfig.CONCURRENCY_LIMIT_ENABLED, AutoSignonConfig.CONCURRENCY_LIMIT_DISABLED },
+						new NonEmptyValidator()
+					),
+
+	CONCURRENCY_LATENCY_TARGET	(	"Concurrency Latency Target",
+						"Database time (in milliseconds) per request above which the concurrency limit is lowered.",
+						"bbgs.autosignon.concurrencyLatencyTarget",
+						AutoSignonConfig.CONCURRENCY_LATENCY_TARGET_DEF,
+						true,
+						SettingType.TEXT,
+						null,
+						new LongValidator()
+					),
+
+	COURSE_FORWARD_DEADLINE	(	"Course Forward Deadline",
+						"Time (in milliseconds) a request may take before its course forward is given up on and the user is forwarded to the fallback instead. The course is still loaded in the background and remembered for the next forward. 0 waits as long as the database takes.",
+						"bbgs.autosignon.courseForwardDeadline",
+						AutoSignonConfig.COURSE_FORWARD_DEADLINE_DEF,
+						true,
+						SettingType.TEXT,
+						null,
+						new LongValidator()
+					),
+
+	COURSE_FORWARD_FALLBACK	(	"Course Forward Fallback",
+						"Where to forward a user whose course forward missed the deadline: to the home page, or to the course without checking its availability (if the course itself was loaded in time).",
+						"bbgs.autosignon.courseForwardFallback",
+						AutoSignonConfig.COURSE_FALLBACK_HOME,
+						true,
+						SettingType.RADIO,
+						new String[] { AutoSignonConfig.COURSE_FALLBACK_HOME, AutoSignonConfig.COURSE_FALLBACK_COURSE },
+						new NonEmptyValidator()
+					),
+
+	USER_INDEX	(	"User Index",
+						"Keep an index of all users' batch uids and user names in memory, built in the background and refreshed every minute, so sign-ons find their user with a single lookup.",
+						"bbgs.autosignon.userIndex",
+						AutoSignonConfig.USER_INDEX_DISABLED,
+						true,
+						SettingType.RADIO,
+						new String[] { AutoSignonConfig.USER_INDEX_ENABLED, AutoSignonConfig.USER_INDEX_DISABLED },
+						new NonEmptyValidator()
 					);
 
 
 
 	public static SettingsGroup[] getSettingsGroups() {
-		final SettingsGroup[] groups = new SettingsGroup[2];
+		final SettingsGroup[] groups = new SettingsGroup[4];
 
 		groups[0] = new SettingsGroup("Security Settings");
 		groups[0].addSetting(SSO_ENABLED);
+		groups[0].addSetting(SSO_FORMAT);
+		groups[0].addSetting(MAC_ALGORITHM);
+		groups[0].addSetting(MAC_PARAMETERS);
+		groups[0].addSetting(SHARED_SECRET);
+		groups[0].addSetting(TIMESTAMP_RANGE);
+		groups[0].addSetting(FORWARD_ALLOWLIST);
+
+		groups[1] = new SettingsGroup("Request Parameter Settings");
+		groups[1].addSetting(PARAM_MAC);
+		groups[1].addSetting(PARAM_USERID);
+		groups[1].addSetting(PARAM_TIMESTAMP);
+		groups[1].addSetting(PARAM_FORWARD);
+		groups[1].addSetting(PARAM_COURSEID);
+		groups[1].addSetting(PARAM_TOKEN);
+		groups[1].addSetting(PARAM_PROFILE);
+
+		groups[2] = new SettingsGroup("Audit Settings");
+		groups[2].addSetting(AUDIT_ENABLED);
+		groups[2].addSetting(SLOW_REQUEST_THRESHOLD);
+		groups[2].addSetting(METRICS_TOKEN);
+
+		groups[3] = new SettingsGroup("Performance Settings");
+		groups[3].addSetting(COURSE_PREFETCH);
+		groups[3].addSetting(ASYNC_PROCESSING);
+		groups[3].addSetting(DIRECT_DISPATCH);
+		groups[3].addSetting(CONCURRENCY_LIMIT);
+		groups[3].addSetting(CONCURRENCY_LATENCY_TARGET);
+		groups[3].addSetting(COURSE_FORWARD_DEADLINE);
+		groups[3].addSetting(COURSE_FORWARD_FALLBACK);
+		groups[3].addSetting(USER_INDEX);
+
+		return groups;
+	}
+
+	/**
+	 * The settings an integration profile can have values of its own for, the ones
+	 * that differ between trusted systems.
+	 *
+	 * @return
+	 */
+	public static SettingsGroup[] getProfileSettingsGroups() {
+		final SettingsGroup[] groups = new SettingsGroup[2];
+
+		groups[0] = new SettingsGroup("Security Settings");
+		groups[0].addSetting(SSO_FORMAT);
 		groups[0].addSetting(MAC_ALGORITHM);
 		groups[0].addSetting(MAC_PARAMETERS);
 		groups[0].addSetting(SHARED_SECRET);
 		groups[0].addSetting(TIMESTAMP_RANGE);
+		groups[0].addSetting(FORWARD_ALLOWLIST);
 
 		groups[1] = new SettingsGroup("Request Parameter Settings");
 		groups[1].addSetting(PARAM_MAC);
@@ -167,6 +363,7 @@ public enum Setting {
 		groups[1].addSetting(PARAM_TIMESTAMP);
 		groups[1].addSetting(PARAM_FORWARD);
 		groups[1].addSetting(PARAM_COURSEID);
+		groups[1].addSetting(PARAM_TOKEN);
 
 		return groups;
 	}
@@ -61,7 +61,7 @@ public enum SettingType {
      * @return
      */
     private String renderTextInput(final Setting setting, final String value) {
-        final StringBuffer buffer = new StringBuffer();
+        final StringBuilder buffer = new StringBuilder(128);
         appendError(setting, value, buffer);
 
         buffer.append("<input type=\"text\" ");
@@ -80,7 +80,7 @@ public enum SettingType {
      * @return
      */
     private String renderTextareaInput(final Setting setting, final String value) {
-        final StringBuffer buffer = new StringBuffer();
+        final StringBuilder buffer = new StringBuilder(128);
         appendError(setting, value, buffer);
 
         buffer.append("<textarea ");
@@ -100,7 +100,7 @@ public enum SettingType {
      * @return
      */
     private String renderSelectInput(final Setting setting, final String value) {
-        final StringBuffer buffer = new StringBuffer();
+        final StringBuilder buffer = new StringBuilder(256);
         appendError(setting, value, buffer);
 
         buffer.append("<select ");
@@ -128,7 +128,7 @@ public enum SettingType {
      * @return
      */
     private String renderRadioInput(final Setting setting, final String value) {
-        final StringBuffer buffer = new StringBuffer();
+        final StringBuilder buffer = new StringBuilder(256);
         appendError(setting, value, buffer);
 
         if (null != setting.getOptions()) {
@@ -148,13 +148,13 @@ public enum SettingType {
     }
 
     /**
-     * Appends error html if applicable to the StringBuffer.
+     * Appends error html if applicable to the buffer.
      *
      * @param setting
      * @param value
      * @param buffer
      */
-    private void appendError(final Setting setting, final String value, final StringBuffer buffer) {
+    private void appendError(final Setting setting, final String value, final StringBuilder buffer) {
         if (!setting.validate(value)) {
             buffer.append("<font color=\"red\"><b>* ");
             buffer.append(setting.getValidationError(value));
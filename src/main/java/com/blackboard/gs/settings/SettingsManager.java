@@ -34,33 +34,78 @@ package com.blackboard.gs.settings;
 import blackboard.platform.plugin.*;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.log4j.LogManager;
-import org.apache.log4j.Logger;
 
 public class SettingsManager {
 
-    private static final Logger LOG = LogManager.getLogger(SettingsManager.class);
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(SettingsManager.class);
     // building block vendor id and handle for identifying plugin
     public static final String _B2_VENDOR = "bbgs";
     public static final String _B2_HANDLE = "autosignon";
+    // system property overriding the plugin config directory (for running outside of Blackboard)
+    public static final String CONFIG_DIR_PROPERTY = "bbgs.autosignon.configDir";
     // config file properties
     private static final String _B2_CONFIGDIR = "/config";
     private static final String _PROP_FILENAME = "config.properties";
     private static final String _PROP_HEADER = "AutoSignon Settings";
+    // version stamp, written into the properties file and (as a change signal) its own file
+    private static final String _VERSION_FILENAME = "config.version";
+    private static final String _VERSION_KEY = "bbgs.settings.version";
+    // locked (on every node) while a node merges its changes into the properties file
+    private static final String _LOCK_FILENAME = "config.lock";
+    // integration profiles: their names, and their own values under a prefix per profile
+    private static final String _PROFILES_KEY = "bbgs.settings.profiles";
+    private static final String _PROFILE_PREFIX = "bbgs.profile.";
+    private static final Pattern PROFILE_NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+    // how often the version file is polled (ms), and how many polls between full syncs
+    private static final long _POLL_INTERVAL = 1000L;
+    private static final int _POLLS_PER_SYNC = 30;
+    // coarsest file modification time resolution we expect (ms); a file touched
+    // within this window of the last check is re-read regardless of its timestamp
+    private static final long MTIME_GRANULARITY = 2000L;
+    // source of snapshot revisions
+    private static final AtomicLong REVISIONS = new AtomicLong();
+    // file locks are held by the JVM, not by a thread, so writers in this JVM take turns here first
+    private static final Object WRITE_LOCK = new Object();
     // hashmap of Settings values (for persistence)
     private final Map<Setting, String> entries;
+    // hashmap of the integration profiles' own values, by profile name (guarded by entries)
+    private final Map<String, Map<Setting, String>> profileEntries;
+    // values changed on this node and not stored yet, applied over what other nodes
+    // stored meanwhile (guarded by entries)
+    private final Map<Setting, String> pendingEntries;
+    // profile values changed on this node and not stored yet, by profile name; a null
+    // value removes an override, a null profile removes the profile (guarded by entries)
+    private final Map<String, Map<Setting, String>> pendingProfiles;
+    // immutable copy of the entries and their version, as seen by readers
+    private volatile Snapshot snapshot;
     // set of change listeners
     private final List<SettingsChangeListener> listeners;
     // flag to indicate that settings are dirty (user modified)
     private boolean settingsAreDirty;
     // properties file (for persistence)
     private final Properties props;
-    // internal thread for updating settings
-    private final SettingsUpdateThread updateThread;
+    // config directory, resolved from the plugin on first use if not given
+    private File configDir;
+    // state of the properties file as of the last load/store (for change detection)
+    private long fileCheckedAt;
+    private long fileModified;
+    private long fileLength;
+    private long fileChecksum;
+    // when the sync task last completed a sync (ms), -1 until the first one
+    private volatile long lastSyncTime;
+    // scheduled task for updating settings
+    private final Scheduler.Task syncTask;
     private static SettingsManager instance = null;
 
     public static synchronized SettingsManager getInstance() {
@@ -71,12 +116,31 @@ public class SettingsManager {
     }
 
     private SettingsManager() {
+        this(null, _POLL_INTERVAL);
+    }
+
+    /**
+     * Creates a Settings Manager for the given config directory, rather than the
+     * plugin's. Intended for running outside of Blackboard (tests, benchmarks).
+     *
+     * @param configDir
+     *         directory holding the properties and version files, <code>null</code> for the plugin's
+     * @param pollInterval
+     *         how often (ms) the version file is checked for changes from other nodes
+     */
+    SettingsManager(final File configDir, final long pollInterval) {
+
+        this.configDir = configDir;
 
         // list of listeners
         listeners = new ArrayList<SettingsChangeListener>();
 
         // map of settings
         entries = new HashMap<Setting, String>();
+        profileEntries = new TreeMap<String, Map<Setting, String>>();
+        snapshot = new Snapshot(0L, entries, profileEntries);
+        pendingEntries = new EnumMap<Setting, String>(Setting.class);
+        pendingProfiles = new HashMap<String, Map<Setting, String>>();
 
         // no settings are dirty
         settingsAreDirty = false;
@@ -84,9 +148,15 @@ public class SettingsManager {
         // properties file
         props = new Properties();
 
-        // kick off the sync thread
-        updateThread = new SettingsUpdateThread();
-        updateThread.start();
+        // nothing has been read yet
+        fileCheckedAt = -1L;
+        fileModified = -1L;
+        fileLength = -1L;
+        fileChecksum = -1L;
+        lastSyncTime = -1L;
+
+        // kick off the sync task
+        syncTask = Scheduler.getInstance().schedule("settings_sync", new SettingsSyncTask(), 0L, pollInterval, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -97,17 +167,99 @@ public class SettingsManager {
      * @return
      */
     public String getSetting(final Setting setting) {
-        synchronized (entries) {
-            if (entries.containsKey(setting)) {
-                return entries.get(setting);
-            }
+        final String value = snapshot.values.get(setting);
+        if (null != value) {
+            return value;
         }
         return setting.getDefaultValue();
     }
 
+    /**
+     * Returns the value of a setting for an integration profile: the profile's own
+     * value if it has one, the value of the setting otherwise (see
+     * {@link #getSetting(Setting)}).
+     *
+     * @param profile
+     *         the profile name, <code>null</code> for just the setting
+     * @param setting
+     * @return
+     */
+    public String getSetting(final String profile, final Setting setting) {
+        final Snapshot current = snapshot;
+        final Map<Setting, String> overrides = null == profile ? null : current.profiles.get(profile);
+        String value = null == overrides ? null : overrides.get(setting);
+        if (null == value) {
+            value = current.values.get(setting);
+        }
+        return null != value ? value : setting.getDefaultValue();
+    }
+
+    /**
+     * Returns the names of the integration profiles, in alphabetical order.
+     *
+     * @return
+     */
+    public Set<String> getProfileNames() {
+        return snapshot.profiles.keySet();
+    }
+
+    /**
+     * Returns the values an integration profile has of its own.
+     *
+     * @param profile
+     * @return the values, or <code>null</code> if there is no such profile
+     */
+    public Map<Setting, String> getProfileSettings(final String profile) {
+        return snapshot.profiles.get(profile);
+    }
+
+    /**
+     * Returns whether a name can be used for an integration profile: 1 to 32 letters,
+     * digits, '_' or '-', so it can be part of a URL path and a property key.
+     *
+     * @param profile
+     * @return
+     */
+    public static boolean isValidProfileName(final String profile) {
+        return null != profile && PROFILE_NAME.matcher(profile).matches();
+    }
+
+    /**
+     * Returns a number that changes whenever the settings in effect on this node
+     * change, including the integration profiles. Unlike the version it is local to
+     * the node, and meant for caching what is derived from the settings.
+     *
+     * @return
+     */
+    public long getRevision() {
+        return snapshot.revision;
+    }
+
+    /**
+     * Returns the version of the settings currently in effect. Versions only ever
+     * increase, and all nodes sharing a config directory agree on the settings
+     * for a given version.
+     *
+     * @return
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * Returns when the settings were last synced with the properties file, or
+     * -1 if they haven't been yet (only the defaults are in effect). A sync that
+     * is long overdue means the properties file can't be read.
+     *
+     * @return time of the last completed sync (ms since epoch)
+     */
+    public long getLastSyncTime() {
+        return lastSyncTime;
+    }
+
     /**
      * Persists a new setting in-memory. This will be picked up on the next
-     * iteration of the Sync thread.
+     * run of the sync task.
      *
      * @param setting
      * @param value
@@ -115,7 +267,110 @@ public class SettingsManager {
     public void setSetting(final Setting setting, final String value) {
         synchronized (entries) {
             entries.put(setting, value);
+            pendingEntries.put(setting, value);
+            settingsAreDirty = true;
+            snapshot = new Snapshot(snapshot.version, entries, profileEntries);
+        }
+    }
+
+    /**
+     * Persists a set of new settings and writes them through to the properties
+     * file immediately, using a single write, under a new version. Other nodes
+     * will pick the new version up on their next poll of the version file.
+     *
+     * Only the values that differ from the ones in effect on this node are taken
+     * as changes, so a form filled in from a node that hasn't seen the latest
+     * version yet doesn't put back the values it was filled in with.
+     *
+     * @param settings
+     */
+    public void setSettings(final Map<Setting, String> settings) {
+        final ArrayList<Setting> changedSettings = new ArrayList<Setting>();
+        synchronized (entries) {
+            for (Map.Entry<Setting, String> pair : settings.entrySet()) {
+                if (null == pair.getValue()) {
+                    continue;
+                }
+                final String origValue = entries.put(pair.getKey(), pair.getValue());
+                if (!pair.getValue().equals(null != origValue ? origValue : pair.getKey().getDefaultValue())) {
+                    changedSettings.add(pair.getKey());
+                    pendingEntries.put(pair.getKey(), pair.getValue());
+                }
+            }
+            settingsAreDirty = true;
+            addAll(changedSettings, storeProperties());
+        }
+
+        if (!changedSettings.isEmpty()) {
+            signalSettingsChanged(changedSettings);
+        }
+    }
+
+    /**
+     * Creates or replaces an integration profile with the given values of its own,
+     * and writes it through to the properties file like {@link #setSettings(Map)}.
+     * Settings without a value take the value of the setting.
+     *
+     * @param profile
+     *         a valid profile name (see {@link #isValidProfileName(String)})
+     * @param settings
+     */
+    public void setProfileSettings(final String profile, final Map<Setting, String> settings) {
+        if (!isValidProfileName(profile)) {
+            throw new IllegalArgumentException("Invalid profile name: " + profile);
+        }
+        final Map<Setting, String> values = new EnumMap<Setting, String>(Setting.class);
+        for (Map.Entry<Setting, String> pair : settings.entrySet()) {
+            if (null != pair.getValue()) {
+                values.put(pair.getKey(), pair.getValue());
+            }
+        }
+        final List<Setting> changedSettings;
+        synchronized (entries) {
+            final Map<Setting, String> before = profileEntries.put(profile, values);
+            changedSettings = changedSettings(before, values);
+            Map<Setting, String> pending = pendingProfiles.get(profile);
+            if (null == pending) {
+                pending = new EnumMap<Setting, String>(Setting.class);
+                pendingProfiles.put(profile, pending);
+            }
+            if (null == before) {
+                // a new profile (or one removed meanwhile) is stored as it is
+                pending.clear();
+                pending.putAll(values);
+            }
+            for (Setting setting : changedSettings) {
+                pending.put(setting, values.get(setting));
+            }
             settingsAreDirty = true;
+            addAll(changedSettings, storeProperties());
+        }
+
+        if (!changedSettings.isEmpty()) {
+            signalSettingsChanged(changedSettings);
+        }
+    }
+
+    /**
+     * Removes an integration profile, and writes the change through to the
+     * properties file like {@link #setSettings(Map)}.
+     *
+     * @param profile
+     */
+    public void removeProfile(final String profile) {
+        final List<Setting> changedSettings;
+        synchronized (entries) {
+            if (!profileEntries.containsKey(profile)) {
+                return;
+            }
+            changedSettings = changedSettings(profileEntries.remove(profile), null);
+            pendingProfiles.put(profile, null);
+            settingsAreDirty = true;
+            addAll(changedSettings, storeProperties());
+        }
+
+        if (!changedSettings.isEmpty()) {
+            signalSettingsChanged(changedSettings);
         }
     }
 
@@ -142,14 +397,24 @@ public class SettingsManager {
     }
 
     /**
-     * Cleanup method to halt listening thread. Take care when using this call.
+     * Halts the sync task, drops the change listeners and forgets the instance.
+     */
+    public static synchronized void destroy() {
+        if (null != instance) {
+            instance.shutdown();
+            synchronized (instance.listeners) {
+                instance.listeners.clear();
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * Cleanup method to halt the sync task. Take care when using this call.
      */
     public void shutdown() {
-        updateThread.shutdown();
-        try {
-            updateThread.interrupt();
-        } catch (Exception e) {
-            LOG.warn("Failed to interrupt thread: ", e);
+        if (null != syncTask) {
+            syncTask.cancel();
         }
     }
 
@@ -167,15 +432,28 @@ public class SettingsManager {
     /**
      * Internal method to force a re-sync of properties from the properties
      * file. This method will store properties if the local ones are "dirty".
+     *
+     * Unless a full sync is requested, the properties file is only loaded when
+     * the version file announces a version newer than the one in effect.
      */
-    private void syncProperties() {
+    private void syncProperties(final boolean fullSync) {
 
+        final List<Setting> changedSettings = new ArrayList<Setting>();
         synchronized (entries) {
             // store based on dirty state
             if (settingsAreDirty) {
-                storeProperties();
+                addAll(changedSettings, storeProperties());
             }
-            loadProperties();
+            if (readVersionFile() > snapshot.version) {
+                addAll(changedSettings, loadProperties(true));
+            } else if (fullSync) {
+                addAll(changedSettings, loadProperties(false));
+            }
+        }
+        lastSyncTime = System.currentTimeMillis();
+
+        if (!changedSettings.isEmpty()) {
+            signalSettingsChanged(changedSettings);
         }
     }
 
@@ -184,137 +462,490 @@ public class SettingsManager {
      * only called from synchronized blocks and only when settings are dirty, so
      * we know we have something to persist.
      *
+     * Nodes store one at a time, holding a lock on the lock file in the config
+     * directory. A node that hasn't loaded the latest version first loads it and
+     * applies its own pending changes over it, so it never stores over a newer
+     * version with values it hasn't seen. If the file system can't lock files,
+     * the properties are stored unlocked, and two nodes storing at the very same
+     * time may lose one of the changes.
+     *
      * This needs to be called in a block synchronized on entries!
+     *
+     * @return the settings another node changed meanwhile
      */
-    private void storeProperties() {
+    private List<Setting> storeProperties() {
+        synchronized (WRITE_LOCK) {
+            RandomAccessFile lockFile = null;
+            try {
+                lockFile = new RandomAccessFile(new File(getConfigDirectory(), _LOCK_FILENAME), "rw");
+                lockFile.getChannel().lock();
+            } catch (IOException ioe) {
+                LOG.warn("Failed to lock the settings, storing them unlocked", ioe);
+            }
+            try {
+                // another node stored since we last loaded, take its values first
+                final List<Setting> changedSettings = loadProperties(readVersionFile() > snapshot.version);
+                applyPending();
+                writeProperties();
+                return changedSettings;
+            } finally {
+                // releases the lock
+                if (null != lockFile) {
+                    try {
+                        lockFile.close();
+                    } catch (IOException ioe) {
+                        // ignore exception
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Internal method to apply the changes made on this node over the values loaded.
+     *
+     * This needs to be called in a block synchronized on entries!
+     */
+    private void applyPending() {
+        entries.putAll(pendingEntries);
+        for (Map.Entry<String, Map<Setting, String>> pending : pendingProfiles.entrySet()) {
+            if (null == pending.getValue()) {
+                profileEntries.remove(pending.getKey());
+                continue;
+            }
+            final Map<Setting, String> values = new EnumMap<Setting, String>(Setting.class);
+            final Map<Setting, String> loaded = profileEntries.get(pending.getKey());
+            if (null != loaded) {
+                values.putAll(loaded);
+            }
+            for (Map.Entry<Setting, String> pair : pending.getValue().entrySet()) {
+                if (null == pair.getValue()) {
+                    values.remove(pair.getKey());
+                } else {
+                    values.put(pair.getKey(), pair.getValue());
+                }
+            }
+            profileEntries.put(pending.getKey(), values);
+        }
+    }
+
+    /**
+     * Internal method to write the in-memory properties to the properties file.
+     *
+     * The file is written to a temporary file in the same directory and then
+     * renamed over the original, so a concurrent reader (on this or any other
+     * node) will either see the old file or the new one, never a partial one.
+     * The properties are stamped with a new version, which is then written to
+     * the version file to signal the change to the other nodes.
+     *
+     * This needs to be called in a block synchronized on entries, and with the
+     * settings locked!
+     */
+    private void writeProperties() {
         // update the properties file
         for (Map.Entry<Setting, String> pair : entries.entrySet()) {
             props.setProperty(pair.getKey().getKey(), pair.getValue());
         }
+        // profiles are written in full, so the ones (and values) removed go away
+        removeProfileProperties(props);
+        if (!profileEntries.isEmpty()) {
+            final StringBuilder names = new StringBuilder();
+            for (Map.Entry<String, Map<Setting, String>> profile : profileEntries.entrySet()) {
+                if (names.length() > 0) {
+                    names.append(',');
+                }
+                names.append(profile.getKey());
+                for (Map.Entry<Setting, String> pair : profile.getValue().entrySet()) {
+                    props.setProperty(profileKey(profile.getKey(), pair.getKey()), pair.getValue());
+                }
+            }
+            props.setProperty(_PROFILES_KEY, names.toString());
+        }
 
-        // save the properties file
+        // never go back on a version another node may already have written
+        long version = snapshot.version;
+        final long newVersion = Math.max(version, readVersionFile()) + 1;
+        props.setProperty(_VERSION_KEY, Long.toString(newVersion));
+
+        final File file = getPropertiesFile();
+        File tempFile = null;
         FileOutputStream fos = null;
         try {
-            fos = FileUtils.openOutputStream(getPropertiesFile());
-            props.store(fos, _PROP_HEADER);
+            // serialize once, so the same bytes are written and fingerprinted
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            props.store(bytes, _PROP_HEADER);
+            final byte[] content = bytes.toByteArray();
+
+            tempFile = File.createTempFile(_PROP_FILENAME + ".", ".tmp", file.getParentFile());
+            fos = new FileOutputStream(tempFile);
+            fos.write(content);
+            fos.flush();
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+
+            replaceFile(tempFile, file);
+            tempFile = null;
+            version = newVersion;
+
+            // remember what we wrote so the next load does not re-parse it
+            fileCheckedAt = System.currentTimeMillis();
+            fileModified = file.lastModified();
+            fileLength = content.length;
+            fileChecksum = checksum(content);
+
+            // mark settings as clean
+            settingsAreDirty = false;
+            pendingEntries.clear();
+            pendingProfiles.clear();
         } catch (IOException ioe) {
             LOG.error("Failed to save properties file", ioe);
         } finally {
             IOUtils.closeQuietly(fos);
+            if (null != tempFile && !tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
         }
 
-        // mark settings as clean
-        settingsAreDirty = false;
+        // publish, then let the other nodes know (only once the properties are in place)
+        snapshot = new Snapshot(version, entries, profileEntries);
+        if (version == newVersion) {
+            writeVersionFile(newVersion);
+        }
     }
 
     /**
-     * Loads all properties from the properties file.
+     * Loads all properties from the properties file. The file is only parsed
+     * when its modification time or size has changed since the last load/store
+     * (or it was modified too recently to trust the timestamp) and its content
+     * checksum differs from the one last seen.
+     *
+     * If the file does not exist yet, the in-memory values (or the defaults)
+     * remain in effect and nothing is written until a setting is stored.
+     *
+     * All values are applied together, as a single new snapshot.
      *
      * This needs to be called in a block synchronized on entries!
+     *
+     * @param force
+     *         read the content even if the file timestamp and size are unchanged
+     * @return the settings whose values changed
      */
-    private void loadProperties() {
+    private List<Setting> loadProperties(final boolean force) {
 
-        // load the properties file
+        final ArrayList<Setting> changedSettings = new ArrayList<Setting>();
+
+        // cheap check first, no need to touch the content if nothing changed
         final File file = getPropertiesFile();
-        FileInputStream fis = null;
+        if (!file.exists()) {
+            return changedSettings;
+        }
+        final long modified = file.lastModified();
+        final long length = file.length();
+        if (!force && modified == fileModified && length == fileLength && modified < fileCheckedAt - MTIME_GRANULARITY) {
+            return changedSettings;
+        }
+        fileCheckedAt = System.currentTimeMillis();
+
+        // load the properties file
+        final byte[] content;
         try {
-            if (!file.exists()) {
-                file.createNewFile();
-            }
-            fis = FileUtils.openInputStream(file);
-            props.load(fis);
+            content = FileUtils.readFileToByteArray(file);
         } catch (IOException ioe) {
             LOG.error("Failed to load properties file", ioe);
-        } finally {
-            IOUtils.closeQuietly(fis);
+            return changedSettings;
         }
 
-        final ArrayList<Setting> changedSettings = new ArrayList<Setting>();
+        // touched, but the content is the same as what we already have
+        final long checksum = checksum(content);
+        fileModified = modified;
+        fileLength = length;
+        if (checksum == fileChecksum) {
+            return changedSettings;
+        }
+
+        final Properties loaded = new Properties();
+        try {
+            loaded.load(new ByteArrayInputStream(content));
+        } catch (IOException ioe) {
+            LOG.error("Failed to load properties file", ioe);
+            return changedSettings;
+        }
+        fileChecksum = checksum;
+        // the file has all profiles there are, drop any another node removed
+        removeProfileProperties(props);
+        props.putAll(loaded);
 
         for (Setting setting : Setting.values()) {
-            final String value = props.getProperty(setting.getKey());
+            final String value = loaded.getProperty(setting.getKey());
             if (value == null) {
-                try {
-                    props.setProperty(setting.getKey(), entries.containsKey(setting) ? entries.get(setting) : setting.getDefaultValue());
-                    settingsAreDirty = true;
-                } catch (Exception e) {
-                    LOG.error("Failed to load property " + setting.getKey() + " into cache", e);
-                    continue;
-                }
-            } else {
-                entries.put(setting, value);
+                // not persisted yet, keep the current value (or default)
+                continue;
             }
 
             // detect any changes here for signaling
-            final String origValue = entries.get(setting);
-            if (null != origValue && !value.equals(origValue)) {
+            final String origValue = entries.put(setting, value);
+            if (!value.equals(null != origValue ? origValue : setting.getDefaultValue())) {
                 changedSettings.add(setting);
             }
+        }
 
+        final Map<String, Map<Setting, String>> loadedProfiles = loadProfiles(loaded);
+        final Set<String> profiles = new HashSet<String>(profileEntries.keySet());
+        profiles.addAll(loadedProfiles.keySet());
+        for (String profile : profiles) {
+            for (Setting setting : changedSettings(profileEntries.get(profile), loadedProfiles.get(profile))) {
+                if (!changedSettings.contains(setting)) {
+                    changedSettings.add(setting);
+                }
+            }
         }
+        profileEntries.clear();
+        profileEntries.putAll(loadedProfiles);
 
-        if (!changedSettings.isEmpty()) {
-            signalSettingsChanged(changedSettings);
+        snapshot = new Snapshot(Math.max(snapshot.version, parseVersion(loaded.getProperty(_VERSION_KEY))), entries, profileEntries);
+        return changedSettings;
+    }
+
+    /**
+     * Internal method to add the settings not in a list yet.
+     */
+    private static void addAll(final List<Setting> settings, final List<Setting> more) {
+        for (Setting setting : more) {
+            if (!settings.contains(setting)) {
+                settings.add(setting);
+            }
         }
     }
 
     /**
-     * Internal listening thread that periodically syncs properties with
-     * persisted properties.
+     * Internal method to read the integration profiles from the properties. Invalid
+     * profile names are ignored.
+     */
+    private static Map<String, Map<Setting, String>> loadProfiles(final Properties properties) {
+        final Map<String, Map<Setting, String>> profiles = new TreeMap<String, Map<Setting, String>>();
+        final String names = properties.getProperty(_PROFILES_KEY);
+        if (null == names) {
+            return profiles;
+        }
+        for (String name : names.split(",")) {
+            final String profile = name.trim();
+            if (!isValidProfileName(profile)) {
+                continue;
+            }
+            final Map<Setting, String> values = new EnumMap<Setting, String>(Setting.class);
+            for (Setting setting : Setting.values()) {
+                final String value = properties.getProperty(profileKey(profile, setting));
+                if (null != value) {
+                    values.put(setting, value);
+                }
+            }
+            profiles.put(profile, values);
+        }
+        return profiles;
+    }
+
+    /**
+     * Internal method to remove the integration profiles from the properties.
+     */
+    private static void removeProfileProperties(final Properties properties) {
+        properties.remove(_PROFILES_KEY);
+        final Iterator<Object> keys = properties.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().toString().startsWith(_PROFILE_PREFIX)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Internal method to build the property key of a profile's value, e.g.
+     * <code>bbgs.profile.portal.bbgs.autosignon.sharedSecret</code>.
+     */
+    private static String profileKey(final String profile, final Setting setting) {
+        return _PROFILE_PREFIX + profile + "." + setting.getKey();
+    }
+
+    /**
+     * Internal method to list the settings whose values differ between two versions
+     * of a profile's own values, either of which may be <code>null</code> (no profile).
+     */
+    private static List<Setting> changedSettings(final Map<Setting, String> before, final Map<Setting, String> after) {
+        final List<Setting> changedSettings = new ArrayList<Setting>();
+        for (Setting setting : Setting.values()) {
+            final String beforeValue = null == before ? null : before.get(setting);
+            final String afterValue = null == after ? null : after.get(setting);
+            if (null == beforeValue ? null != afterValue : !beforeValue.equals(afterValue)) {
+                changedSettings.add(setting);
+            }
+        }
+        return changedSettings;
+    }
+
+    /**
+     * Internal method to read the version announced by the version file.
      *
-     * @author nbrackett
+     * @return the announced version, or 0 if there is none (yet)
      */
-    private class SettingsUpdateThread extends Thread {
+    private long readVersionFile() {
+        final File file = new File(getConfigDirectory(), _VERSION_FILENAME);
+        if (!file.exists()) {
+            return 0L;
+        }
+        try {
+            return parseVersion(FileUtils.readFileToString(file, "US-ASCII"));
+        } catch (IOException ioe) {
+            LOG.warn("Failed to read settings version file", ioe);
+            return 0L;
+        }
+    }
 
-        private boolean running;
+    /**
+     * Internal method to announce a new version through the version file. Uses
+     * the same write-and-rename approach as the properties file.
+     */
+    private void writeVersionFile(final long version) {
+        final File file = new File(getConfigDirectory(), _VERSION_FILENAME);
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(_VERSION_FILENAME + ".", ".tmp", file.getParentFile());
+            FileUtils.writeStringToFile(tempFile, Long.toString(version), "US-ASCII");
+            replaceFile(tempFile, file);
+            tempFile = null;
+        } catch (IOException ioe) {
+            LOG.error("Failed to save settings version file", ioe);
+        } finally {
+            if (null != tempFile && !tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
+        }
+    }
 
-        private SettingsUpdateThread() {
-            running = false;
+    /**
+     * Internal method to parse a version stamp, treating anything invalid as 0.
+     */
+    private static long parseVersion(final String value) {
+        if (null == value) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0L;
         }
+    }
 
-        public void run() {
-            running = true;
-            while (running) {
-                try {
-                    syncProperties();
-                } catch (Exception e) {
-                    LOG.error("Failed while syncing properties", e);
-                }
+    /**
+     * Internal method to atomically replace the target file with the source file.
+     * Falls back to a plain replacing move on file systems that do not support
+     * atomic moves.
+     */
+    private static void replaceFile(final File source, final File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
-                try {
-                    Thread.sleep(30 * 1000);		// 30 second refresh time
-                } catch (InterruptedException e) {
-                    running = false;
-                }
+    /**
+     * Internal method to fingerprint the content of the properties file.
+     */
+    private static long checksum(final byte[] content) {
+        final CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Immutable view of the settings for a single version.
+     */
+    private static final class Snapshot {
+
+        private final long version;
+        private final long revision;
+        private final Map<Setting, String> values;
+        private final Map<String, Map<Setting, String>> profiles;
+
+        private Snapshot(final long version, final Map<Setting, String> values, final Map<String, Map<Setting, String>> profiles) {
+            final EnumMap<Setting, String> copy = new EnumMap<Setting, String>(Setting.class);
+            copy.putAll(values);
+            final TreeMap<String, Map<Setting, String>> profilesCopy = new TreeMap<String, Map<Setting, String>>();
+            for (Map.Entry<String, Map<Setting, String>> profile : profiles.entrySet()) {
+                final EnumMap<Setting, String> profileCopy = new EnumMap<Setting, String>(Setting.class);
+                profileCopy.putAll(profile.getValue());
+                profilesCopy.put(profile.getKey(), Collections.unmodifiableMap(profileCopy));
             }
+            this.version = version;
+            this.revision = REVISIONS.incrementAndGet();
+            this.values = Collections.unmodifiableMap(copy);
+            this.profiles = Collections.unmodifiableMap(profilesCopy);
+        }
+    }
+
+    /**
+     * Internal task that periodically syncs properties with persisted
+     * properties. Every poll checks the version file for a newer version,
+     * every so many polls the properties file itself is checked too.
+     *
+     * @author nbrackett
+     */
+    private class SettingsSyncTask implements Runnable {
+
+        // only touched by the task, which never overlaps itself
+        private int polls;
+
+        private SettingsSyncTask() {
+            polls = 0;
         }
 
-        private void shutdown() {
-            running = false;
+        public void run() {
+            try {
+                syncProperties(0 == polls);
+            } catch (Exception e) {
+                LOG.error("Failed while syncing properties", e);
+            }
+            polls = (polls + 1) % _POLLS_PER_SYNC;
         }
     }
 
     /**
-     * Internal method to fetch the properties file.
+     * Returns the directory the settings are persisted in. For the plugin this
+     * is its config directory (unless the {@link #CONFIG_DIR_PROPERTY} system
+     * property names another), which is created if it doesn't already exist.
      *
+     * @return
      */
-    private File getPropertiesFile() {
+    public synchronized File getConfigDirectory() {
 
-        // get the plugin config directory
-        final PlugInManager pluginMgr = PlugInManagerFactory.getInstance();
-        final PlugIn plugin = pluginMgr.getPlugIn(_B2_VENDOR, _B2_HANDLE);
-        final File configDir = new File(pluginMgr.getPlugInDir(plugin) + _B2_CONFIGDIR);
+        if (null == configDir && null != System.getProperty(CONFIG_DIR_PROPERTY)) {
+            configDir = new File(System.getProperty(CONFIG_DIR_PROPERTY));
+        }
+        if (null == configDir) {
+            // get the plugin config directory
+            final PlugInManager pluginMgr = PlugInManagerFactory.getInstance();
+            final PlugIn plugin = pluginMgr.getPlugIn(_B2_VENDOR, _B2_HANDLE);
+            configDir = new File(pluginMgr.getPlugInDir(plugin) + _B2_CONFIGDIR);
+        }
 
         // create directory if it doesn't already exist
         if (!configDir.exists()) {
             try {
                 FileUtils.forceMkdir(configDir);
             } catch (IOException ioe) {
-                LOG.error("Failed to create config directory: " + ioe);
+                LOG.error("Failed to create config directory", ioe, null);
             }
         }
 
-        return new File(configDir, _PROP_FILENAME);
+        return configDir;
+
+    }
 
+    /**
+     * Internal method to fetch the properties file.
+     *
+     */
+    private File getPropertiesFile() {
+        return new File(getConfigDirectory(), _PROP_FILENAME);
     }
 }
@@ -0,0 +1,306 @@
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+
+package com.blackboard.gs.settings;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * The logger of the building block's classes: a log4j logger that keeps a storm of
+ * the same warning or error (a database outage, a rotated secret) from writing a
+ * stack trace for every request. Debug and info messages are passed through as they
+ * are.
+ *
+ * Warnings, errors and fatal errors are throttled by message, so the message is a
+ * constant and what varies (a user, a course) is passed as its subject. The first
+ * {@link #TRACES} occurrences of a message are logged in full, with their stack
+ * trace. Further occurrences are only counted, and {@link #summarize()} (run every
+ * {@link #SUMMARY_INTERVAL} ms by the {@link Scheduler}) logs one line per message
+ * with the count, the last subject and the last failure. Once a message hasn't
+ * occurred for a whole interval, its next occurrences are logged in full again.
+ *
+ * Logging an occurrence that is only counted takes no lock and allocates nothing.
+ *
+ */
+public final class ThrottledLogger {
+
+    // log4j looks for the caller of this class, so %C, %M and %L name the caller
+    private static final String FQCN = ThrottledLogger.class.getName();
+
+    /**
+     * How many occurrences of a message are logged in full before they are only
+     * counted.
+     */
+    public static final int TRACES = 3;
+
+    /**
+     * How often (ms) the occurrences counted are summarized, and how long a message
+     * must not occur to be logged in full again.
+     */
+    public static final long SUMMARY_INTERVAL = 60L * 1000;   // 1 minute
+
+    // messages throttled per logger, any beyond are logged as they are
+    private static final int MAX_MESSAGES = 100;
+
+    private static final ConcurrentMap<String, ThrottledLogger> LOGGERS = new ConcurrentHashMap<String, ThrottledLogger>();
+    private static final AtomicLong SUPPRESSED = new AtomicLong();
+
+    private final Logger logger;
+    private final ConcurrentMap<String, Occurrences> occurrences;
+
+    /**
+     * Returns the logger of a class.
+     *
+     * @param type
+     * @return
+     */
+    public static ThrottledLogger getLogger(final Class<?> type) {
+        final ThrottledLogger logger = LOGGERS.get(type.getName());
+        if (null != logger) {
+            return logger;
+        }
+        final ThrottledLogger created = new ThrottledLogger(LogManager.getLogger(type));
+        final ThrottledLogger existing = LOGGERS.putIfAbsent(type.getName(), created);
+        return null == existing ? created : existing;
+    }
+
+    private ThrottledLogger(final Logger logger) {
+        this.logger = logger;
+        occurrences = new ConcurrentHashMap<String, Occurrences>();
+    }
+
+    /**
+     * Logs a summary of the occurrences of each message counted, but not logged, since
+     * its last summary.
+     */
+    public static void summarize() {
+        final long now = System.currentTimeMillis();
+        for (ThrottledLogger logger : LOGGERS.values()) {
+            for (Occurrences message : logger.occurrences.values()) {
+                message.summarize(logger.logger, now);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of occurrences that were only counted, across all loggers.
+     *
+     * @return
+     */
+    public static long getSuppressedCount() {
+        return SUPPRESSED.get();
+    }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    public void debug(final Object message) {
+        logger.log(FQCN, Level.DEBUG, message, null);
+    }
+
+    public void debug(final Object message, final Throwable failure) {
+        logger.log(FQCN, Level.DEBUG, message, failure);
+    }
+
+    public void info(final Object message) {
+        logger.log(FQCN, Level.INFO, message, null);
+    }
+
+    public void info(final Object message, final Throwable failure) {
+        logger.log(FQCN, Level.INFO, message, failure);
+    }
+
+    public void warn(final String message) {
+        log(Level.WARN, message, null, null);
+    }
+
+    public void warn(final String message, final Throwable failure) {
+        log(Level.WARN, message, null, failure);
+    }
+
+    /**
+     * Logs a warning about a subject, as <code>message: subject</code>.
+     *
+     * @param message
+     *         constant, occurrences are counted by it
+     * @param subject
+     *         what the warning is about, e.g. a user id
+     * @param failure
+     *         may be <code>null</code>
+     */
+    public void warn(final String message, final Object subject, final Throwable failure) {
+        log(Level.WARN, message, subject, failure);
+    }
+
+    public void error(final String message) {
+        log(Level.ERROR, message, null, null);
+    }
+
+    public void error(final String message, final Throwable failure) {
+        log(Level.ERROR, message, null, failure);
+    }
+
+    /**
+     * Logs an error about a subject, as <code>message: subject</code>.
+     *
+     * @param message
+     *         constant, occurrences are counted by it
+     * @param subject
+     *         what the error is about, e.g. a user id
+     * @param failure
+     *         may be <code>null</code>
+     */
+    public void error(final String message, final Object subject, final Throwable failure) {
+        log(Level.ERROR, message, subject, failure);
+    }
+
+    public void fatal(final String message, final Throwable failure) {
+        log(Level.FATAL, message, null, failure);
+    }
+
+    /**
+     * Internal method to log an occurrence of a message in full, or count it.
+     */
+    private void log(final Level level, final String message, final Object subject, final Throwable failure) {
+        if (!logger.isEnabledFor(level)) {
+            return;
+        }
+        final Occurrences counted = occurrences(message);
+        if (null == counted) {
+            logger.log(FQCN, level, text(message, subject), failure);
+            return;
+        }
+
+        final int logged = counted.occur(System.currentTimeMillis());
+        if (logged > TRACES) {
+            counted.count(level, subject, failure);
+            SUPPRESSED.incrementAndGet();
+        } else if (logged == TRACES) {
+            logger.log(FQCN, level, text(message, subject) + " (logged " + TRACES + " times, further occurrences are counted"
+                    + " and summarized every " + SUMMARY_INTERVAL / 1000 + " s)", failure);
+        } else {
+            logger.log(FQCN, level, text(message, subject), failure);
+        }
+    }
+
+    private Occurrences occurrences(final String message) {
+        final Occurrences counted = occurrences.get(message);
+        if (null != counted || occurrences.size() >= MAX_MESSAGES) {
+            return counted;
+        }
+        final Occurrences created = new Occurrences(message);
+        final Occurrences existing = occurrences.putIfAbsent(message, created);
+        return null == existing ? created : existing;
+    }
+
+    private static String text(final String message, final Object subject) {
+        return null == subject ? message : message + ": " + subject;
+    }
+
+    /**
+     * The occurrences of one message. The counts may be off by a few when a message
+     * occurs on several threads as it is summarized, which is all right for a log.
+     */
+    private static final class Occurrences {
+
+        private final String message;
+        // occurrences logged in full since the message last was quiet for a whole interval
+        private final AtomicInteger logged;
+        // occurrences counted since the last summary
+        private final AtomicInteger counted;
+        private volatile long lastOccurred;
+        private volatile long firstCounted;
+        private volatile Level level;
+        private volatile Object lastSubject;
+        private volatile Throwable lastFailure;
+
+        private Occurrences(final String message) {
+            this.message = message;
+            logged = new AtomicInteger();
+            counted = new AtomicInteger();
+            lastOccurred = Long.MIN_VALUE;
+        }
+
+        /**
+         * Records an occurrence, returning how many have been logged in full including
+         * it, more than {@link ThrottledLogger#TRACES} if it isn't to be.
+         */
+        private int occur(final long now) {
+            if (now - lastOccurred >= SUMMARY_INTERVAL && lastOccurred != Long.MIN_VALUE) {
+                logged.set(0);
+            }
+            lastOccurred = now;
+            if (logged.get() > TRACES) {
+                return TRACES + 1;
+            }
+            return logged.incrementAndGet();
+        }
+
+        private void count(final Level level, final Object subject, final Throwable failure) {
+            this.level = level;
+            lastSubject = subject;
+            lastFailure = failure;
+            if (1 == counted.incrementAndGet()) {
+                firstCounted = lastOccurred;
+            }
+        }
+
+        private void summarize(final Logger logger, final long now) {
+            final long since = firstCounted;
+            final int count = counted.getAndSet(0);
+            if (0 == count) {
+                return;
+            }
+            final StringBuilder buffer = new StringBuilder(256);
+            buffer.append(message).append(": ").append(count).append(count == 1 ? " more time" : " more times")
+                    .append(" in the last ").append(Math.max(1L, (now - since + 500L) / 1000L)).append(" s");
+            final Object subject = lastSubject;
+            if (null != subject) {
+                buffer.append(", last: ").append(subject);
+            }
+            final Throwable failure = lastFailure;
+            if (null != failure) {
+                buffer.append(" (").append(failure).append(')');
+            }
+            logger.log(FQCN, level, buffer.toString(), null);
+        }
+    }
+
+}
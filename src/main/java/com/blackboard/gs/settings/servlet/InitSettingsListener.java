@@ -35,19 +35,24 @@ package com.blackboard.gs.settings.servlet;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import org.apache.log4j.LogManager;
-import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 
+import com.blackboard.gs.settings.Scheduler;
 import com.blackboard.gs.settings.SettingsManager;
+import com.blackboard.gs.settings.ThrottledLogger;
 
 public class InitSettingsListener implements ServletContextListener {
 
-    private static final Logger LOG = LogManager.getLogger(InitSettingsListener.class);
+    private static final ThrottledLogger LOG = ThrottledLogger.getLogger(InitSettingsListener.class);
+
+    // how often (ms) the log4j configuration is checked for changes
+    private static final long LOG4J_WATCH_INTERVAL = 2000L;
 
     public void contextInitialized(final ServletContextEvent event) {
 
@@ -80,8 +85,14 @@ public class InitSettingsListener implements ServletContextListener {
                     }
                 }
 
-                // configure log4j with a 2 second refresh
-                PropertyConfigurator.configureAndWatch(log4jConfig.getCanonicalPath(), 2000);
+                // configure log4j, and start the scheduler to refresh it every 2 seconds
+                final Log4jConfigWatch log4jWatch = new Log4jConfigWatch(log4jConfig.getCanonicalFile());
+                log4jWatch.run();
+                Scheduler.getInstance().schedule("log4j_watch", log4jWatch, LOG4J_WATCH_INTERVAL, LOG4J_WATCH_INTERVAL, TimeUnit.MILLISECONDS);
+
+                // summarize the warnings and errors that were only counted, every minute
+                Scheduler.getInstance().schedule("log_summary", new LogSummary(),
+                        ThrottledLogger.SUMMARY_INTERVAL, ThrottledLogger.SUMMARY_INTERVAL, TimeUnit.MILLISECONDS);
 
             } catch(Exception e) {
                 // log failed to initialize
@@ -105,7 +116,13 @@ public class InitSettingsListener implements ServletContextListener {
     public void contextDestroyed(final ServletContextEvent arg0) {
 
         // shutdown the Settings Manager
-        SettingsManager.getInstance().shutdown();
+        SettingsManager.destroy();
+
+        // stop all background tasks and wait for them, the building block's services have been shut down already
+        Scheduler.destroy();
+
+        // log what is left to summarize before logging stops
+        ThrottledLogger.summarize();
 
         try {
             LogManager.shutdown();
@@ -115,4 +132,37 @@ public class InitSettingsListener implements ServletContextListener {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * Internal task that reconfigures log4j when its configuration file changes,
+     * in place of log4j's own watchdog thread.
+     */
+    private static class Log4jConfigWatch implements Runnable {
+
+        private final File file;
+        private long lastModified;
+
+        private Log4jConfigWatch(final File file) {
+            this.file = file;
+            lastModified = -1L;
+        }
+
+        public void run() {
+            final long modified = file.lastModified();
+            if (modified != lastModified && file.exists()) {
+                lastModified = modified;
+                PropertyConfigurator.configure(file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Internal task that summarizes the warnings and errors that were only counted.
+     */
+    private static class LogSummary implements Runnable {
+
+        public void run() {
+            ThrottledLogger.summarize();
+        }
+    }
+
+}
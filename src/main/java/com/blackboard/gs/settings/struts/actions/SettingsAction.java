@@ -33,6 +33,7 @@
 package com.blackboard.gs.settings.struts.actions;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -43,6 +44,7 @@ import org.apache.struts.action.ActionMapping;
 import org.apache.struts.actions.MappingDispatchAction;
 
 import com.blackboard.gs.settings.Setting;
+import com.blackboard.gs.settings.SettingsGroup;
 import com.blackboard.gs.settings.SettingsManager;
 
 public class SettingsAction extends MappingDispatchAction {
@@ -56,7 +58,8 @@ public class SettingsAction extends MappingDispatchAction {
 
 	/**
 	 * Action to load the most recent configuration options and display them.
-	 * If the options do not exist, the defaults will be used.
+	 * If the options do not exist, the defaults will be used. With a <code>profile</code>
+	 * parameter, the options of that integration profile are displayed instead.
 	 *
 	 * @param mapping
 	 * @param form
@@ -67,24 +70,34 @@ public class SettingsAction extends MappingDispatchAction {
 	 */
 	public ActionForward loadSettings(final ActionMapping mapping, final ActionForm form, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
 
+		final String profile = getProfile(request);
+
 		// if we aren't passing through, load up all settings from the manager
 		if(null == request.getAttribute("currentValues")) {
 
 			final HashMap<Setting, String> currentValues = new HashMap<Setting, String>();
 			for(Setting setting : Setting.values()) {
-				currentValues.put(setting, settingsManager.getSetting(setting));
+				currentValues.put(setting, settingsManager.getSetting(profile, setting));
 			}
 			request.setAttribute("currentValues", currentValues);
 
 		}
 
+		request.setAttribute("profile", profile);
+		request.setAttribute("profileNames", settingsManager.getProfileNames());
+
 		return mapping.findForward("view");
 
 	}
 
 	/**
-	 * Action to store any configuration options and report on errors. This will forward to the configure
-	 * method to load the latest versions of all configuration options.
+	 * Action to store any configuration options and report on errors. All valid options are persisted
+	 * with a single write. This will forward to the configure method to load the latest versions of
+	 * all configuration options.
+	 *
+	 * With a <code>profile</code> parameter, the options of that integration profile are stored
+	 * (or the profile removed) instead. A <code>newProfile</code> parameter creates a profile
+	 * with a copy of the options.
 	 *
 	 * @param mapping
 	 * @param form
@@ -95,13 +108,23 @@ public class SettingsAction extends MappingDispatchAction {
 	 */
 	public ActionForward storeSettings(final ActionMapping mapping, final ActionForm form, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
 
+		final String profile = getProfile(request);
+		if(null != profile) {
+			if(null != request.getParameter("removeProfile")) {
+				settingsManager.removeProfile(profile);
+				return mapping.findForward("view");
+			}
+			return storeProfileSettings(mapping, request, profile);
+		}
+
 		final HashMap<Setting, String> currentValues = new HashMap<Setting, String>();
+		final HashMap<Setting, String> validValues = new HashMap<Setting, String>();
 
 		for(Setting setting : Setting.values()) {
 
 			final String settingValue = request.getParameter(setting.getKey());
 			if(setting.validate(settingValue)) {
-				settingsManager.setSetting(setting, settingValue);
+				validValues.put(setting, settingValue);
 			}
 
 			// keep the current value to report on errors correctly
@@ -109,6 +132,28 @@ public class SettingsAction extends MappingDispatchAction {
 
 		}
 
+		// write through, so the change is persisted (and visible to other nodes) right away
+		settingsManager.setSettings(validValues);
+
+		// a new profile starts out as a copy of these settings
+		final String newProfile = request.getParameter("newProfile");
+		if(null != newProfile && newProfile.trim().length() > 0) {
+			final String name = newProfile.trim();
+			if(!SettingsManager.isValidProfileName(name)) {
+				request.setAttribute("profileError", "Profile names are 1 to 32 letters, digits, '_' or '-': " + name);
+			} else if(null != settingsManager.getProfileSettings(name)) {
+				request.setAttribute("profileError", "A profile with this name already exists: " + name);
+			} else {
+				final HashMap<Setting, String> profileValues = new HashMap<Setting, String>();
+				for(SettingsGroup group : Setting.getProfileSettingsGroups()) {
+					for(Setting setting : group.getSettings()) {
+						profileValues.put(setting, settingsManager.getSetting(setting));
+					}
+				}
+				settingsManager.setProfileSettings(name, profileValues);
+			}
+		}
+
 		// store these in the request
 		request.setAttribute("currentValues", currentValues);
 
@@ -116,4 +161,52 @@ public class SettingsAction extends MappingDispatchAction {
 
 	}
 
+	/**
+	 * Internal method to store the options of an integration profile, like the options
+	 * themselves. Invalid values keep the profile's current value.
+	 *
+	 * @param mapping
+	 * @param request
+	 * @param profile
+	 * @return
+	 */
+	private ActionForward storeProfileSettings(final ActionMapping mapping, final HttpServletRequest request, final String profile) {
+
+		final HashMap<Setting, String> currentValues = new HashMap<Setting, String>();
+		final HashMap<Setting, String> validValues = new HashMap<Setting, String>(settingsManager.getProfileSettings(profile));
+
+		for(SettingsGroup group : Setting.getProfileSettingsGroups()) {
+			for(Setting setting : group.getSettings()) {
+
+				final String settingValue = request.getParameter(setting.getKey());
+				if(setting.validate(settingValue)) {
+					validValues.put(setting, settingValue);
+				}
+
+				// keep the current value to report on errors correctly
+				currentValues.put(setting, settingValue);
+
+			}
+		}
+
+		settingsManager.setProfileSettings(profile, validValues);
+
+		request.setAttribute("currentValues", currentValues);
+
+		return mapping.findForward("view");
+
+	}
+
+	/**
+	 * Internal method to get the integration profile a request is for.
+	 *
+	 * @param request
+	 * @return the profile name, or <code>null</code> for the options themselves (or a profile that doesn't exist)
+	 */
+	private String getProfile(final HttpServletRequest request) {
+		final String profile = request.getParameter("profile");
+		final Map<Setting, String> profileSettings = null == profile ? null : settingsManager.getProfileSettings(profile);
+		return null == profileSettings ? null : profile;
+	}
+
 }
@@ -35,16 +35,34 @@
 <%@page import= "com.blackboard.gs.settings.SettingsGroup"%>
 <%@page import= "com.blackboard.gs.settings.SettingType"%>
 <%@page import= "java.util.HashMap"%>
+<%@page import= "java.util.Set"%>
 
 <%@ taglib uri="/bbNG"    prefix="bbNG"%>
 
+<%!
+// a rejected profile name is shown as it was entered, so it must be escaped
+private static String escape(final String value) {
+    if(null == value) {
+        return "";
+    }
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+}
+%>
+
 <%
 //string extraction
 
-final String pageTitle  = "AutoSignon Settings";
-final String pageDescr  = "This Building Block allows for AutoSignon functionality similar to that provided by CE/Vista. MAC authentication is used for security.";
-
 final HashMap<Setting, String> currentValues = (HashMap<Setting, String>) request.getAttribute("currentValues");
+final String profile = (String) request.getAttribute("profile");
+final Set<String> profileNames = (Set<String>) request.getAttribute("profileNames");
+final String profileError = (String) request.getAttribute("profileError");
+
+final String pageTitle  = null == profile ? "AutoSignon Settings" : "AutoSignon Settings: " + profile;
+final String pageDescr  = null == profile
+        ? "This Building Block allows for AutoSignon functionality similar to that provided by CE/Vista. MAC authentication is used for security."
+        : "The settings of the " + profile + " integration profile. Its trusted system sends requests to " + profile + "/autoSignon.do (or adds the profile request parameter).";
+final SettingsGroup[] groups = null == profile ? Setting.getSettingsGroups() : Setting.getProfileSettingsGroups();
+final String cancelUrl  = null == profile ? "/webapps/blackboard/admin/manage_plugins.jsp" : "settings.do";
 %>
 
 <bbNG:genericPage title="<%=pageTitle%>" entitlement="system.admin.VIEW">
@@ -57,8 +75,11 @@ final HashMap<Setting, String> currentValues = (HashMap<Setting, String>) reques
   </bbNG:pageHeader>
 
   <bbNG:form method="POST" action="storeSettings.do">
+    <% if(null != profile) { %>
+      <input type="hidden" name="profile" value="<%=profile%>"/>
+    <% } %>
     <bbNG:dataCollection>
-      <% for(SettingsGroup group : Setting.getSettingsGroups()) { %>
+      <% for(SettingsGroup group : groups) { %>
 
         <bbNG:step title="<%=group.getTitle()%>">
 
@@ -73,7 +94,30 @@ final HashMap<Setting, String> currentValues = (HashMap<Setting, String>) reques
 
       <% } %>
 
-      <bbNG:stepSubmit title="Save Settings" cancelUrl="/webapps/blackboard/admin/manage_plugins.jsp"/>
+      <bbNG:step title="Integration Profiles">
+        <% if(null == profile) { %>
+          <bbNG:dataElement label="Profiles">
+            <% for(String name : profileNames) { %>
+              <a href="settings.do?profile=<%=name%>"><%=name%></a><br/>
+            <% } %>
+            <bbNG:elementInstructions text="Trusted systems with their own shared secret, MAC parameters or request parameters each have a profile. Select a profile to change its settings."/>
+          </bbNG:dataElement>
+          <bbNG:dataElement label="New Profile">
+            <% if(null != profileError) { %>
+              <font color="red"><b>* <%=escape(profileError)%></b></font><br/>
+            <% } %>
+            <input type="text" name="newProfile" id="newProfile" value=""/>
+            <bbNG:elementInstructions text="Name of a new profile (letters, digits, '_' or '-'). It starts out with a copy of the settings above."/>
+          </bbNG:dataElement>
+        <% } else { %>
+          <bbNG:dataElement label="Remove Profile">
+            <input type="checkbox" name="removeProfile" id="removeProfile" value="true"/>
+            <bbNG:elementInstructions text="Remove this profile when saving. Its trusted system's requests are denied from then on."/>
+          </bbNG:dataElement>
+        <% } %>
+      </bbNG:step>
+
+      <bbNG:stepSubmit title="Save Settings" cancelUrl="<%=cancelUrl%>"/>
     </bbNG:dataCollection>
   </bbNG:form>
 
@@ -0,0 +1,96 @@
+<%--
+/* ****************************************************************************
+ * Copyright (c) 2010, Blackboard Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   -- Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *
+ *   -- Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *
+ *   -- Neither the name of Blackboard nor the names of its contributors may be
+ *        used to endorse or promote products derived from this software
+ *        without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * ***************************************************************************/
+--%>
+<%@page import= "com.blackboard.gs.autosignon.metrics.SlowRequestLog"%>
+<%@page import= "java.text.SimpleDateFormat"%>
+<%@page import= "java.util.List"%>
+
+<%@ taglib uri="/bbNG"    prefix="bbNG"%>
+
+<%!
+// request values end up here, never render them unescaped
+private static String escape(final String value) {
+    if(null == value) {
+        return "";
+    }
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+}
+%>
+
+<%
+//string extraction
+
+final String pageTitle  = "AutoSignon Slow Requests";
+final String pageDescr  = "The most recent AutoSignon and course forward requests that took longer than " + request.getAttribute("slowRequestThreshold") + " ms, most recent first. The threshold can be changed on the settings page.";
+
+final List<SlowRequestLog.Entry> slowRequests = (List<SlowRequestLog.Entry>) request.getAttribute("slowRequests");
+final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+%>
+
+<bbNG:genericPage title="<%=pageTitle%>" entitlement="system.admin.VIEW">
+
+  <bbNG:pageHeader instructions="<%=pageDescr%>">
+    <bbNG:breadcrumbBar environment="sys_admin" navItem="admin_plugin_manage">
+        <bbNG:breadcrumb><%=pageTitle%></bbNG:breadcrumb>
+    </bbNG:breadcrumbBar>
+    <bbNG:pageTitleBar><%=pageTitle%></bbNG:pageTitleBar>
+  </bbNG:pageHeader>
+
+  <% if(slowRequests.isEmpty()) { %>
+    <p>No slow requests.</p>
+  <% } else { %>
+    <table class="attachments" width="100%">
+      <tr>
+        <th>Time</th>
+        <th>Correlation Id</th>
+        <th>Total (ms)</th>
+        <th>User Id</th>
+        <th>Course Id</th>
+        <th>Stages</th>
+      </tr>
+      <% for(SlowRequestLog.Entry entry : slowRequests) { %>
+        <tr>
+          <td><%=timeFormat.format(entry.getStartTime())%></td>
+          <td><%=escape(entry.getCorrelationId())%></td>
+          <td><%=entry.getTotalMillis()%></td>
+          <td><%=escape(entry.getUserId())%></td>
+          <td><%=escape(entry.getCourseId())%></td>
+          <td><%=escape(entry.getBreakdown())%></td>
+        </tr>
+      <% } %>
+    </table>
+  <% } %>
+
+  <bbNG:okButton url="/webapps/blackboard/admin/manage_plugins.jsp"/>
+
+</bbNG:genericPage>
\ No newline at end of file